@@ -0,0 +1,72 @@
+package com.example.mobile.samplecamera2;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+//
+// Macrobenchmark results as one JSON object, merged across tests of a run
+// File: <external files dir>/benchmark-results.json, pull it with
+//   adb pull /sdcard/Android/data/com.example.mobile.samplecamera2/files/benchmark-results.json
+//
+
+public class SampleBenchmarkResults {
+    private static final String TAG = "SampleBenchmarkResults";
+    private static final String FILE_NAME = "benchmark-results.json";
+
+    public static synchronized void record(Context context, String name, double value) {
+        File file = new File(context.getExternalFilesDir(null), FILE_NAME);
+        try {
+            JSONObject results = read(file);
+            results.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+            results.put("sdk", Build.VERSION.SDK_INT);
+            results.put("time", System.currentTimeMillis());
+            JSONObject metrics = results.optJSONObject("metrics");
+            if (metrics == null) {
+                metrics = new JSONObject();
+                results.put("metrics", metrics);
+            }
+            metrics.put(name, value);
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(results.toString(2).getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            Log.v(TAG, name + " = " + value);
+        } catch (IOException e) {
+            Log.e(TAG, "Write " + file + " failed", e);
+        } catch (JSONException e) {
+            Log.e(TAG, "Write " + file + " failed", e);
+        }
+    }
+
+    private static JSONObject read(File file) throws IOException, JSONException {
+        if (!file.exists()) {
+            return new JSONObject();
+        }
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+        } finally {
+            in.close();
+        }
+        return new JSONObject(new String(data, "UTF-8"));
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.mobile.samplecamera2;
+
+import android.content.Context;
+import android.os.BatteryManager;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+
+//
+// Battery current and GPU time per frame of composited vs passthrough recording path
+// Run unplugged (e.g. adb over wifi), current of a charging device is meaningless.
+//
+
+public class SampleCapturePathBenchmarkTest extends ActivityInstrumentationTestCase2<MainActivity> {
+    private static final long TIMEOUT_MS = 10000;
+    private static final long WARMUP_MS = 2000;
+    private static final long MEASURE_MS = 10000;
+    private static final long SAMPLE_INTERVAL_MS = 250;
+
+    public SampleCapturePathBenchmarkTest() {
+        super(MainActivity.class);
+    }
+
+    public void testCompositedVsPassthrough() throws Exception {
+        MainActivity activity = getActivity();
+        final SampleCapturePathSwitcher switcher = activity.getCapturePathSwitcher();
+        SampleGLRenderer renderer = activity.getRenderer();
+        renderer.setGpuTiming(true);
+        assertTrue(activity.getStartupGraph().await(MainActivity.STARTUP_SESSION, TIMEOUT_MS));
+
+        setPassthroughAllowed(switcher, false);
+        awaitPath(switcher, SampleCapturePathSwitcher.PATH_COMPOSITED);
+        measure(activity, renderer, "composited");
+
+        setPassthroughAllowed(switcher, true);
+        awaitPath(switcher, SampleCapturePathSwitcher.PATH_PASSTHROUGH);
+        measure(activity, renderer, "passthrough");
+        renderer.setGpuTiming(false);
+    }
+
+    // Switcher is confined to the camera control thread
+    private void setPassthroughAllowed(final SampleCapturePathSwitcher switcher, final boolean allowed) {
+        getActivity().runOnCameraThread(new Runnable() {
+            @Override
+            public void run() {
+                switcher.setPassthroughAllowed(allowed);
+            }
+        });
+    }
+
+    private void awaitPath(SampleCapturePathSwitcher switcher, int path) throws InterruptedException {
+        long start = SystemClock.elapsedRealtime();
+        while (switcher.isSwitching() || switcher.getPath() != path) {
+            assertTrue("No switch to path " + path, SystemClock.elapsedRealtime() - start < TIMEOUT_MS);
+            Thread.sleep(10);
+        }
+    }
+
+    private void measure(MainActivity activity, SampleGLRenderer renderer, String name)
+            throws InterruptedException {
+        BatteryManager batteryManager = (BatteryManager) activity.getSystemService(Context.BATTERY_SERVICE);
+        Thread.sleep(WARMUP_MS);
+        SampleFrameTimer drawFrameTimer = renderer.getDrawFrameTimer();
+        drawFrameTimer.reset();
+
+        // Current in microamperes, sign depends on device, average of magnitudes
+        long currentSum = 0;
+        int samples = 0;
+        long start = SystemClock.elapsedRealtime();
+        while (SystemClock.elapsedRealtime() - start < MEASURE_MS) {
+            currentSum += Math.abs(batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CURRENT_NOW));
+            samples++;
+            Thread.sleep(SAMPLE_INTERVAL_MS);
+        }
+        SampleBenchmarkResults.record(activity, name + "CurrentMa", currentSum / samples / 1000);
+        SampleBenchmarkResults.record(activity, name + "DrawUsPerFrame", drawFrameTimer.getAverageNs() / 1000);
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.mobile.samplecamera2;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.view.Surface;
+
+//
+// Sustained encode rate of SampleMediaEncoder (callback drain) over a 300 frame run
+// Frames are rendered into the encoder input surface as fast as it accepts them.
+// dropped: frames submitted but not written to the muxer
+//
+
+public class SampleEncoderBenchmarkTest extends InstrumentationTestCase {
+    private static final int FRAMES = 300;
+    private static final long FRAME_NS = 1000000000L / 30;
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private EGLDisplay eglDisplay;
+    private EGLContext eglContext;
+    private EGLSurface eglSurface;
+
+    public void testSustainedEncode() throws Exception {
+        SampleMediaEncoder encoder = new SampleMediaEncoder();
+        encoder.setDrainMode(SampleMediaEncoder.DRAIN_MODE_CALLBACK);
+        Surface inputSurface = encoder.init();
+        assertNotNull(inputSurface);
+        setUpEgl(inputSurface);
+
+        encoder.start(FRAMES);
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < FRAMES; i++) {
+            GLES20.glClearColor((i % 30) / 30f, 0.5f, 1f - (i % 30) / 30f, 1f);
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+            EGLExt.eglPresentationTimeANDROID(eglDisplay, eglSurface, i * FRAME_NS);
+            EGL14.eglSwapBuffers(eglDisplay, eglSurface);
+        }
+        // Frame limit stops the encoder, stop() covers frames lost on the way
+        encoder.stop();
+        assertTrue("Encoder did not finish", encoder.awaitTermination(10000));
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        tearDownEgl();
+
+        long written = encoder.getFramesWritten();
+        SampleBenchmarkResults.record(getInstrumentation().getTargetContext(),
+                "sustainedEncodeFps", written * 1000.0 / elapsed);
+        SampleBenchmarkResults.record(getInstrumentation().getTargetContext(),
+                "encodeFramesDropped", FRAMES - written);
+    }
+
+    private void setUpEgl(Surface surface) {
+        eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        assertTrue(EGL14.eglInitialize(eglDisplay, version, 0, version, 1));
+        int[] configAttributes = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        assertTrue(EGL14.eglChooseConfig(eglDisplay, configAttributes, 0, configs, 0, 1, numConfigs, 0));
+        int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+        eglContext = EGL14.eglCreateContext(eglDisplay, configs[0], EGL14.EGL_NO_CONTEXT, contextAttributes, 0);
+        int[] surfaceAttributes = {EGL14.EGL_NONE};
+        eglSurface = EGL14.eglCreateWindowSurface(eglDisplay, configs[0], surface, surfaceAttributes, 0);
+        assertTrue(EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext));
+    }
+
+    private void tearDownEgl() {
+        EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+        EGL14.eglDestroySurface(eglDisplay, eglSurface);
+        EGL14.eglDestroyContext(eglDisplay, eglContext);
+        EGL14.eglTerminate(eglDisplay);
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.mobile.samplecamera2;
+
+import android.content.Intent;
+import android.test.ActivityInstrumentationTestCase2;
+
+//
+// Main thread frame overruns while previewing and recording, camera callbacks on the main looper
+// (before) vs on camera threads (after)
+//
+
+public class SampleJankBenchmarkTest extends ActivityInstrumentationTestCase2<MainActivity> {
+    private static final long TIMEOUT_MS = 10000;
+    private static final long MEASURE_MS = 10000;
+
+    public SampleJankBenchmarkTest() {
+        super(MainActivity.class);
+    }
+
+    public void testJankMainLooperCallbacks() throws Exception {
+        measure(true, "mainLooperCallbacks");
+    }
+
+    public void testJankCameraThreads() throws Exception {
+        measure(false, "cameraThreads");
+    }
+
+    private void measure(boolean mainLooper, String name) throws Exception {
+        Intent intent = new Intent(Intent.ACTION_MAIN);
+        intent.putExtra(MainActivity.EXTRA_MAIN_LOOPER_CALLBACKS, mainLooper);
+        setActivityIntent(intent);
+        MainActivity activity = getActivity();
+        assertTrue("No recorded frame", activity.getStartupGraph().await(MainActivity.MARK_RECORDING, TIMEOUT_MS));
+
+        SampleJankCounter jankCounter = activity.getJankCounter();
+        jankCounter.reset();
+        Thread.sleep(MEASURE_MS);
+        SampleBenchmarkResults.record(activity, name + "MainThreadOverruns", jankCounter.getOverruns());
+        SampleBenchmarkResults.record(activity, name + "MainThreadSkippedFrames", jankCounter.getSkippedFrames());
+        SampleBenchmarkResults.record(activity, name + "MainThreadMaxFrameMs", jankCounter.getMaxFrameNs() / 1000000);
+    }
+}
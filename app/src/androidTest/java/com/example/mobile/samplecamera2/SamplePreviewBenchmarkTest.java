@@ -0,0 +1,29 @@
+package com.example.mobile.samplecamera2;
+
+import android.test.ActivityInstrumentationTestCase2;
+
+//
+// Cold start: time from activity creation to first preview frame drawn and first frame recorded
+// Preview and recording start on launch, see MainActivity.createStartupGraph().
+//
+
+public class SamplePreviewBenchmarkTest extends ActivityInstrumentationTestCase2<MainActivity> {
+    private static final long TIMEOUT_MS = 10000;
+
+    public SamplePreviewBenchmarkTest() {
+        super(MainActivity.class);
+    }
+
+    public void testTimeToFirstPreviewFrame() throws Exception {
+        MainActivity activity = getActivity();
+        SampleStartupGraph graph = activity.getStartupGraph();
+        assertTrue("No preview frame", graph.await(MainActivity.MARK_FIRST_PREVIEW_FRAME, TIMEOUT_MS));
+        assertTrue("No recorded frame", graph.await(MainActivity.MARK_RECORDING, TIMEOUT_MS));
+        SampleBenchmarkResults.record(activity, "timeToFirstPreviewFrameMs",
+                graph.getTimeNs(MainActivity.MARK_FIRST_PREVIEW_FRAME) / 1000000);
+        SampleBenchmarkResults.record(activity, "timeToRecordingMs",
+                graph.getTimeNs(MainActivity.MARK_RECORDING) / 1000000);
+        SampleBenchmarkResults.record(activity, "timeToSessionMs",
+                graph.getTimeNs(MainActivity.STARTUP_SESSION) / 1000000);
+    }
+}
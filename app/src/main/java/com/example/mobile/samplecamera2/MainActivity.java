@@ -1,91 +1,532 @@
 package com.example.mobile.samplecamera2;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.content.pm.ActivityInfo;
+import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraConstrainedHighSpeedCaptureSession;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
-import android.opengl.GLSurfaceView;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.MediaCodec;
+import android.os.BatteryManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Choreographer;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
 
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-
-import javax.microedition.khronos.egl.EGL10;
-import javax.microedition.khronos.egl.EGLConfig;
-import javax.microedition.khronos.egl.EGLContext;
-import javax.microedition.khronos.egl.EGLDisplay;
-import javax.microedition.khronos.egl.EGLSurface;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 //
 // How SampleCamera2 works?
 //
-// Step 1: Create GLSurfaceView for camera2 required EGL environment
+// Step 1: Start render engine (EGL14 context on its own thread) in SampleRecordingService
 // Step 2: Create Surface from SurfaceTexture
 // Step 3: Request CameraManager service, find camera ID (1st only) and open camera device
 // Step 4: Create capture request builder for preview. Add preview and encode Surface to target.
 // Step 5: Create capture session for preview
 // Step 6: Send preview request to start preview
 // Step 7: onFrameAvailable() inform texture update of preview
-// Step 8: SurfaceTexture update texture image in context of GLSurfaceView.Renderer.onDrawFrame()
+// Step 8: SurfaceTexture update texture image in context of SampleGLRenderer.onDrawFrame()
 // Step 9: Fragment shader draw preview texture (samplerExternalOES)
 //
 // How to test?
 //
-// Step 1: Select "Preview + Record" in top-right menu
+// Step 1: Launch, preview and recording start at once
+//
+// Cold start
+// Camera open, encoder configure, analysis setup and GL context creation run concurrently, joined by
+// SampleStartupGraph. Capture session starts when all are done. Timeline with first preview frame
+// and first recorded frame is logged.
+//
+// Recording path
+// Without effects the camera writes the encoder input surface directly (passthrough), with an
+// effect (menu "Grayscale"), at an encoder size the camera can not output or after the session
+// failed to configure, frames are drawn by GL into it (composited). SampleCapturePathSwitcher
+// switches by recreating the capture session only.
+//
+// Background recording
+// The renderer runs on SampleRenderEngine, owned by foreground service SampleRecordingService, not
+// on a view. Preview (SurfaceView) is a display output attached while its surface exists, so in
+// background or with the screen off nothing draws preview and recording goes on.
+//
+// Threads
+// Camera control thread: device, session and availability callbacks, session setup and the
+//   capture path switcher. cameraDevice and capture requests live there only.
+// Capture result thread: per-frame capture callbacks (sensor timestamp for latency).
+// Frame available thread: SurfaceTexture.OnFrameAvailableListener, wakes the renderer.
+// Main thread only handles UI, its frame overruns are counted (SampleJankCounter) and logged.
+// EXTRA_MAIN_LOOPER_CALLBACKS runs all camera callbacks on the main looper to compare.
+//
+// Frame analysis
+// A small YUV ImageReader is one more camera target of normal preview, SampleImageAnalysis logs
+// luma histogram mean, motion and sharpness. Analysis drops frames, camera and preview never wait.
+//
+// Frame metadata
+// Exposure time, ISO, focus distance, frame number and sensor timestamp of every recorded frame go
+// to a sidecar <video name>.meta next to each recorded segment (SampleFrameMetadataLog), keyed by
+// encoder presentation time. Capture results of frames that are not recorded are dropped.
+// SampleFrameMetadataReader finds a frame's record by index or time.
+//
+// Capture rate governor
+// SampleCaptureRateGovernor lowers the capture rate in stages when the battery gets hot (no
+// thermal status API before Android Q) or runs low, and to a timelapse rate while the analyzed
+// scene is static. The AE target fps range of the repeating request is changed in place. Below the
+// camera's lowest range the rest is skipped before the encoder (SampleFrameHandoff decimation, on
+// the composited path), rate control is told the rate actually encoded. Slow motion and the second
+// camera keep their rate.
+//
+// Dual camera
+// "Dual camera" opens a second camera (other lens facing if there is one) next to the first one.
+// Both feed their own SurfaceTexture, stream sizes are picked from StreamConfigurationMap within
+// DUAL_CAMERA_PIXEL_RATE. The renderer composites them in one draw call into preview and encoder,
+// "Layout" switches picture-in-picture and side by side. Recording is always composited. If the
+// device cannot run both cameras at once, capture goes on with the first one.
+//
+// Live streaming
+// With extras EXTRA_STREAM_HOST and EXTRA_STREAM_PORT (EXTRA_STREAM_UDP for UDP instead of TCP)
+// the recording is also streamed as MPEG-TS to a local ingest process, e.g.
+// adb shell am start -n com.example.mobile.samplecamera2/.MainActivity --es streamHost 127.0.0.1 --ei streamPort 5000
+//
+// Slow motion (Android M and camera with CONSTRAINED_HIGH_SPEED_VIDEO capability)
+// "Slow motion" opens a constrained high-speed session at HIGH_SPEED_FPS (or the highest rate
+// below it). Camera writes the encoder input surface directly at the selected high-speed size and
+// rate, the renderer is woken once per several frames and draws preview at about PREVIEW_FPS.
 //
 
 public class MainActivity extends Activity implements SurfaceTexture.OnFrameAvailableListener {
     private final String TAG = this.getClass().getName();
+    private static final String SCREENSHOT_PATH = "/sdcard/Pictures/sampleCamera_";
+    private static final int BURST_COUNT = 10;
+    private static final int PRE_EVENT_SECONDS = 10;
+    private static final String LATENCY_DUMP_PATH = "/sdcard/Movies/sampleCameraLatency.txt";
+    private static final int HIGH_SPEED_FPS = 240;
+    private static final int HIGH_SPEED_MAX_WIDTH = 1920;
+    private static final int HIGH_SPEED_MAX_HEIGHT = 1080;
+    private static final int PREVIEW_FPS = 30;
+    private static final int ANALYSIS_MAX_WIDTH = 640;
+    private static final int ANALYSIS_MAX_HEIGHT = 480;
+    // Capture rate of each governor stage, and of static scenes
+    private static final int[] GOVERNOR_STAGE_FPS = {PREVIEW_FPS, 24, 15};
+    private static final int GOVERNOR_STATIC_FPS = 5;
+    private static final long GOVERNOR_INTERVAL_MS = 1000;
+    // Effect menu cycles through these
+    private static final int[] EFFECT_PRESETS = {
+            SampleGLRenderer.EFFECT_NONE,
+            SampleGLRenderer.EFFECT_GRAYSCALE,
+            SampleGLRenderer.EFFECT_LUT,
+            SampleGLRenderer.EFFECT_LUT | SampleGLRenderer.EFFECT_SHARPEN,
+            SampleGLRenderer.EFFECT_GRAYSCALE | SampleGLRenderer.EFFECT_LUT | SampleGLRenderer.EFFECT_SHARPEN
+                    | SampleGLRenderer.EFFECT_OVERLAY
+    };
+    private int effectPresetIndex = 0;
+    private static final String EXTRA_HIGH_SPEED = "highSpeed";
+    private static final String EXTRA_DUAL_CAMERA = "dualCamera";
+    private static final String EXTRA_STREAM_HOST = "streamHost";
+    private static final String EXTRA_STREAM_PORT = "streamPort";
+    private static final String EXTRA_STREAM_UDP = "streamUdp";
+    // Size of frames drawn once before they go to outputs (encoder size)
+    private static final int RENDER_WIDTH = 1280;
+    private static final int RENDER_HEIGHT = 720;
+    // Composite size the dual camera streams are chosen for (encoder size)
+    private static final int DUAL_CAMERA_OUTPUT_WIDTH = 1280;
+    private static final int DUAL_CAMERA_OUTPUT_HEIGHT = 720;
+    // Pixels per second of both camera streams together, 1.5 times 1080p at PREVIEW_FPS
+    private static final long DUAL_CAMERA_PIXEL_RATE = 1920L * 1080 * PREVIEW_FPS * 3 / 2;
+    static final String EXTRA_MAIN_LOOPER_CALLBACKS = "mainLooperCallbacks";
+    private static final int STARTUP_THREADS = 3;
+    private static final long STARTUP_TIMEOUT_MS = 3000;
+    static final String STARTUP_CHARACTERISTICS = "characteristics";
+    static final String STARTUP_OPEN_CAMERA = "openCamera";
+    static final String STARTUP_CAMERA_OPENED = "cameraOpened";
+    static final String STARTUP_SECOND_CAMERA_OPENED = "secondCameraOpened";
+    static final String STARTUP_ENCODER = "encoder";
+    static final String STARTUP_ANALYSIS = "analysis";
+    static final String STARTUP_GL = "gl";
+    static final String STARTUP_PREVIEW_SURFACE = "previewSurface";
+    static final String STARTUP_SESSION = "session";
+    static final String MARK_FIRST_PREVIEW_FRAME = "firstPreviewFrame";
+    static final String MARK_RECORDING = "recording";
 
     private SampleMediaEncoder mediaEncoder;
     private SampleGLRenderer glRenderer;
+    private final SampleLatencyTracer latencyTracer = new SampleLatencyTracer();
+    private boolean latencyClockChecked = false;
+    private SurfaceView surfaceView;
+    private volatile SampleRenderEngine renderEngine = null;
+    private SampleRecordingService recordingService = null;
+    // Main thread only
+    private SampleRenderOutput previewOutput = null;
+    private Surface previewWindow = null;
     private SurfaceTexture surfaceTexture;
     private Surface previewSurface;
-    private Surface encodeSurface;
+    private volatile Surface encodeSurface;
+    private volatile SampleRenderOutput encodeOutput = null;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private HandlerThread cameraThread;
+    private HandlerThread captureResultThread;
+    private HandlerThread frameAvailableThread;
+    private Handler cameraHandler;
+    private Handler captureResultHandler;
+    private Handler frameAvailableHandler;
+    private final Executor cameraExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            cameraHandler.post(command);
+        }
+    };
+    private SampleJankCounter jankCounter;
+    private ExecutorService startupExecutor;
+    private SampleStartupGraph startupGraph;
+    private volatile boolean destroyed = false;
+    private String cameraID = "";
+    private CameraCharacteristics cameraCharacteristics = null;
+    private SampleHighSpeedSelector.Mode highSpeedMode = null;
+    private SampleImageAnalysis imageAnalysis = null;
+    private boolean dualCamera = false;
+    private String secondCameraID = null;
+    private int[] dualCameraSizes = null;
+    private final boolean[] cameraMirrored = new boolean[2];
+    private SurfaceTexture secondSurfaceTexture;
+    private Surface secondSurface;
+    // Camera control thread only
+    private CameraDevice cameraDevice = null;
+    private CameraDevice secondCameraDevice = null;
+    private SampleCapturePathSwitcher capturePathSwitcher;
+    // Input surfaces of restarted encoders a capture session may still target, camera thread
+    private final List<Surface> retiredEncodeSurfaces = new ArrayList<Surface>();
+    private CameraCaptureSession previewSession = null;
     private CaptureRequest.Builder previewRequestBuilder = null;
-    private SampleContextFactory sampleContextFactory;
-    private SampleWindowSurfaceFactory sampleWindowSurfaceFactory;
-    private int mEGLContextClientVersion = 2;
-    private EGLContext eglContext = null;
-    private EGLSurface eglSurfacePreview = null;
-    private EGLSurface eglSurfaceEncode = null;
+    private final SampleCaptureRateGovernor captureRateGovernor =
+            new SampleCaptureRateGovernor(GOVERNOR_STAGE_FPS, GOVERNOR_STATIC_FPS);
+    private final SampleFrameStats governorStats = new SampleFrameStats();
+    private long governorStatsTimestampNs = 0;
+    private float batteryTemperature = 0;
+    private int batteryLevel = 100;
+    private boolean batteryCharging = false;
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        startCameraThreads(getIntent().getBooleanExtra(EXTRA_MAIN_LOOPER_CALLBACKS, false));
 
-        // Step 1: Create GLSurfaceView for camera2 required EGL environment
-        GLSurfaceView glSurfaceView;
-        glSurfaceView = new GLSurfaceView(this);
-        glSurfaceView.setEGLContextClientVersion(mEGLContextClientVersion);
         glRenderer = new SampleGLRenderer();
-        sampleContextFactory = new SampleContextFactory();
-        sampleWindowSurfaceFactory = new SampleWindowSurfaceFactory();
-        glSurfaceView.setEGLContextFactory(sampleContextFactory);
-        glSurfaceView.setEGLWindowSurfaceFactory(sampleWindowSurfaceFactory);
-        glSurfaceView.setRenderer(glRenderer);
+        // Preview window is a display output, the engine's pbuffer is no output
+        glRenderer.setHostSurfaceOutput(false);
+        glRenderer.setLatencyTracer(latencyTracer);
+        glRenderer.setProgramCacheDir(getCacheDir());
+        glRenderer.setEffectPresets(EFFECT_PRESETS);
+        dualCamera = getIntent().getBooleanExtra(EXTRA_DUAL_CAMERA, false);
+        if (dualCamera) {
+            glRenderer.setCameraCount(2);
+        }
+        glRenderer.setStartupListener(new SampleGLRenderer.StartupListener() {
+            @Override
+            public void onSurfaceCreated() {
+                startupGraph.complete(STARTUP_GL);
+            }
+
+            @Override
+            public void onFirstFrameDrawn() {
+                startupGraph.mark(MARK_FIRST_PREVIEW_FRAME);
+            }
+        });
+        // Draw camera frame once, then blit to preview and encode surfaces
+        glRenderer.setDrawMode(SampleGLRenderer.DRAW_MODE_FRAMEBUFFER);
 
         // SurfaceTexture is the target surface of preview
         surfaceTexture = null;
 
         //  Create encoder and MediaCodec input surface
         mediaEncoder = new SampleMediaEncoder();
-        encodeSurface = mediaEncoder.init();
+        mediaEncoder.setDrainMode(SampleMediaEncoder.DRAIN_MODE_CALLBACK);
+        mediaEncoder.setSegmentedRecording(true);
+        mediaEncoder.setPreEventSeconds(PRE_EVENT_SECONDS);
+        mediaEncoder.setRateControl(true);
+        mediaEncoder.setFragmentedMp4(true);
+        mediaEncoder.setEncoderCache(getCacheDir(), Build.FINGERPRINT);
+        mediaEncoder.setFrameMetadata(true);
+        mediaEncoder.setMinFrameRate(GOVERNOR_STATIC_FPS);
+        if (getIntent().hasExtra(EXTRA_STREAM_HOST)) {
+            mediaEncoder.setStreamDestination(getIntent().getStringExtra(EXTRA_STREAM_HOST),
+                    getIntent().getIntExtra(EXTRA_STREAM_PORT, 5000),
+                    getIntent().getBooleanExtra(EXTRA_STREAM_UDP, false));
+        }
+        mediaEncoder.setLatencyTracer(latencyTracer);
+        mediaEncoder.setFirstFrameListener(new Runnable() {
+            @Override
+            public void run() {
+                startupGraph.mark(MARK_RECORDING);
+            }
+        });
+        mediaEncoder.setInputSurfaceListener(new SampleMediaEncoder.InputSurfaceListener() {
+            @Override
+            public void onInputSurfaceChanged(final Surface oldSurface, Surface newSurface) {
+                // Encoder restarted at another resolution, move renderer output to new surface
+                if (encodeOutput != null) {
+                    glRenderer.removeOutput(encodeOutput);
+                    encodeOutput = glRenderer.addOutput("encode", newSurface, 1);
+                }
+                encodeSurface = newSurface;
+                final int width = mediaEncoder.getWidth();
+                final int height = mediaEncoder.getHeight();
+                final Runnable moveSession = new Runnable() {
+                    @Override
+                    public void run() {
+                        // Old surface goes once no capture session targets it
+                        retiredEncodeSurfaces.add(oldSurface);
+                        capturePathSwitcher.setEncoderSizeSupported(isEncoderOutputSize(width, height));
+                        capturePathSwitcher.onEncoderSurfaceChanged();
+                        releaseRetiredEncodeSurfaces();
+                    }
+                };
+                // Destroy the EGL surface of the old one first, then let the switcher move the session
+                SampleRenderEngine engine = renderEngine;
+                if (engine == null) {
+                    cameraHandler.post(moveSession);
+                    return;
+                }
+                engine.queueEvent(new Runnable() {
+                    @Override
+                    public void run() {
+                        glRenderer.applyOutputChanges();
+                        cameraHandler.post(moveSession);
+                    }
+                });
+            }
+        });
+        // Encoder is initialized by the startup graph, format depends on capture mode
+
+        capturePathSwitcher = new SampleCapturePathSwitcher(capturePathHost);
+        startupGraph = createStartupGraph(getIntent().getBooleanExtra(EXTRA_HIGH_SPEED, false), dualCamera);
 
         // Set landscape mode only, we do not handle screen rotation in this sample
         this.setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_LANDSCAPE);
 
-        setContentView(glSurfaceView);
+        surfaceView = new SurfaceView(this);
+        surfaceView.getHolder().addCallback(previewSurfaceCallback);
+        setContentView(surfaceView);
+
+        // Step 1: Start render engine in SampleRecordingService, GL context is created on its thread
+        Intent serviceIntent = new Intent(this, SampleRecordingService.class);
+        startService(serviceIntent);
+        bindService(serviceIntent, serviceConnection, Context.BIND_AUTO_CREATE);
+        startupGraph.start();
+
+        jankCounter = new SampleJankCounter((long) (1000000000L / getWindowManager().getDefaultDisplay().getRefreshRate()));
+        Choreographer.getInstance().postFrameCallback(jankFrameCallback);
+
+        // Sticky battery broadcast arrives at once, then on every change
+        registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED), null, cameraHandler);
+        cameraHandler.postDelayed(governorTick, GOVERNOR_INTERVAL_MS);
+    }
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            if (destroyed) {
+                return;
+            }
+            recordingService = ((SampleRecordingService.LocalBinder) service).getService();
+            // Render only when camera frame is available, see onFrameAvailable()
+            renderEngine = recordingService.startEngine(glRenderer, RENDER_WIDTH, RENDER_HEIGHT);
+            if (previewWindow != null) {
+                attachPreview(previewWindow);
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            // Same process, only if it is going away
+            Log.e(TAG, "Recording service disconnected");
+        }
+    };
+
+    // Preview is drawn while the window exists, background and screen off draw no preview
+    private final SurfaceHolder.Callback previewSurfaceCallback = new SurfaceHolder.Callback() {
+        @Override
+        public void surfaceCreated(SurfaceHolder holder) {
+        }
+
+        @Override
+        public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            detachPreview();
+            previewWindow = holder.getSurface();
+            if (renderEngine != null) {
+                attachPreview(previewWindow);
+            }
+        }
+
+        @Override
+        public void surfaceDestroyed(SurfaceHolder holder) {
+            previewWindow = null;
+            detachPreview();
+        }
+    };
+
+    // Frame available threads, engine is gone after onDestroy()
+    private void requestRender() {
+        SampleRenderEngine engine = renderEngine;
+        if (engine != null) {
+            engine.requestRender();
+        }
+    }
+
+    private void attachPreview(Surface window) {
+        previewOutput = glRenderer.addDisplayOutput("preview", window);
+        renderEngine.requestRender();
+    }
+
+    // EGL surface of the window is destroyed before this returns, the window may go away then
+    private void detachPreview() {
+        if (previewOutput == null) {
+            return;
+        }
+        glRenderer.removeOutput(previewOutput);
+        previewOutput = null;
+        renderEngine.runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                glRenderer.applyOutputChanges();
+            }
+        });
+    }
+
+    // Camera callbacks on their own threads, or all on main looper to compare jank
+    private void startCameraThreads(boolean mainLooper) {
+        if (mainLooper) {
+            cameraHandler = mainHandler;
+            captureResultHandler = mainHandler;
+            frameAvailableHandler = mainHandler;
+            return;
+        }
+        cameraThread = new HandlerThread("CameraControl");
+        cameraThread.start();
+        cameraHandler = new Handler(cameraThread.getLooper());
+        captureResultThread = new HandlerThread("CaptureResult");
+        captureResultThread.start();
+        captureResultHandler = new Handler(captureResultThread.getLooper());
+        frameAvailableThread = new HandlerThread("FrameAvailable");
+        frameAvailableThread.start();
+        frameAvailableHandler = new Handler(frameAvailableThread.getLooper());
+    }
+
+    private void quitCameraThreads() {
+        for (HandlerThread thread : new HandlerThread[] {cameraThread, captureResultThread, frameAvailableThread}) {
+            if (thread != null) {
+                thread.quitSafely();
+            }
+        }
+    }
+
+    // Run on camera control thread and wait, for teardown
+    private void runOnCameraThreadAndWait(final Runnable runnable) {
+        if (Looper.myLooper() == cameraHandler.getLooper()) {
+            runnable.run();
+            return;
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                runnable.run();
+                done.countDown();
+            }
+        });
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final Choreographer.FrameCallback jankFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            jankCounter.onFrame(frameTimeNanos);
+            if (!destroyed) {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+    };
+
+    @Override
+    protected void onDestroy() {
+        // Startup tasks still to run fail, the ones running are waited for
+        destroyed = true;
+        awaitStartup(STARTUP_ENCODER);
+        awaitStartup(STARTUP_ANALYSIS);
+        // Both depend on every task of the startup threads, none is dispatched any more
+        startupExecutor.shutdown();
+        // Signal end-of-stream so the muxer is stopped and the file is playable
+        mediaEncoder.stop();
+        unregisterReceiver(batteryReceiver);
+        runOnCameraThreadAndWait(new Runnable() {
+            @Override
+            public void run() {
+                cameraHandler.removeCallbacks(governorTick);
+                if (cameraDevice != null) {
+                    cameraDevice.close();
+                    cameraDevice = null;
+                }
+                for (Surface surface : retiredEncodeSurfaces) {
+                    surface.release();
+                }
+                retiredEncodeSurfaces.clear();
+                if (secondCameraDevice != null) {
+                    secondCameraDevice.close();
+                    secondCameraDevice = null;
+                }
+            }
+        });
+        quitCameraThreads();
+        detachPreview();
+        if (recordingService != null) {
+            recordingService.stopEngine();
+            renderEngine = null;
+        }
+        unbindService(serviceConnection);
+        stopService(new Intent(this, SampleRecordingService.class));
+        if (imageAnalysis != null) {
+            imageAnalysis.release();
+        }
+        Choreographer.getInstance().removeFrameCallback(jankFrameCallback);
+        Log.v(TAG, "Main thread " + jankCounter);
+        dumpLatency();
+        super.onDestroy();
     }
 
     @Override
@@ -104,50 +545,432 @@ public class MainActivity extends Activity implements SurfaceTexture.OnFrameAvai
 
         //noinspection SimplifiableIfStatement
         if (id == R.id.action_preview) {
-            // Step 2: Create Surface from SurfaceTexture
-            if (surfaceTexture == null) {
+            restartInMode(false, false);
+            return true;
+        } else if (id == R.id.action_high_speed) {
+            restartInMode(true, false);
+            return true;
+        } else if (id == R.id.action_dual_camera) {
+            restartInMode(false, true);
+            return true;
+        } else if (id == R.id.action_layout) {
+            int type = glRenderer.getCameraLayout().getType() == SampleCameraLayout.LAYOUT_PIP
+                    ? SampleCameraLayout.LAYOUT_SIDE_BY_SIDE : SampleCameraLayout.LAYOUT_PIP;
+            glRenderer.setCameraLayout(createCameraLayout(type));
+            return true;
+        } else if (id == R.id.action_screenshot) {
+            glRenderer.screenshot(SCREENSHOT_PATH + System.currentTimeMillis() + ".jpg");
+            return true;
+        } else if (id == R.id.action_burst) {
+            glRenderer.burst(BURST_COUNT, SCREENSHOT_PATH + System.currentTimeMillis());
+            return true;
+        } else if (id == R.id.action_effect) {
+            // Effect needs the GL path for recording, no effect lets camera feed encoder directly
+            effectPresetIndex = (effectPresetIndex + 1) % EFFECT_PRESETS.length;
+            int effect = EFFECT_PRESETS[effectPresetIndex];
+            final boolean active = effect != SampleGLRenderer.EFFECT_NONE;
+            glRenderer.setEffect(effect);
+            cameraHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    capturePathSwitcher.setEffectsActive(active);
+                }
+            });
+            return true;
+        } else if (id == R.id.action_event) {
+            // Toggle: save the last PRE_EVENT_SECONDS and keep recording, or stop
+            if (mediaEncoder.isEventRecording()) {
+                mediaEncoder.stopEventRecording();
+            } else {
+                mediaEncoder.startEventRecording();
+            }
+            return true;
+        }
+
+        return super.onOptionsItemSelected(item);
+    }
+
+    // Capture mode is fixed for the lifetime of the activity, a mode change recreates it
+    private void restartInMode(boolean highSpeed, boolean dual) {
+        if (getIntent().getBooleanExtra(EXTRA_HIGH_SPEED, false) == highSpeed && dualCamera == dual) {
+            return;
+        }
+        getIntent().putExtra(EXTRA_HIGH_SPEED, highSpeed);
+        getIntent().putExtra(EXTRA_DUAL_CAMERA, dual);
+        recreate();
+    }
+
+    // Startup work by dependency, independent tasks run concurrently:
+    //
+    // characteristics -+-> openCamera -> cameraOpened -+
+    //                  |             -> secondCameraOpened (dual camera)
+    //                  +-> encoder --------------------+
+    //                  +-> analysis -------------------+-> session
+    //                  +-> previewSurface -------------+
+    // gl --------------+
+    private SampleStartupGraph createStartupGraph(final boolean highSpeed, final boolean dual) {
+        final SampleStartupGraph graph = new SampleStartupGraph();
+        startupExecutor = Executors.newFixedThreadPool(STARTUP_THREADS);
+        final CameraManager cameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+
+        // Step 3: Request CameraManager service, find camera ID (1st only) and open camera device
+        graph.add(STARTUP_CHARACTERISTICS, startupExecutor, new Runnable() {
+            @Override
+            public void run() {
+                checkNotDestroyed();
+                try {
+                    // Find camera ID. This sample uses first camera only
+                    cameraID = cameraManager.getCameraIdList()[0];
+                    cameraCharacteristics = cameraManager.getCameraCharacteristics(cameraID);
+                } catch (CameraAccessException e) {
+                    throw new IllegalStateException("No camera", e);
+                }
+                if (highSpeed) {
+                    highSpeedMode = selectHighSpeedMode(cameraCharacteristics);
+                    if (highSpeedMode == null) {
+                        Log.e(TAG, "No constrained high-speed mode, normal preview");
+                    }
+                }
+                if (dual) {
+                    selectSecondCamera(cameraManager);
+                }
+            }
+        });
+
+        graph.add(STARTUP_OPEN_CAMERA, startupExecutor, new Runnable() {
+            @Override
+            public void run() {
+                checkNotDestroyed();
+                // Setup camera availability callbacks
+                cameraManager.registerAvailabilityCallback(cameraAvailabilityCallback, cameraHandler);
+                // Open camera with CameraDevice state callback registered, callbacks on camera thread
+                try {
+                    cameraManager.openCamera(cameraID, cameraDeviceStateCallback, cameraHandler);
+                } catch (CameraAccessException e) {
+                    throw new IllegalStateException("Camera " + cameraID + " not opened", e);
+                }
+                if (dual) {
+                    openSecondCamera(cameraManager);
+                }
+            }
+        }, STARTUP_CHARACTERISTICS);
+        graph.addEvent(STARTUP_CAMERA_OPENED, STARTUP_OPEN_CAMERA);
+        if (dual) {
+            // Completed also when the second camera fails, capture goes on with one camera
+            graph.addEvent(STARTUP_SECOND_CAMERA_OPENED, STARTUP_OPEN_CAMERA);
+        }
+
+        //  Create encoder and MediaCodec input surface
+        graph.add(STARTUP_ENCODER, startupExecutor, new Runnable() {
+            @Override
+            public void run() {
+                checkNotDestroyed();
+                if (highSpeedMode != null) {
+                    mediaEncoder.setVideoFormat(highSpeedMode.width, highSpeedMode.height, highSpeedMode.fps);
+                    // Resolution steps would restart the encoder under the running session
+                    mediaEncoder.setRateControl(false);
+                }
+                encodeSurface = mediaEncoder.init();
+                if (encodeSurface == null) {
+                    throw new IllegalStateException("No encoder");
+                }
+                // Start encoder, segmented recording runs until activity is destroyed
+                mediaEncoder.start(0);
+            }
+        }, STARTUP_CHARACTERISTICS);
+
+        graph.add(STARTUP_ANALYSIS, startupExecutor, new Runnable() {
+            @Override
+            public void run() {
+                checkNotDestroyed();
+                // High-speed sessions take preview and encoder surfaces only, two cameras spend the
+                // stream budget on composited video
+                if (highSpeedMode == null && !dual) {
+                    imageAnalysis = createImageAnalysis(cameraCharacteristics);
+                }
+            }
+        }, STARTUP_CHARACTERISTICS);
+
+        graph.addEvent(STARTUP_GL);
+
+        // Step 2: Create Surface from SurfaceTexture
+        graph.add(STARTUP_PREVIEW_SURFACE, cameraExecutor, new Runnable() {
+            @Override
+            public void run() {
+                checkNotDestroyed();
                 surfaceTexture = new SurfaceTexture(glRenderer.getTextureHandle());
-                surfaceTexture.setOnFrameAvailableListener(this);
+                surfaceTexture.setOnFrameAvailableListener(MainActivity.this, frameAvailableHandler);
+                if (highSpeedMode != null) {
+                    // Camera writes encoder input directly, renderer draws decimated preview only
+                    surfaceTexture.setDefaultBufferSize(highSpeedMode.width, highSpeedMode.height);
+                    glRenderer.getFrameHandoff().setDecimation(highSpeedMode.getPreviewDecimation(PREVIEW_FPS));
+                }
+                if (dualCameraSizes != null) {
+                    surfaceTexture.setDefaultBufferSize(dualCameraSizes[0], dualCameraSizes[1]);
+                    createSecondSurface();
+                }
                 previewSurface = new Surface(surfaceTexture);
+                glRenderer.setSurfaceTexture(surfaceTexture);
             }
+        }, STARTUP_GL, STARTUP_CHARACTERISTICS);
 
-            glRenderer.setEglContext(eglContext);
-            glRenderer.setEglSurface(eglSurfacePreview, eglSurfaceEncode);
+        // Step 4 and 5, see capturePathHost.configureSession() and createHighSpeedSession()
+        graph.add(STARTUP_SESSION, cameraExecutor, new Runnable() {
+            @Override
+            public void run() {
+                checkNotDestroyed();
+                if (highSpeedMode != null) {
+                    createHighSpeedSession(cameraDevice);
+                } else {
+                    // Composite of both cameras is drawn into the encoder
+                    capturePathSwitcher.setPassthroughAllowed(!dual);
+                    capturePathSwitcher.setEncoderSizeSupported(
+                            isEncoderOutputSize(mediaEncoder.getWidth(), mediaEncoder.getHeight()));
+                    capturePathSwitcher.start();
+                }
+                if (secondCameraDevice != null && secondSurface != null) {
+                    createSecondSession(secondCameraDevice);
+                }
+            }
+        }, dual ? new String[] {STARTUP_CAMERA_OPENED, STARTUP_SECOND_CAMERA_OPENED, STARTUP_ENCODER,
+                STARTUP_ANALYSIS, STARTUP_PREVIEW_SURFACE}
+                : new String[] {STARTUP_CAMERA_OPENED, STARTUP_ENCODER, STARTUP_ANALYSIS, STARTUP_PREVIEW_SURFACE});
 
-            // Step 3: Request CameraManager service, find camera ID (1st only) and open camera device
-            CameraManager cameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        graph.setListener(new SampleStartupGraph.Listener() {
+            @Override
+            public void onNodeFinished(String name, long endNs, Throwable failure) {
+                if (failure != null) {
+                    Log.e(TAG, "Startup " + name + " failed", failure);
+                } else {
+                    Log.v(TAG, "Startup " + name + " " + endNs / 1000000 + "ms");
+                }
+                if (STARTUP_SESSION.equals(name)) {
+                    // Session is the last node, nothing more runs on startup threads
+                    startupExecutor.shutdown();
+                }
+            }
 
-            // Find camera ID. This sample uses first camera only
-            String cameraID = "";
-            try {
-                cameraID = cameraManager.getCameraIdList()[0];
-            } catch (CameraAccessException e) {
-                e.printStackTrace();
+            @Override
+            public void onMarker(String name, long timeNs) {
+                Log.v(TAG, "Startup " + name + " " + timeNs / 1000000 + "ms");
+                if (MARK_RECORDING.equals(name)) {
+                    Log.v(TAG, graph.toString());
+                }
             }
+        });
+        return graph;
+    }
 
-            // Setup camera availability callbacks
-            cameraManager.registerAvailabilityCallback(cameraAvailabilityCallback, null);
+    private void checkNotDestroyed() {
+        if (destroyed) {
+            throw new IllegalStateException("Activity destroyed");
+        }
+    }
 
-            // Open camera with CameraDevice state callback registered
-            try {
-                cameraManager.openCamera(cameraID, cameraDeviceStateCallback, null);
-            } catch (CameraAccessException e) {
-                e.printStackTrace();
+    private void awaitStartup(String name) {
+        try {
+            if (!startupGraph.await(name, STARTUP_TIMEOUT_MS)) {
+                Log.e(TAG, "Startup " + name + " not finished");
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-            // Start encoder for 300 frames
-            mediaEncoder.start(300);
+    // Fixed frame rate high-speed mode closest to HIGH_SPEED_FPS, null if camera has none
+    @TargetApi(Build.VERSION_CODES.M)
+    private SampleHighSpeedSelector.Mode selectHighSpeedMode(CameraCharacteristics characteristics) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return null;
+        }
+        SampleHighSpeedSelector selector = new SampleHighSpeedSelector();
+        boolean supported = false;
+        for (int capability : characteristics.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES)) {
+            if (capability == CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_CONSTRAINED_HIGH_SPEED_VIDEO) {
+                supported = true;
+            }
+        }
+        if (!supported) {
+            return null;
+        }
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        for (Size size : map.getHighSpeedVideoSizes()) {
+            for (Range<Integer> range : map.getHighSpeedVideoFpsRangesFor(size)) {
+                selector.add(size.getWidth(), size.getHeight(), range.getLower(), range.getUpper());
+            }
+        }
+        SampleHighSpeedSelector.Mode mode = selector.select(HIGH_SPEED_FPS, HIGH_SPEED_MAX_WIDTH, HIGH_SPEED_MAX_HEIGHT);
+        Log.v(TAG, "High-speed mode " + mode);
+        return mode;
+    }
 
-            return true;
+    // Second camera: first one with other lens facing, or any other one. Stream sizes of both within
+    // DUAL_CAMERA_PIXEL_RATE. secondCameraID stays null if there is none.
+    private void selectSecondCamera(CameraManager cameraManager) {
+        CameraCharacteristics secondCharacteristics = null;
+        try {
+            Integer facing = cameraCharacteristics.get(CameraCharacteristics.LENS_FACING);
+            for (String id : cameraManager.getCameraIdList()) {
+                if (id.equals(cameraID)) {
+                    continue;
+                }
+                CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(id);
+                Integer otherFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+                if (secondCharacteristics == null || (otherFacing != null && !otherFacing.equals(facing))) {
+                    secondCameraID = id;
+                    secondCharacteristics = characteristics;
+                }
+                if (otherFacing != null && !otherFacing.equals(facing)) {
+                    break;
+                }
+            }
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+        if (secondCharacteristics == null) {
+            Log.e(TAG, "No second camera, single camera");
+            secondCameraID = null;
+            return;
         }
+        cameraMirrored[0] = isFrontFacing(cameraCharacteristics);
+        cameraMirrored[1] = isFrontFacing(secondCharacteristics);
+        glRenderer.setCameraLayout(createCameraLayout(SampleCameraLayout.LAYOUT_PIP));
+        dualCameraSizes = selectDualCameraSizes(cameraCharacteristics, secondCharacteristics);
+        if (dualCameraSizes == null) {
+            Log.e(TAG, "No stream sizes at " + PREVIEW_FPS + " fps for camera " + secondCameraID + ", single camera");
+            secondCameraID = null;
+        }
+    }
 
-        return super.onOptionsItemSelected(item);
+    private static boolean isFrontFacing(CameraCharacteristics characteristics) {
+        Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        return facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT;
+    }
+
+    private SampleCameraLayout createCameraLayout(int type) {
+        return new SampleCameraLayout(type).setMirrored(0, cameraMirrored[0]).setMirrored(1, cameraMirrored[1]);
+    }
+
+    // Each camera needs the largest region it gets in any layout, see SampleStreamBudget
+    private int[] selectDualCameraSizes(CameraCharacteristics first, CameraCharacteristics second) {
+        SampleStreamBudget budget = new SampleStreamBudget(DUAL_CAMERA_PIXEL_RATE, PREVIEW_FPS);
+        CameraCharacteristics[] cameras = {first, second};
+        for (int i = 0; i < cameras.length; i++) {
+            StreamConfigurationMap map = cameras[i].get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            for (Size size : map.getOutputSizes(SurfaceTexture.class)) {
+                budget.add(i, size.getWidth(), size.getHeight(),
+                        map.getOutputMinFrameDuration(SurfaceTexture.class, size));
+            }
+        }
+        int width = DUAL_CAMERA_OUTPUT_WIDTH;
+        int height = DUAL_CAMERA_OUTPUT_HEIGHT;
+        int[] outputSized = {width, height, width, height};
+        int[] regionSizes = new int[4];
+        float[] regions = new float[8];
+        float[] transforms = new float[8];
+        for (int type : new int[] {SampleCameraLayout.LAYOUT_PIP, SampleCameraLayout.LAYOUT_SIDE_BY_SIDE}) {
+            createCameraLayout(type).compute(width, height, outputSized, regions, transforms);
+            for (int i = 0; i < 2; i++) {
+                regionSizes[i * 2] = Math.max(regionSizes[i * 2], Math.round(regions[i * 4 + 2] * width));
+                regionSizes[i * 2 + 1] = Math.max(regionSizes[i * 2 + 1], Math.round(regions[i * 4 + 3] * height));
+            }
+        }
+        float[] weights = createCameraLayout(SampleCameraLayout.LAYOUT_PIP).getAreaWeights(width, height, outputSized);
+        int[] sizes = budget.select(regionSizes, weights);
+        if (sizes != null) {
+            Log.v(TAG, "Dual camera " + sizes[0] + "x" + sizes[1] + " + " + sizes[2] + "x" + sizes[3] + ", "
+                    + budget.getPixelRate(sizes) / 1000000 + " Mpixel/s");
+        }
+        return sizes;
+    }
+
+    private void openSecondCamera(CameraManager cameraManager) {
+        if (secondCameraID == null) {
+            startupGraph.complete(STARTUP_SECOND_CAMERA_OPENED);
+            return;
+        }
+        try {
+            cameraManager.openCamera(secondCameraID, secondCameraStateCallback, cameraHandler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Camera " + secondCameraID + " not opened, single camera", e);
+            startupGraph.complete(STARTUP_SECOND_CAMERA_OPENED);
+        }
+    }
+
+    // Second camera texture, its frames wake the renderer on their own hand-off
+    private void createSecondSurface() {
+        secondSurfaceTexture = new SurfaceTexture(glRenderer.getTextureHandle(1));
+        secondSurfaceTexture.setDefaultBufferSize(dualCameraSizes[2], dualCameraSizes[3]);
+        secondSurfaceTexture.setOnFrameAvailableListener(secondFrameAvailableListener, frameAvailableHandler);
+        secondSurface = new Surface(secondSurfaceTexture);
+        glRenderer.setCameraSizes(dualCameraSizes);
+        glRenderer.setSurfaceTexture(1, secondSurfaceTexture);
+    }
+
+    private final SurfaceTexture.OnFrameAvailableListener secondFrameAvailableListener =
+            new SurfaceTexture.OnFrameAvailableListener() {
+                @Override
+                public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+                    if (glRenderer.frameAvailable(1)) {
+                        requestRender();
+                    }
+                }
+            };
+
+    // Small YUV stream for CPU analysis next to preview and recording
+    private SampleImageAnalysis createImageAnalysis(CameraCharacteristics characteristics) {
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size size = SampleImageAnalysis.chooseSize(map.getOutputSizes(ImageFormat.YUV_420_888),
+                ANALYSIS_MAX_WIDTH, ANALYSIS_MAX_HEIGHT);
+        return new SampleImageAnalysis(size.getWidth(), size.getHeight());
     }
 
     @Override
     public void onFrameAvailable(SurfaceTexture surfaceTexture) {
         // Step 7: onFrameAvailable() inform texture update of preview
-        glRenderer.updateTexture(surfaceTexture);
+        // Frame is counted lock-free, render is requested only if none is pending
+        latencyTracer.frameAvailable();
+        if (glRenderer.frameAvailable()) {
+            requestRender();
+        }
+        mediaEncoder.reportDroppedFrames(glRenderer.getFrameHandoff().getDroppedFrames());
+    }
+
+    // For instrumentation tests and benchmarks
+    SampleGLRenderer getRenderer() {
+        return glRenderer;
+    }
+
+    SampleCapturePathSwitcher getCapturePathSwitcher() {
+        return capturePathSwitcher;
+    }
+
+    // Capture path switcher is confined to camera control thread
+    void runOnCameraThread(Runnable runnable) {
+        cameraHandler.post(runnable);
+    }
+
+    SampleJankCounter getJankCounter() {
+        return jankCounter;
+    }
+
+    SampleStartupGraph getStartupGraph() {
+        return startupGraph;
+    }
+
+    SampleImageAnalysis getImageAnalysis() {
+        return imageAnalysis;
+    }
+
+    private void dumpLatency() {
+        Log.v(TAG, latencyTracer.toString());
+        try {
+            FileWriter writer = new FileWriter(LATENCY_DUMP_PATH);
+            latencyTracer.dump(writer);
+            writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     private final CameraManager.AvailabilityCallback cameraAvailabilityCallback =
@@ -168,23 +991,14 @@ public class MainActivity extends Activity implements SurfaceTexture.OnFrameAvai
     private final CameraDevice.StateCallback cameraDeviceStateCallback =
             new CameraDevice.StateCallback() {
                 @Override
-                public void onOpened(CameraDevice cameraDevice) {
-                    // Step 4: Create capture request builder for preview.
-                    Log.v(TAG, "onOpened(" + cameraDevice.getId() + ")");
-                    try {
-                        previewRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-                    } catch (CameraAccessException e) {
-                        e.printStackTrace();
-                    }
-                    // Add surface of GLSurfaceView to preview target.
-                    previewRequestBuilder.addTarget(previewSurface);
-
-                    // Step 5: Create capture session for preview
-                    try {
-                        cameraDevice.createCaptureSession(Arrays.asList(previewSurface), cameraCaptureSessionStateCallback, null);
-                    } catch (CameraAccessException e) {
-                        e.printStackTrace();
+                public void onOpened(CameraDevice camera) {
+                    Log.v(TAG, "onOpened(" + camera.getId() + ")");
+                    if (destroyed) {
+                        camera.close();
+                        return;
                     }
+                    cameraDevice = camera;
+                    startupGraph.complete(STARTUP_CAMERA_OPENED);
                 }
 
                 @Override
@@ -203,16 +1017,47 @@ public class MainActivity extends Activity implements SurfaceTexture.OnFrameAvai
                 }
             };
 
-    private final CameraCaptureSession.StateCallback cameraCaptureSessionStateCallback =
-            new CameraCaptureSession.StateCallback() {
+    private final CameraDevice.StateCallback secondCameraStateCallback =
+            new CameraDevice.StateCallback() {
+                @Override
+                public void onOpened(CameraDevice camera) {
+                    Log.v(TAG, "onOpened(" + camera.getId() + ") second camera");
+                    if (destroyed) {
+                        camera.close();
+                        return;
+                    }
+                    secondCameraDevice = camera;
+                    startupGraph.complete(STARTUP_SECOND_CAMERA_OPENED);
+                }
+
+                @Override
+                public void onDisconnected(CameraDevice camera) {
+                    Log.v(TAG, "onDisconnected(" + camera.getId() + ") second camera");
+                }
+
+                @Override
+                public void onError(CameraDevice camera, int error) {
+                    // e.g. ERROR_MAX_CAMERAS_IN_USE, device cannot run both cameras
+                    Log.e(TAG, "onError(" + camera.getId() + ") second camera, error " + error);
+                    camera.close();
+                    if (secondCameraDevice == camera) {
+                        secondCameraDevice = null;
+                    }
+                    startupGraph.complete(STARTUP_SECOND_CAMERA_OPENED);
+                }
+            };
+
+    // Second camera writes its SurfaceTexture only, renderer composites it
+    private void createSecondSession(CameraDevice camera) {
+        try {
+            final CaptureRequest.Builder builder = camera.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+            builder.addTarget(secondSurface);
+            camera.createCaptureSession(Arrays.asList(secondSurface), new CameraCaptureSession.StateCallback() {
                 @Override
                 public void onConfigured(CameraCaptureSession cameraCaptureSession) {
-                    // Step 6: Send preview request to start preview
-                    Log.v(TAG, "onConfigured(" + cameraCaptureSession + ")");
+                    Log.v(TAG, "onConfigured(" + cameraCaptureSession + ") second camera");
                     try {
-                        CaptureRequest previewRequest = previewRequestBuilder.build();
-                        cameraCaptureSession.setRepeatingRequest(previewRequest,
-                                cameraCaptureSessionCaptureCallback, null);
+                        cameraCaptureSession.setRepeatingRequest(builder.build(), null, captureResultHandler);
                     } catch (CameraAccessException e) {
                         e.printStackTrace();
                     }
@@ -220,91 +1065,317 @@ public class MainActivity extends Activity implements SurfaceTexture.OnFrameAvai
 
                 @Override
                 public void onConfigureFailed(CameraCaptureSession cameraCaptureSession) {
-                    Log.e(TAG, "onConfigureFailed(" + cameraCaptureSession + ")");
+                    Log.e(TAG, "onConfigureFailed(" + cameraCaptureSession + ") second camera");
                 }
-            };
-    private CameraCaptureSession.CaptureCallback cameraCaptureSessionCaptureCallback
-            = new CameraCaptureSession.CaptureCallback() {
-
-        @Override
-        public void onCaptureStarted(CameraCaptureSession session, CaptureRequest request, long timestamp,
-                                     long frameNumber) {
-            //Log.d(TAG, "onCaptureStarted(" + session + ")");
+            }, cameraHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
         }
+    }
 
+    // Encoder surface is either drawn by the renderer or a camera target, never both
+    private final SampleCapturePathSwitcher.Host capturePathHost = new SampleCapturePathSwitcher.Host() {
         @Override
-        public void onCaptureProgressed(CameraCaptureSession session, CaptureRequest request,
-                                        CaptureResult partialResult) {
-            //Log.d(TAG, "onCaptureProgressed(" + session + ")");
+        public void detachEncoderOutput() {
+            if (encodeOutput != null) {
+                glRenderer.removeOutput(encodeOutput);
+                encodeOutput = null;
+            }
+            // Destroy the EGL surface now on GL thread, then let the camera have the surface
+            renderEngine.queueEvent(new Runnable() {
+                @Override
+                public void run() {
+                    glRenderer.applyOutputChanges();
+                    cameraHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            capturePathSwitcher.onEncoderDetached();
+                        }
+                    });
+                }
+            });
         }
 
         @Override
-        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request,
-                                       TotalCaptureResult result) {
-            //Log.d(TAG, "onCaptureCompleted(" + session + ")");
+        public void attachEncoderOutput() {
+            // Encoder input surface is one more output of renderer, preview window is registered
+            // by renderer itself. More outputs can be added/removed while capture is running.
+            if (encodeOutput == null && encodeSurface != null) {
+                encodeOutput = glRenderer.addOutput("encode", encodeSurface, 1);
+            }
         }
 
         @Override
-        public void onCaptureFailed(CameraCaptureSession session, CaptureRequest request,
-                                    CaptureFailure failure) {
-            Log.e(TAG, "onCaptureFailed(" + session + ")");
+        public void configureSession(boolean encoderTarget) {
+            // Step 4: Create capture request builder for preview. Add preview (and encode) Surface to target.
+            List<Surface> surfaces = new ArrayList<Surface>();
+            surfaces.add(previewSurface);
+            try {
+                CaptureRequest.Builder builder = cameraDevice.createCaptureRequest(
+                        encoderTarget ? CameraDevice.TEMPLATE_RECORD : CameraDevice.TEMPLATE_PREVIEW);
+                builder.addTarget(previewSurface);
+                if (imageAnalysis != null) {
+                    builder.addTarget(imageAnalysis.getSurface());
+                    surfaces.add(imageAnalysis.getSurface());
+                }
+                Surface encoderSurface = encodeSurface;
+                if (encoderTarget && encoderSurface != null) {
+                    builder.addTarget(encoderSurface);
+                    surfaces.add(encoderSurface);
+                }
+
+                int fps = captureRateGovernor.getFrameRate();
+                setEncodeRate(setFpsRange(builder, fps), fps);
+
+                // Step 5: Create capture session for preview, replaces the previous one
+                cameraDevice.createCaptureSession(surfaces, new PreviewSessionCallback(builder), cameraHandler);
+            } catch (CameraAccessException e) {
+                e.printStackTrace();
+            }
         }
     };
 
-    private class SampleContextFactory implements GLSurfaceView.EGLContextFactory {
-        private int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+    // Step 4 and 5 of slow motion: record template at fixed high frame rate, camera writes preview
+    // and encoder surfaces, both at the high-speed size
+    @TargetApi(Build.VERSION_CODES.M)
+    private void createHighSpeedSession(CameraDevice cameraDevice) {
+        try {
+            CaptureRequest.Builder builder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+            builder.addTarget(previewSurface);
+            builder.addTarget(encodeSurface);
+            builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE,
+                    new Range<Integer>(highSpeedMode.fps, highSpeedMode.fps));
+            cameraDevice.createConstrainedHighSpeedCaptureSession(Arrays.asList(previewSurface, encodeSurface),
+                    new HighSpeedSessionCallback(builder.build()), cameraHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
 
-        public EGLContext createContext(EGL10 egl, EGLDisplay display, EGLConfig config) {
-            int[] attrib_list = {EGL_CONTEXT_CLIENT_VERSION, mEGLContextClientVersion,
-                    EGL10.EGL_NONE };
+    // Session callbacks run on camera thread, each session starts the request it was created with
+    private class HighSpeedSessionCallback extends CameraCaptureSession.StateCallback {
+        private final CaptureRequest request;
 
-            eglContext = egl.eglCreateContext(display, config, EGL10.EGL_NO_CONTEXT,
-                    mEGLContextClientVersion != 0 ? attrib_list : null);
-            return eglContext;
+        HighSpeedSessionCallback(CaptureRequest request) {
+            this.request = request;
         }
 
-        public void destroyContext(EGL10 egl, EGLDisplay display,
-                                   EGLContext context) {
-            if (!egl.eglDestroyContext(display, context)) {
-                Log.e("DefaultContextFactory", "display:" + display + " context: " + context);
+        @TargetApi(Build.VERSION_CODES.M)
+        @Override
+        public void onConfigured(CameraCaptureSession cameraCaptureSession) {
+            // Step 6 of slow motion: high-speed requests go as a repeating burst
+            Log.v(TAG, "onConfigured(" + cameraCaptureSession + ") high-speed " + highSpeedMode);
+            try {
+                CameraConstrainedHighSpeedCaptureSession highSpeedSession =
+                        (CameraConstrainedHighSpeedCaptureSession) cameraCaptureSession;
+                List<CaptureRequest> requests = highSpeedSession.createHighSpeedRequestList(request);
+                highSpeedSession.setRepeatingBurst(requests, cameraCaptureSessionCaptureCallback,
+                        captureResultHandler);
+            } catch (CameraAccessException e) {
+                e.printStackTrace();
             }
         }
+
+        @Override
+        public void onConfigureFailed(CameraCaptureSession cameraCaptureSession) {
+            Log.e(TAG, "onConfigureFailed(" + cameraCaptureSession + ") high-speed " + highSpeedMode);
+        }
     }
 
-    private class SampleWindowSurfaceFactory implements GLSurfaceView.EGLWindowSurfaceFactory {
-        private final String TAG = this.getClass().getName();
-        public EGLSurface createWindowSurface(EGL10 egl, EGLDisplay display,
-                                              EGLConfig config, Object nativeWindow) {
-            EGLSurface result = null;
+    // Builder is kept with the session, the governor changes its frame rate in place
+    private class PreviewSessionCallback extends CameraCaptureSession.StateCallback {
+        private final CaptureRequest.Builder builder;
+
+        PreviewSessionCallback(CaptureRequest.Builder builder) {
+            this.builder = builder;
+        }
+
+        @Override
+        public void onConfigured(CameraCaptureSession cameraCaptureSession) {
+            // Step 6: Send preview request to start preview
+            Log.v(TAG, "onConfigured(" + cameraCaptureSession + ")");
+            previewSession = cameraCaptureSession;
+            previewRequestBuilder = builder;
             try {
-                eglSurfacePreview = egl.eglCreateWindowSurface(display, config, nativeWindow, null);
-            } catch (IllegalArgumentException e) {
-                // This exception indicates that the surface flinger surface
-                // is not valid. This can happen if the surface flinger surface has
-                // been torn down, but the application has not yet been
-                // notified via SurfaceHolder.Callback.surfaceDestroyed.
-                // In theory the application should be notified first,
-                // but in practice sometimes it is not. See b/4588890
-                Log.e(TAG, "eglCreateWindowSurface (native)", e);
+                cameraCaptureSession.setRepeatingRequest(builder.build(), cameraCaptureSessionCaptureCallback,
+                        captureResultHandler);
+            } catch (CameraAccessException e) {
+                e.printStackTrace();
             }
-            try {
-                eglSurfaceEncode = egl.eglCreateWindowSurface(display, config, encodeSurface, null);
-            } catch (IllegalArgumentException e) {
-                // This exception indicates that the surface flinger surface
-                // is not valid. This can happen if the surface flinger surface has
-                // been torn down, but the application has not yet been
-                // notified via SurfaceHolder.Callback.surfaceDestroyed.
-                // In theory the application should be notified first,
-                // but in practice sometimes it is not. See b/4588890
-                Log.e(TAG, "eglCreateWindowSurface (input surface)", e);
+            capturePathSwitcher.onSessionConfigured();
+            releaseRetiredEncodeSurfaces();
+        }
+
+        @Override
+        public void onConfigureFailed(CameraCaptureSession cameraCaptureSession) {
+            Log.e(TAG, "onConfigureFailed(" + cameraCaptureSession + ")");
+            capturePathSwitcher.onSessionConfigureFailed();
+            releaseRetiredEncodeSurfaces();
+        }
+    }
+
+    // Camera thread. Encoder surfaces of earlier encoders, once the session in use was created
+    // after them.
+    private void releaseRetiredEncodeSurfaces() {
+        if (capturePathSwitcher.isSwitching()) {
+            return;
+        }
+        for (Surface surface : retiredEncodeSurfaces) {
+            surface.release();
+        }
+        retiredEncodeSurfaces.clear();
+    }
+
+    // Camera thread. Passthrough needs the encoder size among the camera's outputs for MediaCodec.
+    private boolean isEncoderOutputSize(int width, int height) {
+        StreamConfigurationMap map = cameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size[] sizes = map != null ? map.getOutputSizes(MediaCodec.class) : null;
+        if (sizes == null) {
+            return false;
+        }
+        for (Size size : sizes) {
+            if (size.getWidth() == width && size.getHeight() == height) {
+                return true;
             }
-            result = eglSurfacePreview;
-            return result;
         }
+        return false;
+    }
+
+    // Camera thread. AE target range of the camera closest to fps, the camera's default if none.
+    // Returns the rate the camera runs at: upper bound of the range, fps without one.
+    private int setFpsRange(CaptureRequest.Builder builder, int fps) {
+        if (cameraCharacteristics == null) {
+            return fps;
+        }
+        Range<Integer>[] ranges = cameraCharacteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges == null) {
+            return fps;
+        }
+        int[][] bounds = new int[ranges.length][];
+        for (int i = 0; i < ranges.length; i++) {
+            bounds[i] = new int[] {ranges[i].getLower(), ranges[i].getUpper()};
+        }
+        int index = SampleCaptureRateGovernor.chooseFpsRange(bounds, fps);
+        if (index < 0) {
+            return fps;
+        }
+        builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, ranges[index]);
+        return ranges[index].getUpper();
+    }
 
-        public void destroySurface(EGL10 egl, EGLDisplay display,
-                                   EGLSurface surface) {
-            egl.eglDestroySurface(display, surface);
+    // Camera thread. Most cameras have no range as low as a static scene asks for, every n-th
+    // frame of the camera is drawn then. Passthrough can not skip frames, it waits meanwhile.
+    private void setEncodeRate(int cameraFps, int fps) {
+        int decimation = Math.max(1, cameraFps / Math.max(1, fps));
+        glRenderer.getFrameHandoff().setDecimation(decimation);
+        mediaEncoder.setCaptureFrameRate(cameraFps / decimation);
+        capturePathSwitcher.setPassthroughAllowed(!dualCamera && decimation == 1);
+    }
+
+    // Camera thread. Same session, repeating request replaced by one at the governor's rate.
+    private void applyCaptureRate() {
+        int fps = captureRateGovernor.getFrameRate();
+        Log.v(TAG, "Capture rate governor: " + captureRateGovernor);
+        if (previewSession == null) {
+            // Next session starts at this rate
+            return;
+        }
+        int cameraFps = setFpsRange(previewRequestBuilder, fps);
+        try {
+            previewSession.setRepeatingRequest(previewRequestBuilder.build(), cameraCaptureSessionCaptureCallback,
+                    captureResultHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        } catch (IllegalStateException e) {
+            // Session was replaced or closed, the next one starts at this rate
+            previewSession = null;
+            return;
         }
+        // After the request, a path switch replaces this session
+        setEncodeRate(cameraFps, fps);
     }
-}
\ No newline at end of file
+
+    // Battery broadcasts on the camera thread. Temperature is in tenths of a degree Celsius.
+    private final BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            batteryTemperature = intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0) / 10f;
+            int scale = Math.max(1, intent.getIntExtra(BatteryManager.EXTRA_SCALE, 100));
+            batteryLevel = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, scale) * 100 / scale;
+            batteryCharging = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        }
+    };
+
+    // Camera thread, once per GOVERNOR_INTERVAL_MS
+    private final Runnable governorTick = new Runnable() {
+        @Override
+        public void run() {
+            // Slow motion runs at its fixed high-speed rate
+            if (highSpeedMode != null) {
+                return;
+            }
+            long nowMs = SystemClock.elapsedRealtime();
+            boolean changed = captureRateGovernor.update(nowMs, batteryTemperature, batteryLevel, batteryCharging);
+            SampleImageAnalysis analysis = imageAnalysis;
+            if (analysis != null) {
+                analysis.getLatestStats(governorStats);
+                if (governorStats.timestampNs != governorStatsTimestampNs) {
+                    governorStatsTimestampNs = governorStats.timestampNs;
+                    changed |= captureRateGovernor.onMotion(nowMs, governorStats.motion);
+                }
+            }
+            if (changed) {
+                applyCaptureRate();
+            }
+            cameraHandler.postDelayed(this, GOVERNOR_INTERVAL_MS);
+        }
+    };
+
+    private CameraCaptureSession.CaptureCallback cameraCaptureSessionCaptureCallback
+            = new CameraCaptureSession.CaptureCallback() {
+
+        @Override
+        public void onCaptureStarted(CameraCaptureSession session, CaptureRequest request, long timestamp,
+                                     long frameNumber) {
+            //Log.d(TAG, "onCaptureStarted(" + session + ")");
+            if (!latencyClockChecked) {
+                // Sensor timestamp is either uptime or boot time based, use the closer one
+                long monotonicNs = System.nanoTime();
+                long realtimeNs = SystemClock.elapsedRealtimeNanos();
+                if (Math.abs(realtimeNs - timestamp) < Math.abs(monotonicNs - timestamp)) {
+                    latencyTracer.setClockOffset(realtimeNs - monotonicNs);
+                }
+                latencyClockChecked = true;
+            }
+            latencyTracer.mark(SampleLatencyTracer.STAGE_SENSOR, timestamp);
+        }
+
+        @Override
+        public void onCaptureProgressed(CameraCaptureSession session, CaptureRequest request,
+                                        CaptureResult partialResult) {
+            //Log.d(TAG, "onCaptureProgressed(" + session + ")");
+        }
+
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request,
+                                       TotalCaptureResult result) {
+            //Log.d(TAG, "onCaptureCompleted(" + session + ")");
+            // Keys a LEGACY device does not report are recorded as 0
+            Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+            Long exposureTime = result.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+            Integer sensitivity = result.get(CaptureResult.SENSOR_SENSITIVITY);
+            Float focusDistance = result.get(CaptureResult.LENS_FOCUS_DISTANCE);
+            if (timestamp != null) {
+                mediaEncoder.onCaptureResult(result.getFrameNumber(), timestamp,
+                        exposureTime != null ? exposureTime : 0, sensitivity != null ? sensitivity : 0,
+                        focusDistance != null ? focusDistance : 0);
+            }
+        }
+
+        @Override
+        public void onCaptureFailed(CameraCaptureSession session, CaptureRequest request,
+                                    CaptureFailure failure) {
+            Log.e(TAG, "onCaptureFailed(" + session + ")");
+        }
+    };
+}
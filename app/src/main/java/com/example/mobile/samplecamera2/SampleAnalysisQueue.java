@@ -0,0 +1,153 @@
+package com.example.mobile.samplecamera2;
+
+import java.util.ArrayDeque;
+
+//
+// Bounded frame queue with worker threads, the oldest queued frame is dropped when full
+//
+// The producer (camera callback) never waits: offer() drops the oldest frame if the workers fall
+// behind, so analysis always works on the newest frames and the camera keeps its buffers flowing.
+// Every frame ends in exactly one of Worker.process() or Worker.discard(), which release it.
+// With more than one worker frames may finish out of order.
+//
+// How to use
+// 1. Create with capacity, worker count and a Worker, call start().
+// 2. Producer calls offer() for each frame.
+// 3. stop() joins the workers and discards frames still queued.
+//
+
+public class SampleAnalysisQueue<T> {
+    public interface Worker<T> {
+        // Runs on a worker thread, releases frame when done
+        void process(T frame);
+
+        // Frame is dropped or queue is stopped, release frame. Runs on the calling thread.
+        void discard(T frame);
+    }
+
+    private final String name;
+    private final int capacity;
+    private final Worker<T> worker;
+    private final Thread[] threads;
+    private final ArrayDeque<T> frames;
+    private boolean running = false;
+    private long offeredFrames = 0;
+    private long processedFrames = 0;
+    private long droppedFrames = 0;
+
+    public SampleAnalysisQueue(String name, int capacity, int workerCount, Worker<T> worker) {
+        this.name = name;
+        this.capacity = capacity;
+        this.worker = worker;
+        threads = new Thread[workerCount];
+        frames = new ArrayDeque<T>(capacity);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, name + "-" + i);
+            threads[i].start();
+        }
+    }
+
+    public void offer(T frame) {
+        T dropped = null;
+        synchronized (this) {
+            if (running) {
+                offeredFrames++;
+                if (frames.size() == capacity) {
+                    dropped = frames.pollFirst();
+                    droppedFrames++;
+                }
+                frames.addLast(frame);
+                notify();
+            } else {
+                dropped = frame;
+            }
+        }
+        if (dropped != null) {
+            worker.discard(dropped);
+        }
+    }
+
+    public void stop() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            notifyAll();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        while (true) {
+            T frame;
+            synchronized (this) {
+                frame = frames.pollFirst();
+            }
+            if (frame == null) {
+                break;
+            }
+            worker.discard(frame);
+        }
+    }
+
+    private void work() {
+        while (true) {
+            T frame;
+            synchronized (this) {
+                while (running && frames.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+                frame = frames.pollFirst();
+            }
+            worker.process(frame);
+            synchronized (this) {
+                processedFrames++;
+            }
+        }
+    }
+
+    public synchronized int getQueuedFrames() {
+        return frames.size();
+    }
+
+    public synchronized long getOfferedFrames() {
+        return offeredFrames;
+    }
+
+    public synchronized long getProcessedFrames() {
+        return processedFrames;
+    }
+
+    public synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return name + ": offered " + offeredFrames + ", processed " + processedFrames + ", dropped "
+                + droppedFrames + ", queued " + frames.size();
+    }
+}
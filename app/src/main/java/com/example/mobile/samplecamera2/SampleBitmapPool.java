@@ -0,0 +1,29 @@
+package com.example.mobile.samplecamera2;
+
+import android.graphics.Bitmap;
+
+//
+// Pool of ARGB_8888 bitmaps keyed by width and height, see SampleObjectPool.
+//
+
+public class SampleBitmapPool extends SampleObjectPool<Bitmap> {
+    private static final Allocator<Bitmap> BITMAP_ALLOCATOR = new Allocator<Bitmap>() {
+        @Override
+        public Bitmap allocate(long key) {
+            return Bitmap.createBitmap((int) (key >>> 32), (int) key, Bitmap.Config.ARGB_8888);
+        }
+
+        @Override
+        public void free(Bitmap object) {
+            object.recycle();
+        }
+    };
+
+    public SampleBitmapPool(int maxBitmapsPerSize) {
+        super(BITMAP_ALLOCATOR, maxBitmapsPerSize);
+    }
+
+    public Bitmap acquire(int width, int height, String owner) {
+        return acquire(((long) width << 32) | (height & 0xffffffffL), owner);
+    }
+}
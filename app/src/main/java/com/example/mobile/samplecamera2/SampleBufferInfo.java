@@ -0,0 +1,36 @@
+package com.example.mobile.samplecamera2;
+
+//
+// Plain Java copy of MediaCodec.BufferInfo so drain, muxer and buffering logic can run
+// (and be unit tested) without android.jar. Flag values match MediaCodec.BUFFER_FLAG_*.
+//
+
+public class SampleBufferInfo {
+    public static final int FLAG_KEY_FRAME = 1;     // MediaCodec.BUFFER_FLAG_KEY_FRAME
+    public static final int FLAG_CODEC_CONFIG = 2;  // MediaCodec.BUFFER_FLAG_CODEC_CONFIG
+    public static final int FLAG_END_OF_STREAM = 4; // MediaCodec.BUFFER_FLAG_END_OF_STREAM
+
+    public int offset;
+    public int size;
+    public long presentationTimeUs;
+    public int flags;
+
+    public void set(int newOffset, int newSize, long newTimeUs, int newFlags) {
+        offset = newOffset;
+        size = newSize;
+        presentationTimeUs = newTimeUs;
+        flags = newFlags;
+    }
+
+    public boolean isKeyFrame() {
+        return (flags & FLAG_KEY_FRAME) != 0;
+    }
+
+    public boolean isCodecConfig() {
+        return (flags & FLAG_CODEC_CONFIG) != 0;
+    }
+
+    public boolean isEndOfStream() {
+        return (flags & FLAG_END_OF_STREAM) != 0;
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.mobile.samplecamera2;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+//
+// Size-keyed pool of native order direct ByteBuffers, see SampleObjectPool.
+// acquire(size) returns a cleared buffer of exactly size bytes, or null when the pool is exhausted.
+//
+
+public class SampleBufferPool extends SampleObjectPool<ByteBuffer> {
+    private static final Allocator<ByteBuffer> DIRECT_ALLOCATOR = new Allocator<ByteBuffer>() {
+        @Override
+        public ByteBuffer allocate(long key) {
+            return ByteBuffer.allocateDirect((int) key).order(ByteOrder.nativeOrder());
+        }
+
+        @Override
+        public void free(ByteBuffer object) {
+            // Direct memory goes with the garbage collected buffer
+        }
+    };
+
+    public SampleBufferPool(int maxBuffersPerSize) {
+        super(DIRECT_ALLOCATOR, maxBuffersPerSize);
+    }
+
+    public ByteBuffer acquire(int size, String owner) {
+        ByteBuffer buffer = acquire((long) size, owner);
+        if (buffer != null) {
+            buffer.clear();
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.mobile.samplecamera2;
+
+//
+// Where each camera of a multi-camera capture goes on the output, for single-pass compositing
+//
+// Layouts
+// LAYOUT_PIP:          camera 0 fills the output, other cameras are insets stacked from a corner.
+// LAYOUT_SIDE_BY_SIDE: cameras share the output in equal columns.
+//
+// compute() gives per camera a region of the output and a texture transform, both as vec4 for the
+// composite shader (getCompositeShader()). Output coordinates are 0..1, origin bottom-left (texture
+// coordinates of the blit geometry). A region keeps the camera aspect by cropping the camera image
+// around its center (fill). The texture transform maps region-local 0..1 to camera texture
+// coordinates: uv = transform.xy + local * transform.zw, flipped vertically like SurfaceTexture,
+// and horizontally for mirrored (front) cameras.
+//
+// Pure Java, layout can be changed at any time, compute() again for the new one.
+//
+
+public class SampleCameraLayout {
+    public static final int LAYOUT_PIP = 0;
+    public static final int LAYOUT_SIDE_BY_SIDE = 1;
+    public static final int CORNER_TOP_RIGHT = 0;
+    public static final int CORNER_TOP_LEFT = 1;
+    public static final int CORNER_BOTTOM_RIGHT = 2;
+    public static final int CORNER_BOTTOM_LEFT = 3;
+    public static final int MAX_CAMERAS = 3;
+
+    private final int type;
+    private float insetScale = 0.3f; // inset width / output width
+    private float margin = 0.03f; // inset distance to the edges, of output height
+    private int corner = CORNER_TOP_RIGHT;
+    private final boolean[] mirrored = new boolean[MAX_CAMERAS];
+
+    public SampleCameraLayout(int type) {
+        this.type = type;
+    }
+
+    public SampleCameraLayout setInset(int corner, float scale, float margin) {
+        this.corner = corner;
+        this.insetScale = scale;
+        this.margin = margin;
+        return this;
+    }
+
+    public SampleCameraLayout setMirrored(int camera, boolean mirror) {
+        mirrored[camera] = mirror;
+        return this;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    // cameraSizes: width, height per camera. regions and transforms: 4 floats per camera.
+    public void compute(int outputWidth, int outputHeight, int[] cameraSizes, float[] regions, float[] transforms) {
+        int count = cameraSizes.length / 2;
+        if (count < 1 || count > MAX_CAMERAS) {
+            throw new IllegalArgumentException("Camera count " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            region(i, count, outputWidth, outputHeight, regions);
+            transform(i, outputWidth, outputHeight, cameraSizes, regions, transforms);
+        }
+    }
+
+    private void region(int i, int count, int outputWidth, int outputHeight, float[] regions) {
+        float x, y, w, h;
+        if (type == LAYOUT_SIDE_BY_SIDE) {
+            w = 1f / count;
+            h = 1f;
+            x = i * w;
+            y = 0f;
+        } else if (i == 0) {
+            x = 0f;
+            y = 0f;
+            w = 1f;
+            h = 1f;
+        } else {
+            // Insets have the output aspect, stacked away from the corner
+            float aspect = (float) outputWidth / outputHeight;
+            w = insetScale;
+            h = insetScale;
+            float marginX = margin / aspect;
+            float marginY = margin;
+            boolean right = corner == CORNER_TOP_RIGHT || corner == CORNER_BOTTOM_RIGHT;
+            boolean top = corner == CORNER_TOP_RIGHT || corner == CORNER_TOP_LEFT;
+            x = right ? 1f - marginX - w : marginX;
+            float offset = marginY + (i - 1) * (h + marginY);
+            y = top ? 1f - offset - h : offset;
+        }
+        regions[i * 4] = x;
+        regions[i * 4 + 1] = y;
+        regions[i * 4 + 2] = w;
+        regions[i * 4 + 3] = h;
+    }
+
+    private void transform(int i, int outputWidth, int outputHeight, int[] cameraSizes, float[] regions,
+                           float[] transforms) {
+        float regionAspect = regions[i * 4 + 2] * outputWidth / (regions[i * 4 + 3] * outputHeight);
+        float cameraAspect = (float) cameraSizes[i * 2] / cameraSizes[i * 2 + 1];
+        // Visible part of the camera image, centered
+        float cropW = cameraAspect > regionAspect ? regionAspect / cameraAspect : 1f;
+        float cropH = cameraAspect > regionAspect ? 1f : cameraAspect / regionAspect;
+        float left = (1f - cropW) / 2;
+        float bottom = (1f - cropH) / 2;
+        // Output bottom is camera texture top (SurfaceTexture), mirrored cameras flip left and right
+        transforms[i * 4] = mirrored[i] ? left + cropW : left;
+        transforms[i * 4 + 1] = bottom + cropH;
+        transforms[i * 4 + 2] = mirrored[i] ? -cropW : cropW;
+        transforms[i * 4 + 3] = -cropH;
+    }
+
+    // Share of the output area per camera, visible part only (insets cover camera 0)
+    public float[] getAreaWeights(int outputWidth, int outputHeight, int[] cameraSizes) {
+        int count = cameraSizes.length / 2;
+        float[] regions = new float[count * 4];
+        float[] transforms = new float[count * 4];
+        compute(outputWidth, outputHeight, cameraSizes, regions, transforms);
+        float[] weights = new float[count];
+        float covered = 0f;
+        for (int i = 0; i < count; i++) {
+            weights[i] = regions[i * 4 + 2] * regions[i * 4 + 3];
+            if (i > 0) {
+                covered += weights[i];
+            }
+        }
+        if (type == LAYOUT_PIP) {
+            weights[0] -= covered;
+        }
+        return weights;
+    }
+
+    // Fragment shader drawing count cameras in one pass. Uniforms cameraTexture<i>, region[i] and
+    // transform[i]. Later cameras are drawn over earlier ones.
+    public static String getCompositeShader(int count) {
+        StringBuilder code = new StringBuilder();
+        code.append("#extension GL_OES_EGL_image_external : require\n")
+                .append("precision mediump float;\n")
+                .append("varying vec2 texCoordVar;\n")
+                .append("uniform vec4 region[").append(count).append("];\n")
+                .append("uniform vec4 transform[").append(count).append("];\n");
+        for (int i = 0; i < count; i++) {
+            code.append("uniform samplerExternalOES cameraTexture").append(i).append(";\n");
+        }
+        code.append("bool inside(vec2 local) {\n")
+                .append("    return all(greaterThanEqual(local, vec2(0.0))) && all(lessThanEqual(local, vec2(1.0)));\n")
+                .append("}\n")
+                .append("void main() {\n")
+                .append("    vec2 local;\n")
+                .append("    vec4 color = vec4(0.0, 0.0, 0.0, 1.0);\n");
+        for (int i = 0; i < count; i++) {
+            code.append("    local = (texCoordVar - region[").append(i).append("].xy) / region[").append(i)
+                    .append("].zw;\n")
+                    .append("    if (inside(local)) {\n")
+                    .append("        color = texture2D(cameraTexture").append(i).append(", transform[").append(i)
+                    .append("].xy + local * transform[").append(i).append("].zw);\n")
+                    .append("    }\n");
+        }
+        code.append("    gl_FragColor = color;\n").append("}\n");
+        return code.toString();
+    }
+}
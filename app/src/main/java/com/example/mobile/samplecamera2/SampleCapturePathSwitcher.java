@@ -0,0 +1,190 @@
+package com.example.mobile.samplecamera2;
+
+//
+// Choose how recorded frames reach the encoder and switch between the two paths
+//
+// PATH_COMPOSITED:  camera -> SurfaceTexture -> GL draw -> encoder input surface
+// PATH_PASSTHROUGH: camera -> encoder input surface, GL draws preview only
+//
+// Passthrough is used while no effect is active, it is allowed and the camera can output the
+// encoder size. A session with the encoder surface that fails to configure falls back to the
+// composited path until the encoder surface changes. A Surface has one producer
+// at a time, so a switch is ordered:
+// to passthrough: detach renderer output of encoder surface, then capture session with encoder
+// to composited:  capture session without encoder surface, then attach renderer output again
+// The camera device, SurfaceTexture and the encoder keep running, only the session is recreated.
+// Changes requested while a switch is running are applied when it is done.
+//
+// How to use (all calls on one thread, e.g. main thread)
+// 1. Create with a Host, call start() once the camera device is open.
+// 2. setEffectsActive() whenever effects are toggled, setEncoderSizeSupported() whenever the
+//    encoder size changes.
+// 3. Host calls onEncoderDetached() and onSessionConfigured() or onSessionConfigureFailed() when
+//    its asynchronous work is done.
+//
+
+public class SampleCapturePathSwitcher {
+    public static final int PATH_COMPOSITED = 0;
+    public static final int PATH_PASSTHROUGH = 1;
+
+    public interface Host {
+        // Remove renderer output of the encoder surface, call onEncoderDetached() once its EGL
+        // surface is destroyed
+        void detachEncoderOutput();
+
+        // Add renderer output of the encoder surface
+        void attachEncoderOutput();
+
+        // Create capture session with preview and, if encoderTarget, encoder surface as targets,
+        // start repeating request, call onSessionConfigured() or onSessionConfigureFailed()
+        void configureSession(boolean encoderTarget);
+    }
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_STABLE = 1;
+    private static final int STATE_DETACHING = 2;
+    private static final int STATE_CONFIGURING = 3;
+
+    private final Host host;
+    private int state = STATE_IDLE;
+    private int path = PATH_COMPOSITED;
+    private boolean effectsActive = false;
+    private boolean passthroughAllowed = true;
+    private boolean encoderSizeSupported = true;
+    private boolean passthroughFailed = false;
+    private boolean sessionOutdated = false;
+    private boolean attachWhenConfigured = false;
+    private int switchCount = 0;
+
+    public SampleCapturePathSwitcher(Host host) {
+        this.host = host;
+    }
+
+    public void start() {
+        if (state != STATE_IDLE) {
+            return;
+        }
+        path = getWantedPath();
+        state = STATE_CONFIGURING;
+        if (path == PATH_COMPOSITED) {
+            host.attachEncoderOutput();
+        }
+        host.configureSession(path == PATH_PASSTHROUGH);
+    }
+
+    public void setEffectsActive(boolean active) {
+        effectsActive = active;
+        reconcile();
+    }
+
+    // False forces the composited path: benchmarks, frame decimation below the camera rate
+    public void setPassthroughAllowed(boolean allowed) {
+        passthroughAllowed = allowed;
+        reconcile();
+    }
+
+    // Whether the encoder size is one of the camera's output sizes for the encoder, e.g. after
+    // rate control changed the resolution. Call before onEncoderSurfaceChanged().
+    public void setEncoderSizeSupported(boolean supported) {
+        encoderSizeSupported = supported;
+        reconcile();
+    }
+
+    // Encoder was restarted with a new input surface. The renderer output is moved by its owner,
+    // a passthrough session must be recreated with the new surface. Passthrough is tried again.
+    public void onEncoderSurfaceChanged() {
+        passthroughFailed = false;
+        if (state != STATE_IDLE && path == PATH_PASSTHROUGH) {
+            sessionOutdated = true;
+        }
+        reconcile();
+    }
+
+    public void onEncoderDetached() {
+        if (state != STATE_DETACHING) {
+            return;
+        }
+        state = STATE_CONFIGURING;
+        host.configureSession(true);
+    }
+
+    public void onSessionConfigured() {
+        if (state != STATE_CONFIGURING) {
+            return;
+        }
+        if (attachWhenConfigured) {
+            // Old session released the encoder surface, renderer can draw into it again
+            attachWhenConfigured = false;
+            host.attachEncoderOutput();
+        }
+        state = STATE_STABLE;
+        reconcile();
+    }
+
+    // Session could not be created. Without the encoder surface as target there is nothing to fall
+    // back to, the path is kept. With it, switch to composited: the failed session does not own
+    // the surface, the renderer takes it once the composited session is configured.
+    public void onSessionConfigureFailed() {
+        if (state != STATE_CONFIGURING) {
+            return;
+        }
+        if (path == PATH_COMPOSITED) {
+            if (attachWhenConfigured) {
+                attachWhenConfigured = false;
+                host.attachEncoderOutput();
+            }
+            state = STATE_STABLE;
+            return;
+        }
+        passthroughFailed = true;
+        path = PATH_COMPOSITED;
+        sessionOutdated = false;
+        switchCount++;
+        attachWhenConfigured = true;
+        host.configureSession(false);
+    }
+
+    private int getWantedPath() {
+        return passthroughAllowed && encoderSizeSupported && !passthroughFailed && !effectsActive
+                ? PATH_PASSTHROUGH : PATH_COMPOSITED;
+    }
+
+    private void reconcile() {
+        if (state != STATE_STABLE) {
+            return;
+        }
+        int wanted = getWantedPath();
+        if (wanted == path) {
+            if (sessionOutdated) {
+                sessionOutdated = false;
+                state = STATE_CONFIGURING;
+                host.configureSession(path == PATH_PASSTHROUGH);
+            }
+            return;
+        }
+        path = wanted;
+        sessionOutdated = false;
+        switchCount++;
+        if (path == PATH_PASSTHROUGH) {
+            state = STATE_DETACHING;
+            host.detachEncoderOutput();
+        } else {
+            state = STATE_CONFIGURING;
+            attachWhenConfigured = true;
+            host.configureSession(false);
+        }
+    }
+
+    // Path in use, or being switched to
+    public int getPath() {
+        return path;
+    }
+
+    public boolean isSwitching() {
+        return state == STATE_DETACHING || state == STATE_CONFIGURING;
+    }
+
+    public int getSwitchCount() {
+        return switchCount;
+    }
+}
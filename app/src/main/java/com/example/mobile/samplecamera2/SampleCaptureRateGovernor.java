@@ -0,0 +1,187 @@
+package com.example.mobile.samplecamera2;
+
+import java.util.Locale;
+
+//
+// Power and thermal policy for the capture frame rate shared by sensor, preview and encoder
+//
+// How to use
+// 1. Create with the frame rate of every stage, stage 0 is full rate, and the timelapse rate of
+//    static scenes. Change thresholds with setTemperatureThresholds()/setBatteryThresholds().
+// 2. Call update() periodically (about once a second) with device temperature, battery level and
+//    charging state, and onMotion() with the motion of analyzed frames. Both return true when
+//    getFrameRate() changed, the caller then applies it to the repeating request and encoder.
+//
+// Stages
+// Temperature above the threshold of a stage, or battery at or below its threshold while not
+// charging, raises the stage at once. The stage goes down only after conditions stayed below it
+// (temperature by TEMPERATURE_HYSTERESIS) for COOLDOWN_MS, so a temperature hovering around a
+// threshold does not toggle the rate.
+//
+// Static scenes
+// Motion below staticMotion for STATIC_DELAY_MS switches to the timelapse rate, the first frame
+// with motion switches back.
+//
+// Pure Java, unit tests replay simulated thermal and battery traces.
+//
+
+public class SampleCaptureRateGovernor {
+    public static final float TEMPERATURE_HYSTERESIS = 2.0f;
+    public static final long COOLDOWN_MS = 30000;
+    public static final long STATIC_DELAY_MS = 5000;
+
+    private final int[] stageFrameRates;
+    private final int staticFrameRate;
+    // Degrees Celsius to enter stage i + 1, battery percent to enter stage i + 1
+    private float[] temperatureThresholds = {41.0f, 44.0f};
+    private int[] batteryThresholds = {15, 5};
+    private float staticMotion = 1.0f;
+
+    private int stage = 0;
+    private long belowSinceMs = -1;
+    private boolean staticScene = false;
+    private long staticSinceMs = -1;
+    private int frameRate;
+
+    // Last inputs, for logging
+    private float temperature = 0;
+    private int batteryPercent = 100;
+    private boolean charging = false;
+
+    public SampleCaptureRateGovernor(int[] stageFrameRates, int staticFrameRate) {
+        this.stageFrameRates = stageFrameRates;
+        this.staticFrameRate = staticFrameRate;
+        frameRate = stageFrameRates[0];
+    }
+
+    // One threshold per stage above 0, rising
+    public void setTemperatureThresholds(float[] celsius) {
+        temperatureThresholds = celsius;
+    }
+
+    // One threshold per stage above 0, falling
+    public void setBatteryThresholds(int[] percent) {
+        batteryThresholds = percent;
+    }
+
+    // Mean absolute luma difference (SampleFrameStats.motion) below which a frame is static
+    public void setStaticMotion(float motion) {
+        staticMotion = motion;
+    }
+
+    public boolean update(long nowMs, float temperatureCelsius, int batteryLevelPercent, boolean isCharging) {
+        temperature = temperatureCelsius;
+        batteryPercent = batteryLevelPercent;
+        charging = isCharging;
+        int wanted = Math.max(temperatureStage(temperatureCelsius), batteryStage(batteryLevelPercent, isCharging));
+        if (wanted > stage) {
+            stage = wanted;
+            belowSinceMs = -1;
+        } else if (wanted < stage && isBelowStage(temperatureCelsius)) {
+            if (belowSinceMs < 0) {
+                belowSinceMs = nowMs;
+            } else if (nowMs - belowSinceMs >= COOLDOWN_MS) {
+                // One stage at a time, each with its own cooldown
+                stage--;
+                belowSinceMs = stage > wanted ? nowMs : -1;
+            }
+        } else {
+            belowSinceMs = -1;
+        }
+        return updateFrameRate();
+    }
+
+    public boolean onMotion(long nowMs, float motion) {
+        if (motion >= staticMotion) {
+            staticSinceMs = -1;
+            staticScene = false;
+        } else if (staticSinceMs < 0) {
+            staticSinceMs = nowMs;
+        } else if (nowMs - staticSinceMs >= STATIC_DELAY_MS) {
+            staticScene = true;
+        }
+        return updateFrameRate();
+    }
+
+    private int temperatureStage(float celsius) {
+        int wanted = 0;
+        for (int i = 0; i < temperatureThresholds.length && i + 1 < stageFrameRates.length; i++) {
+            if (celsius >= temperatureThresholds[i]) {
+                wanted = i + 1;
+            }
+        }
+        return wanted;
+    }
+
+    private int batteryStage(int percent, boolean isCharging) {
+        int wanted = 0;
+        for (int i = 0; !isCharging && i < batteryThresholds.length && i + 1 < stageFrameRates.length; i++) {
+            if (percent <= batteryThresholds[i]) {
+                wanted = i + 1;
+            }
+        }
+        return wanted;
+    }
+
+    // Temperature is below the current stage's threshold by the hysteresis
+    private boolean isBelowStage(float celsius) {
+        return stage == 0 || stage > temperatureThresholds.length
+                || celsius < temperatureThresholds[stage - 1] - TEMPERATURE_HYSTERESIS;
+    }
+
+    private boolean updateFrameRate() {
+        int rate = stageFrameRates[stage];
+        if (staticScene) {
+            rate = Math.min(rate, staticFrameRate);
+        }
+        if (rate == frameRate) {
+            return false;
+        }
+        frameRate = rate;
+        return true;
+    }
+
+    public int getFrameRate() {
+        return frameRate;
+    }
+
+    public int getStage() {
+        return stage;
+    }
+
+    public boolean isStaticScene() {
+        return staticScene;
+    }
+
+    // Index of the AE target fps range closest to fps (ranges: {lower, upper} pairs): a range
+    // ending at fps with the highest lower bound, else the highest one ending below fps, else the
+    // lowest one. -1 if there are no ranges.
+    public static int chooseFpsRange(int[][] ranges, int fps) {
+        int best = -1;
+        for (int i = 0; i < ranges.length; i++) {
+            if (best < 0 || isCloser(ranges[i], ranges[best], fps)) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static boolean isCloser(int[] a, int[] b, int fps) {
+        boolean fitsA = a[1] <= fps;
+        boolean fitsB = b[1] <= fps;
+        if (fitsA != fitsB) {
+            return fitsA;
+        }
+        if (a[1] != b[1]) {
+            // Highest of those at or below fps, lowest of those above
+            return fitsA ? a[1] > b[1] : a[1] < b[1];
+        }
+        return a[0] > b[0];
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "stage %d%s, %dfps (%.1fC, battery %d%%%s)", stage,
+                staticScene ? " static" : "", frameRate, temperature, batteryPercent, charging ? " charging" : "");
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.mobile.samplecamera2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//
+// Shader effect chain: plan passes for a set of effects and generate their fragment shaders
+//
+// Effects run in a fixed order: GRAYSCALE (color conversion), LUT (color grading with a 2D strip
+// lookup table), SHARPEN (4-neighbour unsharp), OVERLAY (alpha blended framing guide).
+// Pointwise effects are fused into one pass: they are plain functions applied in turn.
+// SHARPEN reads its input at 5 taps. The pointwise effects before it are fused too by applying
+// them to every tap, unless their extra texture fetches (fetches x 4 extra taps) cost more than
+// MAX_FUSED_EXTRA_FETCHES, then the chain is split and SHARPEN starts a new pass that reads the
+// intermediate framebuffer. The first pass reads the camera texture (samplerExternalOES).
+//
+// Pure Java, the same source text is generated for the same plan, so it can be a program cache key.
+//
+
+public class SampleEffectChain {
+    public static final int NONE = 0;
+    public static final int GRAYSCALE = 1;
+    public static final int LUT = 2;
+    public static final int SHARPEN = 4;
+    public static final int OVERLAY = 8;
+    public static final int ALL = GRAYSCALE | LUT | SHARPEN | OVERLAY;
+
+    // Extra texture fetches per pixel worth saving a framebuffer write and read
+    public static final int MAX_FUSED_EXTRA_FETCHES = 4;
+    public static final int LUT_SIZE = 16;
+    public static final float SHARPEN_STRENGTH = 0.5f;
+
+    // Order of effects in the chain
+    private static final int[] ORDER = {GRAYSCALE, LUT, SHARPEN, OVERLAY};
+    private static final int SHARPEN_TAPS = 5;
+
+    public static class Pass {
+        private final boolean externalSource;
+        // Pointwise effects applied to every source sample
+        private int sourceEffects = NONE;
+        // Neighbourhood effect of this pass, NONE or SHARPEN
+        private int neighbourhoodEffect = NONE;
+        // Pointwise effects applied after the neighbourhood effect
+        private int outputEffects = NONE;
+
+        Pass(boolean externalSource) {
+            this.externalSource = externalSource;
+        }
+
+        public boolean isExternalSource() {
+            return externalSource;
+        }
+
+        public int getEffects() {
+            return sourceEffects | neighbourhoodEffect | outputEffects;
+        }
+
+        public boolean usesTexelSize() {
+            return neighbourhoodEffect != NONE;
+        }
+
+        public boolean uses(int effect) {
+            return (getEffects() & effect) != 0;
+        }
+
+        public String getFragmentShader() {
+            StringBuilder code = new StringBuilder();
+            if (externalSource) {
+                code.append("#extension GL_OES_EGL_image_external : require\n");
+            }
+            code.append("precision mediump float;\n");
+            code.append(externalSource ? "uniform samplerExternalOES texture;\n" : "uniform sampler2D texture;\n");
+            code.append("varying vec2 texCoordVar;\n");
+            if (uses(LUT)) {
+                code.append("uniform sampler2D lutTexture;\n");
+                appendLut(code);
+            }
+            if (uses(GRAYSCALE)) {
+                code.append("vec4 grayscale(vec4 color) {\n")
+                        .append("    float luma = dot(color.rgb, vec3(0.299, 0.587, 0.114));\n")
+                        .append("    return vec4(luma, luma, luma, color.a);\n")
+                        .append("}\n");
+            }
+            if (uses(OVERLAY)) {
+                code.append("uniform sampler2D overlayTexture;\n")
+                        .append("vec4 overlay(vec4 color) {\n")
+                        .append("    vec4 guide = texture2D(overlayTexture, texCoordVar);\n")
+                        .append("    return vec4(mix(color.rgb, guide.rgb, guide.a), color.a);\n")
+                        .append("}\n");
+            }
+            code.append("vec4 source(vec2 uv) {\n")
+                    .append("    vec4 color = texture2D(texture, uv);\n");
+            appendCalls(code, sourceEffects);
+            code.append("    return color;\n").append("}\n");
+            if (neighbourhoodEffect == SHARPEN) {
+                code.append("uniform vec2 texelSize;\n")
+                        .append("vec4 sharpen(vec2 uv) {\n")
+                        .append("    vec4 color = source(uv);\n")
+                        .append("    vec3 sum = source(uv + vec2(texelSize.x, 0.0)).rgb")
+                        .append(" + source(uv - vec2(texelSize.x, 0.0)).rgb")
+                        .append(" + source(uv + vec2(0.0, texelSize.y)).rgb")
+                        .append(" + source(uv - vec2(0.0, texelSize.y)).rgb;\n")
+                        .append("    return vec4(clamp(color.rgb + ").append(SHARPEN_STRENGTH)
+                        .append(" * (4.0 * color.rgb - sum), 0.0, 1.0), color.a);\n")
+                        .append("}\n");
+            }
+            code.append("void main() {\n")
+                    .append(neighbourhoodEffect == SHARPEN
+                            ? "    vec4 color = sharpen(texCoordVar);\n" : "    vec4 color = source(texCoordVar);\n");
+            appendCalls(code, outputEffects);
+            code.append("    gl_FragColor = color;\n").append("}\n");
+            return code.toString();
+        }
+
+        @Override
+        public String toString() {
+            return (externalSource ? "camera" : "framebuffer") + " " + names(sourceEffects)
+                    + (neighbourhoodEffect != NONE ? " > " + names(neighbourhoodEffect) : "")
+                    + (outputEffects != NONE ? " > " + names(outputEffects) : "");
+        }
+    }
+
+    // Passes for the effects in mask, empty for NONE
+    public static List<Pass> plan(int effects) {
+        List<Pass> passes = new ArrayList<Pass>();
+        Pass pass = null;
+        for (int effect : ORDER) {
+            if ((effects & effect) == 0) {
+                continue;
+            }
+            if (pass == null) {
+                pass = new Pass(true);
+                passes.add(pass);
+            }
+            if (effect == SHARPEN) {
+                int extraFetches = fetches(pass.getEffects()) * (SHARPEN_TAPS - 1);
+                if (pass.neighbourhoodEffect != NONE || pass.outputEffects != NONE
+                        || extraFetches > MAX_FUSED_EXTRA_FETCHES) {
+                    pass = new Pass(false);
+                    passes.add(pass);
+                }
+                pass.neighbourhoodEffect = SHARPEN;
+            } else if (pass.neighbourhoodEffect != NONE) {
+                pass.outputEffects |= effect;
+            } else {
+                pass.sourceEffects |= effect;
+            }
+        }
+        return passes;
+    }
+
+    // Texture fetches of pointwise effects, the source sample excluded
+    private static int fetches(int effects) {
+        int count = 0;
+        if ((effects & LUT) != 0) {
+            count += 2;
+        }
+        if ((effects & OVERLAY) != 0) {
+            count += 1;
+        }
+        return count;
+    }
+
+    private static void appendCalls(StringBuilder code, int effects) {
+        if ((effects & GRAYSCALE) != 0) {
+            code.append("    color = grayscale(color);\n");
+        }
+        if ((effects & LUT) != 0) {
+            code.append("    color = lut(color);\n");
+        }
+        if ((effects & OVERLAY) != 0) {
+            code.append("    color = overlay(color);\n");
+        }
+    }
+
+    // 3D lookup in a LUT_SIZE^2 x LUT_SIZE strip, blue selects the slice, slices are blended
+    private static void appendLut(StringBuilder code) {
+        float last = LUT_SIZE - 1;
+        float size = LUT_SIZE;
+        float width = LUT_SIZE * LUT_SIZE;
+        code.append("vec4 lut(vec4 color) {\n")
+                .append("    float blue = color.b * ").append(last).append(";\n")
+                .append("    float slice0 = floor(blue);\n")
+                .append("    float slice1 = min(slice0 + 1.0, ").append(last).append(");\n")
+                .append("    float x = (color.r * ").append(last).append(" + 0.5) / ").append(width).append(";\n")
+                .append("    float y = (color.g * ").append(last).append(" + 0.5) / ").append(size).append(";\n")
+                .append("    vec3 a = texture2D(lutTexture, vec2(x + slice0 / ").append(size).append(", y)).rgb;\n")
+                .append("    vec3 b = texture2D(lutTexture, vec2(x + slice1 / ").append(size).append(", y)).rgb;\n")
+                .append("    return vec4(mix(a, b, blue - slice0), color.a);\n")
+                .append("}\n");
+    }
+
+    // Warm grade: red lifted, blue lowered, gentle S-curve. RGBA, LUT_SIZE^2 x LUT_SIZE.
+    public static byte[] createWarmLut() {
+        int size = LUT_SIZE;
+        byte[] lut = new byte[size * size * size * 4];
+        for (int b = 0; b < size; b++) {
+            for (int g = 0; g < size; g++) {
+                for (int r = 0; r < size; r++) {
+                    int i = (g * size * size + b * size + r) * 4;
+                    lut[i] = grade(r / (size - 1f), 1.08f);
+                    lut[i + 1] = grade(g / (size - 1f), 1f);
+                    lut[i + 2] = grade(b / (size - 1f), 0.9f);
+                    lut[i + 3] = (byte) 255;
+                }
+            }
+        }
+        return lut;
+    }
+
+    private static byte grade(float value, float gain) {
+        float curve = value * value * (3 - 2 * value);
+        float graded = (value + curve) * 0.5f * gain;
+        return (byte) Math.round(Math.max(0f, Math.min(1f, graded)) * 255);
+    }
+
+    // Framing guide: semi transparent thirds lines and border, RGBA, width x height
+    public static byte[] createOverlay(int width, int height) {
+        byte[] pixels = new byte[width * height * 4];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean border = x == 0 || y == 0 || x == width - 1 || y == height - 1;
+                boolean third = x == width / 3 || x == width * 2 / 3 || y == height / 3 || y == height * 2 / 3;
+                if (border || third) {
+                    int i = (y * width + x) * 4;
+                    pixels[i] = (byte) 255;
+                    pixels[i + 1] = (byte) 255;
+                    pixels[i + 2] = (byte) 255;
+                    pixels[i + 3] = (byte) (border ? 160 : 96);
+                }
+            }
+        }
+        return pixels;
+    }
+
+    private static String names(int effects) {
+        StringBuilder names = new StringBuilder();
+        String[] labels = {"grayscale", "lut", "sharpen", "overlay"};
+        for (int i = 0; i < ORDER.length; i++) {
+            if ((effects & ORDER[i]) != 0) {
+                names.append(names.length() > 0 ? "+" : "").append(labels[i]);
+            }
+        }
+        return names.length() > 0 ? names.toString() : "copy";
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.mobile.samplecamera2;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+//
+// Circular buffer of encoded samples ("the last N seconds")
+//
+// Sample data is copied into one direct buffer allocated up front, sample info is kept in
+// preallocated arrays, add() does not allocate. Oldest samples are evicted when bytes, sample
+// count or duration limit is reached. The buffer always starts with a key frame: non key frames
+// left in front after eviction can not be decoded and are evicted as well. The duration limit
+// never evicts the group of pictures the newest sample belongs to, so it can be exceeded by up to
+// one key frame interval.
+//
+// Not thread safe, feed and read it from the encoder drain thread.
+//
+
+public class SampleEncodedRingBuffer {
+    private final ByteBuffer data;
+    private final ByteBuffer readView;
+    private final int capacity;
+    private final int maxSamples;
+    private final long maxDurationUs;
+
+    private final int[] sampleOffset;
+    private final int[] sampleSize;
+    private final int[] sampleFlags;
+    private final long[] sampleTimeUs;
+    private int head = 0;   // index of oldest sample
+    private int count = 0;
+    private int writePosition = 0;
+    private long bytesUsed = 0;
+
+    private long rejectedCount = 0;
+    private long evictedCount = 0;
+
+    // maxDurationUs 0 = bounded by bytes and samples only
+    public SampleEncodedRingBuffer(int capacityBytes, int maxSamples, long maxDurationUs) {
+        capacity = capacityBytes;
+        this.maxSamples = maxSamples;
+        this.maxDurationUs = maxDurationUs;
+        data = ByteBuffer.allocateDirect(capacityBytes).order(ByteOrder.nativeOrder());
+        readView = data.duplicate();
+        sampleOffset = new int[maxSamples];
+        sampleSize = new int[maxSamples];
+        sampleFlags = new int[maxSamples];
+        sampleTimeUs = new long[maxSamples];
+    }
+
+    // Copy sample (src position to limit) into the buffer. Codec config samples are not kept.
+    // Return false if the sample can not be kept: larger than the whole buffer, or a non key
+    // frame that would be the first sample, also when making room for it emptied the buffer.
+    public boolean add(ByteBuffer src, SampleBufferInfo info) {
+        int size = src.remaining();
+        if (info.isCodecConfig() || size > capacity || (count == 0 && !info.isKeyFrame())) {
+            rejectedCount++;
+            return false;
+        }
+        if (count == maxSamples) {
+            evictOldest();
+        }
+        int position;
+        while ((position = findSpace(size)) < 0) {
+            evictOldest();
+        }
+        if (count == 0 && !info.isKeyFrame()) {
+            rejectedCount++;
+            return false;
+        }
+
+        int index = (head + count) % maxSamples;
+        int srcPosition = src.position();
+        data.limit(position + size);
+        data.position(position);
+        data.put(src);
+        src.position(srcPosition);
+        sampleOffset[index] = position;
+        sampleSize[index] = size;
+        sampleFlags[index] = info.flags;
+        sampleTimeUs[index] = info.presentationTimeUs;
+        count++;
+        bytesUsed += size;
+        writePosition = position + size;
+
+        if (maxDurationUs > 0) {
+            // Evicting the oldest group of pictures must leave a key frame in front
+            while (info.presentationTimeUs - sampleTimeUs[head] > maxDurationUs && hasKeyFrameAfterHead()) {
+                evictOldest();
+            }
+        }
+        return true;
+    }
+
+    // Start of a contiguous free region of size bytes, -1 if none
+    private int findSpace(int size) {
+        if (count == 0) {
+            writePosition = 0;
+            return 0;
+        }
+        int tail = sampleOffset[head];
+        if (writePosition > tail) {
+            // Used region is [tail, writePosition)
+            if (capacity - writePosition >= size) {
+                return writePosition;
+            }
+            return tail >= size ? 0 : -1;
+        }
+        // Used region wrapped: [tail, end of last sample before wrap) and [0, writePosition)
+        return tail - writePosition >= size ? writePosition : -1;
+    }
+
+    private void evictOldest() {
+        removeHead();
+        // Keep the buffer starting with a key frame
+        while (count > 0 && (sampleFlags[head] & SampleBufferInfo.FLAG_KEY_FRAME) == 0) {
+            removeHead();
+        }
+    }
+
+    private boolean hasKeyFrameAfterHead() {
+        for (int i = 1; i < count; i++) {
+            if (isKeyFrame(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void removeHead() {
+        bytesUsed -= sampleSize[head];
+        head = (head + 1) % maxSamples;
+        count--;
+        evictedCount++;
+    }
+
+    public void clear() {
+        head = 0;
+        count = 0;
+        writePosition = 0;
+        bytesUsed = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public long getBytesUsed() {
+        return bytesUsed;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public long getEvictedCount() {
+        return evictedCount;
+    }
+
+    public long getDurationUs() {
+        return count == 0 ? 0 : sampleTimeUs[(head + count - 1) % maxSamples] - sampleTimeUs[head];
+    }
+
+    // i-th sample, 0 is oldest. info is filled in (offset = view position), returned view is valid
+    // until next add().
+    public ByteBuffer get(int i, SampleBufferInfo info) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("sample " + i + " of " + count);
+        }
+        int index = (head + i) % maxSamples;
+        readView.limit(sampleOffset[index] + sampleSize[index]);
+        readView.position(sampleOffset[index]);
+        info.set(sampleOffset[index], sampleSize[index], sampleTimeUs[index], sampleFlags[index]);
+        return readView;
+    }
+
+    public long getTimeUs(int i) {
+        return sampleTimeUs[(head + i) % maxSamples];
+    }
+
+    public boolean isKeyFrame(int i) {
+        return (sampleFlags[(head + i) % maxSamples] & SampleBufferInfo.FLAG_KEY_FRAME) != 0;
+    }
+
+    // Most recent key frame at or before timeUs. Oldest sample (always a key frame) if timeUs
+    // is before the buffer, -1 if buffer is empty.
+    public int findKeyFrame(long timeUs) {
+        for (int i = count - 1; i > 0; i--) {
+            if (isKeyFrame(i) && getTimeUs(i) <= timeUs) {
+                return i;
+            }
+        }
+        return count > 0 ? 0 : -1;
+    }
+}
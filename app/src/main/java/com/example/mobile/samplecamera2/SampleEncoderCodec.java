@@ -0,0 +1,37 @@
+package com.example.mobile.samplecamera2;
+
+import java.nio.ByteBuffer;
+
+//
+// Codec-facing side of the asynchronous encoder drain. SampleMediaCodecAdapter implements it
+// on top of MediaCodec; unit tests implement it with a fake codec.
+//
+// Callbacks are delivered on one thread (the drain thread) in the order the codec produced them.
+// The SampleBufferInfo passed to onOutputBufferAvailable() is only valid during the call.
+//
+
+public interface SampleEncoderCodec<F> {
+    interface Callback {
+        void onOutputFormatChanged();
+
+        void onOutputBufferAvailable(int index, SampleBufferInfo info);
+
+        void onError(Exception e);
+    }
+
+    void setCallback(Callback callback);
+
+    void start();
+
+    void signalEndOfInputStream();
+
+    F getOutputFormat();
+
+    ByteBuffer getOutputBuffer(int index);
+
+    void releaseOutputBuffer(int index);
+
+    void stop();
+
+    void release();
+}
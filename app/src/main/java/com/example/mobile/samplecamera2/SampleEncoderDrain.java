@@ -0,0 +1,148 @@
+package com.example.mobile.samplecamera2;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+//
+// Callback driven encoder drain loop
+//
+// How to use
+// 1. Create with a codec and a sink, call start(frameLimit). frameLimit 0 means "until stopped".
+// 2. Output buffers are written to the sink on the codec callback thread and released at once.
+// 3. Call requestStop() (or reach frameLimit) to signal end-of-stream through the codec input surface.
+// 4. When the end-of-stream buffer comes out, sink and codec are stopped and the codec released.
+//    awaitTermination() returns and the optional terminated listener runs on the drain thread.
+//    requestStop() before start() releases the codec at once, the listener runs on the caller.
+//
+
+public class SampleEncoderDrain<F> implements SampleEncoderCodec.Callback {
+    private final SampleEncoderCodec<F> codec;
+    private final SampleMuxerSink<F> sink;
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    private Runnable terminatedListener = null;
+    private int frameLimit = 0;
+    private boolean sinkStarted = false;
+    private boolean started = false; // guarded by this
+    private volatile boolean stopRequested = false;
+    private volatile boolean finished = false;
+    private volatile Exception error = null;
+
+    // Written on drain thread only, read from anywhere
+    private volatile long framesWritten = 0;
+    private volatile long bytesWritten = 0;
+
+    public SampleEncoderDrain(SampleEncoderCodec<F> codec, SampleMuxerSink<F> sink) {
+        this.codec = codec;
+        this.sink = sink;
+    }
+
+    public void setTerminatedListener(Runnable listener) {
+        terminatedListener = listener;
+    }
+
+    public synchronized void start(int limit) {
+        if (started || finished) {
+            return;
+        }
+        frameLimit = Math.max(0, limit);
+        codec.setCallback(this);
+        codec.start();
+        started = true;
+    }
+
+    public synchronized void requestStop() {
+        if (stopRequested || finished) {
+            return;
+        }
+        stopRequested = true;
+        if (!started) {
+            // Configured only, there is no input surface stream to end
+            finish();
+            return;
+        }
+        codec.signalEndOfInputStream();
+    }
+
+    public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+        return terminated.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void onOutputFormatChanged() {
+        if (!sinkStarted) {
+            sink.start(codec.getOutputFormat());
+            sinkStarted = true;
+        }
+    }
+
+    @Override
+    public void onOutputBufferAvailable(int index, SampleBufferInfo info) {
+        if (finished) {
+            codec.releaseOutputBuffer(index);
+            return;
+        }
+        if (info.size > 0 && sinkStarted) {
+            ByteBuffer outputBuffer = codec.getOutputBuffer(index);
+            outputBuffer.position(info.offset);
+            outputBuffer.limit(info.offset + info.size);
+            sink.writeSampleData(outputBuffer, info);
+            if (!info.isCodecConfig()) {
+                framesWritten++;
+                bytesWritten += info.size;
+            }
+        }
+        boolean endOfStream = info.isEndOfStream();
+        codec.releaseOutputBuffer(index);
+
+        if (endOfStream) {
+            finish();
+        } else if (frameLimit > 0 && framesWritten >= frameLimit) {
+            requestStop();
+        }
+    }
+
+    @Override
+    public void onError(Exception e) {
+        error = e;
+        finish();
+    }
+
+    private void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        try {
+            if (sinkStarted) {
+                sink.stop();
+                sinkStarted = false;
+            }
+            if (started) {
+                codec.stop();
+            }
+            codec.release();
+        } finally {
+            if (terminatedListener != null) {
+                terminatedListener.run();
+            }
+            terminated.countDown();
+        }
+    }
+}
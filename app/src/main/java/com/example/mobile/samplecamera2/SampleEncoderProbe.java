@@ -0,0 +1,304 @@
+package com.example.mobile.samplecamera2;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecInfo.CodecCapabilities;
+import android.media.MediaCodecInfo.CodecProfileLevel;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.os.Build;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.IOException;
+
+//
+// Measure how fast each hardware video encoder configuration encodes, see SampleEncoderRanking
+//
+// For every hardware encoder of MIME_TYPES (MediaCodecList), every profile of PROFILES it
+// supports and both VBR and CBR if supported, PROBE_FRAMES synthetic frames are drawn with GLES
+// into the encoder input surface as fast as the encoder takes them. Frame rate is encoded frames
+// over the time from the first frame drawn to the last one encoded.
+// Configurations failing to configure or encode are left out, so are those whose output
+// presentation times go back: B-frames, which the fragmented MP4 writer (no composition time
+// offsets), the MPEG-TS stream (PTS only) and the frame metadata sidecar can not carry.
+//
+// How to use
+// 1. Create with the size, frame rate and bitrate encoding will use.
+// 2. probe() on a background thread while no other encoder runs, it takes about a second per
+//    configuration. Cache the result, see SampleEncoderRanking.
+//
+
+public class SampleEncoderProbe {
+    private final String TAG = this.getClass().getName();
+    private static final int PROBE_FRAMES = 60;
+    private static final long PROBE_TIMEOUT_MS = 3000;
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+    private static final String[] MIME_TYPES = {MediaFormat.MIMETYPE_VIDEO_AVC, MediaFormat.MIMETYPE_VIDEO_HEVC};
+    // Profiles probed per mime type
+    private static final int[][] PROFILES = {
+            {CodecProfileLevel.AVCProfileBaseline, CodecProfileLevel.AVCProfileMain,
+                    CodecProfileLevel.AVCProfileHigh},
+            {CodecProfileLevel.HEVCProfileMain}
+    };
+    private static final int[] BITRATE_MODES = {
+            MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR,
+            MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR
+    };
+
+    private final int width;
+    private final int height;
+    private final int frameRate;
+    private final int bitRate;
+
+    private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLConfig eglConfig = null;
+    // Output order of the configuration being measured
+    private long lastOutputTimeUs;
+    private boolean reordered;
+
+    public SampleEncoderProbe(int width, int height, int frameRate, int bitRate) {
+        this.width = width;
+        this.height = height;
+        this.frameRate = frameRate;
+        this.bitRate = bitRate;
+    }
+
+    public SampleEncoderRanking probe() {
+        SampleEncoderRanking ranking = new SampleEncoderRanking();
+        if (!createContext()) {
+            return ranking;
+        }
+        try {
+            MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+            for (MediaCodecInfo info : codecList.getCodecInfos()) {
+                if (!info.isEncoder() || isSoftware(info.getName())) {
+                    continue;
+                }
+                for (String type : info.getSupportedTypes()) {
+                    for (int m = 0; m < MIME_TYPES.length; m++) {
+                        if (MIME_TYPES[m].equalsIgnoreCase(type)) {
+                            probeCodec(ranking, info, MIME_TYPES[m], PROFILES[m]);
+                        }
+                    }
+                }
+            }
+        } finally {
+            releaseContext();
+        }
+        Log.v(TAG, "Encoders at " + width + "x" + height + "@" + frameRate + "\n" + ranking);
+        return ranking;
+    }
+
+    // Software codecs of AOSP, the platform lists them after the hardware ones
+    private static boolean isSoftware(String name) {
+        return name.startsWith("OMX.google.") || name.startsWith("c2.android.");
+    }
+
+    private void probeCodec(SampleEncoderRanking ranking, MediaCodecInfo info, String mimeType, int[] profiles) {
+        CodecCapabilities capabilities = info.getCapabilitiesForType(mimeType);
+        MediaCodecInfo.VideoCapabilities video = capabilities.getVideoCapabilities();
+        if (video == null || !video.isSizeSupported(width, height)) {
+            return;
+        }
+        MediaCodecInfo.EncoderCapabilities encoder = capabilities.getEncoderCapabilities();
+        for (int profile : profiles) {
+            int level = 0;
+            for (CodecProfileLevel profileLevel : capabilities.profileLevels) {
+                if (profileLevel.profile == profile) {
+                    level = Math.max(level, profileLevel.level);
+                }
+            }
+            if (level == 0) {
+                continue;
+            }
+            for (int bitrateMode : BITRATE_MODES) {
+                if (!encoder.isBitrateModeSupported(bitrateMode)) {
+                    continue;
+                }
+                float fps = measure(info.getName(), mimeType, profile, level, bitrateMode);
+                if (fps > 0) {
+                    ranking.add(new SampleEncoderRanking.Candidate(info.getName(), mimeType, profile, level,
+                            bitrateMode, fps));
+                }
+            }
+        }
+    }
+
+    // Format of the encoder for a candidate, also used to configure the selected one
+    public static MediaFormat createFormat(String mimeType, int width, int height, int frameRate, int bitRate,
+                                           int profile, int level, int bitrateMode) {
+        MediaFormat format = MediaFormat.createVideoFormat(mimeType, width, height);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, CodecCapabilities.COLOR_FormatSurface);
+        // Profile is ignored by some encoders without a level, KEY_LEVEL is there from Android M
+        format.setInteger(MediaFormat.KEY_PROFILE, profile);
+        if (Build.VERSION.SDK_INT >= 23) {
+            format.setInteger(MediaFormat.KEY_LEVEL, level);
+        }
+        format.setInteger(MediaFormat.KEY_BITRATE_MODE, bitrateMode);
+        return format;
+    }
+
+    // Encoded frames per second, 0 on failure or reordered output
+    private float measure(String codecName, String mimeType, int profile, int level, int bitrateMode) {
+        MediaCodec codec = null;
+        Surface inputSurface = null;
+        EGLSurface eglSurface = EGL14.EGL_NO_SURFACE;
+        try {
+            codec = MediaCodec.createByCodecName(codecName);
+            MediaFormat format = createFormat(mimeType, width, height, frameRate, bitRate, profile, level,
+                    bitrateMode);
+            format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            inputSurface = codec.createInputSurface();
+            codec.start();
+            int[] surfaceAttributes = {EGL14.EGL_NONE};
+            eglSurface = EGL14.eglCreateWindowSurface(eglDisplay, eglConfig, inputSurface, surfaceAttributes, 0);
+            if (eglSurface == null || eglSurface == EGL14.EGL_NO_SURFACE) {
+                eglSurface = EGL14.EGL_NO_SURFACE;
+                return 0;
+            }
+            EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext);
+            GLES20.glViewport(0, 0, width, height);
+
+            MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+            lastOutputTimeUs = -1;
+            reordered = false;
+            int encoded = 0;
+            long startNs = System.nanoTime();
+            for (int i = 0; i < PROBE_FRAMES; i++) {
+                drawFrame(i);
+                EGLExt.eglPresentationTimeANDROID(eglDisplay, eglSurface, i * 1000000000L / frameRate);
+                // Blocks while the encoder has no free input buffer
+                EGL14.eglSwapBuffers(eglDisplay, eglSurface);
+                encoded += drain(codec, bufferInfo, 0);
+            }
+            codec.signalEndOfInputStream();
+            long deadline = System.nanoTime() + PROBE_TIMEOUT_MS * 1000000L;
+            while (encoded < PROBE_FRAMES && System.nanoTime() < deadline) {
+                encoded += drain(codec, bufferInfo, 10000);
+            }
+            long elapsedNs = System.nanoTime() - startNs;
+            float fps = encoded * 1e9f / elapsedNs;
+            Log.v(TAG, codecName + " " + mimeType + " profile " + profile + " mode " + bitrateMode + ": "
+                    + encoded + " frames, " + fps + "fps" + (reordered ? ", reordered (B-frames)" : ""));
+            return encoded < PROBE_FRAMES || reordered ? 0 : fps;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        } catch (RuntimeException e) {
+            // Configuration not supported after all (IllegalStateException, CodecException)
+            Log.v(TAG, codecName + " profile " + profile + " mode " + bitrateMode + " failed: " + e);
+            return 0;
+        } finally {
+            EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+            if (eglSurface != EGL14.EGL_NO_SURFACE) {
+                EGL14.eglDestroySurface(eglDisplay, eglSurface);
+            }
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (IllegalStateException e) {
+                    // Not started
+                }
+                codec.release();
+            }
+            if (inputSurface != null) {
+                inputSurface.release();
+            }
+        }
+    }
+
+    // Moving bars and changing colors, so every frame has new content to encode
+    private void drawFrame(int index) {
+        GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+        GLES20.glClearColor((index % 8) / 8f, 0.5f, 1f - (index % 5) / 5f, 1f);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
+        int bars = 16;
+        int barWidth = width / bars;
+        for (int i = 0; i < bars; i++) {
+            int x = (i * barWidth + index * 7) % width;
+            GLES20.glScissor(x, (i * 37 + index * 11) % height, barWidth / 2, height / 3);
+            GLES20.glClearColor((i % 3) / 2f, ((i + index) % 4) / 3f, (i % 2), 1f);
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        }
+        GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+    }
+
+    // Release available output buffers, return encoded frames among them
+    private int drain(MediaCodec codec, MediaCodec.BufferInfo bufferInfo, long timeoutUs) {
+        int frames = 0;
+        while (true) {
+            int index = codec.dequeueOutputBuffer(bufferInfo, timeoutUs);
+            if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                return frames;
+            }
+            if (index >= 0) {
+                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && bufferInfo.size > 0) {
+                    frames++;
+                    if (bufferInfo.presentationTimeUs <= lastOutputTimeUs) {
+                        reordered = true;
+                    }
+                    lastOutputTimeUs = bufferInfo.presentationTimeUs;
+                }
+                codec.releaseOutputBuffer(index, false);
+                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    return frames;
+                }
+            }
+            timeoutUs = 0;
+        }
+    }
+
+    private boolean createContext() {
+        eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (eglDisplay == EGL14.EGL_NO_DISPLAY || !EGL14.eglInitialize(eglDisplay, version, 0, version, 1)) {
+            Log.e(TAG, "eglInitialize failed");
+            return false;
+        }
+        int[] attributes = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] count = new int[1];
+        if (!EGL14.eglChooseConfig(eglDisplay, attributes, 0, configs, 0, 1, count, 0) || count[0] == 0) {
+            Log.e(TAG, "No recordable EGL config");
+            return false;
+        }
+        eglConfig = configs[0];
+        int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+        eglContext = EGL14.eglCreateContext(eglDisplay, eglConfig, EGL14.EGL_NO_CONTEXT, contextAttributes, 0);
+        if (eglContext == null || eglContext == EGL14.EGL_NO_CONTEXT) {
+            Log.e(TAG, "eglCreateContext failed");
+            eglContext = EGL14.EGL_NO_CONTEXT;
+            return false;
+        }
+        return true;
+    }
+
+    private void releaseContext() {
+        if (eglContext != EGL14.EGL_NO_CONTEXT) {
+            EGL14.eglDestroyContext(eglDisplay, eglContext);
+            eglContext = EGL14.EGL_NO_CONTEXT;
+        }
+        // Display is not terminated, the render engine of the process uses it
+        EGL14.eglReleaseThread();
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.mobile.samplecamera2;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+//
+// Measured encoder configurations and the choice between them, cached in a file
+//
+// Every candidate is a codec, mime type, profile and bitrate mode with the frame rate a probe
+// measured for it (SampleEncoderProbe). select() takes the most efficient candidate that holds
+// the target frame rate with FPS_HEADROOM: earlier mime type in the given order first, then the
+// higher profile, then the preferred bitrate mode, then the faster one. If none holds the rate,
+// the fastest candidate.
+//
+// How to use
+// 1. load() the cached ranking. It is null if there is none, the file is damaged or it was
+//    measured on another build (fingerprint, e.g. Build.FINGERPRINT, changes with system updates).
+// 2. Otherwise probe, add() the results and store() them.
+// 3. select() with target frame rate, usable mime types and the bitrate mode preferred.
+//
+// Pure Java, MediaCodec calls are in SampleEncoderProbe.
+//
+
+public class SampleEncoderRanking {
+    // Camera, GL and the drain share the device, the encoder alone must be faster than the target
+    public static final float FPS_HEADROOM = 1.25f;
+    // MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_*
+    public static final int BITRATE_MODE_VBR = 1;
+    public static final int BITRATE_MODE_CBR = 2;
+    // 2: candidates reordering frames are left out, rankings of 1 may hold them
+    private static final String MAGIC = "SampleEncoderRanking 2";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static class Candidate {
+        public final String codecName;
+        public final String mimeType;
+        public final int profile; // MediaCodecInfo.CodecProfileLevel, higher is more efficient
+        public final int level;
+        public final int bitrateMode;
+        public final float fps; // measured
+
+        public Candidate(String codecName, String mimeType, int profile, int level, int bitrateMode, float fps) {
+            this.codecName = codecName;
+            this.mimeType = mimeType;
+            this.profile = profile;
+            this.level = level;
+            this.bitrateMode = bitrateMode;
+            this.fps = fps;
+        }
+
+        @Override
+        public String toString() {
+            return codecName + " " + mimeType + " profile " + profile + " level " + level
+                    + " mode " + bitrateMode + " " + fps + "fps";
+        }
+    }
+
+    private final List<Candidate> candidates = new ArrayList<Candidate>();
+
+    public void add(Candidate candidate) {
+        candidates.add(candidate);
+    }
+
+    public List<Candidate> getCandidates() {
+        return new ArrayList<Candidate>(candidates);
+    }
+
+    // mimeTypes: usable types, most efficient first. null if no candidate has one of them.
+    public Candidate select(float targetFps, String[] mimeTypes, int preferredBitrateMode) {
+        Candidate best = null;
+        Candidate fastest = null;
+        for (Candidate candidate : candidates) {
+            int mimeRank = indexOf(mimeTypes, candidate.mimeType);
+            if (mimeRank < 0) {
+                continue;
+            }
+            if (fastest == null || candidate.fps > fastest.fps) {
+                fastest = candidate;
+            }
+            if (candidate.fps < targetFps * FPS_HEADROOM) {
+                continue;
+            }
+            if (best == null || isBetter(candidate, best, mimeTypes, preferredBitrateMode)) {
+                best = candidate;
+            }
+        }
+        return best != null ? best : fastest;
+    }
+
+    private static boolean isBetter(Candidate a, Candidate b, String[] mimeTypes, int preferredBitrateMode) {
+        int mimeA = indexOf(mimeTypes, a.mimeType);
+        int mimeB = indexOf(mimeTypes, b.mimeType);
+        if (mimeA != mimeB) {
+            return mimeA < mimeB;
+        }
+        if (a.profile != b.profile) {
+            return a.profile > b.profile;
+        }
+        boolean modeA = a.bitrateMode == preferredBitrateMode;
+        boolean modeB = b.bitrateMode == preferredBitrateMode;
+        if (modeA != modeB) {
+            return modeA;
+        }
+        return a.fps > b.fps;
+    }
+
+    private static int indexOf(String[] values, String value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // null if missing, damaged or of another fingerprint
+    public static SampleEncoderRanking load(File file, String fingerprint) {
+        if (!file.isFile()) {
+            return null;
+        }
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+            if (!MAGIC.equals(in.readLine()) || !fingerprint.equals(in.readLine())) {
+                return null;
+            }
+            SampleEncoderRanking ranking = new SampleEncoderRanking();
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 6) {
+                    throw new IOException("Bad line " + line);
+                }
+                ranking.add(new Candidate(fields[0], fields[1], Integer.parseInt(fields[2]),
+                        Integer.parseInt(fields[3]), Integer.parseInt(fields[4]), Float.parseFloat(fields[5])));
+            }
+            return ranking;
+        } catch (IOException e) {
+            e.printStackTrace();
+            file.delete();
+            return null;
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+            file.delete();
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    // Written to a temporary file and renamed
+    public boolean store(File file, String fingerprint) {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            return false;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        Writer out = null;
+        try {
+            out = new OutputStreamWriter(new FileOutputStream(temp), UTF_8);
+            out.write(MAGIC + "\n" + fingerprint + "\n");
+            for (Candidate candidate : candidates) {
+                out.write(candidate.codecName + "\t" + candidate.mimeType + "\t" + candidate.profile + "\t"
+                        + candidate.level + "\t" + candidate.bitrateMode + "\t" + candidate.fps + "\n");
+            }
+            out.close();
+            out = null;
+            return temp.renameTo(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            close(out);
+            temp.delete();
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Candidate candidate : candidates) {
+            builder.append(candidate).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.mobile.samplecamera2;
+
+import java.util.Locale;
+
+//
+// Feedback policy for encoder bitrate and resolution
+//
+// How to use
+// 1. Create with target frame rate and the maximum bitrate of each resolution level, level 0 is
+//    the highest resolution. Minimum bitrate of a level is a quarter of its maximum.
+// 2. Call onOutputSample() for every encoded frame (drain thread) and reportDroppedFrames() with
+//    the running count of frames the renderer dropped (any thread).
+// 3. Once per window the controller looks at
+//    - output queue latency: (now - presentation time) above the lowest seen at this level, so
+//      presentation time and now do not need the same clock base
+//    - encoder output frame rate
+//    - frames dropped before the encoder
+//    Congested windows lower the bitrate, then step resolution down. Healthy windows raise the
+//    bitrate again, then step resolution up. Listener is called on the thread calling
+//    onOutputSample(). A resolution change needs a new encoder, the caller does it at the next
+//    segment boundary and keeps calling onOutputSample() for the new one.
+// 4. setFrameRate() when the capture rate changes on purpose (any thread). The window in
+//    progress is not judged, later ones against the new rate.
+//
+// Pure Java, unit tests replay recorded or synthetic traces of (now, presentation time, dropped).
+//
+
+public class SampleEncoderRateController {
+    public interface Listener {
+        void onBitrateChanged(int bitRate);
+
+        void onResolutionLevelChanged(int level, int bitRate);
+    }
+
+    private int frameRate;
+    private volatile int targetFrameRate;
+    private final int[] levelBitRates;
+    private Listener listener = null;
+
+    private long windowUs = 1000000;
+    private long latencyHighUs = 200000;
+    private long latencyLowUs = 50000;
+    private int stepDownWindows = 3;  // congested windows at minimum bitrate before resolution down
+    private int stepUpWindows = 10;   // healthy windows at maximum bitrate before resolution up
+    private int settleWindows = 2;    // windows ignored after a resolution change
+
+    private int level = 0;
+    private int bitRate;
+    private long windowStartUs = -1;
+    private int windowFrames = 0;
+    private long windowLatencySumUs = 0;
+    private long baselineLatencyUs = Long.MAX_VALUE;
+    private volatile long droppedTotal = 0;
+    private long droppedAtWindowStart = 0;
+    private int congestedCount = 0;
+    private int healthyCount = 0;
+    private int settleCount = 0;
+
+    // Last evaluated window, for logging
+    private float lastFrameRate = 0;
+    private long lastLatencyUs = 0;
+    private long lastDropped = 0;
+
+    public SampleEncoderRateController(int targetFrameRate, int[] bitRatePerLevel) {
+        frameRate = targetFrameRate;
+        this.targetFrameRate = targetFrameRate;
+        levelBitRates = bitRatePerLevel;
+        bitRate = bitRatePerLevel[0];
+    }
+
+    public void setListener(Listener rateListener) {
+        listener = rateListener;
+    }
+
+    public void setWindow(long us) {
+        windowUs = us;
+    }
+
+    public void setLatencyThresholds(long highUs, long lowUs) {
+        latencyHighUs = highUs;
+        latencyLowUs = lowUs;
+    }
+
+    public void setStepWindows(int down, int up) {
+        stepDownWindows = down;
+        stepUpWindows = up;
+    }
+
+    public void setFrameRate(int rate) {
+        targetFrameRate = rate;
+    }
+
+    public void reportDroppedFrames(long total) {
+        droppedTotal = total;
+    }
+
+    public void onOutputSample(long nowUs, long presentationTimeUs) {
+        if (windowStartUs < 0) {
+            startWindow(nowUs);
+        }
+        long latencyUs = nowUs - presentationTimeUs;
+        if (latencyUs < baselineLatencyUs) {
+            baselineLatencyUs = latencyUs;
+        }
+        windowFrames++;
+        windowLatencySumUs += latencyUs;
+        if (nowUs - windowStartUs >= windowUs) {
+            evaluate(nowUs);
+            startWindow(nowUs);
+        }
+    }
+
+    private void startWindow(long nowUs) {
+        windowStartUs = nowUs;
+        windowFrames = 0;
+        windowLatencySumUs = 0;
+        droppedAtWindowStart = droppedTotal;
+    }
+
+    private void evaluate(long nowUs) {
+        long dropped = droppedTotal - droppedAtWindowStart;
+        lastFrameRate = windowFrames * 1000000f / (nowUs - windowStartUs);
+        lastLatencyUs = windowLatencySumUs / windowFrames - baselineLatencyUs;
+        lastDropped = dropped;
+        if (targetFrameRate != frameRate) {
+            frameRate = targetFrameRate;
+            settleCount = Math.max(settleCount, 1);
+        }
+        if (settleCount > 0) {
+            settleCount--;
+            return;
+        }
+
+        boolean congested = lastLatencyUs > latencyHighUs || lastFrameRate < frameRate * 0.8f
+                || dropped > frameRate / 10;
+        boolean healthy = lastLatencyUs < latencyLowUs && lastFrameRate >= frameRate * 0.95f
+                && dropped == 0;
+        if (congested) {
+            healthyCount = 0;
+            congestedCount++;
+            if (bitRate > getMinBitRate()) {
+                // Only windows at minimum bitrate count towards a resolution step
+                congestedCount = 0;
+                setBitRate(Math.max(getMinBitRate(), bitRate * 3 / 4));
+            } else if (congestedCount >= stepDownWindows && level < levelBitRates.length - 1) {
+                setLevel(level + 1);
+            }
+        } else if (healthy) {
+            congestedCount = 0;
+            healthyCount++;
+            if (bitRate < getMaxBitRate()) {
+                // Raise slowly, every third healthy window
+                if (healthyCount >= 3) {
+                    healthyCount = 0;
+                    setBitRate(Math.min(getMaxBitRate(), bitRate * 9 / 8));
+                }
+            } else if (healthyCount >= stepUpWindows && level > 0) {
+                setLevel(level - 1);
+            }
+        } else {
+            congestedCount = 0;
+            healthyCount = 0;
+        }
+    }
+
+    private void setBitRate(int newBitRate) {
+        bitRate = newBitRate;
+        if (listener != null) {
+            listener.onBitrateChanged(bitRate);
+        }
+    }
+
+    private void setLevel(int newLevel) {
+        level = newLevel;
+        bitRate = Math.max(getMinBitRate(), Math.min(getMaxBitRate(), bitRate));
+        congestedCount = 0;
+        healthyCount = 0;
+        settleCount = settleWindows;
+        // New encoder, new latency baseline
+        baselineLatencyUs = Long.MAX_VALUE;
+        if (listener != null) {
+            listener.onResolutionLevelChanged(level, bitRate);
+        }
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getBitRate() {
+        return bitRate;
+    }
+
+    public int getMaxBitRate() {
+        return levelBitRates[level];
+    }
+
+    public int getMinBitRate() {
+        return levelBitRates[level] / 4;
+    }
+
+    @Override
+    public String toString() {
+        return "level " + level + ", bitrate " + bitRate + ", " + String.format(Locale.US, "%.1f", lastFrameRate)
+                + "fps, latency +" + (lastLatencyUs / 1000) + "ms, dropped " + lastDropped;
+    }
+}
@@ -0,0 +1,516 @@
+package com.example.mobile.samplecamera2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+//
+// SampleMuxerSink writing one AVC video track as fragmented MP4 (ISO BMFF / CMAF) to a FileChannel
+//
+// MediaMuxer writes its index (moov) only at stop(), a file of a killed process does not play.
+// Here the init segment (ftyp + moov without samples) goes first, then the samples of each GOP
+// as one moof + mdat fragment, written as soon as the next key frame arrives. Everything before
+// the fragment being collected is a playable file, a crash loses at most that fragment.
+//
+// The file is extended in setPreallocation() steps ahead of the data, so growing the file is not
+// part of every fragment write. A free box header always covers the space after the last
+// fragment, the file is valid ISO BMFF in between writes as well. stop() cuts it to the data.
+//
+// How to use
+// 1. Create with an open channel (e.g. RandomAccessFile "rw") and the video size.
+// 2. Pass it to SampleEncoderDrain (or a segmenting / pre-event stage) as sink. SPS and PPS are
+//    taken from the codec config sample (Annex B, same bytes as csd-0 / csd-1 of the output
+//    format), samples before the first key frame are dropped.
+// 3. stop() writes the last fragment and closes the channel. release() closes a writer that
+//    was never started.
+//
+// Samples are Annex B byte streams in decode order without B-frames (presentation order), as
+// the surface encoders configured by SampleMediaEncoder produce them. Write errors are printed,
+// samples after a failed write are dropped.
+//
+
+public class SampleFragmentedMp4Writer<F> implements SampleMuxerSink<F> {
+    public static final int TIMESCALE = 90000;
+    private static final int TRACK_ID = 1;
+    private static final int FREE_HEADER_SIZE = 8;
+    // trun sample flags: sync sample / depends on others and non-sync
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+    private static final int NAL_SPS = 7;
+    private static final int NAL_PPS = 8;
+
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private long preallocation = 4 * 1024 * 1024;
+    private long maxFragmentUs = 0; // 0 = key frames only
+    private boolean syncFragments = true;
+
+    private byte[] sps = null;
+    private byte[] pps = null;
+    private boolean initWritten = false;
+    private boolean failed = false;
+    private long position = 0;
+    private long allocatedEnd = 0;
+    private long firstTimeUs = -1;
+    private int sequence = 0;
+    private int fragmentCount = 0;
+    private int droppedSamples = 0;
+
+    // Fragment being collected
+    private ByteBuffer fragmentData = ByteBuffer.allocateDirect(256 * 1024);
+    private long[] sampleTimesUs = new long[64];
+    private int[] sampleSizes = new int[64];
+    private boolean[] sampleKeyFrames = new boolean[64];
+    private int sampleCount = 0;
+    private long lastDurationUs = 0;
+
+    private final ByteBuffer header = ByteBuffer.allocate(4096);
+    private final ByteBuffer freeHeader = ByteBuffer.allocate(FREE_HEADER_SIZE);
+    private final ByteBuffer[] fragmentBuffers = new ByteBuffer[3];
+    private final ByteBuffer oneByte = ByteBuffer.allocate(1);
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    public SampleFragmentedMp4Writer(FileChannel channel, int width, int height) {
+        this.channel = channel;
+        this.width = width;
+        this.height = height;
+    }
+
+    // Bytes the file is extended by when the next fragment does not fit, 0 = exactly as written
+    public void setPreallocation(long bytes) {
+        preallocation = bytes;
+    }
+
+    // Also start a fragment once the collected one is this long, so less than a GOP is lost.
+    // Such fragments start with a non-sync sample (CMAF chunk).
+    public void setMaxFragmentDuration(long durationUs) {
+        maxFragmentUs = durationUs;
+    }
+
+    // force() after every fragment, so it survives power loss and not only a process crash
+    public void setSyncFragments(boolean sync) {
+        syncFragments = sync;
+    }
+
+    @Override
+    public void start(F format) {
+        // Width and height are given, codec specific data comes with the codec config sample
+    }
+
+    @Override
+    public void writeSampleData(ByteBuffer data, SampleBufferInfo info) {
+        if (failed) {
+            droppedSamples++;
+            return;
+        }
+        if (info.isCodecConfig()) {
+            readParameterSets(data);
+            return;
+        }
+        if (!initWritten) {
+            if (!info.isKeyFrame() || sps == null || pps == null) {
+                droppedSamples++;
+                return;
+            }
+            try {
+                append(createInitSegment(), EMPTY);
+            } catch (IOException e) {
+                e.printStackTrace();
+                failed = true;
+                droppedSamples++;
+                return;
+            }
+            initWritten = true;
+            firstTimeUs = info.presentationTimeUs;
+        }
+        if (sampleCount > 0 && (info.isKeyFrame()
+                || (maxFragmentUs > 0 && info.presentationTimeUs - sampleTimesUs[0] >= maxFragmentUs))) {
+            flushFragment(info.presentationTimeUs);
+        }
+        addSample(data, info);
+    }
+
+    @Override
+    public void stop() {
+        if (sampleCount > 0 && !failed) {
+            flushFragment(sampleTimesUs[sampleCount - 1] + lastDurationUs);
+        }
+        try {
+            if (!failed) {
+                channel.truncate(position);
+                channel.force(true);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        release();
+    }
+
+    // Close a writer that was never started, or after stop()
+    public void release() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public int getFragmentCount() {
+        return fragmentCount;
+    }
+
+    public int getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    // Bytes of complete fragments and init segment in the file
+    public long getBytesWritten() {
+        return position;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    private void addSample(ByteBuffer data, SampleBufferInfo info) {
+        if (sampleCount == sampleSizes.length) {
+            int capacity = sampleCount * 2;
+            long[] times = new long[capacity];
+            int[] sizes = new int[capacity];
+            boolean[] keyFrames = new boolean[capacity];
+            System.arraycopy(sampleTimesUs, 0, times, 0, sampleCount);
+            System.arraycopy(sampleSizes, 0, sizes, 0, sampleCount);
+            System.arraycopy(sampleKeyFrames, 0, keyFrames, 0, sampleCount);
+            sampleTimesUs = times;
+            sampleSizes = sizes;
+            sampleKeyFrames = keyFrames;
+        }
+        // Length prefixed NAL units take at most one byte more per unit than 3 byte start codes
+        ensureFragmentCapacity(info.size + info.size / 3 + 4);
+        int start = fragmentData.position();
+        int dataPosition = data.position();
+        int end = data.limit();
+        int nal = nextNal(data, dataPosition, end);
+        while (nal >= 0) {
+            int next = nextNal(data, nal, end);
+            int nalEnd = next < 0 ? end : startCodeStart(data, next);
+            fragmentData.putInt(nalEnd - nal);
+            data.limit(nalEnd);
+            data.position(nal);
+            fragmentData.put(data);
+            data.limit(end);
+            nal = next;
+        }
+        data.position(dataPosition);
+        if (sampleCount > 0) {
+            lastDurationUs = info.presentationTimeUs - sampleTimesUs[sampleCount - 1];
+        }
+        sampleTimesUs[sampleCount] = info.presentationTimeUs;
+        sampleSizes[sampleCount] = fragmentData.position() - start;
+        sampleKeyFrames[sampleCount] = info.isKeyFrame();
+        sampleCount++;
+    }
+
+    private void ensureFragmentCapacity(int bytes) {
+        if (fragmentData.remaining() >= bytes) {
+            return;
+        }
+        ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(fragmentData.capacity() * 2,
+                fragmentData.position() + bytes));
+        fragmentData.flip();
+        bigger.put(fragmentData);
+        fragmentData = bigger;
+    }
+
+    // endTimeUs: presentation time following the last sample, gives its duration
+    private void flushFragment(long endTimeUs) {
+        ByteBuffer moof = createFragmentHeader(endTimeUs);
+        fragmentData.flip();
+        try {
+            append(moof, fragmentData);
+            fragmentCount++;
+        } catch (IOException e) {
+            e.printStackTrace();
+            failed = true;
+            droppedSamples += sampleCount;
+        }
+        fragmentData.clear();
+        sampleCount = 0;
+    }
+
+    // Write head and body at the end of the data, followed by the free box header covering the
+    // preallocated rest of the file
+    private void append(ByteBuffer head, ByteBuffer body) throws IOException {
+        long end = position + head.remaining() + body.remaining();
+        preallocate(end);
+        freeHeader.clear();
+        if (allocatedEnd > end) {
+            freeHeader.putInt((int) Math.min(allocatedEnd - end, Integer.MAX_VALUE));
+            freeHeader.put(fourCC("free"));
+        }
+        freeHeader.flip();
+        fragmentBuffers[0] = head;
+        fragmentBuffers[1] = body;
+        fragmentBuffers[2] = freeHeader;
+        channel.position(position);
+        while (head.hasRemaining() || body.hasRemaining() || freeHeader.hasRemaining()) {
+            channel.write(fragmentBuffers);
+        }
+        if (syncFragments) {
+            channel.force(false);
+        }
+        position = end;
+    }
+
+    // Grow the file so the data and a free box header after it fit
+    private void preallocate(long end) throws IOException {
+        long remaining = allocatedEnd - end;
+        if (remaining == 0 || remaining >= FREE_HEADER_SIZE) {
+            return;
+        }
+        if (preallocation == 0) {
+            allocatedEnd = end;
+            return;
+        }
+        allocatedEnd = Math.max(end + FREE_HEADER_SIZE, allocatedEnd + preallocation);
+        oneByte.clear();
+        channel.write(oneByte, allocatedEnd - 1);
+    }
+
+    private void readParameterSets(ByteBuffer data) {
+        int end = data.limit();
+        int nal = nextNal(data, data.position(), end);
+        while (nal >= 0) {
+            int next = nextNal(data, nal, end);
+            int nalEnd = next < 0 ? end : startCodeStart(data, next);
+            byte[] unit = new byte[nalEnd - nal];
+            for (int i = 0; i < unit.length; i++) {
+                unit[i] = data.get(nal + i);
+            }
+            int type = unit.length > 0 ? unit[0] & 0x1f : 0;
+            if (type == NAL_SPS) {
+                sps = unit;
+            } else if (type == NAL_PPS) {
+                pps = unit;
+            }
+            nal = next;
+        }
+    }
+
+    // First byte of the NAL unit after the next start code at or after from, -1 if none
+    private static int nextNal(ByteBuffer data, int from, int end) {
+        int i = from;
+        while (i + 2 < end) {
+            int third = data.get(i + 2);
+            if (third > 1 || third < 0) {
+                i += 3; // No start code can overlap this byte
+            } else if (third == 1 && data.get(i + 1) == 0 && data.get(i) == 0) {
+                return i + 3;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    // Start of the start code before nal, 4 byte codes include the leading zero
+    private static int startCodeStart(ByteBuffer data, int nal) {
+        int start = nal - 3;
+        return start > 0 && data.get(start - 1) == 0 ? start - 1 : start;
+    }
+
+    private ByteBuffer createInitSegment() {
+        ByteBuffer b = ByteBuffer.allocate(1024 + sps.length + pps.length);
+        int ftyp = startBox(b, "ftyp");
+        b.put(fourCC("iso6"));
+        b.putInt(0);
+        b.put(fourCC("iso6"));
+        b.put(fourCC("cmfc"));
+        b.put(fourCC("isom"));
+        b.put(fourCC("avc1"));
+        endBox(b, ftyp);
+
+        int moov = startBox(b, "moov");
+        int mvhd = startFullBox(b, "mvhd", 0, 0);
+        b.putInt(0).putInt(0); // creation, modification time
+        b.putInt(TIMESCALE);
+        b.putInt(0); // duration unknown, given by fragments
+        b.putInt(0x00010000); // rate 1.0
+        b.putShort((short) 0x0100); // volume 1.0
+        b.putShort((short) 0).putInt(0).putInt(0);
+        putMatrix(b);
+        for (int i = 0; i < 6; i++) {
+            b.putInt(0);
+        }
+        b.putInt(TRACK_ID + 1); // next track id
+        endBox(b, mvhd);
+
+        int trak = startBox(b, "trak");
+        int tkhd = startFullBox(b, "tkhd", 0, 7); // enabled, in movie, in preview
+        b.putInt(0).putInt(0);
+        b.putInt(TRACK_ID);
+        b.putInt(0);
+        b.putInt(0); // duration
+        b.putInt(0).putInt(0);
+        b.putShort((short) 0).putShort((short) 0); // layer, alternate group
+        b.putShort((short) 0).putShort((short) 0); // volume, reserved
+        putMatrix(b);
+        b.putInt(width << 16).putInt(height << 16);
+        endBox(b, tkhd);
+
+        int mdia = startBox(b, "mdia");
+        int mdhd = startFullBox(b, "mdhd", 0, 0);
+        b.putInt(0).putInt(0);
+        b.putInt(TIMESCALE);
+        b.putInt(0);
+        b.putShort((short) 0x55c4); // "und"
+        b.putShort((short) 0);
+        endBox(b, mdhd);
+        int hdlr = startFullBox(b, "hdlr", 0, 0);
+        b.putInt(0);
+        b.put(fourCC("vide"));
+        b.putInt(0).putInt(0).putInt(0);
+        b.put(new byte[] {'V', 'i', 'd', 'e', 'o', 0});
+        endBox(b, hdlr);
+
+        int minf = startBox(b, "minf");
+        int vmhd = startFullBox(b, "vmhd", 0, 1);
+        b.putShort((short) 0).putShort((short) 0).putShort((short) 0).putShort((short) 0);
+        endBox(b, vmhd);
+        int dinf = startBox(b, "dinf");
+        int dref = startFullBox(b, "dref", 0, 0);
+        b.putInt(1);
+        endBox(b, startFullBox(b, "url ", 0, 1)); // data in this file
+        endBox(b, dref);
+        endBox(b, dinf);
+
+        int stbl = startBox(b, "stbl");
+        int stsd = startFullBox(b, "stsd", 0, 0);
+        b.putInt(1);
+        int avc1 = startBox(b, "avc1");
+        b.putInt(0).putShort((short) 0);
+        b.putShort((short) 1); // data reference index
+        b.putShort((short) 0).putShort((short) 0);
+        b.putInt(0).putInt(0).putInt(0);
+        b.putShort((short) width).putShort((short) height);
+        b.putInt(0x00480000).putInt(0x00480000); // 72 dpi
+        b.putInt(0);
+        b.putShort((short) 1); // frame count
+        b.put(new byte[32]); // compressor name
+        b.putShort((short) 0x0018); // depth
+        b.putShort((short) -1);
+        int avcC = startBox(b, "avcC");
+        b.put((byte) 1);
+        b.put(sps[1]).put(sps[2]).put(sps[3]); // profile, compatibility, level
+        b.put((byte) 0xff); // 4 byte NAL unit lengths
+        b.put((byte) 0xe1); // 1 SPS
+        b.putShort((short) sps.length).put(sps);
+        b.put((byte) 1);
+        b.putShort((short) pps.length).put(pps);
+        endBox(b, avcC);
+        endBox(b, avc1);
+        endBox(b, stsd);
+        // Sample tables are empty, samples are in the fragments
+        int stts = startFullBox(b, "stts", 0, 0);
+        b.putInt(0);
+        endBox(b, stts);
+        int stsc = startFullBox(b, "stsc", 0, 0);
+        b.putInt(0);
+        endBox(b, stsc);
+        int stsz = startFullBox(b, "stsz", 0, 0);
+        b.putInt(0).putInt(0);
+        endBox(b, stsz);
+        int stco = startFullBox(b, "stco", 0, 0);
+        b.putInt(0);
+        endBox(b, stco);
+        endBox(b, stbl);
+        endBox(b, minf);
+        endBox(b, mdia);
+        endBox(b, trak);
+
+        int mvex = startBox(b, "mvex");
+        int trex = startFullBox(b, "trex", 0, 0);
+        b.putInt(TRACK_ID);
+        b.putInt(1); // sample description index
+        b.putInt(0).putInt(0).putInt(0); // defaults, every sample is described in trun
+        endBox(b, trex);
+        endBox(b, mvex);
+        endBox(b, moov);
+        b.flip();
+        return b;
+    }
+
+    private ByteBuffer createFragmentHeader(long endTimeUs) {
+        int trunSize = 20 + sampleCount * 12;
+        ByteBuffer b = header.capacity() >= trunSize + 128 ? header : ByteBuffer.allocate(trunSize + 128);
+        b.clear();
+        int moof = startBox(b, "moof");
+        int mfhd = startFullBox(b, "mfhd", 0, 0);
+        b.putInt(++sequence);
+        endBox(b, mfhd);
+        int traf = startBox(b, "traf");
+        int tfhd = startFullBox(b, "tfhd", 0, 0x020000); // default base is moof
+        b.putInt(TRACK_ID);
+        endBox(b, tfhd);
+        int tfdt = startFullBox(b, "tfdt", 1, 0);
+        b.putLong(toTimescale(sampleTimesUs[0]));
+        endBox(b, tfdt);
+        // Data offset, duration, size and flags of every sample
+        int trun = startFullBox(b, "trun", 0, 0x000701);
+        b.putInt(sampleCount);
+        int dataOffset = b.position();
+        b.putInt(0);
+        for (int i = 0; i < sampleCount; i++) {
+            long nextUs = i + 1 < sampleCount ? sampleTimesUs[i + 1] : endTimeUs;
+            // Rounded absolute times, so durations add up without drift
+            b.putInt((int) Math.max(0, toTimescale(nextUs) - toTimescale(sampleTimesUs[i])));
+            b.putInt(sampleSizes[i]);
+            b.putInt(sampleKeyFrames[i] ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+        }
+        endBox(b, trun);
+        endBox(b, traf);
+        endBox(b, moof);
+        int mdatSize = FREE_HEADER_SIZE + fragmentData.position();
+        b.putInt(mdatSize).put(fourCC("mdat"));
+        // Samples start right after the mdat header
+        b.putInt(dataOffset, b.position() - moof);
+        b.flip();
+        return b;
+    }
+
+    private long toTimescale(long timeUs) {
+        return ((timeUs - firstTimeUs) * TIMESCALE + 500000) / 1000000;
+    }
+
+    private static int startBox(ByteBuffer b, String type) {
+        int start = b.position();
+        b.putInt(0);
+        b.put(fourCC(type));
+        return start;
+    }
+
+    private static int startFullBox(ByteBuffer b, String type, int version, int flags) {
+        int start = startBox(b, type);
+        b.putInt((version << 24) | flags);
+        return start;
+    }
+
+    private static void endBox(ByteBuffer b, int start) {
+        b.putInt(start, b.position() - start);
+    }
+
+    private static void putMatrix(ByteBuffer b) {
+        b.putInt(0x00010000).putInt(0).putInt(0);
+        b.putInt(0).putInt(0x00010000).putInt(0);
+        b.putInt(0).putInt(0).putInt(0x40000000);
+    }
+
+    private static byte[] fourCC(String type) {
+        byte[] bytes = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            bytes[i] = (byte) type.charAt(i);
+        }
+        return bytes;
+    }
+}
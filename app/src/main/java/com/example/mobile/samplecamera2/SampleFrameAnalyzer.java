@@ -0,0 +1,194 @@
+package com.example.mobile.samplecamera2;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+//
+// Luma histogram, motion score and sharpness of a Y plane
+//
+// The plane is read in place with absolute get(), no copy, position and limit are not touched.
+// Rows are split into stripes, stripe 0 runs on the calling thread and the others on the executor,
+// partial results are merged at the end. Motion compares a thumbnail (every THUMBNAIL_STEP pixel)
+// with the one of the previous frame, so frames must be analyzed in order, from one thread at a time.
+//
+// How to use
+// 1. Create with frame size, stripe count and an executor with stripes - 1 threads (null for 1 stripe).
+// 2. analyze() each frame into a SampleFrameStats.
+//
+
+public class SampleFrameAnalyzer {
+    public static final int THUMBNAIL_STEP = 8;
+
+    private final int width;
+    private final int height;
+    private final ExecutorService executor;
+    private final Stripe[] stripes;
+    private final Future<?>[] futures;
+    private final int thumbnailWidth;
+    private byte[] thumbnail;
+    private byte[] previousThumbnail;
+    private boolean hasPrevious = false;
+
+    // Plane of the frame being analyzed, set before stripes run
+    private ByteBuffer plane;
+    private int rowStride;
+    private int pixelStride;
+
+    public SampleFrameAnalyzer(int width, int height, int stripeCount, ExecutorService executor) {
+        if (stripeCount > 1 && executor == null) {
+            throw new IllegalArgumentException("Executor needed for " + stripeCount + " stripes");
+        }
+        this.width = width;
+        this.height = height;
+        this.executor = executor;
+        thumbnailWidth = (width + THUMBNAIL_STEP - 1) / THUMBNAIL_STEP;
+        int thumbnailHeight = (height + THUMBNAIL_STEP - 1) / THUMBNAIL_STEP;
+        thumbnail = new byte[thumbnailWidth * thumbnailHeight];
+        previousThumbnail = new byte[thumbnail.length];
+
+        // Stripe borders on thumbnail rows, each thumbnail row belongs to one stripe
+        int count = Math.max(1, Math.min(stripeCount, thumbnailHeight));
+        stripes = new Stripe[count];
+        futures = new Future<?>[count];
+        int rowsPerStripe = (thumbnailHeight + count - 1) / count * THUMBNAIL_STEP;
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(Math.min(i * rowsPerStripe, height), Math.min((i + 1) * rowsPerStripe, height));
+        }
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    // Forget previous frame, next motion score is 0
+    public void reset() {
+        hasPrevious = false;
+    }
+
+    public void analyze(ByteBuffer plane, int rowStride, int pixelStride, long timestampNs, SampleFrameStats stats) {
+        if (plane.capacity() < (height - 1) * rowStride + (width - 1) * pixelStride + 1) {
+            throw new IllegalArgumentException("Plane of " + plane.capacity() + " bytes is too small for "
+                    + width + "x" + height + " stride " + rowStride + "/" + pixelStride);
+        }
+        this.plane = plane;
+        this.rowStride = rowStride;
+        this.pixelStride = pixelStride;
+
+        for (int i = 1; i < stripes.length; i++) {
+            futures[i] = executor.submit(stripes[i]);
+        }
+        stripes[0].run();
+        for (int i = 1; i < stripes.length; i++) {
+            try {
+                futures[i].get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while analyzing", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Stripe " + i + " failed", e.getCause());
+            } finally {
+                futures[i] = null;
+            }
+        }
+        this.plane = null;
+
+        // Merge partial results
+        int[] histogram = stats.histogram;
+        System.arraycopy(stripes[0].histogram, 0, histogram, 0, histogram.length);
+        long lumaSum = 0;
+        long gradientSum = 0;
+        long gradientCount = 0;
+        long motionSum = 0;
+        long motionCount = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            Stripe stripe = stripes[i];
+            if (i > 0) {
+                for (int v = 0; v < histogram.length; v++) {
+                    histogram[v] += stripe.histogram[v];
+                }
+            }
+            lumaSum += stripe.lumaSum;
+            gradientSum += stripe.gradientSum;
+            gradientCount += stripe.gradientCount;
+            motionSum += stripe.motionSum;
+            motionCount += stripe.motionCount;
+        }
+        stats.timestampNs = timestampNs;
+        stats.meanLuma = width * height == 0 ? 0 : (float) lumaSum / (width * height);
+        stats.sharpness = gradientCount == 0 ? 0 : (float) gradientSum / gradientCount;
+        stats.motion = !hasPrevious || motionCount == 0 ? 0 : (float) motionSum / motionCount;
+
+        byte[] swap = previousThumbnail;
+        previousThumbnail = thumbnail;
+        thumbnail = swap;
+        hasPrevious = true;
+    }
+
+    // Rows [firstRow, endRow) of the frame, results kept until the next frame
+    private class Stripe implements Runnable {
+        private final int firstRow;
+        private final int endRow;
+        private final int[] histogram = new int[256];
+        private long lumaSum;
+        private long gradientSum;
+        private long gradientCount;
+        private long motionSum;
+        private long motionCount;
+
+        Stripe(int firstRow, int endRow) {
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer plane = SampleFrameAnalyzer.this.plane;
+            int rowStride = SampleFrameAnalyzer.this.rowStride;
+            int pixelStride = SampleFrameAnalyzer.this.pixelStride;
+            int[] histogram = this.histogram;
+            Arrays.fill(histogram, 0);
+            long lumaSum = 0;
+            long gradientSum = 0;
+            long motionSum = 0;
+            long motionCount = 0;
+            boolean compare = hasPrevious;
+
+            for (int y = firstRow; y < endRow; y++) {
+                int row = y * rowStride;
+                int above = y > 0 ? row - rowStride : -1;
+                boolean thumbnailRow = y % THUMBNAIL_STEP == 0;
+                int thumbnailIndex = y / THUMBNAIL_STEP * thumbnailWidth;
+                int left = plane.get(row) & 0xFF;
+                for (int x = 0, index = row; x < width; x++, index += pixelStride) {
+                    int v = plane.get(index) & 0xFF;
+                    histogram[v]++;
+                    lumaSum += v;
+                    gradientSum += Math.abs(v - left);
+                    left = v;
+                    if (above >= 0) {
+                        gradientSum += Math.abs(v - (plane.get(above + x * pixelStride) & 0xFF));
+                    }
+                    if (thumbnailRow && x % THUMBNAIL_STEP == 0) {
+                        thumbnail[thumbnailIndex] = (byte) v;
+                        if (compare) {
+                            motionSum += Math.abs(v - (previousThumbnail[thumbnailIndex] & 0xFF));
+                            motionCount++;
+                        }
+                        thumbnailIndex++;
+                    }
+                }
+            }
+            this.lumaSum = lumaSum;
+            this.gradientSum = gradientSum;
+            // Horizontal gradients from column 1, vertical from row 1
+            int rows = endRow - firstRow;
+            int verticalRows = firstRow == 0 ? Math.max(rows - 1, 0) : rows;
+            gradientCount = (long) rows * Math.max(width - 1, 0) + (long) verticalRows * width;
+            this.motionSum = motionSum;
+            this.motionCount = motionCount;
+        }
+    }
+}
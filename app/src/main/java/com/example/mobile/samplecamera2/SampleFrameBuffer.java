@@ -0,0 +1,69 @@
+package com.example.mobile.samplecamera2;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+//
+// Framebuffer object with a GL_TEXTURE_2D color attachment.
+// Camera frame is drawn once into it, then the texture is blitted to every output surface.
+// Must be created, used and released in context of the GL thread.
+//
+
+public class SampleFrameBuffer {
+    private final String TAG = this.getClass().getName();
+    private final int[] frameBufferHandle = new int[1];
+    private final int[] textureHandle = new int[1];
+    private final int width;
+    private final int height;
+
+    public SampleFrameBuffer(int w, int h) {
+        width = w;
+        height = h;
+
+        GLES20.glGenTextures(1, textureHandle, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0]);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        GLES20.glGenFramebuffers(1, frameBufferHandle, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBufferHandle[0]);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, textureHandle[0], 0);
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            Log.e(TAG, "Framebuffer incomplete, status " + status);
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
+
+    public void bind() {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBufferHandle[0]);
+        GLES20.glViewport(0, 0, width, height);
+    }
+
+    public void unbind() {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
+
+    public int getTextureHandle() {
+        return textureHandle[0];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void release() {
+        GLES20.glDeleteFramebuffers(1, frameBufferHandle, 0);
+        GLES20.glDeleteTextures(1, textureHandle, 0);
+    }
+}
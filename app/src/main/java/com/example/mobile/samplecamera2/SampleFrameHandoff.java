@@ -0,0 +1,98 @@
+package com.example.mobile.samplecamera2;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+//
+// Lock-free hand-off of SurfaceTexture frames from onFrameAvailable() to the GL thread.
+//
+// How to use
+// 1. onFrameAvailable() (any thread) calls frameAvailable(). Request a render when it returns true,
+//    a render is already pending otherwise.
+// 2. GL thread calls beginDraw() to take all pending frames, calls SurfaceTexture.updateTexImage()
+//    once per frame, then reports with endDraw() how many of them it drew.
+//
+// Counters
+// coalesced: frames drawn to encode outputs but not shown on preview (more than one frame per draw)
+// dropped:   frames latched but drawn to no output at all
+// decimated: frames skipped on purpose by setDecimation(), not counted as dropped
+//
+// Decimation (high frame rate capture): GL thread is woken once per n frames instead of once per
+// frame, each draw then latches n frames and is expected to draw only one of them.
+//
+
+public class SampleFrameHandoff {
+    private final AtomicInteger pendingFrames = new AtomicInteger();
+    private final AtomicLong availableFrames = new AtomicLong();
+    private final AtomicLong latchedFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong coalescedFrames = new AtomicLong();
+    private final AtomicLong decimatedFrames = new AtomicLong();
+    private volatile int decimation = 1;
+
+    // Set before frames arrive
+    public void setDecimation(int n) {
+        decimation = Math.max(1, n);
+    }
+
+    // Return true if GL thread must be woken up
+    public boolean frameAvailable() {
+        availableFrames.incrementAndGet();
+        return pendingFrames.incrementAndGet() == decimation;
+    }
+
+    // GL thread. Take every frame queued since last call.
+    public int beginDraw() {
+        return pendingFrames.getAndSet(0);
+    }
+
+    // GL thread. latched frames were taken by beginDraw(), drawn of them reached at least one output.
+    public void endDraw(int latched, int drawn) {
+        if (latched <= 0) {
+            return;
+        }
+        latchedFrames.addAndGet(latched);
+        int n = decimation;
+        int decimated = latched - (latched + n - 1) / n;
+        if (decimated > 0) {
+            decimatedFrames.addAndGet(decimated);
+        }
+        if (latched - decimated > drawn) {
+            droppedFrames.addAndGet(latched - decimated - drawn);
+        }
+        if (drawn > 1) {
+            coalescedFrames.addAndGet(drawn - 1);
+        }
+    }
+
+    public int getPendingFrames() {
+        return pendingFrames.get();
+    }
+
+    public long getAvailableFrames() {
+        return availableFrames.get();
+    }
+
+    public long getLatchedFrames() {
+        return latchedFrames.get();
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    public long getCoalescedFrames() {
+        return coalescedFrames.get();
+    }
+
+    public long getDecimatedFrames() {
+        return decimatedFrames.get();
+    }
+
+    @Override
+    public String toString() {
+        return "frames available " + availableFrames.get() + ", latched " + latchedFrames.get()
+                + ", coalesced " + coalescedFrames.get() + ", dropped " + droppedFrames.get()
+                + ", decimated " + decimatedFrames.get();
+    }
+}
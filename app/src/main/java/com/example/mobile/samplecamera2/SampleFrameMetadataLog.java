@@ -0,0 +1,250 @@
+package com.example.mobile.samplecamera2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+//
+// Per-frame capture metadata sidecar of a video file, fixed size records in a memory-mapped file
+//
+// File layout: HEADER_SIZE bytes header (MAGIC, VERSION, RECORD_SIZE, record count), then one
+// RECORD_SIZE record per frame: frame number, sensor timestamp (ns), encoder presentation time
+// (us), exposure time (ns), sensitivity (ISO) and focus distance (diopters). Big endian.
+// SampleFrameMetadataReader reads it.
+//
+// How to use
+// 1. open() the sidecar of a video file, sidecarFile() names it.
+// 2. onCaptureResult() for every capture result, from the capture result thread.
+// 3. onFrameWritten() for every encoded frame written to the video file, from the writing thread.
+// 4. open() the sidecar of the next file when the video rolls over, before its first frame is
+//    written.
+// 5. close() truncates the file to its records.
+//
+// Only frames of the video get a record. Capture results wait in a queue of PENDING entries until
+// the encoded frame of the same presentation time is written. Results of frames that never reach
+// the file (dropped before the encoder, captured before it started) are dropped once a later
+// frame is written. An encoded frame written before its capture result arrived waits for it the
+// same way. Queues are preallocated, records are written straight into the mapping, nothing is
+// allocated per frame. The mapping grows by CHUNK_RECORDS.
+//
+// The record count is updated after each record, so the sidecar of a killed process is readable
+// up to its last record.
+//
+
+public class SampleFrameMetadataLog {
+    public static final int MAGIC = 0x53464d4c; // "SFML"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 40;
+    public static final String SUFFIX = ".meta";
+    // Header fields
+    static final int VERSION_OFFSET = 4;
+    static final int RECORD_SIZE_OFFSET = 8;
+    static final int COUNT_OFFSET = 12;
+    // Record fields
+    static final int FRAME_NUMBER = 0;
+    static final int SENSOR_TIMESTAMP = 8;
+    static final int PRESENTATION_TIME = 16;
+    static final int EXPOSURE_TIME = 24;
+    static final int SENSITIVITY = 32;
+    static final int FOCUS_DISTANCE = 36;
+    // About two minutes at 30fps
+    static final int CHUNK_RECORDS = 4096;
+    // About a second at 30fps, more than the encoder and writer keep in flight
+    static final int PENDING = 32;
+
+    private File file = null;
+    private FileChannel channel = null;
+    private MappedByteBuffer buffer = null;
+    private int capacity = 0;
+    private int count = 0;
+    private long droppedRecords = 0;
+
+    // Capture results waiting for their frame, oldest at pendingHead
+    private final long[] pendingFrameNumber = new long[PENDING];
+    private final long[] pendingSensorTimestampNs = new long[PENDING];
+    private final long[] pendingPresentationTimeUs = new long[PENDING];
+    private final long[] pendingExposureTimeNs = new long[PENDING];
+    private final int[] pendingSensitivity = new int[PENDING];
+    private final float[] pendingFocusDistance = new float[PENDING];
+    private int pendingHead = 0;
+    private int pendingCount = 0;
+    // Written frames waiting for their capture result, oldest at writtenHead
+    private final long[] writtenTimeUs = new long[PENDING];
+    private int writtenHead = 0;
+    private int writtenCount = 0;
+    private long unmatchedFrames = 0;
+
+    // Sidecar next to a video file, its extension replaced by SUFFIX
+    public static File sidecarFile(File video) {
+        String name = video.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(video.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + SUFFIX);
+    }
+
+    // Frames written to the previous file stop waiting for their capture result, capture
+    // results waiting for their frame go on into the new file
+    public synchronized void open(File newFile) throws IOException {
+        FileChannel newChannel = new RandomAccessFile(newFile, "rw").getChannel();
+        MappedByteBuffer newBuffer;
+        try {
+            newChannel.truncate(0);
+            newBuffer = newChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) CHUNK_RECORDS * RECORD_SIZE);
+            newBuffer.putInt(0, MAGIC);
+            newBuffer.putInt(VERSION_OFFSET, VERSION);
+            newBuffer.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+            newBuffer.putInt(COUNT_OFFSET, 0);
+        } catch (IOException e) {
+            newChannel.close();
+            throw e;
+        }
+        finish();
+        file = newFile;
+        channel = newChannel;
+        buffer = newBuffer;
+        capacity = CHUNK_RECORDS;
+        count = 0;
+        writtenCount = 0;
+    }
+
+    // Capture result of a frame that may be recorded. presentationTimeUs is its encoder
+    // presentation time.
+    public synchronized void onCaptureResult(long frameNumber, long sensorTimestampNs, long presentationTimeUs,
+                                             long exposureTimeNs, int sensitivity, float focusDistance) {
+        // Results arrive in capture order, earlier written frames will not get theirs anymore
+        while (writtenCount > 0 && writtenTimeUs[writtenHead] < presentationTimeUs) {
+            removeWritten();
+            unmatchedFrames++;
+        }
+        if (writtenCount > 0 && writtenTimeUs[writtenHead] == presentationTimeUs) {
+            removeWritten();
+            append(frameNumber, sensorTimestampNs, presentationTimeUs, exposureTimeNs, sensitivity, focusDistance);
+            return;
+        }
+        if (pendingCount == PENDING) {
+            // Writer fell behind, oldest result is not waited for anymore
+            removePending();
+        }
+        int index = (pendingHead + pendingCount) % PENDING;
+        pendingFrameNumber[index] = frameNumber;
+        pendingSensorTimestampNs[index] = sensorTimestampNs;
+        pendingPresentationTimeUs[index] = presentationTimeUs;
+        pendingExposureTimeNs[index] = exposureTimeNs;
+        pendingSensitivity[index] = sensitivity;
+        pendingFocusDistance[index] = focusDistance;
+        pendingCount++;
+    }
+
+    // Encoded frame of presentationTimeUs was written to the current video file
+    public synchronized void onFrameWritten(long presentationTimeUs) {
+        // Frames are written in capture order, earlier results belong to frames that were dropped
+        while (pendingCount > 0 && pendingPresentationTimeUs[pendingHead] < presentationTimeUs) {
+            removePending();
+        }
+        if (pendingCount > 0 && pendingPresentationTimeUs[pendingHead] == presentationTimeUs) {
+            int index = pendingHead;
+            removePending();
+            append(pendingFrameNumber[index], pendingSensorTimestampNs[index], presentationTimeUs,
+                    pendingExposureTimeNs[index], pendingSensitivity[index], pendingFocusDistance[index]);
+            return;
+        }
+        if (writtenCount == PENDING) {
+            removeWritten();
+            unmatchedFrames++;
+        }
+        writtenTimeUs[(writtenHead + writtenCount) % PENDING] = presentationTimeUs;
+        writtenCount++;
+    }
+
+    private void removePending() {
+        pendingHead = (pendingHead + 1) % PENDING;
+        pendingCount--;
+    }
+
+    private void removeWritten() {
+        writtenHead = (writtenHead + 1) % PENDING;
+        writtenCount--;
+    }
+
+    private void append(long frameNumber, long sensorTimestampNs, long presentationTimeUs,
+                        long exposureTimeNs, int sensitivity, float focusDistance) {
+        if (buffer == null || (count == capacity && !grow())) {
+            droppedRecords++;
+            return;
+        }
+        int record = HEADER_SIZE + count * RECORD_SIZE;
+        buffer.putLong(record + FRAME_NUMBER, frameNumber);
+        buffer.putLong(record + SENSOR_TIMESTAMP, sensorTimestampNs);
+        buffer.putLong(record + PRESENTATION_TIME, presentationTimeUs);
+        buffer.putLong(record + EXPOSURE_TIME, exposureTimeNs);
+        buffer.putInt(record + SENSITIVITY, sensitivity);
+        buffer.putFloat(record + FOCUS_DISTANCE, focusDistance);
+        count++;
+        buffer.putInt(COUNT_OFFSET, count);
+    }
+
+    private boolean grow() {
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) (capacity + CHUNK_RECORDS) * RECORD_SIZE);
+            capacity += CHUNK_RECORDS;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    public synchronized void close() {
+        finish();
+        file = null;
+        channel = null;
+        buffer = null;
+        count = 0;
+        capacity = 0;
+        pendingCount = 0;
+        writtenCount = 0;
+    }
+
+    // Cut the current file to its records and close it
+    private void finish() {
+        if (channel == null) {
+            return;
+        }
+        buffer.putInt(COUNT_OFFSET, count);
+        buffer.force();
+        try {
+            channel.truncate(HEADER_SIZE + (long) count * RECORD_SIZE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Current sidecar, null if closed
+    public synchronized File getFile() {
+        return file;
+    }
+
+    // Records in the current sidecar
+    public synchronized int getCount() {
+        return count;
+    }
+
+    // Written frames appended while closed or when the mapping could not grow
+    public synchronized long getDroppedRecords() {
+        return droppedRecords;
+    }
+
+    // Written frames whose capture result never arrived
+    public synchronized long getUnmatchedFrames() {
+        return unmatchedFrames;
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.mobile.samplecamera2;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+//
+// Reader of a SampleFrameMetadataLog sidecar
+//
+// How to use
+// 1. Create with the sidecar file (SampleFrameMetadataLog.sidecarFile() of the video).
+// 2. read() any record by index into a reused Record, find the index of a frame with
+//    findByPresentationTime() (encoder PTS of the video) or findByFrameNumber().
+// 3. close()
+//
+// The file is mapped read-only, a sidecar still being written can be read up to its record count.
+//
+
+public class SampleFrameMetadataReader implements Closeable {
+    public static class Record {
+        public long frameNumber;
+        public long sensorTimestampNs;
+        public long presentationTimeUs;
+        public long exposureTimeNs;
+        public int sensitivity;
+        public float focusDistance;
+
+        @Override
+        public String toString() {
+            return "frame " + frameNumber + " sensor " + sensorTimestampNs + "ns pts " + presentationTimeUs
+                    + "us exposure " + exposureTimeNs + "ns ISO " + sensitivity + " focus " + focusDistance;
+        }
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int count;
+
+    public SampleFrameMetadataReader(File file) throws IOException {
+        channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            long size = channel.size();
+            if (size < SampleFrameMetadataLog.HEADER_SIZE) {
+                throw new IOException("Bad size " + size);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != SampleFrameMetadataLog.MAGIC
+                    || buffer.getInt(SampleFrameMetadataLog.VERSION_OFFSET) != SampleFrameMetadataLog.VERSION
+                    || buffer.getInt(SampleFrameMetadataLog.RECORD_SIZE_OFFSET) != SampleFrameMetadataLog.RECORD_SIZE) {
+                throw new IOException("Not a frame metadata file " + file);
+            }
+            // A file of a killed process is longer than its records
+            long stored = (size - SampleFrameMetadataLog.HEADER_SIZE) / SampleFrameMetadataLog.RECORD_SIZE;
+            count = (int) Math.min(buffer.getInt(SampleFrameMetadataLog.COUNT_OFFSET), stored);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    // false if index is out of range
+    public boolean read(int index, Record record) {
+        if (index < 0 || index >= count) {
+            return false;
+        }
+        int at = SampleFrameMetadataLog.HEADER_SIZE + index * SampleFrameMetadataLog.RECORD_SIZE;
+        record.frameNumber = buffer.getLong(at + SampleFrameMetadataLog.FRAME_NUMBER);
+        record.sensorTimestampNs = buffer.getLong(at + SampleFrameMetadataLog.SENSOR_TIMESTAMP);
+        record.presentationTimeUs = buffer.getLong(at + SampleFrameMetadataLog.PRESENTATION_TIME);
+        record.exposureTimeNs = buffer.getLong(at + SampleFrameMetadataLog.EXPOSURE_TIME);
+        record.sensitivity = buffer.getInt(at + SampleFrameMetadataLog.SENSITIVITY);
+        record.focusDistance = buffer.getFloat(at + SampleFrameMetadataLog.FOCUS_DISTANCE);
+        return true;
+    }
+
+    // Index of the last record at or before timeUs, -1 if all are later
+    public int findByPresentationTime(long timeUs) {
+        return findLast(SampleFrameMetadataLog.PRESENTATION_TIME, timeUs);
+    }
+
+    // Index of the record of frameNumber, -1 if there is none
+    public int findByFrameNumber(long frameNumber) {
+        int index = findLast(SampleFrameMetadataLog.FRAME_NUMBER, frameNumber);
+        return index >= 0 && getLong(index, SampleFrameMetadataLog.FRAME_NUMBER) == frameNumber ? index : -1;
+    }
+
+    // Binary search of a field growing with the index
+    private int findLast(int field, long value) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getLong(middle, field) <= value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low - 1;
+    }
+
+    private long getLong(int index, int field) {
+        return buffer.getLong(SampleFrameMetadataLog.HEADER_SIZE + index * SampleFrameMetadataLog.RECORD_SIZE + field);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.mobile.samplecamera2;
+
+import java.util.Locale;
+
+//
+// Result of SampleFrameAnalyzer for one frame, filled in place so no allocation per frame
+//
+
+public class SampleFrameStats {
+    public final int[] histogram = new int[256];
+    public long timestampNs;
+    // Mean luma 0..255
+    public float meanLuma;
+    // Mean absolute luma difference to previous frame (subsampled), 0 for first frame
+    public float motion;
+    // Mean absolute horizontal + vertical luma gradient, higher is sharper
+    public float sharpness;
+
+    public void copyFrom(SampleFrameStats other) {
+        System.arraycopy(other.histogram, 0, histogram, 0, histogram.length);
+        timestampNs = other.timestampNs;
+        meanLuma = other.meanLuma;
+        motion = other.motion;
+        sharpness = other.sharpness;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "luma %.1f, motion %.2f, sharpness %.2f", meanLuma, motion, sharpness);
+    }
+}
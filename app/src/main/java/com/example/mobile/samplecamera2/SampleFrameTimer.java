@@ -0,0 +1,70 @@
+package com.example.mobile.samplecamera2;
+
+//
+// Per-output frame time counter. begin()/end() around the work for one frame,
+// all values are in nanoseconds. Written on the GL thread, read from anywhere.
+//
+
+public class SampleFrameTimer {
+    private final String name;
+    private long beginNs = 0;
+    private volatile long frameCount = 0;
+    private volatile long totalNs = 0;
+    private volatile long lastNs = 0;
+    private volatile long maxNs = 0;
+
+    public SampleFrameTimer(String name) {
+        this.name = name;
+    }
+
+    public void begin() {
+        beginNs = System.nanoTime();
+    }
+
+    public void end() {
+        record(System.nanoTime() - beginNs);
+    }
+
+    public void record(long durationNs) {
+        lastNs = durationNs;
+        if (durationNs > maxNs) {
+            maxNs = durationNs;
+        }
+        totalNs += durationNs;
+        frameCount++;
+    }
+
+    public void reset() {
+        frameCount = 0;
+        totalNs = 0;
+        lastNs = 0;
+        maxNs = 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    public long getLastNs() {
+        return lastNs;
+    }
+
+    public long getMaxNs() {
+        return maxNs;
+    }
+
+    public long getAverageNs() {
+        long count = frameCount;
+        return count == 0 ? 0 : totalNs / count;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": frames " + frameCount + ", avg " + (getAverageNs() / 1000) + "us, max "
+                + (maxNs / 1000) + "us, last " + (lastNs / 1000) + "us";
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.mobile.samplecamera2;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+//
+// Background JPEG writer of RGBA frames read back by glReadPixels().
+// Queue depth is bounded, offer() never blocks the GL thread: it returns false when queue is full.
+// Pixel buffers go back to their pool once written. Bitmaps come from a SampleBitmapPool,
+// nothing is allocated per frame once the pools are warm.
+//
+
+public class SampleFrameWriter {
+    private final String TAG = this.getClass().getName();
+    private static final int JPEG_QUALITY = 100;
+    private static final int BITMAPS_PER_SIZE = 1; // one writer thread
+
+    private static class Job {
+        final ByteBuffer pixels;
+        final SampleBufferPool pool;
+        final int width;
+        final int height;
+        final String fileName;
+
+        Job(ByteBuffer pixels, SampleBufferPool pool, int width, int height, String fileName) {
+            this.pixels = pixels;
+            this.pool = pool;
+            this.width = width;
+            this.height = height;
+            this.fileName = fileName;
+        }
+    }
+
+    private static final Job QUIT = new Job(null, null, 0, 0, null);
+
+    private final BlockingQueue<Job> queue;
+    private final Thread writerThread;
+    private final AtomicLong framesWritten = new AtomicLong();
+    private final AtomicLong framesRejected = new AtomicLong();
+    private final SampleBitmapPool bitmapPool = new SampleBitmapPool(BITMAPS_PER_SIZE);
+    private final SampleRowFlipper rowFlipper = new SampleRowFlipper();
+
+    public SampleFrameWriter(int depth) {
+        queue = new ArrayBlockingQueue<Job>(depth);
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeTask();
+            }
+        }, "FrameWriter");
+        writerThread.start();
+    }
+
+    // pixels: RGBA, bottom row first (glReadPixels order), position 0, limit width*height*4
+    public boolean offer(ByteBuffer pixels, SampleBufferPool pool, int width, int height, String fileName) {
+        if (!queue.offer(new Job(pixels, pool, width, height, fileName))) {
+            framesRejected.incrementAndGet();
+            pool.release(pixels);
+            return false;
+        }
+        return true;
+    }
+
+    public void quit() {
+        try {
+            queue.put(QUIT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getFramesWritten() {
+        return framesWritten.get();
+    }
+
+    public long getFramesRejected() {
+        return framesRejected.get();
+    }
+
+    private void writeTask() {
+        while (true) {
+            Job job;
+            try {
+                job = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (job == QUIT) {
+                bitmapPool.trim();
+                return;
+            }
+            try {
+                writeJpeg(job);
+                framesWritten.incrementAndGet();
+            } catch (IOException e) {
+                Log.e(TAG, "Write " + job.fileName + " failed", e);
+            } finally {
+                job.pool.release(job.pixels);
+            }
+        }
+    }
+
+    private void writeJpeg(Job job) throws IOException {
+        rowFlipper.flip(job.pixels, job.width * 4, job.height);
+        Bitmap bitmap = bitmapPool.acquire(job.width, job.height, TAG);
+        try {
+            // ARGB_8888 is stored as R, G, B, A bytes, same as GL_RGBA / GL_UNSIGNED_BYTE
+            bitmap.copyPixelsFromBuffer(job.pixels);
+            FileOutputStream fileOutputStream = new FileOutputStream(job.fileName);
+            try {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, fileOutputStream);
+            } finally {
+                fileOutputStream.close();
+            }
+        } finally {
+            bitmapPool.release(bitmap);
+        }
+    }
+}
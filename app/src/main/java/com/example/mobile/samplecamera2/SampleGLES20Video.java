@@ -1,27 +1,40 @@
 package com.example.mobile.samplecamera2;
 
-import android.graphics.Bitmap;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
-import android.util.Log;
+import android.opengl.GLES30;
 
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//
+// Attribute and uniform locations are resolved once after link. Quad geometry lives in one
+// vertex buffer object; on GLES3 a vertex array object per program holds the attribute setup,
+// so a draw is bind VAO + glDrawArrays. Redundant state changes are filtered by SampleGLState.
+// Attribute locations are bound before link, so camera programs (plain and effect) share one layout.
+// Programs come from SampleProgramManager (compiled once, binary cached on GLES3).
+//
+// Effects: prepare() the passes of a SampleEffectChain plan, then drawPass() each of them. A pass
+// samples the camera texture (unit 0) or a framebuffer texture (BLIT_TEXTURE_UNIT), the LUT and
+// overlay textures have units of their own, so sampler uniforms are set once per program.
+//
+// Multi-camera: each further camera has its own external texture (createCameraTexture()) on a unit
+// of its own. drawComposite() draws all cameras in one draw call, see SampleCameraLayout.
+//
 
 public class SampleGLES20Video {
     int surfaceWidth;
     int surfaceHeight;
-    String screenshotName;
 
     private static final int COORDS_PER_VERTEX = 3;
     private static final int COORDS_PER_TEXTURE = 2;
     private static final int BYTES_PER_FLOAT = 4;
 
     private int[] textureHandle = new int[1];
-    private FloatBuffer vertexBuffer;
     // GL_TRIANGLE_STRIP rule
     // http://www.matrix44.net/cms/notes/opengl-3d-graphics/understanding-gl_triangle_strip
     private float vertexCoords[] = {
@@ -30,7 +43,6 @@ public class SampleGLES20Video {
             -1.0f,  1.0f, 0.0f, // Top-Left
              1.0f,  1.0f, 0.0f  // Top-Right
     };
-    private FloatBuffer textureBuffer;
     // Texturing UV coordinates
     // http://ogldev.atspace.co.uk/www/tutorial16/tutorial16.html
     private float textureCoords[] = {
@@ -39,8 +51,32 @@ public class SampleGLES20Video {
             0.0f, 0.0f,
             1.0f, 0.0f
     };
+    // Texture of framebuffer object is not flipped like SurfaceTexture, use GL texture coordinates as is
+    private float blitTextureCoords[] = {
+            0.0f, 0.0f,
+            1.0f, 0.0f,
+            0.0f, 1.0f,
+            1.0f, 1.0f
+    };
+
+    // Byte offsets of the three arrays above in the vertex buffer object
+    private static final int VERTEX_OFFSET = 0;
+    private static final int TEXTURE_OFFSET = 12 * BYTES_PER_FLOAT;
+    private static final int BLIT_TEXTURE_OFFSET = TEXTURE_OFFSET + 8 * BYTES_PER_FLOAT;
+    private static final int VERTEX_COUNT = 4;
+
+    // Ids of vertex layouts for SampleGLState.useVertexLayout()
+    private static final int LAYOUT_CAMERA = 1;
+    private static final int LAYOUT_BLIT = 2;
+
+    private final SampleGLState glState;
+    private final boolean useVertexArrays;
+    private final int[] vertexBufferHandle = new int[1];
+    private final int[] vertexArrayHandle = new int[2]; // camera, blit
 
     private final int mProgram;
+    private final int mPositionHandle;
+    private final int mTexCoordHandle;
     private final String vertexShaderCode =
             "attribute vec4 vPosition;" +
             "attribute vec2 vTexCoord;" +
@@ -62,110 +98,238 @@ public class SampleGLES20Video {
             "    gl_FragColor = texture2D(texture, texCoordVar);" +
             "}";
 
-    private static int loadShader(int type, String shaderCode) {
-        int shader;
-
-        shader = GLES20.glCreateShader(type);
-        GLES20.glShaderSource(shader, shaderCode);
-        GLES20.glCompileShader(shader);
-
-        // Check shader compile status
-        int compileStatus[] = {GLES20.GL_FALSE};
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
-        if(compileStatus[0] == GLES20.GL_FALSE) {
-            int logSize[] = {0};
-            GLES20.glGetShaderiv(shader, GLES20.GL_INFO_LOG_LENGTH, logSize, 0);
-            if(logSize[0] > 0) {
-                String errorLog = GLES20.glGetShaderInfoLog(shader);
-                Log.d(SampleGLES20Video.class.getName() , errorLog);
-            }
-        }
-        return shader;
-    }
+    // Blit texture of framebuffer object (GL_TEXTURE_2D) to output surface
+    private final int mBlitProgram;
+    private final int mBlitPositionHandle;
+    private final int mBlitTexCoordHandle;
+    private final String blitFragmentShaderCode =
+            "precision mediump float;" +
+            "uniform sampler2D texture;" +
+            "varying vec2 texCoordVar;" +
+            "void main() {" +
+            "    gl_FragColor = texture2D(texture, texCoordVar);" +
+            "}";
+    private static final int BLIT_TEXTURE_UNIT = 1;
+    private static final int LUT_TEXTURE_UNIT = 2;
+    private static final int OVERLAY_TEXTURE_UNIT = 3;
+    private static final int POSITION_LOCATION = 0;
+    private static final int TEX_COORD_LOCATION = 1;
+    private static final int OVERLAY_WIDTH = 320;
+    private static final int OVERLAY_HEIGHT = 180;
 
-    // Create bitmap of video returned by glReadPixels()
-    // Must be called in context of onFrameDraw()
-    private void createBitmap(String fileName) {
-        Bitmap videoFrame;
-        int size = surfaceWidth * surfaceHeight;
-        ByteBuffer buf = ByteBuffer.allocateDirect(size * 4);
-        buf.order(ByteOrder.nativeOrder());
-        GLES20.glReadPixels(0, 0, surfaceWidth, surfaceHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, buf);
-        int data[] = new int[size];
-        buf.asIntBuffer().get(data);
-        videoFrame = Bitmap.createBitmap(surfaceWidth, surfaceHeight, Bitmap.Config.ARGB_8888);
-        videoFrame.setPixels(data, size-surfaceWidth, -surfaceWidth, 0, 0, surfaceWidth, surfaceHeight);
-        FileOutputStream fileOutputStream;
-        try {
-            fileOutputStream = new FileOutputStream(fileName);
-            videoFrame.compress(Bitmap.CompressFormat.JPEG, 100, fileOutputStream);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
-        videoFrame.recycle();
-    }
+    private final SampleProgramManager programManager;
+    // Effect programs by fragment shader source, with their texelSize location
+    private final Map<String, int[]> effectPrograms = new HashMap<String, int[]>();
+    private final int[] lutTextureHandle = new int[1];
+    private final int[] overlayTextureHandle = new int[1];
+    // Units of camera textures, camera 0 is textureHandle
+    private static final int[] CAMERA_TEXTURE_UNITS = {0, 4, 5};
+    private final int[] cameraTextureHandles = new int[SampleCameraLayout.MAX_CAMERAS];
+    // Composite programs by camera count: program, region location, transform location
+    private final Map<Integer, int[]> compositePrograms = new HashMap<Integer, int[]>();
 
+    // Draw camera texture as is
     public void draw() {
-        int mPositionHandle;
-        int mTexCoordHandle;
-
         // Start using shader
-        GLES20.glUseProgram(mProgram);
+        glState.useProgram(mProgram);
+        bindGeometry(LAYOUT_CAMERA, mPositionHandle, mTexCoordHandle, TEXTURE_OFFSET);
 
-        // Get vertex position "vPosition" and texture coordinate "vTextCoord" handles
-        mPositionHandle = GLES20.glGetAttribLocation(mProgram, "vPosition");
-        mTexCoordHandle = GLES20.glGetAttribLocation(mProgram, "vTexCoord");
+        // Draw square by GL_TRIANGLE_STRIP
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, VERTEX_COUNT);
+        glState.count(1);
+    }
 
-        // Enable vertex handle
-        GLES20.glEnableVertexAttribArray(mPositionHandle);
+    // Draw GL_TEXTURE_2D (e.g. texture of SampleFrameBuffer) on current surface
+    public void drawTexture2D(int textureId) {
+        glState.useProgram(mBlitProgram);
+        glState.activeTexture(BLIT_TEXTURE_UNIT);
+        glState.bindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        bindGeometry(LAYOUT_BLIT, mBlitPositionHandle, mBlitTexCoordHandle, BLIT_TEXTURE_OFFSET);
 
-        // Set vertices data of vertex handle
-        GLES20.glVertexAttribPointer(mPositionHandle, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false,
-                (COORDS_PER_VERTEX * BYTES_PER_FLOAT), vertexBuffer);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, VERTEX_COUNT);
+        glState.count(1);
+    }
 
-        // Enable texture handle
-        GLES20.glEnableVertexAttribArray(mTexCoordHandle);
+    // Compile (or load) programs and create textures of passes. Call when the plan changes, outside
+    // of drawing, texture setup goes around SampleGLState.
+    public void prepare(List<SampleEffectChain.Pass> passes) {
+        boolean created = false;
+        for (SampleEffectChain.Pass pass : passes) {
+            String fragmentCode = pass.getFragmentShader();
+            if (!effectPrograms.containsKey(fragmentCode)) {
+                int program = programManager.getProgram(vertexShaderCode, fragmentCode, "vPosition", "vTexCoord");
+                GLES20.glUseProgram(program);
+                GLES20.glUniform1i(GLES20.glGetUniformLocation(program, "texture"),
+                        pass.isExternalSource() ? 0 : BLIT_TEXTURE_UNIT);
+                if (pass.uses(SampleEffectChain.LUT)) {
+                    GLES20.glUniform1i(GLES20.glGetUniformLocation(program, "lutTexture"), LUT_TEXTURE_UNIT);
+                }
+                if (pass.uses(SampleEffectChain.OVERLAY)) {
+                    GLES20.glUniform1i(GLES20.glGetUniformLocation(program, "overlayTexture"), OVERLAY_TEXTURE_UNIT);
+                }
+                int texelSize = pass.usesTexelSize() ? GLES20.glGetUniformLocation(program, "texelSize") : -1;
+                effectPrograms.put(fragmentCode, new int[] {program, texelSize});
+                created = true;
+            }
+            if (pass.uses(SampleEffectChain.LUT) && lutTextureHandle[0] == 0) {
+                int size = SampleEffectChain.LUT_SIZE;
+                createTexture(lutTextureHandle, size * size, size, SampleEffectChain.createWarmLut());
+                created = true;
+            }
+            if (pass.uses(SampleEffectChain.OVERLAY) && overlayTextureHandle[0] == 0) {
+                createTexture(overlayTextureHandle, OVERLAY_WIDTH, OVERLAY_HEIGHT,
+                        SampleEffectChain.createOverlay(OVERLAY_WIDTH, OVERLAY_HEIGHT));
+                created = true;
+            }
+        }
+        if (created) {
+            glState.invalidate();
+        }
+    }
 
-        // Set texture coordinates of texture coordinate handle
-        GLES20.glVertexAttribPointer(mTexCoordHandle, COORDS_PER_TEXTURE, GLES20.GL_FLOAT, false,
-                (COORDS_PER_TEXTURE * BYTES_PER_FLOAT), textureBuffer);
+    private static void createTexture(int[] handle, int width, int height, byte[] rgba) {
+        ByteBuffer pixels = ByteBuffer.allocateDirect(rgba.length).order(ByteOrder.nativeOrder());
+        pixels.put(rgba).position(0);
+        GLES20.glGenTextures(1, handle, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, handle[0]);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
+                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    }
 
-        // Draw square by GL_TRIANGLE_STRIP
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, vertexCoords.length / COORDS_PER_VERTEX);
+    // External texture of camera (1 or more), camera 0 uses getTextureHandle()
+    public int createCameraTexture(int camera) {
+        int[] handle = new int[1];
+        GLES20.glGenTextures(1, handle, 0);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + CAMERA_TEXTURE_UNITS[camera]);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, handle[0]);
+        GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        cameraTextureHandles[camera] = handle[0];
+        glState.invalidate();
+        return handle[0];
+    }
+
+    // Draw count cameras in one pass on current target, regions and transforms of SampleCameraLayout
+    public void drawComposite(int count, float[] regions, float[] transforms) {
+        int[] program = compositePrograms.get(count);
+        if (program == null) {
+            program = createCompositeProgram(count);
+        }
+        glState.useProgram(program[0]);
+        for (int i = 0; i < count; i++) {
+            glState.activeTexture(CAMERA_TEXTURE_UNITS[i]);
+            glState.bindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, cameraTextureHandles[i]);
+        }
+        GLES20.glUniform4fv(program[1], count, regions, 0);
+        GLES20.glUniform4fv(program[2], count, transforms, 0);
+        glState.count(2);
+        // Output coordinates, camera orientation is in the transforms
+        bindGeometry(LAYOUT_BLIT, POSITION_LOCATION, TEX_COORD_LOCATION, BLIT_TEXTURE_OFFSET);
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, VERTEX_COUNT);
+        glState.count(1);
+    }
 
-        // Disable vertex handle
-        GLES20.glDisableVertexAttribArray(mPositionHandle);
-        GLES20.glDisableVertexAttribArray(mTexCoordHandle);
+    private int[] createCompositeProgram(int count) {
+        int program = programManager.getProgram(vertexShaderCode, SampleCameraLayout.getCompositeShader(count),
+                "vPosition", "vTexCoord");
+        GLES20.glUseProgram(program);
+        for (int i = 0; i < count; i++) {
+            GLES20.glUniform1i(GLES20.glGetUniformLocation(program, "cameraTexture" + i), CAMERA_TEXTURE_UNITS[i]);
+        }
+        int[] info = {program, GLES20.glGetUniformLocation(program, "region"),
+                GLES20.glGetUniformLocation(program, "transform")};
+        compositePrograms.put(count, info);
+        glState.invalidate();
+        return info;
+    }
 
-        if (screenshotName != null) {
-            createBitmap(screenshotName);
-            screenshotName = null;
+    // Draw one prepared pass on current target. sourceTexture (GL_TEXTURE_2D) is used by passes that
+    // read a framebuffer, source size gives the sharpen tap distance.
+    public void drawPass(SampleEffectChain.Pass pass, int sourceTexture, int sourceWidth, int sourceHeight) {
+        int[] program = effectPrograms.get(pass.getFragmentShader());
+        glState.useProgram(program[0]);
+        if (!pass.isExternalSource()) {
+            glState.activeTexture(BLIT_TEXTURE_UNIT);
+            glState.bindTexture(GLES20.GL_TEXTURE_2D, sourceTexture);
+        }
+        if (pass.uses(SampleEffectChain.LUT)) {
+            glState.activeTexture(LUT_TEXTURE_UNIT);
+            glState.bindTexture(GLES20.GL_TEXTURE_2D, lutTextureHandle[0]);
+        }
+        if (pass.uses(SampleEffectChain.OVERLAY)) {
+            glState.activeTexture(OVERLAY_TEXTURE_UNIT);
+            glState.bindTexture(GLES20.GL_TEXTURE_2D, overlayTextureHandle[0]);
         }
+        if (program[1] >= 0) {
+            GLES20.glUniform2f(program[1], 1f / sourceWidth, 1f / sourceHeight);
+            glState.count(1);
+        }
+        if (pass.isExternalSource()) {
+            bindGeometry(LAYOUT_CAMERA, POSITION_LOCATION, TEX_COORD_LOCATION, TEXTURE_OFFSET);
+        } else {
+            bindGeometry(LAYOUT_BLIT, POSITION_LOCATION, TEX_COORD_LOCATION, BLIT_TEXTURE_OFFSET);
+        }
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, VERTEX_COUNT);
+        glState.count(1);
     }
 
-    public SampleGLES20Video() {
-        // Prepare vertices buffer for square and texture buffer
+    private void bindGeometry(int layout, int positionHandle, int texCoordHandle, int texCoordOffset) {
+        if (useVertexArrays) {
+            glState.bindVertexArray(vertexArrayHandle[layout == LAYOUT_CAMERA ? 0 : 1]);
+            return;
+        }
+        if (glState.useVertexLayout(layout)) {
+            glState.bindArrayBuffer(vertexBufferHandle[0]);
+            specifyAttributes(positionHandle, texCoordHandle, texCoordOffset);
+        }
+    }
+
+    private void specifyAttributes(int positionHandle, int texCoordHandle, int texCoordOffset) {
+        // Enable vertex handle and set vertices data of vertex handle
+        glState.enableVertexAttribArray(positionHandle);
+        GLES20.glVertexAttribPointer(positionHandle, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false,
+                (COORDS_PER_VERTEX * BYTES_PER_FLOAT), VERTEX_OFFSET);
+        // Enable texture handle and set texture coordinates of texture coordinate handle
+        glState.enableVertexAttribArray(texCoordHandle);
+        GLES20.glVertexAttribPointer(texCoordHandle, COORDS_PER_TEXTURE, GLES20.GL_FLOAT, false,
+                (COORDS_PER_TEXTURE * BYTES_PER_FLOAT), texCoordOffset);
+        glState.count(2);
+    }
+
+    public SampleGLES20Video(SampleGLState state, SampleProgramManager manager, boolean gles3) {
+        glState = state;
+        programManager = manager;
+        useVertexArrays = gles3;
+
+        // Prepare vertices and texture coordinates for square in one vertex buffer object
         // We need square to put texture on it
-        ByteBuffer bb;
-        bb = ByteBuffer.allocateDirect(vertexCoords.length * BYTES_PER_FLOAT);
-        bb.order(ByteOrder.nativeOrder());
-        vertexBuffer = bb.asFloatBuffer();
-        vertexBuffer.put(vertexCoords);
-        vertexBuffer.position(0);
-        bb = ByteBuffer.allocateDirect(textureCoords.length * BYTES_PER_FLOAT);
-        bb.order(ByteOrder.nativeOrder());
-        textureBuffer = bb.asFloatBuffer();
-        textureBuffer.put(textureCoords);
-        textureBuffer.position(0);
+        FloatBuffer geometry;
+        int floatCount = vertexCoords.length + textureCoords.length + blitTextureCoords.length;
+        geometry = ByteBuffer.allocateDirect(floatCount * BYTES_PER_FLOAT)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        geometry.put(vertexCoords).put(textureCoords).put(blitTextureCoords);
+        geometry.position(0);
+        GLES20.glGenBuffers(1, vertexBufferHandle, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferHandle[0]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, floatCount * BYTES_PER_FLOAT, geometry,
+                GLES20.GL_STATIC_DRAW);
 
         // All about Texture of OpenGL and GLSL Shader language
         // https://www.opengl.org/wiki/Texture#Texture_image_units
 
-        // Create Vertex and Fragment Shaders
-        mProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mProgram, loadShader(GLES20.GL_VERTEX_SHADER, vertexShaderCode));
-        GLES20.glAttachShader(mProgram, loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderCode));
-        GLES20.glLinkProgram(mProgram);
+        // Create Vertex and Fragment Shaders, resolve locations once
+        mProgram = programManager.getProgram(vertexShaderCode, fragmentShaderCode, "vPosition", "vTexCoord");
+        mPositionHandle = GLES20.glGetAttribLocation(mProgram, "vPosition");
+        mTexCoordHandle = GLES20.glGetAttribLocation(mProgram, "vTexCoord");
 
         // Assign GL_TEXTURE0 to fragment shader Sampler2D object "texture"
         GLES20.glUseProgram(mProgram);
@@ -173,6 +337,27 @@ public class SampleGLES20Video {
         texture = GLES20.glGetUniformLocation(mProgram, "texture");
         GLES20.glUniform1i(texture, 0 /* texture unit 0 */);
 
+        // Blit program samples framebuffer texture from its own texture unit
+        mBlitProgram = programManager.getProgram(vertexShaderCode, blitFragmentShaderCode, "vPosition", "vTexCoord");
+        mBlitPositionHandle = GLES20.glGetAttribLocation(mBlitProgram, "vPosition");
+        mBlitTexCoordHandle = GLES20.glGetAttribLocation(mBlitProgram, "vTexCoord");
+        GLES20.glUseProgram(mBlitProgram);
+        texture = GLES20.glGetUniformLocation(mBlitProgram, "texture");
+        GLES20.glUniform1i(texture, BLIT_TEXTURE_UNIT);
+
+        // GLES3: record attribute setup of each program in a vertex array object
+        if (useVertexArrays) {
+            // Bound through the tracker, which forgets enabled attributes on every switch. Its
+            // bindings may be stale here, start from scratch.
+            glState.invalidate();
+            GLES30.glGenVertexArrays(2, vertexArrayHandle, 0);
+            glState.bindVertexArray(vertexArrayHandle[0]);
+            specifyAttributes(mPositionHandle, mTexCoordHandle, TEXTURE_OFFSET);
+            glState.bindVertexArray(vertexArrayHandle[1]);
+            specifyAttributes(mBlitPositionHandle, mBlitTexCoordHandle, BLIT_TEXTURE_OFFSET);
+            glState.bindVertexArray(0);
+        }
+
         // Create "One" "texture object"
         GLES20.glGenTextures(1, textureHandle, 0);
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
@@ -183,6 +368,11 @@ public class SampleGLES20Video {
         // Set up filter - GL_LINEAR for better image quality
         GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
         GLES20.glTexParameterf(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+
+        cameraTextureHandles[0] = textureHandle[0];
+
+        // State was set up directly, let the tracker start from scratch
+        glState.invalidate();
     }
 
     public int getTextureHandle() {
@@ -193,8 +383,4 @@ public class SampleGLES20Video {
         surfaceWidth = w;
         surfaceHeight = h;
     }
-
-    public void screenshot(String fileName) {
-        screenshotName = fileName;
-    }
 }
@@ -1,76 +1,673 @@
 package com.example.mobile.samplecamera2;
 
 import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.util.Log;
 
-import javax.microedition.khronos.egl.EGL10;
-import javax.microedition.khronos.egl.EGLConfig;
-import javax.microedition.khronos.egl.EGLContext;
-import javax.microedition.khronos.egl.EGLDisplay;
-import javax.microedition.khronos.egl.EGLSurface;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import javax.microedition.khronos.opengles.GL10;
 
+//
+// Draw modes
+// DRAW_MODE_DIRECT:      camera texture is drawn by the external OES shader on every output surface.
+// DRAW_MODE_FRAMEBUFFER: camera texture is drawn once into a framebuffer object, then the
+//                        framebuffer texture is blitted to every output surface.
+//
+// Outputs live in a SampleOutputSinkRegistry. They can be added or removed from any thread while
+// capture is running, the GL context is kept. Each output has its own frame rate divisor.
+// The GLSurfaceView window is registered as host output on surface creation. Without GLSurfaceView
+// (SampleRenderEngine, setHostSurfaceOutput(false)) the current surface is not drawn, an on-screen
+// window is a display output instead (addDisplayOutput()), attached and removed as the UI comes and
+// goes. EGL calls go through EGL14 on the current display and context, so both hosts work.
+//
+// Camera frames are handed over by SampleFrameHandoff. Every frame queued since the last draw is
+// latched and drawn to the encode outputs with its SurfaceTexture timestamp as presentation time
+// (eglPresentationTimeANDROID), preview shows the newest one only. Use with RENDERMODE_WHEN_DIRTY
+// and call requestRender() when frameAvailable() returns true.
+//
+// Screenshots are taken by SampleScreenshotPipeline from the framebuffer object (framebuffer mode)
+// or the preview surface (direct mode), readback and JPEG write do not block the frame.
+//
+// GL state changes go through SampleGLState. setGLCallCounting(true) counts GL/EGL calls issued
+// and redundant calls skipped per frame, they are logged with the frame times.
+//
+// Every output has a SampleFrameTimer. It measures make-current + draw + swap on the GL thread.
+// With setGpuTiming(true) glFinish() is called before the timer stops, so the GPU work of the
+// output is included (slower, for measurement only).
+//
+// Effects are a SampleEffectChain mask. The chain is planned on the GL thread when the effect
+// changes, fused passes need no intermediate framebuffer, a split chain draws its first pass into
+// effectFrameBuffer. Programs of setEffectPresets() are prepared after the first frame, with
+// setProgramCacheDir() their binaries are reused across contexts and app starts (GLES3).
+//
+// Multi-camera: setCameraCount() before the GL thread starts, every camera has its own texture,
+// SurfaceTexture and SampleFrameHandoff, so a camera never waits for another one. Camera 0 drives
+// encode outputs and presentation times, the newest frame of every other camera is latched on each
+// draw. Once a camera has a frame, cameras are drawn in one pass with the SampleCameraLayout, effects
+// apply to single camera drawing only.
+//
+
 public class SampleGLRenderer implements GLSurfaceView.Renderer {
+    public static final int DRAW_MODE_DIRECT = 0;
+    public static final int DRAW_MODE_FRAMEBUFFER = 1;
+    public static final int EFFECT_NONE = SampleEffectChain.NONE;
+    public static final int EFFECT_GRAYSCALE = SampleEffectChain.GRAYSCALE;
+    public static final int EFFECT_LUT = SampleEffectChain.LUT;
+    public static final int EFFECT_SHARPEN = SampleEffectChain.SHARPEN;
+    public static final int EFFECT_OVERLAY = SampleEffectChain.OVERLAY;
+
+    private static final int FRAME_TIME_LOG_INTERVAL = 300; // frames
+    private static final int MAX_CATCH_UP_FRAMES = 4; // frames drawn per onDrawFrame(), older are dropped
+
     private final String TAG = this.getClass().getName();
     private SampleGLES20Video sampleGL20Video;
-    private SurfaceTexture surfaceTexture;
-    private EGL10 egl10;
+    private final SampleGLState glState = new SampleGLState();
+    private volatile SurfaceTexture surfaceTexture = null;
+    private final SampleFrameHandoff frameHandoff = new SampleFrameHandoff();
+    private volatile SampleLatencyTracer latencyTracer = null;
+    private volatile StartupListener startupListener = null;
+    private boolean firstFrameDrawn = false;
+    private long frameTimestampNs = 0;
     private EGLDisplay eglDisplay;
     private EGLContext eglContext = null;
-    private EGLSurface eglSurfacePreview = null;
-    private EGLSurface eglSurfaceEncode = null;
+    private EGLConfig eglConfig = null;
+    private final int[] eglValue = new int[1];
+    private volatile boolean hostSurfaceOutput = true;
+    private final SampleOutputSinkRegistry<SampleRenderOutput> outputRegistry =
+            new SampleOutputSinkRegistry<SampleRenderOutput>();
+    private final List<SampleRenderOutput> outputs = new ArrayList<SampleRenderOutput>();
+    private SampleRenderOutput hostOutput = null;
+    private final SampleFrameTimer sourceFrameTimer = new SampleFrameTimer("camera");
+    private final SampleFrameTimer drawFrameTimer = new SampleFrameTimer("onDrawFrame");
+    private volatile int effect = EFFECT_NONE;
+    private int plannedEffect = EFFECT_NONE;
+    private List<SampleEffectChain.Pass> effectPasses = new ArrayList<SampleEffectChain.Pass>();
+    private volatile int[] effectPresets = new int[0];
+    private volatile File programCacheDir = null;
+    private SampleProgramManager programManager = null;
+    private boolean presetsPrepared = false;
+    private SampleFrameBuffer effectFrameBuffer = null;
+    private SampleFrameBuffer frameBuffer = null;
+    private final SampleScreenshotPipeline screenshotPipeline = new SampleScreenshotPipeline();
+    private boolean captureFrame = false;
+    private volatile int drawMode = DRAW_MODE_DIRECT;
+    private volatile boolean gpuTiming = false;
+    private int previewWidth = 0;
+    private int previewHeight = 0;
+    private long frameCount = 0;
+    private final int[] surfaceSize = new int[1];
+    private int cameraCount = 1;
+    // Cameras 1 and up, camera 0 is surfaceTexture and frameHandoff
+    private final int[] cameraTextures = new int[SampleCameraLayout.MAX_CAMERAS];
+    private volatile SurfaceTexture[] cameraSurfaceTextures = new SurfaceTexture[SampleCameraLayout.MAX_CAMERAS];
+    private final SampleFrameHandoff[] cameraHandoffs = new SampleFrameHandoff[SampleCameraLayout.MAX_CAMERAS];
+    private final boolean[] cameraLatched = new boolean[SampleCameraLayout.MAX_CAMERAS];
+    private volatile SampleCameraLayout cameraLayout =
+            new SampleCameraLayout(SampleCameraLayout.LAYOUT_PIP);
+    private volatile int[] cameraSizes = null;
+    private final float[] compositeRegions = new float[SampleCameraLayout.MAX_CAMERAS * 4];
+    private final float[] compositeTransforms = new float[SampleCameraLayout.MAX_CAMERAS * 4];
+
     @Override
-    public void onSurfaceCreated(GL10 gl, EGLConfig config) {
-        sampleGL20Video = new SampleGLES20Video();
-        surfaceTexture = null;
-        egl10 = (EGL10) EGLContext.getEGL();
-        eglDisplay = egl10.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
+    public void onSurfaceCreated(GL10 gl, javax.microedition.khronos.egl.EGLConfig config) {
+        // Vertex array and pixel buffer objects need GLES3, see SampleContextFactory
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        boolean gles3 = version != null && version.startsWith("OpenGL ES 3");
+        Log.v(TAG, "GL_VERSION " + version);
+
+        glState.invalidate();
+        programManager = new SampleProgramManager(programCacheDir, gles3);
+        sampleGL20Video = new SampleGLES20Video(glState, programManager, gles3);
+        for (int i = 1; i < cameraCount; i++) {
+            cameraTextures[i] = sampleGL20Video.createCameraTexture(i);
+            cameraLatched[i] = false;
+        }
+        presetsPrepared = false;
+        plannedEffect = EFFECT_NONE;
+        effectPasses = new ArrayList<SampleEffectChain.Pass>();
+        frameBuffer = null;
+        effectFrameBuffer = null;
+        eglDisplay = EGL14.eglGetCurrentDisplay();
+        eglContext = EGL14.eglGetCurrentContext();
+        eglConfig = getContextConfig();
+        if (hostSurfaceOutput) {
+            updateHostOutput();
+        }
+        screenshotPipeline.onContextCreated(gles3);
+        if (startupListener != null) {
+            startupListener.onSurfaceCreated();
+        }
     }
 
+    // Config the current context was created with, for window surfaces of outputs
+    private EGLConfig getContextConfig() {
+        EGL14.eglQueryContext(eglDisplay, eglContext, EGL14.EGL_CONFIG_ID, eglValue, 0);
+        int[] attributes = {EGL14.EGL_CONFIG_ID, eglValue[0], EGL14.EGL_NONE};
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] count = new int[1];
+        if (!EGL14.eglChooseConfig(eglDisplay, attributes, 0, configs, 0, 1, count, 0) || count[0] == 0) {
+            Log.e(TAG, "No EGL config " + eglValue[0]);
+            return null;
+        }
+        return configs[0];
+    }
+
+    // Register window surface of GLSurfaceView (current draw surface) as host output
+    private void updateHostOutput() {
+        EGLSurface current = EGL14.eglGetCurrentSurface(EGL14.EGL_DRAW);
+        if (hostOutput != null) {
+            if (hostOutput.getEglSurface() == current) {
+                return;
+            }
+            outputRegistry.unregister(hostOutput);
+        }
+        hostOutput = new SampleRenderOutput("preview", current);
+        outputRegistry.register(hostOutput);
+    }
+
+    private final SampleOutputSinkRegistry.Attacher<SampleRenderOutput> outputAttacher =
+            new SampleOutputSinkRegistry.Attacher<SampleRenderOutput>() {
+                @Override
+                public boolean attach(SampleRenderOutput output) {
+                    if (output.isViewSurface()) {
+                        return output.getEglSurface() != null;
+                    }
+                    EGLSurface eglSurface = null;
+                    try {
+                        eglSurface = EGL14.eglCreateWindowSurface(eglDisplay, eglConfig,
+                                output.getNativeWindow(), new int[] {EGL14.EGL_NONE}, 0);
+                    } catch (IllegalArgumentException e) {
+                        Log.e(TAG, "eglCreateWindowSurface (" + output.getName() + ")", e);
+                    }
+                    if (eglSurface == null || eglSurface == EGL14.EGL_NO_SURFACE) {
+                        return false;
+                    }
+                    output.setEglSurface(eglSurface);
+                    Log.v(TAG, "Output " + output.getName() + " attached, divisor "
+                            + output.getFrameRateDivisor());
+                    return true;
+                }
+
+                @Override
+                public void detach(SampleRenderOutput output) {
+                    // Host surface is owned by GLSurfaceView
+                    if (!output.isViewSurface() && output.getEglSurface() != null) {
+                        EGL14.eglDestroySurface(eglDisplay, output.getEglSurface());
+                        output.setEglSurface(null);
+                    }
+                    Log.v(TAG, "Output " + output.getName() + " detached");
+                }
+            };
+
     @Override
     public void onDrawFrame(GL10 gl) {
+        drawFrameTimer.begin();
+        glState.beginFrame();
+        int newEffect = effect;
+        if (newEffect != plannedEffect) {
+            planEffect(newEffect);
+        }
+        if (outputRegistry.hasPendingChanges()) {
+            outputRegistry.update(outputAttacher);
+        }
+
+        for (int i = 1; i < cameraCount; i++) {
+            latchCamera(i);
+        }
+
         // Step 8: SurfaceTexture update texture image in context of GLSurfaceView.Renderer.onDrawFrame()
-        if(surfaceTexture != null) {
+        SurfaceTexture st = surfaceTexture;
+        int latched = (st != null) ? frameHandoff.beginDraw() : 0;
+        int drawn = 0;
+        for (int i = 0; i < latched; i++) {
             // Here is right context of calling SurfaceTexture.updateTexImage()
-            surfaceTexture.updateTexImage();
-            surfaceTexture = null;
+            // Each call latches the next queued frame in order
+            st.updateTexImage();
+            glState.count(1);
+            long timestampNs = st.getTimestamp();
+            if (latencyTracer != null) {
+                latencyTracer.frameLatched(timestampNs);
+            }
+            int behind = latched - 1 - i;
+            if (behind >= MAX_CATCH_UP_FRAMES) {
+                continue;
+            }
+            drawFrame(timestampNs, behind == 0, true);
+            drawn++;
+            if (latencyTracer != null) {
+                latencyTracer.mark(SampleLatencyTracer.STAGE_DRAWN, timestampNs);
+            }
         }
+        frameHandoff.endDraw(latched, drawn);
+
+        if (latched == 0) {
+            // Redraw without new camera frame (e.g. surface changed), preview only
+            drawFrame(frameTimestampNs, true, false);
+        }
+        glState.endFrame();
+        if (gpuTiming) {
+            GLES20.glFinish();
+        }
+        drawFrameTimer.end();
+        if (drawn > 0 && !firstFrameDrawn) {
+            firstFrameDrawn = true;
+            if (startupListener != null) {
+                startupListener.onFirstFrameDrawn();
+            }
+        } else if (firstFrameDrawn && !presetsPrepared) {
+            // After the first frame, so compiling presets does not delay startup
+            for (int preset : effectPresets) {
+                sampleGL20Video.prepare(SampleEffectChain.plan(preset));
+            }
+            presetsPrepared = true;
+            Log.v(TAG, programManager.toString());
+        }
+    }
+
+    // Newest frame of a further camera, older ones are dropped
+    private void latchCamera(int camera) {
+        SurfaceTexture st = cameraSurfaceTextures[camera];
+        if (st == null) {
+            return;
+        }
+        int latched = cameraHandoffs[camera].beginDraw();
+        for (int i = 0; i < latched; i++) {
+            st.updateTexImage();
+            glState.count(1);
+        }
+        cameraHandoffs[camera].endDraw(latched, latched > 0 ? 1 : 0);
+        if (latched > 0) {
+            cameraLatched[camera] = true;
+        }
+    }
+
+    // Cameras drawn together, from camera 0 up to the first one without a frame yet
+    private int getCompositeCount() {
+        int count = 1;
+        while (count < cameraCount && cameraLatched[count]) {
+            count++;
+        }
+        return cameraSizes != null ? count : 1;
+    }
+
+    private void drawFrame(long timestampNs, boolean includeHost, boolean newFrame) {
+        outputRegistry.selectDue(frameCount, includeHost, newFrame, outputs);
+        if (outputs.isEmpty()) {
+            return;
+        }
+        frameTimestampNs = timestampNs;
+        captureFrame = newFrame;
 
         // Step 9: Fragment shader draw preview texture (samplerExternalOES)
-        // Draw on MediaCodec InputSurface for encode
-        egl10.eglMakeCurrent(eglDisplay, eglSurfaceEncode, eglSurfaceEncode, eglContext);
-        sampleGL20Video.draw();
-        egl10.eglSwapBuffers(eglDisplay, eglSurfaceEncode);
-        // Draw on native window (surface) for preview
-        egl10.eglMakeCurrent(eglDisplay, eglSurfacePreview, eglSurfacePreview, eglContext);
-        sampleGL20Video.draw();
+        if (drawMode == DRAW_MODE_FRAMEBUFFER) {
+            drawThroughFrameBuffer();
+        } else {
+            drawDirect();
+        }
+
+        if (newFrame && ++frameCount % FRAME_TIME_LOG_INTERVAL == 0) {
+            logFrameTimes();
+        }
+    }
+
+    private void planEffect(int newEffect) {
+        effectPasses = SampleEffectChain.plan(newEffect);
+        sampleGL20Video.prepare(effectPasses);
+        plannedEffect = newEffect;
+        Log.v(TAG, "Effect passes " + effectPasses + ", " + programManager);
+    }
+
+    // Draw camera texture with current effect on target (null: current surface) of size w x h.
+    // Plans have at most two passes, the first one of a split chain goes to effectFrameBuffer.
+    private void drawCamera(SampleFrameBuffer target, int w, int h) {
+        int compositeCount = getCompositeCount();
+        if (compositeCount > 1) {
+            int[] sizes = cameraSizes;
+            cameraLayout.compute(w, h, compositeCount == cameraCount ? sizes : Arrays.copyOf(sizes, compositeCount * 2),
+                    compositeRegions, compositeTransforms);
+            sampleGL20Video.drawComposite(compositeCount, compositeRegions, compositeTransforms);
+            return;
+        }
+        int passCount = effectPasses.size();
+        if (passCount == 0) {
+            sampleGL20Video.draw();
+            return;
+        }
+        int cameraWidth = previewWidth > 0 ? previewWidth : w;
+        int cameraHeight = previewHeight > 0 ? previewHeight : h;
+        if (passCount > 1) {
+            if (effectFrameBuffer == null) {
+                effectFrameBuffer = new SampleFrameBuffer(cameraWidth, cameraHeight);
+                glState.invalidate();
+            }
+            effectFrameBuffer.bind();
+            sampleGL20Video.drawPass(effectPasses.get(0), 0, cameraWidth, cameraHeight);
+            if (target != null) {
+                target.bind();
+            } else {
+                effectFrameBuffer.unbind();
+                GLES20.glViewport(0, 0, w, h);
+            }
+            glState.count(2);
+            sampleGL20Video.drawPass(effectPasses.get(1), effectFrameBuffer.getTextureHandle(),
+                    effectFrameBuffer.getWidth(), effectFrameBuffer.getHeight());
+        } else {
+            sampleGL20Video.drawPass(effectPasses.get(0), 0, cameraWidth, cameraHeight);
+        }
+    }
+
+    // Draw camera texture on every due output. Host (preview) surface is drawn last,
+    // GLSurfaceView swaps it after onDrawFrame() returns, display outputs are swapped here.
+    private void drawDirect() {
+        for (SampleRenderOutput output : outputs) {
+            drawOutputDirect(output);
+        }
+    }
+
+    private void drawOutputDirect(SampleRenderOutput output) {
+        SampleFrameTimer timer = output.getFrameTimer();
+        timer.begin();
+        makeCurrent(output);
+        drawCamera(null, output.getWidth(), output.getHeight());
+        if (captureFrame && output.isHostSurface()) {
+            screenshotPipeline.onFrameDrawn(output.getWidth(), output.getHeight());
+        }
+        finishOutput(output);
+        timer.end();
+    }
+
+    // Draw camera texture once into framebuffer object, then blit it to every output
+    private void drawThroughFrameBuffer() {
+        SampleRenderOutput first = outputs.get(0);
+        sourceFrameTimer.begin();
+        makeCurrent(first);
+        if (frameBuffer == null) {
+            int w = previewWidth > 0 ? previewWidth : first.getWidth();
+            int h = previewHeight > 0 ? previewHeight : first.getHeight();
+            frameBuffer = new SampleFrameBuffer(w, h);
+            // Framebuffer setup changed texture bindings behind the tracker
+            glState.invalidate();
+        }
+        frameBuffer.bind();
+        glState.count(2);
+        drawCamera(frameBuffer, frameBuffer.getWidth(), frameBuffer.getHeight());
+        if (captureFrame) {
+            screenshotPipeline.onFrameDrawn(frameBuffer.getWidth(), frameBuffer.getHeight());
+        }
+        frameBuffer.unbind();
+        glState.count(1);
+        if (gpuTiming) {
+            GLES20.glFinish();
+        }
+        sourceFrameTimer.end();
+
+        int textureId = frameBuffer.getTextureHandle();
+        for (SampleRenderOutput output : outputs) {
+            blitOutput(output, textureId);
+        }
+    }
+
+    private void blitOutput(SampleRenderOutput output, int textureId) {
+        SampleFrameTimer timer = output.getFrameTimer();
+        timer.begin();
+        makeCurrent(output);
+        GLES20.glViewport(0, 0, output.getWidth(), output.getHeight());
+        glState.count(1);
+        sampleGL20Video.drawTexture2D(textureId);
+        finishOutput(output);
+        timer.end();
+    }
+
+    private void makeCurrent(SampleRenderOutput output) {
+        EGLSurface eglSurface = output.getEglSurface();
+        EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext);
+        glState.count(1);
+        if (output.getWidth() == 0) {
+            int w, h;
+            EGL14.eglQuerySurface(eglDisplay, eglSurface, EGL14.EGL_WIDTH, surfaceSize, 0);
+            w = surfaceSize[0];
+            EGL14.eglQuerySurface(eglDisplay, eglSurface, EGL14.EGL_HEIGHT, surfaceSize, 0);
+            h = surfaceSize[0];
+            output.setSize(w, h);
+        }
+    }
+
+    private void finishOutput(SampleRenderOutput output) {
+        if (!output.isViewSurface()) {
+            // Encoder orders frames by presentation time, a display shows them as soon as possible
+            if (frameTimestampNs != 0 && !output.isHostSurface()) {
+                EGLExt.eglPresentationTimeANDROID(eglDisplay, output.getEglSurface(), frameTimestampNs);
+            }
+            EGL14.eglSwapBuffers(eglDisplay, output.getEglSurface());
+            glState.count(1);
+        }
+        if (gpuTiming) {
+            GLES20.glFinish();
+        }
+    }
+
+    public void logFrameTimes() {
+        if (drawMode == DRAW_MODE_FRAMEBUFFER) {
+            Log.v(TAG, sourceFrameTimer.toString());
+        }
+        for (SampleRenderOutput output : outputRegistry.getSinks()) {
+            Log.v(TAG, output.getFrameTimer().toString());
+        }
+        Log.v(TAG, drawFrameTimer.toString());
+        Log.v(TAG, frameHandoff.toString());
+        for (int i = 1; i < cameraCount; i++) {
+            Log.v(TAG, "Camera " + i + " " + cameraHandoffs[i]);
+        }
+        if (latencyTracer != null) {
+            Log.v(TAG, latencyTracer.toString());
+        }
+        if (glState.isCounting()) {
+            Log.v(TAG, "GL calls last frame " + glState.getLastFrameCalls() + ", skipped "
+                    + glState.getLastFrameSkipped());
+        }
+        screenshotPipeline.logStats();
     }
 
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
         sampleGL20Video.setResolution(width, height);
+        previewWidth = width;
+        previewHeight = height;
+        if (frameBuffer != null
+                && (frameBuffer.getWidth() != width || frameBuffer.getHeight() != height)) {
+            frameBuffer.release();
+            frameBuffer = null;
+        }
+        if (effectFrameBuffer != null
+                && (effectFrameBuffer.getWidth() != width || effectFrameBuffer.getHeight() != height)) {
+            effectFrameBuffer.release();
+            effectFrameBuffer = null;
+        }
+        if (hostSurfaceOutput) {
+            updateHostOutput();
+            hostOutput.setSize(width, height);
+        }
     }
 
     public int getTextureHandle() {
         return sampleGL20Video.getTextureHandle();
     }
 
-    public void updateTexture(SurfaceTexture st) {
-        // Update SurfaceText pointer to update texture in next call of onDrawFrame()
+    public int getTextureHandle(int camera) {
+        return camera == 0 ? getTextureHandle() : cameraTextures[camera];
+    }
+
+    public void setSurfaceTexture(SurfaceTexture st) {
         surfaceTexture = st;
     }
 
+    public synchronized void setSurfaceTexture(int camera, SurfaceTexture st) {
+        if (camera == 0) {
+            setSurfaceTexture(st);
+            return;
+        }
+        SurfaceTexture[] copy = cameraSurfaceTextures.clone();
+        copy[camera] = st;
+        cameraSurfaceTextures = copy;
+    }
+
+    // Cameras drawn, up to SampleCameraLayout.MAX_CAMERAS. Set before the GL thread starts.
+    public void setCameraCount(int count) {
+        cameraCount = count;
+        for (int i = 1; i < count; i++) {
+            cameraHandoffs[i] = new SampleFrameHandoff();
+        }
+    }
+
+    // Stream size of every camera (width, height per camera), composite starts once set
+    public void setCameraSizes(int... sizes) {
+        cameraSizes = sizes.clone();
+    }
+
+    public void setCameraLayout(SampleCameraLayout layout) {
+        cameraLayout = layout;
+    }
+
+    public SampleCameraLayout getCameraLayout() {
+        return cameraLayout;
+    }
+
+    // Called from SurfaceTexture.OnFrameAvailableListener. Return true if requestRender() is needed.
+    public boolean frameAvailable() {
+        return frameHandoff.frameAvailable();
+    }
+
+    // Same for camera 1 and up, each camera has its own hand-off
+    public boolean frameAvailable(int camera) {
+        return camera == 0 ? frameAvailable() : cameraHandoffs[camera].frameAvailable();
+    }
+
+    // Latched and drawn stages are marked on GL thread, latency is logged with frame times
+    public void setLatencyTracer(SampleLatencyTracer tracer) {
+        latencyTracer = tracer;
+    }
+
+    // Startup milestones, called on GL thread
+    public interface StartupListener {
+        // GL context is current, getTextureHandle() is valid
+        void onSurfaceCreated();
+
+        // First camera frame is drawn, swap follows
+        void onFirstFrameDrawn();
+    }
+
+    public void setStartupListener(StartupListener listener) {
+        startupListener = listener;
+    }
+
+    public SampleFrameHandoff getFrameHandoff() {
+        return frameHandoff;
+    }
+
+    public SampleFrameHandoff getFrameHandoff(int camera) {
+        return camera == 0 ? frameHandoff : cameraHandoffs[camera];
+    }
+
     public void screenshot(String fileName) {
-        sampleGL20Video.screenshot(fileName);
+        screenshotPipeline.screenshot(fileName);
+    }
+
+    // Capture count consecutive camera frames
+    public void burst(int count, String baseName) {
+        screenshotPipeline.burst(count, baseName);
+    }
+
+    public void setDrawMode(int mode) {
+        drawMode = mode;
+    }
+
+    // Mask of EFFECT_* flags. EFFECT_NONE draws camera frames as they are. Other effects need the GL
+    // path for recording, see SampleCapturePathSwitcher.
+    public void setEffect(int newEffect) {
+        effect = newEffect;
+    }
+
+    public int getEffect() {
+        return effect;
+    }
+
+    // Effect masks whose programs are prepared after the first frame, so switching does not compile.
+    // Set before the GL thread starts.
+    public void setEffectPresets(int... presets) {
+        effectPresets = presets.clone();
+    }
+
+    // Directory of program binaries, null to compile on every surface creation.
+    // Set before the GL thread starts.
+    public void setProgramCacheDir(File dir) {
+        programCacheDir = dir;
+    }
+
+    public void setGpuTiming(boolean enable) {
+        gpuTiming = enable;
+    }
+
+    // Debug: count GL calls per frame. Set before the GL thread starts drawing.
+    public void setGLCallCounting(boolean enable) {
+        glState.setCounting(enable);
+    }
+
+    // Add output drawn to surface (e.g. MediaCodec input Surface) on every frameRateDivisor-th
+    // frame. Can be called from any thread, output is attached on next onDrawFrame().
+    public SampleRenderOutput addOutput(String name, Object surface, int frameRateDivisor) {
+        SampleRenderOutput output = new SampleRenderOutput(name, surface, frameRateDivisor);
+        outputRegistry.register(output);
+        return output;
+    }
+
+    // On-screen window (e.g. SurfaceView Surface) drawn with the newest frame only, like the
+    // GLSurfaceView window. Remove it and applyOutputChanges() before the window is destroyed.
+    public SampleRenderOutput addDisplayOutput(String name, Object surface) {
+        SampleRenderOutput output = new SampleRenderOutput(name, surface, true);
+        outputRegistry.register(output);
+        return output;
+    }
+
+    // false: current draw surface at onSurfaceCreated() is not an output (e.g. pbuffer of
+    // SampleRenderEngine). Set before the GL thread starts.
+    public void setHostSurfaceOutput(boolean enable) {
+        hostSurfaceOutput = enable;
+    }
+
+    // Remove output, its EGL surface is destroyed on next onDrawFrame()
+    public void removeOutput(SampleRenderOutput output) {
+        outputRegistry.unregister(output);
+    }
+
+    // GL thread only (e.g. GLSurfaceView.queueEvent(), SampleRenderEngine.queueEvent()). Attach and detach pending outputs now
+    // instead of on next onDrawFrame(), so a removed surface can be handed to another producer.
+    public void applyOutputChanges() {
+        if (outputRegistry.hasPendingChanges()) {
+            outputRegistry.update(outputAttacher);
+        }
+    }
+
+    public List<SampleRenderOutput> getOutputs() {
+        return outputRegistry.getSinks();
     }
 
-    public void setEglContext(EGLContext ctx) {
-        eglContext = ctx;
+    public SampleFrameTimer getSourceFrameTimer() {
+        return sourceFrameTimer;
     }
 
-    public void setEglSurface(EGLSurface preview, EGLSurface encode) {
-        eglSurfacePreview = preview;
-        eglSurfaceEncode = encode;
+    // Time of whole onDrawFrame(), includes GPU time with setGpuTiming(true)
+    public SampleFrameTimer getDrawFrameTimer() {
+        return drawFrameTimer;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,180 @@
+package com.example.mobile.samplecamera2;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+//
+// Small GL state tracker. Remembers program, active texture unit, texture and buffer bindings,
+// vertex array object and enabled vertex attributes, and skips calls that would not change them.
+// Call invalidate() after GL state was changed behind its back (new context, foreign code).
+//
+// Debug mode (setCounting(true)) counts issued and skipped calls per frame, frame boundaries are
+// marked by beginFrame()/endFrame(). Untracked calls (draw, uniforms, EGL) are added by count().
+//
+
+public class SampleGLState {
+    private static final int MAX_TEXTURE_UNITS = 8;
+    private static final int MAX_VERTEX_ATTRIBS = 16;
+    private static final int UNKNOWN = -1;
+
+    private int program;
+    private int activeTextureUnit;
+    private final int[] texture2D = new int[MAX_TEXTURE_UNITS];
+    private final int[] textureExternal = new int[MAX_TEXTURE_UNITS];
+    private int arrayBuffer;
+    private int vertexArray;
+    private int vertexLayout;
+    private final int[] vertexAttribEnabled = new int[MAX_VERTEX_ATTRIBS];
+
+    private volatile boolean counting = false;
+    private int frameCalls = 0;
+    private int frameSkipped = 0;
+    private volatile int lastFrameCalls = 0;
+    private volatile int lastFrameSkipped = 0;
+
+    public SampleGLState() {
+        invalidate();
+    }
+
+    public void invalidate() {
+        program = UNKNOWN;
+        activeTextureUnit = UNKNOWN;
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+            texture2D[i] = UNKNOWN;
+            textureExternal[i] = UNKNOWN;
+        }
+        arrayBuffer = UNKNOWN;
+        vertexArray = UNKNOWN;
+        vertexLayout = UNKNOWN;
+        for (int i = 0; i < MAX_VERTEX_ATTRIBS; i++) {
+            vertexAttribEnabled[i] = UNKNOWN;
+        }
+    }
+
+    public void useProgram(int handle) {
+        if (program == handle) {
+            skipped();
+            return;
+        }
+        GLES20.glUseProgram(handle);
+        program = handle;
+        issued();
+    }
+
+    // unit is 0 based, i.e. GL_TEXTUREn - GL_TEXTURE0
+    public void activeTexture(int unit) {
+        if (activeTextureUnit == unit) {
+            skipped();
+            return;
+        }
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+        activeTextureUnit = unit;
+        issued();
+    }
+
+    // Bind texture to active unit. target is GL_TEXTURE_2D or GL_TEXTURE_EXTERNAL_OES.
+    public void bindTexture(int target, int handle) {
+        int[] bound = (target == GLES20.GL_TEXTURE_2D) ? texture2D : textureExternal;
+        int unit = activeTextureUnit;
+        if (unit >= 0 && unit < MAX_TEXTURE_UNITS && bound[unit] == handle) {
+            skipped();
+            return;
+        }
+        GLES20.glBindTexture(target, handle);
+        if (unit >= 0 && unit < MAX_TEXTURE_UNITS) {
+            bound[unit] = handle;
+        }
+        issued();
+    }
+
+    public void bindArrayBuffer(int handle) {
+        if (arrayBuffer == handle) {
+            skipped();
+            return;
+        }
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, handle);
+        arrayBuffer = handle;
+        issued();
+    }
+
+    // GLES3 only. Enabled attributes are state of the vertex array object, unknown after a switch.
+    public void bindVertexArray(int handle) {
+        if (vertexArray == handle) {
+            skipped();
+            return;
+        }
+        GLES30.glBindVertexArray(handle);
+        vertexArray = handle;
+        for (int i = 0; i < MAX_VERTEX_ATTRIBS; i++) {
+            vertexAttribEnabled[i] = UNKNOWN;
+        }
+        issued();
+    }
+
+    public void enableVertexAttribArray(int index) {
+        if (index < MAX_VERTEX_ATTRIBS && vertexAttribEnabled[index] == 1) {
+            skipped();
+            return;
+        }
+        GLES20.glEnableVertexAttribArray(index);
+        if (index < MAX_VERTEX_ATTRIBS) {
+            vertexAttribEnabled[index] = 1;
+        }
+        issued();
+    }
+
+    // Return true if vertex attribute pointers for layout id must be specified
+    public boolean useVertexLayout(int id) {
+        if (vertexLayout == id) {
+            skipped();
+            return false;
+        }
+        vertexLayout = id;
+        return true;
+    }
+
+    public void setCounting(boolean enable) {
+        counting = enable;
+    }
+
+    public boolean isCounting() {
+        return counting;
+    }
+
+    // Add untracked GL calls to the count
+    public void count(int calls) {
+        if (counting) {
+            frameCalls += calls;
+        }
+    }
+
+    public void beginFrame() {
+        frameCalls = 0;
+        frameSkipped = 0;
+    }
+
+    public void endFrame() {
+        lastFrameCalls = frameCalls;
+        lastFrameSkipped = frameSkipped;
+    }
+
+    public int getLastFrameCalls() {
+        return lastFrameCalls;
+    }
+
+    public int getLastFrameSkipped() {
+        return lastFrameSkipped;
+    }
+
+    private void issued() {
+        if (counting) {
+            frameCalls++;
+        }
+    }
+
+    private void skipped() {
+        if (counting) {
+            frameSkipped++;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.mobile.samplecamera2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//
+// Pick size and frame rate of a constrained high-speed session
+//
+// How to use
+// 1. add() every (size, fps range) pair of StreamConfigurationMap.getHighSpeedVideoSizes() and
+//    getHighSpeedVideoFpsRangesFor(size).
+// 2. select(fps, maxWidth, maxHeight) returns a fixed range mode (min == max, required while
+//    recording) at the requested rate, or the highest rate below it, largest size first.
+//    null if the camera has no fixed high-speed range up to fps.
+//
+
+public class SampleHighSpeedSelector {
+    public static class Mode {
+        public final int width;
+        public final int height;
+        public final int fps;
+
+        public Mode(int width, int height, int fps) {
+            this.width = width;
+            this.height = height;
+            this.fps = fps;
+        }
+
+        // Draw preview once every returned frames to stay near displayFps
+        public int getPreviewDecimation(int displayFps) {
+            return Math.max(1, fps / displayFps);
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "@" + fps;
+        }
+    }
+
+    private final List<int[]> ranges = new ArrayList<int[]>();
+
+    public void add(int width, int height, int fpsMin, int fpsMax) {
+        ranges.add(new int[] {width, height, fpsMin, fpsMax});
+    }
+
+    public Mode select(int fps, int maxWidth, int maxHeight) {
+        int[] best = null;
+        for (int[] range : ranges) {
+            if (range[2] != range[3] || range[3] > fps || range[0] > maxWidth || range[1] > maxHeight) {
+                continue;
+            }
+            if (best == null || range[3] > best[3]
+                    || (range[3] == best[3] && range[0] * range[1] > best[0] * best[1])) {
+                best = range;
+            }
+        }
+        return best == null ? null : new Mode(best[0], best[1], best[3]);
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.mobile.samplecamera2;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//
+// CPU side frame analysis next to preview and recording
+//
+// Camera -> ImageReader (YUV_420_888) -> SampleAnalysisQueue -> SampleFrameAnalyzer on Y plane
+//
+// Images are acquired on a HandlerThread and queued without copy. The queue drops the oldest image
+// when analysis falls behind, so the ImageReader never runs out of images and never stalls the
+// camera: maxImages covers the queue, the image being analyzed and the one being acquired.
+// The analyzer splits each frame into stripes across the cores.
+//
+// How to use
+// 1. Create with a YUV size from StreamConfigurationMap (see chooseSize()), add getSurface() to the
+//    capture session and the repeating request.
+// 2. getLatestStats() from any thread.
+// 3. release() after the capture session is closed.
+//
+
+public class SampleImageAnalysis {
+    private final String TAG = this.getClass().getName();
+    private static final int QUEUE_CAPACITY = 2;
+    private static final int MAX_IMAGES = QUEUE_CAPACITY + 2;
+    private static final int LOG_INTERVAL = 300;
+
+    private final ImageReader imageReader;
+    private final HandlerThread imageThread;
+    private final ExecutorService stripeExecutor;
+    private final SampleFrameAnalyzer analyzer;
+    private final SampleAnalysisQueue<Image> queue;
+    private final SampleFrameTimer analyzeTimer = new SampleFrameTimer("analyze");
+    // Written by the single analysis worker only
+    private final SampleFrameStats stats = new SampleFrameStats();
+    private final SampleFrameStats latestStats = new SampleFrameStats();
+
+    public SampleImageAnalysis(int width, int height) {
+        int stripes = Runtime.getRuntime().availableProcessors();
+        stripeExecutor = stripes > 1 ? Executors.newFixedThreadPool(stripes - 1) : null;
+        analyzer = new SampleFrameAnalyzer(width, height, stripes, stripeExecutor);
+        // One worker, motion score needs frames in order
+        queue = new SampleAnalysisQueue<Image>("ImageAnalysis", QUEUE_CAPACITY, 1, worker);
+        queue.start();
+
+        imageThread = new HandlerThread("ImageReader");
+        imageThread.start();
+        imageReader = ImageReader.newInstance(width, height, ImageFormat.YUV_420_888, MAX_IMAGES);
+        imageReader.setOnImageAvailableListener(imageAvailableListener, new Handler(imageThread.getLooper()));
+        Log.v(TAG, "Image analysis " + width + "x" + height + ", " + analyzer.getStripeCount() + " stripes");
+    }
+
+    // Largest size within maxWidth x maxHeight, smallest size if none fits
+    public static Size chooseSize(Size[] sizes, int maxWidth, int maxHeight) {
+        Size best = null;
+        Size smallest = null;
+        for (Size size : sizes) {
+            int area = size.getWidth() * size.getHeight();
+            if (size.getWidth() <= maxWidth && size.getHeight() <= maxHeight
+                    && (best == null || area > best.getWidth() * best.getHeight())) {
+                best = size;
+            }
+            if (smallest == null || area < smallest.getWidth() * smallest.getHeight()) {
+                smallest = size;
+            }
+        }
+        return best != null ? best : smallest;
+    }
+
+    public Surface getSurface() {
+        return imageReader.getSurface();
+    }
+
+    public void getLatestStats(SampleFrameStats out) {
+        synchronized (latestStats) {
+            out.copyFrom(latestStats);
+        }
+    }
+
+    public void release() {
+        imageReader.setOnImageAvailableListener(null, null);
+        imageThread.quitSafely();
+        try {
+            imageThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        queue.stop();
+        if (stripeExecutor != null) {
+            stripeExecutor.shutdown();
+        }
+        imageReader.close();
+        Log.v(TAG, queue.toString());
+    }
+
+    private final ImageReader.OnImageAvailableListener imageAvailableListener =
+            new ImageReader.OnImageAvailableListener() {
+                @Override
+                public void onImageAvailable(ImageReader reader) {
+                    Image image = null;
+                    try {
+                        image = reader.acquireNextImage();
+                    } catch (IllegalStateException e) {
+                        // All images held, analysis released none since last frame
+                        Log.w(TAG, "No image to acquire, " + queue);
+                    }
+                    if (image != null) {
+                        queue.offer(image);
+                    }
+                }
+            };
+
+    private final SampleAnalysisQueue.Worker<Image> worker = new SampleAnalysisQueue.Worker<Image>() {
+        @Override
+        public void process(Image image) {
+            try {
+                Image.Plane luma = image.getPlanes()[0];
+                analyzeTimer.begin();
+                analyzer.analyze(luma.getBuffer(), luma.getRowStride(), luma.getPixelStride(),
+                        image.getTimestamp(), stats);
+                analyzeTimer.end();
+            } finally {
+                image.close();
+            }
+            synchronized (latestStats) {
+                latestStats.copyFrom(stats);
+            }
+            if (analyzeTimer.getFrameCount() % LOG_INTERVAL == 0) {
+                Log.v(TAG, analyzeTimer + ", " + stats + ", " + queue);
+            }
+        }
+
+        @Override
+        public void discard(Image image) {
+            image.close();
+        }
+    };
+}
@@ -0,0 +1,70 @@
+package com.example.mobile.samplecamera2;
+
+//
+// Frame overruns of a looper thread from consecutive frame callback times (Choreographer)
+//
+// A frame overruns when the next frame callback comes more than 1.5 frame intervals later, i.e. at
+// least one vsync was missed because the thread was busy. Each missed vsync is a skipped frame.
+//
+// How to use
+// 1. Create with the display frame interval.
+// 2. onFrame() with the frame time of every frame callback, from one thread.
+// 3. Read counters from any thread, reset() to start a new measurement.
+//
+
+public class SampleJankCounter {
+    private final long frameIntervalNs;
+    private long lastFrameNs = -1;
+    private long frames = 0;
+    private long overruns = 0;
+    private long skippedFrames = 0;
+    private long maxFrameNs = 0;
+
+    public SampleJankCounter(long frameIntervalNs) {
+        this.frameIntervalNs = frameIntervalNs;
+    }
+
+    public synchronized void onFrame(long frameTimeNs) {
+        if (lastFrameNs >= 0) {
+            long frameNs = frameTimeNs - lastFrameNs;
+            frames++;
+            if (frameNs * 2 > frameIntervalNs * 3) {
+                overruns++;
+                skippedFrames += (frameNs + frameIntervalNs / 2) / frameIntervalNs - 1;
+            }
+            maxFrameNs = Math.max(maxFrameNs, frameNs);
+        }
+        lastFrameNs = frameTimeNs;
+    }
+
+    // Next frame starts a new measurement, the gap to the last one is not counted
+    public synchronized void reset() {
+        lastFrameNs = -1;
+        frames = 0;
+        overruns = 0;
+        skippedFrames = 0;
+        maxFrameNs = 0;
+    }
+
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    public synchronized long getOverruns() {
+        return overruns;
+    }
+
+    public synchronized long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    public synchronized long getMaxFrameNs() {
+        return maxFrameNs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Jank: frames " + frames + ", overruns " + overruns + ", skipped " + skippedFrames
+                + ", max " + (maxFrameNs / 1000000) + "ms";
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.mobile.samplecamera2;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//
+// Lock-free latency histogram in microseconds
+//
+// Buckets are log-linear: values below 8us have one bucket each, above that every power of two
+// is split into 8 buckets, so a bucket is at most 12.5% wide. All buckets are allocated up front,
+// record() is a few atomic operations and never allocates, any thread may call it.
+//
+
+public class SampleLatencyHistogram {
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BITS = 3;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    static int bucketOf(long valueUs) {
+        if (valueUs < SUB_BUCKETS) {
+            return (int) valueUs;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(valueUs);
+        int sub = (int) (valueUs >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // Highest value falling into bucket
+    static long bucketLimit(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    // Negative values (clock mismatch) are counted as 0
+    public void record(long valueUs) {
+        if (valueUs < 0) {
+            valueUs = 0;
+        }
+        counts.incrementAndGet(bucketOf(valueUs));
+        total.incrementAndGet();
+        long current;
+        while (valueUs > (current = max.get())) {
+            if (max.compareAndSet(current, valueUs)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return total.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    // Upper limit of the bucket holding the given percentile (0 - 100), never above max
+    public long getPercentile(double percentile) {
+        long count = total.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketLimit(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // Copy of non-empty buckets as (limit, count) pairs
+    public long[] getBuckets() {
+        int used = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts.get(i) != 0) {
+                used++;
+            }
+        }
+        long[] buckets = new long[used * 2];
+        int j = 0;
+        for (int i = 0; i < BUCKETS && j < buckets.length; i++) {
+            long c = counts.get(i);
+            if (c != 0) {
+                buckets[j++] = bucketLimit(i);
+                buckets[j++] = c;
+            }
+        }
+        return buckets;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        max.set(0);
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.mobile.samplecamera2;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//
+// Frame latency from sensor exposure to muxer write
+//
+// Every frame is tagged by its sensor timestamp, which SurfaceTexture.getTimestamp() returns
+// after latching and the encoder hands back as presentation time. Each stage records
+// (now - sensor timestamp) into its own SampleLatencyHistogram:
+//
+// STAGE_SENSOR:    onCaptureStarted() callback
+// STAGE_AVAILABLE: onFrameAvailable(), matched to the frame at latch time (frames arrive in order)
+// STAGE_LATCHED:   updateTexImage() returned
+// STAGE_DRAWN:     all outputs of the frame submitted
+// STAGE_ENCODED:   encoded sample left the encoder
+// STAGE_MUXED:     encoded sample written to the muxer(s)
+//
+// How to use
+// 1. Sensor timestamps use CLOCK_MONOTONIC or CLOCK_BOOTTIME depending on device. Call
+//    setClockOffset() with (sensor clock - System.nanoTime()) if it is not monotonic.
+// 2. Call the stage methods from any thread, they do not lock nor allocate.
+// 3. toString() is one log line with p50/p99/max per stage, dump() writes all buckets.
+//
+
+public class SampleLatencyTracer {
+    public static final int STAGE_SENSOR = 0;
+    public static final int STAGE_AVAILABLE = 1;
+    public static final int STAGE_LATCHED = 2;
+    public static final int STAGE_DRAWN = 3;
+    public static final int STAGE_ENCODED = 4;
+    public static final int STAGE_MUXED = 5;
+    public static final int STAGE_COUNT = 6;
+    private static final String[] STAGE_NAMES = {"sensor", "available", "latched", "drawn", "encoded", "muxed"};
+
+    // Arrival times of frames not latched yet, onFrameAvailable() thread writes, GL thread reads
+    private static final int ARRIVAL_SLOTS = 16;
+    private final AtomicLongArray arrivals = new AtomicLongArray(ARRIVAL_SLOTS);
+    private final AtomicLong arrivalWrite = new AtomicLong();
+    private final AtomicLong arrivalRead = new AtomicLong();
+
+    private final SampleLatencyHistogram[] histograms = new SampleLatencyHistogram[STAGE_COUNT];
+    private volatile long clockOffsetNs = 0;
+    private volatile boolean enabled = true;
+
+    public SampleLatencyTracer() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            histograms[i] = new SampleLatencyHistogram();
+        }
+    }
+
+    public void setClockOffset(long offsetNs) {
+        clockOffsetNs = offsetNs;
+    }
+
+    public void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    public long now() {
+        return System.nanoTime() + clockOffsetNs;
+    }
+
+    public void mark(int stage, long sensorTimestampNs) {
+        if (enabled) {
+            mark(stage, sensorTimestampNs, now());
+        }
+    }
+
+    public void mark(int stage, long sensorTimestampNs, long nowNs) {
+        if (sensorTimestampNs != 0) {
+            histograms[stage].record((nowNs - sensorTimestampNs) / 1000);
+        }
+    }
+
+    public void frameAvailable() {
+        if (enabled) {
+            frameAvailable(now());
+        }
+    }
+
+    public void frameAvailable(long nowNs) {
+        long write = arrivalWrite.get();
+        if (write - arrivalRead.get() >= ARRIVAL_SLOTS) {
+            // GL thread fell far behind, matching is lost anyway
+            return;
+        }
+        arrivals.set((int) (write % ARRIVAL_SLOTS), nowNs);
+        arrivalWrite.set(write + 1);
+    }
+
+    public void frameLatched(long sensorTimestampNs) {
+        if (enabled) {
+            frameLatched(sensorTimestampNs, now());
+        }
+    }
+
+    public void frameLatched(long sensorTimestampNs, long nowNs) {
+        long read = arrivalRead.get();
+        if (read < arrivalWrite.get()) {
+            mark(STAGE_AVAILABLE, sensorTimestampNs, arrivals.get((int) (read % ARRIVAL_SLOTS)));
+            arrivalRead.set(read + 1);
+        }
+        mark(STAGE_LATCHED, sensorTimestampNs, nowNs);
+    }
+
+    public SampleLatencyHistogram getHistogram(int stage) {
+        return histograms[stage];
+    }
+
+    public void reset() {
+        for (SampleLatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    // Stage, count, p50, p99, max (us) per line, then bucket limit:count pairs
+    public void dump(Writer out) throws IOException {
+        out.write("# stage count p50_us p99_us max_us buckets(limit_us:count)\n");
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            SampleLatencyHistogram h = histograms[i];
+            out.write(STAGE_NAMES[i] + " " + h.getCount() + " " + h.getPercentile(50) + " "
+                    + h.getPercentile(99) + " " + h.getMax());
+            long[] buckets = h.getBuckets();
+            for (int j = 0; j < buckets.length; j += 2) {
+                out.write(" " + buckets[j] + ":" + buckets[j + 1]);
+            }
+            out.write("\n");
+        }
+        out.flush();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Latency ms p50/p99/max:");
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            SampleLatencyHistogram h = histograms[i];
+            if (h.getCount() == 0) {
+                continue;
+            }
+            sb.append(' ').append(STAGE_NAMES[i]).append(' ')
+                    .append(h.getPercentile(50) / 1000).append('/')
+                    .append(h.getPercentile(99) / 1000).append('/')
+                    .append(h.getMax() / 1000);
+        }
+        return sb.toString();
+    }
+}
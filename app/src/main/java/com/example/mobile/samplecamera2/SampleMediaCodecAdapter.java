@@ -0,0 +1,98 @@
+package com.example.mobile.samplecamera2;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+//
+// SampleEncoderCodec on top of MediaCodec asynchronous mode (MediaCodec.Callback).
+//
+// MediaCodec.setCallback() must be called before configure(), so the adapter registers its own
+// callback in the constructor and forwards to whatever SampleEncoderCodec.Callback is set later.
+// MediaCodec delivers callbacks on the looper of the thread that created the codec, so create
+// the codec on a HandlerThread to keep the drain off the main looper.
+//
+
+public class SampleMediaCodecAdapter implements SampleEncoderCodec<MediaFormat> {
+    private final MediaCodec codec;
+    private final SampleBufferInfo sampleBufferInfo = new SampleBufferInfo();
+    private volatile Callback callback = null;
+
+    public SampleMediaCodecAdapter(MediaCodec mediaCodec) {
+        codec = mediaCodec;
+        codec.setCallback(new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(MediaCodec mc, int index) {
+                // Surface input, no input buffers are queued by us
+            }
+
+            @Override
+            public void onOutputBufferAvailable(MediaCodec mc, int index, MediaCodec.BufferInfo info) {
+                Callback cb = callback;
+                if (cb == null) {
+                    codec.releaseOutputBuffer(index, false);
+                    return;
+                }
+                sampleBufferInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+                cb.onOutputBufferAvailable(index, sampleBufferInfo);
+            }
+
+            @Override
+            public void onError(MediaCodec mc, MediaCodec.CodecException e) {
+                Callback cb = callback;
+                if (cb != null) {
+                    cb.onError(e);
+                }
+            }
+
+            @Override
+            public void onOutputFormatChanged(MediaCodec mc, MediaFormat format) {
+                Callback cb = callback;
+                if (cb != null) {
+                    cb.onOutputFormatChanged();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void setCallback(Callback cb) {
+        callback = cb;
+    }
+
+    @Override
+    public void start() {
+        codec.start();
+    }
+
+    @Override
+    public void signalEndOfInputStream() {
+        codec.signalEndOfInputStream();
+    }
+
+    @Override
+    public MediaFormat getOutputFormat() {
+        return codec.getOutputFormat();
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return codec.getOutputBuffer(index);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index) {
+        codec.releaseOutputBuffer(index, false);
+    }
+
+    @Override
+    public void stop() {
+        codec.stop();
+    }
+
+    @Override
+    public void release() {
+        codec.release();
+    }
+}
@@ -4,27 +4,137 @@ import android.media.MediaCodec;
 import android.media.MediaCodecInfo.CodecCapabilities;
 import android.media.MediaFormat;
 import android.media.MediaMuxer;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.util.Log;
 import android.view.Surface;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 //
 // How to use
 // 1. Caller call init() to initial MediaCodec and create/return input surface for encode.
+//    Call setDrainMode() before init() to select polling (default) or callback drain.
 // 2. Caller call start() to start encoding. Default duration is 300 frames.
-// 3, Caller wait for encode complete.
+// 3, Caller wait for encode complete, or call stop() to signal end-of-stream earlier.
+//
+// Drain modes
+// DRAIN_MODE_POLLING:  encodeTask() polls dequeueOutputBuffer() on its own thread.
+// DRAIN_MODE_CALLBACK: MediaCodec.Callback delivers output buffers on a dedicated HandlerThread,
+//                      SampleEncoderDrain writes them to the muxer and shuts everything down
+//                      after end-of-stream.
+//
+// Segmented recording (callback drain only, setSegmentedRecording(true) before init())
+// Recording runs until stop() and is split by SampleSegmentingSink into files
+// MUXER_OUTPUT_DIR/sampleCameraRecord_NNNN.mp4 of setSegmentDuration() seconds each, cut at key
+// frames. Oldest files are deleted when all of them exceed setDiskQuota() bytes.
+//
+// Pre-event recording (callback drain only, setPreEventSeconds() before init())
+// Encoded samples of the last seconds are kept in memory. startEventRecording() writes them to
+// MUXER_OUTPUT_DIR/sampleCameraEvent_<time>.mp4 starting from a key frame, then keeps recording
+// live samples into it until stopEventRecording().
+//
+// Rate control (callback drain only, setRateControl(true) before init())
+// SampleEncoderRateController watches encoder output latency, output frame rate and frames
+// reported by reportDroppedFrames(). Bitrate is changed live with setParameters(). A resolution
+// step waits for the next segment boundary: the current segment takes the frames still in the
+// encoder, then a new encoder starts the next segment at the new size. InputSurfaceListener gets
+// the new input surface for the renderer and releases the old one. The stream connection stays.
+//
+// Fragmented MP4 (callback drain only, setFragmentedMp4(true) before init())
+// Files are written by SampleFragmentedMp4Writer instead of MediaMuxer, one fragment per GOP.
+// A file of a killed process plays up to the last complete GOP, with MediaMuxer it does not play.
+//
+// Encoder selection (setEncoderCache() before init())
+// Codec, profile, level and bitrate mode come from SampleEncoderRanking: the fastest hardware
+// encoders are measured once per system build and size by SampleEncoderProbe. The first recording
+// uses the platform's default H.264 encoder, the probe runs on a background thread once it ended
+// and no other recording is active, later launches read the cached ranking. A probe overlapped by
+// a recording is not stored. Encoders emitting B-frames are not used. HEVC is used only with MediaMuxer
+// files on Android N and later, fragmented MP4 and the stream are H.264. CBR is preferred when
+// streaming, VBR otherwise. Without a cache the platform's default H.264 encoder is used.
+//
+// Frame metadata (setFrameMetadata(true) before init())
+// onCaptureResult() records exposure, ISO, focus distance, frame number and sensor timestamp of
+// every frame written to the video with its presentation time in SampleFrameMetadataLog, a sidecar
+// <video name>.meta next to the video file. It rolls over with the segments and is deleted with
+// them. Read with SampleFrameMetadataReader. Event recordings have no sidecar.
+//
+// Live streaming (setStreamDestination() before init())
+// Encoded video is also sent as MPEG-TS to host:port over TCP or UDP by SampleTsStreamSink, next
+// to the files. Frames are dropped under congestion, the encoder is never held up by the network.
+// A dropped reference frame requests a sync frame from the encoder.
 //
 
 public class SampleMediaEncoder {
+    public static final int DRAIN_MODE_POLLING = 0;
+    public static final int DRAIN_MODE_CALLBACK = 1;
+
+    public interface InputSurfaceListener {
+        // Called on encoder drain thread after a restart. The old encoder is gone, the listener
+        // releases oldSurface once nothing produces into it anymore (renderer, capture session).
+        void onInputSurfaceChanged(Surface oldSurface, Surface newSurface);
+    }
+
     private final String TAG = this.getClass().getName();
     private MediaCodec encoder = null;
     private Surface inputSurface = null;
-    private boolean eos = true;  // End-Of-Stream
+    private volatile boolean eos = true;  // End-Of-Stream
+    private boolean started = false; // polling drain, guarded by this
     private MediaMuxer mediaMuxer = null;
     private int videoTrackIndex;
     private int encodeDuration = 300; // Default encode duration is 300 frames
+    private int drainMode = DRAIN_MODE_POLLING;
+    private HandlerThread drainThread = null;
+    private volatile SampleEncoderDrain<MediaFormat> encoderDrain = null;
+    private boolean segmentedRecording = false;
+    private int segmentDuration = 60; // seconds
+    private long segmentSize = 0; // bytes, 0 = no limit
+    private long diskQuota = 1024L * 1024L * 1024L; // bytes, 0 = no quota
+    private ExecutorService segmentExecutor = null;
+    private int preEventSeconds = 0; // 0 = no pre-event buffer
+    private SamplePreEventRecorder<MediaFormat> preEventRecorder = null;
+    private SampleSegmentingSink<MediaFormat> segmentingSink = null;
+    private boolean rateControl = false;
+    private SampleEncoderRateController rateController = null;
+    private InputSurfaceListener inputSurfaceListener = null;
+    private volatile boolean stopRequested = false;
+    private volatile boolean restartPending = false;
+    private int pendingLevel = -1; // resolution level for the next segment, drain thread
+    private SampleLatencyTracer latencyTracer = null;
+    private volatile Runnable firstFrameListener = null;
+    private boolean fragmentedMp4 = false;
+    private String streamHost = null;
+    private int streamPort = 0;
+    private boolean streamUdp = false;
+    private SampleTsStreamSink<MediaFormat> streamSink = null;
+    private File encoderCacheDir = null;
+    private String deviceFingerprint = null;
+    private SampleEncoderRanking.Candidate encoderChoice = null;
+    private boolean encoderChosen = false;
+    // One probe per process, it takes the hardware encoders for a few seconds
+    private static final AtomicBoolean probing = new AtomicBoolean(false);
+    // Recordings of the process, a probe runs and is stored only without one
+    private static final AtomicInteger activeRecordings = new AtomicInteger(0);
+    private static final AtomicInteger startedRecordings = new AtomicInteger(0);
+    private boolean recordingActive = false; // guarded by this
+    private SampleEncoderProbe pendingProbe = null; // guarded by this
+    private File pendingProbeFile = null;
+    private SampleFrameMetadataLog frameMetadataLog = null;
 
     // Define encode format
     final String MINE_TYPE = "video/avc";
@@ -34,49 +144,713 @@ public class SampleMediaEncoder {
     final int FRAME_RATE = 30;
     final int COLOR_FORMAT = CodecCapabilities.COLOR_FormatSurface;
     final int I_FRAME_INTERVAL = 5;
-    final int CAPTURE_RATE = 30;
-    final int REPEAT_PREVIOUS_FRAME_AFTER = (1000/FRAME_RATE);
+    // Resolution levels of rate control, bitrate scales with pixel count
+    final int[][] RESOLUTION_LEVELS = {{WIDTH, HEIGHT}, {960, 540}, {640, 360}};
+
+    // Current encode format, set by setVideoFormat(), changed by rate control
+    private int width = WIDTH;
+    private int height = HEIGHT;
+    private int bitRate = BIT_RATE;
+    private int frameRate = FRAME_RATE;
+    private int minFrameRate = 0; // 0 = frameRate
 
     // Define muxer format
     final String MUXER_OUTPUT_FILE = "/sdcard/Movies/sampleCameraRecord.mp4";
+    final String MUXER_OUTPUT_DIR = "/sdcard/Movies";
+    final String MUXER_OUTPUT_PREFIX = "sampleCameraRecord";
+    final String MUXER_OUTPUT_SUFFIX = ".mp4";
+    final String EVENT_OUTPUT_PREFIX = "sampleCameraEvent_";
     final int MUXER_OUTPUT_FORMAT = MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4;
 
+    public void setDrainMode(int mode) {
+        drainMode = mode;
+    }
+
+    public void setSegmentedRecording(boolean enable) {
+        segmentedRecording = enable;
+    }
+
+    public void setSegmentDuration(int seconds) {
+        segmentDuration = seconds;
+    }
+
+    public void setSegmentSize(long bytes) {
+        segmentSize = bytes;
+    }
+
+    public void setDiskQuota(long bytes) {
+        diskQuota = bytes;
+    }
+
+    public void setPreEventSeconds(int seconds) {
+        preEventSeconds = seconds;
+    }
+
+    // Size and rate other than default 1280x720@30, e.g. of a high-speed capture session.
+    // Bitrate scales with pixel rate. Call before init().
+    public void setVideoFormat(int videoWidth, int videoHeight, int videoFrameRate) {
+        width = videoWidth;
+        height = videoHeight;
+        frameRate = videoFrameRate;
+        long pixelRate = (long) videoWidth * videoHeight * videoFrameRate;
+        bitRate = (int) (BIT_RATE * pixelRate / ((long) WIDTH * HEIGHT * FRAME_RATE));
+    }
+
+    // Lowest rate the capture goes down to (SampleCaptureRateGovernor). The encoder repeats the
+    // previous frame only after a frame interval of this rate, not at full rate. Call before init().
+    public void setMinFrameRate(int fps) {
+        minFrameRate = fps;
+    }
+
+    // Capture rate changed on purpose, rate control judges output against it. Any thread.
+    public void setCaptureFrameRate(int fps) {
+        Log.v(TAG, "Capture rate " + fps + "fps");
+        if (rateController != null) {
+            rateController.setFrameRate(fps);
+        }
+    }
+
+    public void setFragmentedMp4(boolean enable) {
+        fragmentedMp4 = enable;
+    }
+
+    public void setFrameMetadata(boolean enable) {
+        frameMetadataLog = enable ? new SampleFrameMetadataLog() : null;
+    }
+
+    // Capture result of a frame, from the capture result thread. sensorTimestampNs is the frame's
+    // encoder presentation time in ns. Recorded once the frame is written to the video file.
+    public void onCaptureResult(long frameNumber, long sensorTimestampNs, long exposureTimeNs, int sensitivity,
+                                float focusDistance) {
+        if (frameMetadataLog != null) {
+            frameMetadataLog.onCaptureResult(frameNumber, sensorTimestampNs, sensorTimestampNs / 1000,
+                    exposureTimeNs, sensitivity, focusDistance);
+        }
+    }
+
+    // Directory of the encoder ranking cache, fingerprint of the system build (Build.FINGERPRINT)
+    public void setEncoderCache(File dir, String fingerprint) {
+        encoderCacheDir = dir;
+        deviceFingerprint = fingerprint;
+    }
+
+    // host null = no streaming. A new connection is made for every recording, an encoder restart
+    // keeps it.
+    public void setStreamDestination(String host, int port, boolean udp) {
+        streamHost = host;
+        streamPort = port;
+        streamUdp = udp;
+    }
+
+    public void setRateControl(boolean enable) {
+        rateControl = enable;
+    }
+
+    public void setInputSurfaceListener(InputSurfaceListener listener) {
+        inputSurfaceListener = listener;
+    }
+
+    // Running count of frames dropped before the encoder, any thread
+    public void reportDroppedFrames(long total) {
+        if (rateController != null) {
+            rateController.reportDroppedFrames(total);
+        }
+    }
+
+    // Encoded and muxed stages are marked on the drain thread, set before init()
+    public void setLatencyTracer(SampleLatencyTracer tracer) {
+        latencyTracer = tracer;
+    }
+
+    // Callback drain only. Runs once on the drain thread when the first frame reaches the muxer.
+    public void setFirstFrameListener(Runnable listener) {
+        firstFrameListener = listener;
+    }
+
     public Surface init() {
+        // Chosen once, an encoder restart keeps it (also the default encoder without a ranking)
+        if (!encoderChosen && encoderCacheDir != null) {
+            encoderChosen = true;
+            encoderChoice = chooseEncoder();
+        }
         //  Set up encode format
-        MediaFormat encodeFormat = MediaFormat.createVideoFormat(MINE_TYPE, WIDTH, HEIGHT);
-        encodeFormat.setInteger(MediaFormat.KEY_BIT_RATE, BIT_RATE);
-        encodeFormat.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
-        encodeFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, COLOR_FORMAT);
+        Log.v(TAG, "Encoder " + width + "x" + height + "@" + frameRate + ", " + bitRate + "bps");
+        MediaFormat encodeFormat;
+        if (encoderChoice != null) {
+            encodeFormat = SampleEncoderProbe.createFormat(encoderChoice.mimeType, width, height, frameRate,
+                    bitRate, encoderChoice.profile, encoderChoice.level, encoderChoice.bitrateMode);
+        } else {
+            encodeFormat = MediaFormat.createVideoFormat(MINE_TYPE, width, height);
+            encodeFormat.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
+            encodeFormat.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+            encodeFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, COLOR_FORMAT);
+        }
         encodeFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
-        encodeFormat.setInteger(MediaFormat.KEY_CAPTURE_RATE, CAPTURE_RATE);
+        encodeFormat.setInteger(MediaFormat.KEY_CAPTURE_RATE, frameRate);
         // KEY_REPEAT_PREVIOUS_FRAME_AFTER is for Surface-Input mode. See createInputSurface().
-        encodeFormat.setInteger(MediaFormat.KEY_REPEAT_PREVIOUS_FRAME_AFTER,
-                REPEAT_PREVIOUS_FRAME_AFTER);
+        // Microseconds, one frame interval of the lowest capture rate.
+        encodeFormat.setLong(MediaFormat.KEY_REPEAT_PREVIOUS_FRAME_AFTER,
+                1000000L / (minFrameRate > 0 ? minFrameRate : frameRate));
 
         // Create encoder and input surface
+        SampleMediaCodecAdapter codecAdapter = null;
+        if (drainMode == DRAIN_MODE_CALLBACK) {
+            // MediaCodec callbacks run on the looper of the thread creating the codec
+            codecAdapter = createEncoderOnDrainThread();
+        } else {
+            try {
+                encoder = createEncoder();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (encoder == null) {
+            return null;
+        }
+        encoder.configure(encodeFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        inputSurface = encoder.createInputSurface();
+        recordingStarted();
+
+        if (frameMetadataLog != null && !(codecAdapter != null && segmentedRecording)) {
+            // Segments open their own sidecars
+            openFrameMetadata(new File(MUXER_OUTPUT_FILE));
+        }
+
+        SampleMuxerSink<MediaFormat> muxerSink = null;
+        if (codecAdapter != null && segmentedRecording) {
+            // Same segmenting sink goes on after an encoder restart
+            if (segmentingSink == null) {
+                segmentingSink = createSegmentingSink();
+            }
+            muxerSink = segmentingSink;
+        } else if (codecAdapter != null && fragmentedMp4) {
+            try {
+                muxerSink = createFileSink(new File(MUXER_OUTPUT_FILE));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } else {
+            // Create MdieaMuxer for write encoded data to file
+            try {
+                mediaMuxer = new MediaMuxer(MUXER_OUTPUT_FILE, MUXER_OUTPUT_FORMAT);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (mediaMuxer != null) {
+                muxerSink = new SampleMediaMuxerSink(mediaMuxer);
+            }
+        }
+
+        if (codecAdapter != null && muxerSink != null && frameMetadataLog != null) {
+            // Right after the file, a frame has a record once it is written
+            muxerSink = new SampleTeeSink<MediaFormat>(
+                    Arrays.<SampleMuxerSink<MediaFormat>>asList(muxerSink, createFrameMetadataMarker()));
+        }
+
+        if (streamSink == null && streamHost != null) {
+            // Kept over encoder restarts, the new encoder's codec config goes down the same stream
+            streamSink = createStreamSink();
+        }
+        if (codecAdapter != null && muxerSink != null && streamSink != null) {
+            muxerSink = new SampleTeeSink<MediaFormat>(
+                    Arrays.<SampleMuxerSink<MediaFormat>>asList(muxerSink, createStreamForwarder()));
+        }
+
+        if (codecAdapter != null && muxerSink != null && preEventSeconds > 0) {
+            if (preEventRecorder == null) {
+                preEventRecorder = createPreEventRecorder();
+            }
+            muxerSink = new SampleTeeSink<MediaFormat>(
+                    Arrays.<SampleMuxerSink<MediaFormat>>asList(muxerSink, preEventRecorder));
+        }
+
+        if (codecAdapter != null && muxerSink != null && rateControl) {
+            if (rateController == null) {
+                rateController = createRateController();
+            }
+            muxerSink = new SampleTeeSink<MediaFormat>(
+                    Arrays.<SampleMuxerSink<MediaFormat>>asList(muxerSink, createRateObserver()));
+        }
+
+        if (codecAdapter != null && muxerSink != null && firstFrameListener != null) {
+            muxerSink = new SampleTeeSink<MediaFormat>(
+                    Arrays.<SampleMuxerSink<MediaFormat>>asList(muxerSink, createFirstFrameMarker()));
+        }
+
+        if (codecAdapter != null && muxerSink != null && latencyTracer != null) {
+            muxerSink = new SampleTeeSink<MediaFormat>(Arrays.<SampleMuxerSink<MediaFormat>>asList(
+                    createLatencyMarker(SampleLatencyTracer.STAGE_ENCODED), muxerSink,
+                    createLatencyMarker(SampleLatencyTracer.STAGE_MUXED)));
+        }
+
+        if (codecAdapter != null && muxerSink != null) {
+            encoderDrain = new SampleEncoderDrain<MediaFormat>(codecAdapter, muxerSink);
+            encoderDrain.setTerminatedListener(new Runnable() {
+                @Override
+                public void run() {
+                    Log.v(TAG, "Encoder drain terminated, " + encoderDrain.getFramesWritten() + " frames");
+                    drainThread.quitSafely();
+                    if (restartPending && !stopRequested) {
+                        restart();
+                        return;
+                    }
+                    if (frameMetadataLog != null) {
+                        frameMetadataLog.close();
+                    }
+                    if (streamSink != null) {
+                        streamSink.stop();
+                        streamSink = null;
+                    }
+                    recordingEnded();
+                    if (segmentExecutor != null) {
+                        // Pending segment stops still run
+                        segmentExecutor.shutdown();
+                    }
+                }
+            });
+        }
+        return inputSurface;
+    }
+
+    private SampleEncoderRateController createRateController() {
+        // Without segments a restart would overwrite the output file, change bitrate only
+        int[] bitRates = new int[segmentedRecording ? RESOLUTION_LEVELS.length : 1];
+        for (int i = 0; i < bitRates.length; i++) {
+            long pixels = (long) RESOLUTION_LEVELS[i][0] * RESOLUTION_LEVELS[i][1];
+            bitRates[i] = (int) (BIT_RATE * pixels / (WIDTH * HEIGHT));
+        }
+        SampleEncoderRateController controller = new SampleEncoderRateController(frameRate, bitRates);
+        controller.setListener(new SampleEncoderRateController.Listener() {
+            @Override
+            public void onBitrateChanged(int newBitRate) {
+                Log.v(TAG, "Rate control: " + rateController);
+                bitRate = newBitRate;
+                Bundle parameters = new Bundle();
+                parameters.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, newBitRate);
+                encoder.setParameters(parameters);
+            }
+
+            @Override
+            public void onResolutionLevelChanged(int level, int newBitRate) {
+                Log.v(TAG, "Rate control: " + rateController);
+                bitRate = newBitRate;
+                // Resolution can not change inside a segment, applied when the segment is full
+                pendingLevel = level;
+            }
+        });
+        return controller;
+    }
+
+    // Feed rate controller from drain thread
+    private SampleMuxerSink<MediaFormat> createRateObserver() {
+        return new SampleMuxerSink<MediaFormat>() {
+            @Override
+            public void start(MediaFormat format) {
+            }
+
+            @Override
+            public void writeSampleData(ByteBuffer data, SampleBufferInfo info) {
+                if (!info.isCodecConfig() && !restartPending) {
+                    rateController.onOutputSample(System.nanoTime() / 1000, info.presentationTimeUs);
+                }
+            }
+
+            @Override
+            public void stop() {
+            }
+        };
+    }
+
+    private SampleMuxerSink<MediaFormat> createLatencyMarker(final int stage) {
+        return new SampleMuxerSink<MediaFormat>() {
+            @Override
+            public void start(MediaFormat format) {
+            }
+
+            @Override
+            public void writeSampleData(ByteBuffer data, SampleBufferInfo info) {
+                // Presentation time is the sensor timestamp set by the renderer
+                if (!info.isCodecConfig()) {
+                    latencyTracer.mark(stage, info.presentationTimeUs * 1000);
+                }
+            }
+
+            @Override
+            public void stop() {
+            }
+        };
+    }
+
+    // Stream sink of the encoder drain, stopped when recording ends, not at an encoder restart
+    private SampleMuxerSink<MediaFormat> createStreamForwarder() {
+        final SampleTsStreamSink<MediaFormat> sink = streamSink;
+        return new SampleMuxerSink<MediaFormat>() {
+            @Override
+            public void start(MediaFormat format) {
+                sink.start(format);
+            }
+
+            @Override
+            public void writeSampleData(ByteBuffer data, SampleBufferInfo info) {
+                sink.writeSampleData(data, info);
+            }
+
+            @Override
+            public void stop() {
+            }
+        };
+    }
+
+    private SampleMuxerSink<MediaFormat> createFrameMetadataMarker() {
+        return new SampleMuxerSink<MediaFormat>() {
+            @Override
+            public void start(MediaFormat format) {
+            }
+
+            @Override
+            public void writeSampleData(ByteBuffer data, SampleBufferInfo info) {
+                if (!info.isCodecConfig()) {
+                    frameMetadataLog.onFrameWritten(info.presentationTimeUs);
+                }
+            }
+
+            @Override
+            public void stop() {
+            }
+        };
+    }
+
+    private SampleMuxerSink<MediaFormat> createFirstFrameMarker() {
+        return new SampleMuxerSink<MediaFormat>() {
+            @Override
+            public void start(MediaFormat format) {
+            }
+
+            @Override
+            public void writeSampleData(ByteBuffer data, SampleBufferInfo info) {
+                Runnable listener = firstFrameListener;
+                if (!info.isCodecConfig() && listener != null) {
+                    firstFrameListener = null;
+                    listener.run();
+                }
+            }
+
+            @Override
+            public void stop() {
+            }
+        };
+    }
+
+    // Called on the old drain thread once it drained everything
+    private void restart() {
+        Surface oldSurface = inputSurface;
+        encoder = null;
+        inputSurface = null;
+        encoderDrain = null;
+        restartPending = false;
+        Surface newSurface = init();
+        if (newSurface == null) {
+            Log.e(TAG, "Encoder restart failed");
+            recordingEnded();
+            return;
+        }
+        start(0);
+        if (inputSurfaceListener != null) {
+            inputSurfaceListener.onInputSurfaceChanged(oldSurface, newSurface);
+        } else {
+            oldSurface.release();
+        }
+    }
+
+    private SampleSegmentingSink<MediaFormat> createSegmentingSink() {
+        // Segment files are opened ahead and finished on this thread, never on the drain thread
+        segmentExecutor = Executors.newSingleThreadExecutor();
+        SampleSegmentingSink<MediaFormat> sink = new SampleSegmentingSink<MediaFormat>(
+                new File(MUXER_OUTPUT_DIR), MUXER_OUTPUT_PREFIX, MUXER_OUTPUT_SUFFIX,
+                new SampleSegmentingSink.SegmentFactory<MediaFormat>() {
+                    @Override
+                    public SampleMuxerSink<MediaFormat> create(File file) throws IOException {
+                        return createFileSink(file);
+                    }
+
+                    @Override
+                    public void discard(SampleMuxerSink<MediaFormat> unused) {
+                        releaseFileSink(unused);
+                    }
+                }, segmentExecutor);
+        sink.setSegmentDuration(segmentDuration * 1000000L);
+        sink.setSegmentSize(segmentSize);
+        sink.setDiskQuota(diskQuota);
+        sink.setSegmentListener(new SampleSegmentingSink.SegmentListener() {
+            @Override
+            public void onSegmentStarted(File file, long startUs) {
+                // Before the segment's first frame reaches the metadata marker
+                if (frameMetadataLog != null) {
+                    openFrameMetadata(file);
+                }
+            }
+
+            @Override
+            public boolean onSegmentFull(File file, long timeUs) {
+                if (restartPending) {
+                    // Old encoder drains into this segment until end-of-stream
+                    return false;
+                }
+                int level = pendingLevel;
+                pendingLevel = -1;
+                if (level < 0 || (RESOLUTION_LEVELS[level][0] == width && RESOLUTION_LEVELS[level][1] == height)) {
+                    return true;
+                }
+                // Segment ends with the old encoder, the new one starts the next segment
+                Log.v(TAG, "Resolution " + RESOLUTION_LEVELS[level][0] + "x" + RESOLUTION_LEVELS[level][1]
+                        + " from next segment");
+                width = RESOLUTION_LEVELS[level][0];
+                height = RESOLUTION_LEVELS[level][1];
+                restartPending = true;
+                encoderDrain.requestStop();
+                return false;
+            }
+
+            @Override
+            public void onSegmentFinished(File file, long durationUs, long bytes) {
+                Log.v(TAG, "Segment " + file + " finished, " + (durationUs / 1000) + "ms, " + bytes + " bytes");
+                if (frameMetadataLog != null) {
+                    deleteOrphanSidecars();
+                }
+            }
+        });
+        return sink;
+    }
+
+    // Sidecar of the video file, records of frames written from now on go there
+    private void openFrameMetadata(File video) {
         try {
-            encoder = MediaCodec.createEncoderByType(MINE_TYPE);
+            frameMetadataLog.open(SampleFrameMetadataLog.sidecarFile(video));
         } catch (IOException e) {
             e.printStackTrace();
         }
-        encoder.configure(encodeFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-        inputSurface = encoder.createInputSurface();
+    }
+
+    // Sidecars of segments deleted by the disk quota
+    private void deleteOrphanSidecars() {
+        File[] files = new File(MUXER_OUTPUT_DIR).listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(MUXER_OUTPUT_PREFIX) && name.endsWith(SampleFrameMetadataLog.SUFFIX)) {
+                String base = name.substring(0, name.length() - SampleFrameMetadataLog.SUFFIX.length());
+                if (!new File(MUXER_OUTPUT_DIR, base + MUXER_OUTPUT_SUFFIX).exists()) {
+                    file.delete();
+                }
+            }
+        }
+    }
 
-        // Create MdieaMuxer for write encoded data to file
+    private SampleTsStreamSink<MediaFormat> createStreamSink() {
+        SampleTsStreamSink<MediaFormat> sink;
         try {
-            mediaMuxer = new MediaMuxer(MUXER_OUTPUT_FILE, MUXER_OUTPUT_FORMAT);
+            InetSocketAddress address = new InetSocketAddress(streamHost, streamPort);
+            // Half a second of video, frames are dropped beyond that
+            long queueBytes = bitRate / 16;
+            sink = streamUdp ? SampleTsStreamSink.<MediaFormat>openUdp(address, queueBytes)
+                    : SampleTsStreamSink.<MediaFormat>openTcp(address, queueBytes);
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
         }
-        return inputSurface;
+        Log.v(TAG, "Streaming to " + streamHost + ":" + streamPort + (streamUdp ? " (UDP)" : " (TCP)"));
+        sink.setKeyFrameRequestListener(new SampleTsStreamSink.KeyFrameRequestListener() {
+            @Override
+            public void onKeyFrameRequest() {
+                Bundle parameters = new Bundle();
+                parameters.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+                encoder.setParameters(parameters);
+            }
+        });
+        return sink;
+    }
+
+    // Not started yet, the size is the current encode size
+    private SampleMuxerSink<MediaFormat> createFileSink(File file) throws IOException {
+        if (!fragmentedMp4) {
+            return new SampleMediaMuxerSink(new MediaMuxer(file.getPath(), MUXER_OUTPUT_FORMAT));
+        }
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            channel.truncate(0);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new SampleFragmentedMp4Writer<MediaFormat>(channel, width, height);
+    }
+
+    // Release a sink of createFileSink() that was never started
+    private void releaseFileSink(SampleMuxerSink<MediaFormat> sink) {
+        if (sink instanceof SampleMediaMuxerSink) {
+            ((SampleMediaMuxerSink) sink).release();
+        } else {
+            ((SampleFragmentedMp4Writer<MediaFormat>) sink).release();
+        }
+    }
+
+    private SamplePreEventRecorder<MediaFormat> createPreEventRecorder() {
+        // Keep one GOP more than asked, so a key frame at or before the pre-roll point is buffered.
+        // Bytes and samples have 2x headroom for key frames and frame rate variation.
+        int seconds = preEventSeconds + I_FRAME_INTERVAL;
+        SampleEncodedRingBuffer ringBuffer = new SampleEncodedRingBuffer(
+                bitRate / 8 * seconds * 2, frameRate * seconds * 2, seconds * 1000000L);
+        Log.v(TAG, "Pre-event buffer " + ringBuffer.getCapacity() + " bytes, " + seconds + "s");
+        return new SamplePreEventRecorder<MediaFormat>(ringBuffer);
+    }
+
+    // Write the buffered last seconds to a new file and keep recording into it
+    public boolean startEventRecording() {
+        if (preEventRecorder == null || preEventRecorder.isRecording()) {
+            return false;
+        }
+        String path = MUXER_OUTPUT_DIR + "/" + EVENT_OUTPUT_PREFIX + System.currentTimeMillis() + MUXER_OUTPUT_SUFFIX;
+        try {
+            SampleMuxerSink<MediaFormat> sink = createFileSink(new File(path));
+            Log.v(TAG, "Event recording to " + path);
+            preEventRecorder.trigger(sink, preEventSeconds * 1000000L);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    public void stopEventRecording() {
+        if (preEventRecorder != null) {
+            preEventRecorder.stopRecording();
+        }
+    }
+
+    public boolean isEventRecording() {
+        return preEventRecorder != null && preEventRecorder.isRecording();
+    }
+
+    private MediaCodec createEncoder() throws IOException {
+        if (encoderChoice != null) {
+            return MediaCodec.createByCodecName(encoderChoice.codecName);
+        }
+        return MediaCodec.createEncoderByType(MINE_TYPE);
+    }
+
+    // Best encoder from the cached ranking, probing first if there is none. null for the default.
+    private SampleEncoderRanking.Candidate chooseEncoder() {
+        File file = new File(encoderCacheDir, "encoders_" + width + "x" + height + "_" + frameRate + ".txt");
+        SampleEncoderRanking ranking = SampleEncoderRanking.load(file, deviceFingerprint);
+        if (ranking == null) {
+            // Not on the session start path: default encoder now, ranking for the next start
+            synchronized (this) {
+                // Measured at this size once the recording ended
+                pendingProbe = new SampleEncoderProbe(width, height, frameRate, bitRate);
+                pendingProbeFile = file;
+            }
+            Log.v(TAG, "Selected encoder default " + MINE_TYPE + ", probing after recording");
+            return null;
+        }
+        // MediaMuxer writes HEVC from Android N (API 24), own muxers and the stream are H.264 only
+        boolean hevc = !fragmentedMp4 && streamHost == null && Build.VERSION.SDK_INT >= 24;
+        String[] mimeTypes = hevc ? new String[] {MediaFormat.MIMETYPE_VIDEO_HEVC, MediaFormat.MIMETYPE_VIDEO_AVC}
+                : new String[] {MediaFormat.MIMETYPE_VIDEO_AVC};
+        int bitrateMode = streamHost != null ? SampleEncoderRanking.BITRATE_MODE_CBR
+                : SampleEncoderRanking.BITRATE_MODE_VBR;
+        SampleEncoderRanking.Candidate choice = ranking.select(frameRate, mimeTypes, bitrateMode);
+        Log.v(TAG, "Selected encoder " + (choice != null ? choice : "default " + MINE_TYPE));
+        return choice;
+    }
+
+    private synchronized void recordingStarted() {
+        if (!recordingActive) {
+            recordingActive = true;
+            activeRecordings.incrementAndGet();
+            startedRecordings.incrementAndGet();
+        }
+    }
+
+    // Encoder is gone for good (not restarting), probe if the ranking was missing
+    private synchronized void recordingEnded() {
+        if (!recordingActive) {
+            return;
+        }
+        recordingActive = false;
+        if (activeRecordings.decrementAndGet() == 0 && pendingProbe != null) {
+            startProbe(pendingProbe, pendingProbeFile);
+        }
+        pendingProbe = null;
+        pendingProbeFile = null;
+    }
+
+    private void startProbe(final SampleEncoderProbe probe, final File file) {
+        if (!probing.compareAndSet(false, true)) {
+            return;
+        }
+        final int recordings = startedRecordings.get();
+        final String fingerprint = deviceFingerprint;
+        new Thread(new Runnable() {
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    SampleEncoderRanking ranking = probe.probe();
+                    if (startedRecordings.get() != recordings || activeRecordings.get() > 0) {
+                        // Measured next to a recording holding an encoder, probed again next time
+                        Log.v(TAG, "Encoder probe overlapped a recording, not stored");
+                        return;
+                    }
+                    // Stored even if empty, nothing to probe again on this build
+                    ranking.store(file, fingerprint);
+                } finally {
+                    probing.set(false);
+                }
+            }
+        }, "EncoderProbe").start();
     }
-    public void start(int duration) {
+
+    private SampleMediaCodecAdapter createEncoderOnDrainThread() {
+        drainThread = new HandlerThread("EncoderDrain");
+        drainThread.start();
+        final SampleMediaCodecAdapter[] adapter = new SampleMediaCodecAdapter[1];
+        final CountDownLatch created = new CountDownLatch(1);
+        new Handler(drainThread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    encoder = createEncoder();
+                    adapter[0] = new SampleMediaCodecAdapter(encoder);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    created.countDown();
+                }
+            }
+        });
+        try {
+            created.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return adapter[0];
+    }
+
+    public synchronized void start(int duration) {
         if(encoder == null || inputSurface == null) {
             return;
         }
         if (duration > 0) {
             encodeDuration = duration;
         }
+        if (encoderDrain != null) {
+            Log.v(TAG, "Start encoder (callback drain)");
+            // Segmented recording runs until stop()
+            encoderDrain.start(segmentedRecording ? 0 : encodeDuration);
+            return;
+        }
+        started = true;
         new Thread(new Runnable() {
             public void run() {
                 try {
@@ -88,11 +862,47 @@ public class SampleMediaEncoder {
         }).start();
     }
 
+    // Callback drain only. Wait until end-of-stream is drained, false on timeout.
+    public boolean awaitTermination(long timeoutMs) throws InterruptedException {
+        SampleEncoderDrain<MediaFormat> drain = encoderDrain;
+        return drain == null || drain.awaitTermination(timeoutMs);
+    }
+
+    // Current encode size, changes with rate control before onInputSurfaceChanged()
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getFramesWritten() {
+        SampleEncoderDrain<MediaFormat> drain = encoderDrain;
+        return drain == null ? 0 : drain.getFramesWritten();
+    }
+
+    // Signal end-of-stream. Encoder stops once all pending frames are drained.
+    public synchronized void stop() {
+        stopRequested = true;
+        if (encoderDrain != null) {
+            encoderDrain.requestStop();
+        } else if (encoder != null && !started) {
+            // Configured but never started, nothing to drain
+            encoder.release();
+            encoder = null;
+            recordingEnded();
+        } else if (encoder != null && !eos) {
+            encoder.signalEndOfInputStream();
+        }
+    }
+
     private void encodeTask() throws IOException {
         Log.v(TAG, "Start encoder");
         boolean muxerStarted = false;
         encoder.start();
         MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+        SampleBufferInfo streamInfo = new SampleBufferInfo();
         eos = false;
         int frameLimit = encodeDuration;
         while (!eos) {
@@ -109,13 +919,33 @@ public class SampleMediaEncoder {
                         mediaMuxer.start();
                         muxerStarted = true;
                     }
+                    if (latencyTracer != null) {
+                        latencyTracer.mark(SampleLatencyTracer.STAGE_ENCODED, bufferInfo.presentationTimeUs * 1000);
+                    }
                     mediaMuxer.writeSampleData(videoTrackIndex, outputBuffer, bufferInfo);
+                    if (frameMetadataLog != null && bufferInfo.size > 0
+                            && (bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+                        frameMetadataLog.onFrameWritten(bufferInfo.presentationTimeUs);
+                    }
+                    if (streamSink != null && bufferInfo.size > 0) {
+                        outputBuffer.position(bufferInfo.offset);
+                        outputBuffer.limit(bufferInfo.offset + bufferInfo.size);
+                        streamInfo.set(bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs,
+                                bufferInfo.flags);
+                        streamSink.writeSampleData(outputBuffer, streamInfo);
+                    }
+                    if (latencyTracer != null) {
+                        latencyTracer.mark(SampleLatencyTracer.STAGE_MUXED, bufferInfo.presentationTimeUs * 1000);
+                    }
                     if (--frameLimit == 0) {
                         Log.v(TAG, "MediaMuxer stop");
                         mediaMuxer.stop();
                         muxerStarted = false;
                     }
                 }
+                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    eos = true;
+                }
                 encoder.releaseOutputBuffer(outputBufferIndex, false);
             } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
                 Log.v(TAG, "Output buffers changed. API Level > 21 can ignore this.");
@@ -130,7 +960,15 @@ public class SampleMediaEncoder {
             Log.v(TAG, "MediaMuxer stop");
             mediaMuxer.stop();
         }
+        if (streamSink != null) {
+            streamSink.stop();
+            streamSink = null;
+        }
+        if (frameMetadataLog != null) {
+            frameMetadataLog.close();
+        }
         Log.v(TAG, "Stop encoder");
         encoder.stop();
+        recordingEnded();
     }
 }
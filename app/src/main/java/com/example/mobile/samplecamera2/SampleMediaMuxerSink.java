@@ -0,0 +1,53 @@
+package com.example.mobile.samplecamera2;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+//
+// SampleMuxerSink writing one video track to MediaMuxer
+//
+
+public class SampleMediaMuxerSink implements SampleMuxerSink<MediaFormat> {
+    private final String TAG = this.getClass().getName();
+    private final MediaMuxer mediaMuxer;
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+    private int videoTrackIndex = -1;
+
+    public SampleMediaMuxerSink(MediaMuxer muxer) {
+        mediaMuxer = muxer;
+    }
+
+    @Override
+    public void start(MediaFormat format) {
+        Log.v(TAG, "Adding video track " + format);
+        videoTrackIndex = mediaMuxer.addTrack(format);
+        Log.v(TAG, "MediaMuxer start");
+        mediaMuxer.start();
+    }
+
+    @Override
+    public void writeSampleData(ByteBuffer data, SampleBufferInfo info) {
+        // MediaMuxer takes codec specific data from the track format
+        if (info.isCodecConfig()) {
+            return;
+        }
+        bufferInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+        mediaMuxer.writeSampleData(videoTrackIndex, data, bufferInfo);
+    }
+
+    @Override
+    public void stop() {
+        Log.v(TAG, "MediaMuxer stop");
+        mediaMuxer.stop();
+        mediaMuxer.release();
+    }
+
+    // Release muxer which was never started
+    public void release() {
+        mediaMuxer.release();
+    }
+}
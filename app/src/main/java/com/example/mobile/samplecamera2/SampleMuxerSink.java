@@ -0,0 +1,19 @@
+package com.example.mobile.samplecamera2;
+
+import java.nio.ByteBuffer;
+
+//
+// Consumer of encoded samples coming out of SampleEncoderDrain.
+// start() is called once with the codec output format before the first sample,
+// stop() is called once after the end-of-stream sample (only if start() was called).
+// Codec config samples (SampleBufferInfo.FLAG_CODEC_CONFIG) are passed through as well,
+// sinks which take the codec specific data from the format may simply skip them.
+//
+
+public interface SampleMuxerSink<F> {
+    void start(F format);
+
+    void writeSampleData(ByteBuffer data, SampleBufferInfo info);
+
+    void stop();
+}
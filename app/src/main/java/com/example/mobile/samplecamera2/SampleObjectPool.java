@@ -0,0 +1,136 @@
+package com.example.mobile.samplecamera2;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+//
+// Key-bucketed object pool with explicit acquire/release and leak detection.
+// Key is the size class of the object, e.g. byte size of a buffer or width/height of a bitmap.
+//
+// How to use
+// 1. acquire(key, owner) returns a pooled or newly allocated object, or null when maxPerKey objects
+//    of that key are already out (caller drops the work instead of allocating more).
+// 2. release(object) returns it. Releasing twice or releasing a foreign object throws.
+// 3. findLeaks(maxAgeNs) lists objects held longer than maxAgeNs with their owner tag.
+//
+
+public class SampleObjectPool<T> {
+    public interface Allocator<T> {
+        T allocate(long key);
+
+        // Called for objects dropped by trim()
+        void free(T object);
+    }
+
+    private static class Lease {
+        final long key;
+        final String owner;
+        final long acquiredNs;
+
+        Lease(long key, String owner, long acquiredNs) {
+            this.key = key;
+            this.owner = owner;
+            this.acquiredNs = acquiredNs;
+        }
+    }
+
+    private final Allocator<T> allocator;
+    private final int maxPerKey;
+    private final Map<Long, ArrayDeque<T>> free = new HashMap<Long, ArrayDeque<T>>();
+    private final Map<Long, Integer> allocatedPerKey = new HashMap<Long, Integer>();
+    private final IdentityHashMap<T, Lease> leases = new IdentityHashMap<T, Lease>();
+    private long hitCount = 0;
+    private long allocationCount = 0;
+    private long exhaustedCount = 0;
+
+    public SampleObjectPool(Allocator<T> allocator, int maxPerKey) {
+        this.allocator = allocator;
+        this.maxPerKey = maxPerKey;
+    }
+
+    public synchronized T acquire(long key, String owner) {
+        ArrayDeque<T> bucket = free.get(key);
+        T object = (bucket != null) ? bucket.poll() : null;
+        if (object != null) {
+            hitCount++;
+        } else {
+            Integer allocated = allocatedPerKey.get(key);
+            int count = (allocated != null) ? allocated : 0;
+            if (count >= maxPerKey) {
+                exhaustedCount++;
+                return null;
+            }
+            object = allocator.allocate(key);
+            allocatedPerKey.put(key, count + 1);
+            allocationCount++;
+        }
+        leases.put(object, new Lease(key, owner, System.nanoTime()));
+        return object;
+    }
+
+    public synchronized void release(T object) {
+        Lease lease = leases.remove(object);
+        if (lease == null) {
+            throw new IllegalStateException("Object released twice or not acquired from this pool");
+        }
+        ArrayDeque<T> bucket = free.get(lease.key);
+        if (bucket == null) {
+            bucket = new ArrayDeque<T>();
+            free.put(lease.key, bucket);
+        }
+        bucket.push(object);
+    }
+
+    // Drop all free objects, e.g. after frame size changed. Objects in use are not affected.
+    public synchronized void trim() {
+        for (Map.Entry<Long, ArrayDeque<T>> entry : free.entrySet()) {
+            ArrayDeque<T> bucket = entry.getValue();
+            Integer allocated = allocatedPerKey.get(entry.getKey());
+            allocatedPerKey.put(entry.getKey(), allocated - bucket.size());
+            T object;
+            while ((object = bucket.poll()) != null) {
+                allocator.free(object);
+            }
+        }
+        free.clear();
+    }
+
+    // Describe objects held longer than maxAgeNs
+    public synchronized List<String> findLeaks(long maxAgeNs) {
+        List<String> leaks = new ArrayList<String>();
+        long now = System.nanoTime();
+        for (Lease lease : leases.values()) {
+            long ageNs = now - lease.acquiredNs;
+            if (ageNs >= maxAgeNs) {
+                leaks.add(lease.owner + " holds key " + lease.key + " for " + (ageNs / 1000000) + "ms");
+            }
+        }
+        return leaks;
+    }
+
+    public synchronized int getOutstandingCount() {
+        return leases.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getAllocationCount() {
+        return allocationCount;
+    }
+
+    public synchronized long getExhaustedCount() {
+        return exhaustedCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "pool hits " + hitCount + ", allocations " + allocationCount + ", exhausted "
+                + exhaustedCount + ", outstanding " + leases.size();
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.mobile.samplecamera2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+//
+// Registry of output sinks the renderer draws to.
+//
+// How to use
+// 1. Any thread calls register()/unregister(). Changes are queued, nothing is touched yet.
+// 2. GL thread calls update() at start of every frame. Queued changes are applied in order and
+//    Attacher creates/destroys the GL resources (EGL window surface) of the sink.
+// 3. GL thread calls selectDue() to get sinks to draw for this frame. A sink with frame rate
+//    divisor N is drawn every N-th frame. Host sinks (GLSurfaceView window, swapped by
+//    GLSurfaceView anyway) are not divided and come last.
+//
+
+public class SampleOutputSinkRegistry<S extends SampleOutputSinkRegistry.Sink> {
+    public interface Sink {
+        int getFrameRateDivisor();
+
+        boolean isHostSurface();
+    }
+
+    public interface Attacher<S> {
+        // Return false if sink can not be attached, it is dropped then
+        boolean attach(S sink);
+
+        void detach(S sink);
+    }
+
+    private static class Change<S> {
+        final S sink;
+        final boolean add;
+
+        Change(S sink, boolean add) {
+            this.sink = sink;
+            this.add = add;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Change<S>> pending = new ConcurrentLinkedQueue<Change<S>>();
+    private final List<S> sinks = new CopyOnWriteArrayList<S>();
+
+    public void register(S sink) {
+        pending.add(new Change<S>(sink, true));
+    }
+
+    public void unregister(S sink) {
+        pending.add(new Change<S>(sink, false));
+    }
+
+    public boolean hasPendingChanges() {
+        return !pending.isEmpty();
+    }
+
+    // GL thread only
+    public void update(Attacher<S> attacher) {
+        Change<S> change;
+        while ((change = pending.poll()) != null) {
+            if (change.add) {
+                if (!sinks.contains(change.sink) && attacher.attach(change.sink)) {
+                    sinks.add(change.sink);
+                }
+            } else if (sinks.remove(change.sink)) {
+                attacher.detach(change.sink);
+            }
+        }
+    }
+
+    // GL thread only. Detach every sink, e.g. when GL context goes away.
+    public void clear(Attacher<S> attacher) {
+        update(attacher);
+        for (S sink : sinks) {
+            attacher.detach(sink);
+        }
+        sinks.clear();
+    }
+
+    // GL thread only. Fill due with sinks to draw for frameIndex, host sinks last.
+    public void selectDue(long frameIndex, List<S> due) {
+        selectDue(frameIndex, true, true, due);
+    }
+
+    // GL thread only. Same as above, host and other sinks can be left out.
+    public void selectDue(long frameIndex, boolean includeHost, boolean includeOthers, List<S> due) {
+        due.clear();
+        if (includeOthers) {
+            for (S sink : sinks) {
+                if (!sink.isHostSurface() && isDue(sink, frameIndex)) {
+                    due.add(sink);
+                }
+            }
+        }
+        if (includeHost) {
+            for (S sink : sinks) {
+                if (sink.isHostSurface()) {
+                    due.add(sink);
+                }
+            }
+        }
+    }
+
+    private static boolean isDue(Sink sink, long frameIndex) {
+        int divisor = sink.getFrameRateDivisor();
+        return divisor <= 1 || frameIndex % divisor == 0;
+    }
+
+    // Snapshot of attached sinks
+    public List<S> getSinks() {
+        return new ArrayList<S>(sinks);
+    }
+
+    public int size() {
+        return sinks.size();
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.mobile.samplecamera2;
+
+import java.nio.ByteBuffer;
+
+//
+// Pre-event recorder: keeps the last samples in a SampleEncodedRingBuffer and, on trigger,
+// writes them to a new muxer followed by the live samples.
+//
+// How to use
+// 1. Pass it to SampleEncoderDrain as sink (alone or in a SampleTeeSink).
+// 2. Any thread calls trigger(target, preRollUs). On the next sample the drain thread starts target,
+//    writes codec config and the buffered samples from the most recent key frame at or before
+//    (newest - preRollUs), then keeps writing live samples to it.
+// 3. Any thread calls stopRecording(). target is stopped on the next sample (or at end-of-stream),
+//    buffering goes on.
+//
+
+public class SamplePreEventRecorder<F> implements SampleMuxerSink<F> {
+    private final SampleEncodedRingBuffer ringBuffer;
+    private final SampleBufferInfo sampleInfo = new SampleBufferInfo();
+    private F format = null;
+    private ByteBuffer codecConfig = null;
+    private final SampleBufferInfo codecConfigInfo = new SampleBufferInfo();
+    private SampleMuxerSink<F> target = null;
+
+    private volatile SampleMuxerSink<F> pendingTarget = null;
+    private volatile long pendingPreRollUs = 0;
+    private volatile boolean pendingStop = false;
+    private volatile long flushedSamples = 0;
+
+    public SamplePreEventRecorder(SampleEncodedRingBuffer buffer) {
+        ringBuffer = buffer;
+    }
+
+    public void trigger(SampleMuxerSink<F> newTarget, long preRollUs) {
+        pendingPreRollUs = preRollUs;
+        pendingTarget = newTarget;
+    }
+
+    public void stopRecording() {
+        pendingStop = true;
+    }
+
+    public boolean isRecording() {
+        return target != null || pendingTarget != null;
+    }
+
+    public long getFlushedSamples() {
+        return flushedSamples;
+    }
+
+    @Override
+    public void start(F f) {
+        // Samples of a previous encoder do not match the new format
+        format = f;
+        codecConfig = null;
+        ringBuffer.clear();
+    }
+
+    @Override
+    public void writeSampleData(ByteBuffer data, SampleBufferInfo info) {
+        if (info.isCodecConfig()) {
+            rememberCodecConfig(data, info);
+            if (target != null) {
+                target.writeSampleData(data, info);
+            }
+            return;
+        }
+        if (pendingStop) {
+            pendingStop = false;
+            stopTarget();
+        }
+        SampleMuxerSink<F> newTarget = pendingTarget;
+        if (newTarget != null && target == null && format != null) {
+            pendingTarget = null;
+            // Live sample goes to the ring buffer first, so the flush includes it
+            ringBuffer.add(data, info);
+            flush(newTarget, info.presentationTimeUs - pendingPreRollUs);
+            return;
+        }
+        ringBuffer.add(data, info);
+        if (target != null) {
+            target.writeSampleData(data, info);
+        }
+    }
+
+    @Override
+    public void stop() {
+        pendingTarget = null;
+        stopTarget();
+    }
+
+    private void flush(SampleMuxerSink<F> newTarget, long startUs) {
+        int first = ringBuffer.findKeyFrame(startUs);
+        if (first < 0) {
+            // Nothing buffered yet (no key frame), start with next key frame
+            pendingTarget = newTarget;
+            return;
+        }
+        target = newTarget;
+        target.start(format);
+        if (codecConfig != null) {
+            codecConfig.position(0);
+            target.writeSampleData(codecConfig, codecConfigInfo);
+        }
+        int last = ringBuffer.size();
+        for (int i = first; i < last; i++) {
+            target.writeSampleData(ringBuffer.get(i, sampleInfo), sampleInfo);
+        }
+        flushedSamples = last - first;
+    }
+
+    private void stopTarget() {
+        if (target != null) {
+            target.stop();
+            target = null;
+        }
+    }
+
+    private void rememberCodecConfig(ByteBuffer data, SampleBufferInfo info) {
+        if (codecConfig == null || codecConfig.capacity() < info.size) {
+            codecConfig = ByteBuffer.allocateDirect(info.size);
+        }
+        codecConfig.clear();
+        int position = data.position();
+        codecConfig.put(data);
+        data.position(position);
+        codecConfig.flip();
+        codecConfigInfo.set(0, info.size, info.presentationTimeUs, info.flags);
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.mobile.samplecamera2;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+//
+// Files of linked GL program binaries (glGetProgramBinary), one per program
+//
+// File name is <driver hash>-<source hash>.bin. Driver hash covers GL vendor, renderer and version,
+// a driver update changes it and retainDriver() deletes the binaries of other drivers.
+// Source hash covers shader sources and attribute bindings, see hash().
+// File content: MAGIC, binary format, length, binary. Files are written to a temporary file and
+// renamed, a damaged file is deleted on load.
+//
+// Pure Java, GL calls are in SampleProgramManager.
+//
+
+public class SampleProgramBinaryCache {
+    private static final int MAGIC = 0x53504231; // "SPB1"
+    private static final String SUFFIX = ".bin";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static class Entry {
+        public final int format;
+        // Direct buffer, position 0, limit is length of binary
+        public final ByteBuffer binary;
+
+        Entry(int format, ByteBuffer binary) {
+            this.format = format;
+            this.binary = binary;
+        }
+    }
+
+    private final File dir;
+    private final String driverHash;
+
+    public SampleProgramBinaryCache(File dir, String driverId) {
+        this.dir = dir;
+        driverHash = hash(driverId).substring(0, 16);
+    }
+
+    // SHA-1 hex of the parts, separated so ("ab", "c") and ("a", "bc") differ
+    public static String hash(String... parts) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (String part : parts) {
+            digest.update(part.getBytes(UTF_8));
+            digest.update((byte) 0);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    public String getDriverHash() {
+        return driverHash;
+    }
+
+    private File file(String sourceHash) {
+        return new File(dir, driverHash + "-" + sourceHash + SUFFIX);
+    }
+
+    // null if not cached or damaged
+    public Entry load(String sourceHash) {
+        File file = file(sourceHash);
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Bad magic");
+            }
+            int format = in.readInt();
+            int length = in.readInt();
+            if (length <= 0 || length != file.length() - 12) {
+                throw new IOException("Bad length " + length);
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            ByteBuffer binary = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+            binary.put(bytes).flip();
+            return new Entry(format, binary);
+        } catch (IOException e) {
+            e.printStackTrace();
+            remove(sourceHash);
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    // binary from position to limit, position is not changed
+    public boolean store(String sourceHash, int format, ByteBuffer binary) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return false;
+        }
+        File file = file(sourceHash);
+        File temp = new File(dir, file.getName() + ".tmp");
+        ByteBuffer data = binary.duplicate();
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(temp));
+            out.writeInt(MAGIC);
+            out.writeInt(format);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.close();
+            out = null;
+            return temp.renameTo(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            close(out);
+            temp.delete();
+        }
+    }
+
+    public void remove(String sourceHash) {
+        file(sourceHash).delete();
+    }
+
+    // Delete binaries of other drivers, return number of deleted files
+    public int retainDriver() {
+        File[] files = dir.listFiles();
+        int deleted = 0;
+        if (files == null) {
+            return 0;
+        }
+        for (File file : files) {
+            if (!file.getName().startsWith(driverHash + "-") && file.delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.mobile.samplecamera2;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+//
+// Linked GL programs of one context, by source
+//
+// getProgram() returns the program of a vertex/fragment pair, compiled once per context.
+// GLES3 (with at least one program binary format): linked programs are saved with
+// glGetProgramBinary() to SampleProgramBinaryCache, keyed by driver (vendor, renderer, version) and
+// source hash. A new context, or the next app start, loads them with glProgramBinary() and skips
+// compile and link. A binary the driver rejects is deleted and the program is compiled again.
+//
+// How to use (GL thread)
+// 1. Create after the context is created, a new context needs a new manager.
+// 2. getProgram() with attribute names, the i-th name is bound to location i before link.
+//
+
+public class SampleProgramManager {
+    private final String TAG = this.getClass().getName();
+
+    private final SampleProgramBinaryCache binaryCache;
+    private final Map<String, Integer> programs = new HashMap<String, Integer>();
+    private int compiledPrograms = 0;
+    private int loadedPrograms = 0;
+
+    // cacheDir null or GLES2 context: compile only
+    public SampleProgramManager(File cacheDir, boolean gles3) {
+        binaryCache = gles3 && cacheDir != null && hasBinaryFormats()
+                ? new SampleProgramBinaryCache(new File(cacheDir, "programs"), getDriverId()) : null;
+        if (binaryCache != null) {
+            int deleted = binaryCache.retainDriver();
+            if (deleted > 0) {
+                Log.v(TAG, "Driver changed, " + deleted + " program binaries deleted");
+            }
+        }
+    }
+
+    private static boolean hasBinaryFormats() {
+        int[] count = new int[1];
+        GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, count, 0);
+        return count[0] > 0;
+    }
+
+    private static String getDriverId() {
+        return GLES20.glGetString(GLES20.GL_VENDOR) + "|" + GLES20.glGetString(GLES20.GL_RENDERER) + "|"
+                + GLES20.glGetString(GLES20.GL_VERSION);
+    }
+
+    public int getProgram(String vertexCode, String fragmentCode, String... attributes) {
+        String[] parts = new String[attributes.length + 2];
+        parts[0] = vertexCode;
+        parts[1] = fragmentCode;
+        System.arraycopy(attributes, 0, parts, 2, attributes.length);
+        String key = SampleProgramBinaryCache.hash(parts);
+        Integer cached = programs.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        int program = binaryCache != null ? loadBinary(key) : 0;
+        if (program != 0) {
+            loadedPrograms++;
+        } else {
+            program = compile(vertexCode, fragmentCode, attributes);
+            compiledPrograms++;
+            if (binaryCache != null && isLinked(program)) {
+                storeBinary(key, program);
+            }
+        }
+        programs.put(key, program);
+        return program;
+    }
+
+    private int loadBinary(String key) {
+        SampleProgramBinaryCache.Entry entry = binaryCache.load(key);
+        if (entry == null) {
+            return 0;
+        }
+        int program = GLES20.glCreateProgram();
+        GLES30.glProgramBinary(program, entry.format, entry.binary, entry.binary.remaining());
+        if (!isLinked(program)) {
+            // Driver rejected the binary, e.g. same version string after an update
+            Log.v(TAG, "Program binary " + key + " rejected");
+            GLES20.glDeleteProgram(program);
+            binaryCache.remove(key);
+            return 0;
+        }
+        return program;
+    }
+
+    private void storeBinary(String key, int program) {
+        int[] length = new int[1];
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return;
+        }
+        ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        int[] format = new int[1];
+        GLES30.glGetProgramBinary(program, length[0], length, 0, format, 0, binary);
+        binary.limit(length[0]);
+        if (!binaryCache.store(key, format[0], binary)) {
+            Log.e(TAG, "Program binary " + key + " not stored");
+        }
+    }
+
+    private static boolean isLinked(int program) {
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        return status[0] == GLES20.GL_TRUE;
+    }
+
+    private int loadShader(int type, String shaderCode) {
+        int shader;
+
+        shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, shaderCode);
+        GLES20.glCompileShader(shader);
+
+        // Check shader compile status
+        int compileStatus[] = {GLES20.GL_FALSE};
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
+        if(compileStatus[0] == GLES20.GL_FALSE) {
+            int logSize[] = {0};
+            GLES20.glGetShaderiv(shader, GLES20.GL_INFO_LOG_LENGTH, logSize, 0);
+            if(logSize[0] > 0) {
+                String errorLog = GLES20.glGetShaderInfoLog(shader);
+                Log.d(TAG, errorLog);
+            }
+        }
+        return shader;
+    }
+
+    private int compile(String vertexCode, String fragmentCode, String[] attributes) {
+        int program = GLES20.glCreateProgram();
+        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexCode);
+        int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentCode);
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        for (int i = 0; i < attributes.length; i++) {
+            GLES20.glBindAttribLocation(program, i, attributes[i]);
+        }
+        if (binaryCache != null) {
+            GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+        }
+        GLES20.glLinkProgram(program);
+        if (!isLinked(program)) {
+            Log.e(TAG, "Link failed: " + GLES20.glGetProgramInfoLog(program));
+        }
+        // Shaders are freed with the program
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+        return program;
+    }
+
+    @Override
+    public String toString() {
+        return "Programs: compiled " + compiledPrograms + ", from binary cache " + loadedPrograms
+                + (binaryCache == null ? " (no binary cache)" : "");
+    }
+}
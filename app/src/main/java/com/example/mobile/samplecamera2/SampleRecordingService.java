@@ -0,0 +1,94 @@
+package com.example.mobile.samplecamera2;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Intent;
+import android.opengl.EGL14;
+import android.opengl.GLSurfaceView;
+import android.os.Binder;
+import android.os.IBinder;
+import android.util.Log;
+
+//
+// Foreground service owning the render engine while recording
+//
+// The process keeps foreground priority with the activity in background or the screen off, the
+// engine thread goes on drawing camera frames into the encoder without any window.
+//
+// How to use
+// 1. startService() and bindService(), get the service from LocalBinder.
+// 2. startEngine() with the renderer, the service is foreground (notification) from then on.
+// 3. stopEngine() when recording ends, then unbindService() and stopService().
+//
+
+public class SampleRecordingService extends Service {
+    private final String TAG = this.getClass().getName();
+    private static final int NOTIFICATION_ID = 1;
+
+    private final IBinder binder = new LocalBinder();
+    private SampleRenderEngine renderEngine = null;
+
+    public class LocalBinder extends Binder {
+        SampleRecordingService getService() {
+            return SampleRecordingService.this;
+        }
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // Camera and encoder belong to the activity, nothing to resume after a restart by the system
+        return START_NOT_STICKY;
+    }
+
+    // Main thread. Engine renders at frameWidth x frameHeight, see SampleRenderEngine.
+    public SampleRenderEngine startEngine(GLSurfaceView.Renderer renderer, int frameWidth, int frameHeight) {
+        if (renderEngine != null) {
+            throw new IllegalStateException("Engine running");
+        }
+        renderEngine = new SampleRenderEngine(renderer, EGL14.EGL_NO_CONTEXT, frameWidth, frameHeight);
+        renderEngine.start();
+        startForeground(NOTIFICATION_ID, createNotification());
+        Log.v(TAG, "Render engine started");
+        return renderEngine;
+    }
+
+    // Main thread. Waits until the context is destroyed.
+    public void stopEngine() {
+        if (renderEngine == null) {
+            return;
+        }
+        renderEngine.release();
+        renderEngine = null;
+        stopForeground(true);
+        Log.v(TAG, "Render engine stopped");
+    }
+
+    public SampleRenderEngine getRenderEngine() {
+        return renderEngine;
+    }
+
+    private Notification createNotification() {
+        Intent intent = new Intent(this, MainActivity.class);
+        intent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, intent, 0);
+        return new Notification.Builder(this)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.recording_notification))
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .build();
+    }
+
+    @Override
+    public void onDestroy() {
+        stopEngine();
+        super.onDestroy();
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.mobile.samplecamera2;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLSurfaceView;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+//
+// Render thread without a view: EGL14 context on a 1x1 pbuffer, drives a GLSurfaceView.Renderer
+//
+// Rendering goes on while no window exists (activity in background, screen off), e.g. camera
+// frames to the encoder input surface. On-screen preview is an output of the renderer that is
+// attached while a UI shows it, see SampleGLRenderer.addDisplayOutput(). The pbuffer is current
+// between draws, so the context never depends on a window.
+//
+// The context is GLES3 if available, GLES2 otherwise, created with sharedContext (textures and
+// programs shared with another context) or alone. The config is window, pbuffer and recordable
+// (EGL_RECORDABLE_ANDROID), so the renderer can draw MediaCodec input surfaces with it.
+//
+// How to use
+// 1. Create with the renderer, start(). Renderer gets onSurfaceCreated() and onSurfaceChanged()
+//    (frame size) on the render thread, arguments GL10 and EGLConfig are null.
+// 2. requestRender() from any thread, requests before the draw ran are coalesced.
+// 3. queueEvent() / runAndWait() for GL work, e.g. SampleGLRenderer.applyOutputChanges().
+// 4. release() tears down the context and ends the thread.
+//
+
+public class SampleRenderEngine {
+    private final String TAG = this.getClass().getName();
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private final GLSurfaceView.Renderer renderer;
+    private final EGLContext sharedContext;
+    private final int frameWidth;
+    private final int frameHeight;
+    private final AtomicBoolean renderPending = new AtomicBoolean();
+    private HandlerThread thread;
+    private Handler handler;
+    // Render thread only
+    private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
+    private volatile EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface pbufferSurface = EGL14.EGL_NO_SURFACE;
+    private volatile int glesVersion = 0;
+
+    // frameWidth x frameHeight: size given to onSurfaceChanged(), i.e. size of frames drawn once
+    // (framebuffer) before outputs get them. sharedContext may be EGL14.EGL_NO_CONTEXT.
+    public SampleRenderEngine(GLSurfaceView.Renderer renderer, EGLContext sharedContext,
+                              int frameWidth, int frameHeight) {
+        this.renderer = renderer;
+        this.sharedContext = sharedContext;
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+    }
+
+    public void start() {
+        thread = new HandlerThread("RenderEngine");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!createContext()) {
+                    return;
+                }
+                renderer.onSurfaceCreated(null, null);
+                renderer.onSurfaceChanged(null, frameWidth, frameHeight);
+            }
+        });
+    }
+
+    private boolean createContext() {
+        eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (eglDisplay == EGL14.EGL_NO_DISPLAY || !EGL14.eglInitialize(eglDisplay, version, 0, version, 1)) {
+            Log.e(TAG, "eglInitialize failed");
+            return false;
+        }
+        // Try GLES3 first, GLES2 code runs unchanged on it. Fall back to GLES2.
+        for (int clientVersion = 3; clientVersion >= 2; clientVersion--) {
+            EGLConfig config = chooseConfig(clientVersion);
+            if (config == null) {
+                continue;
+            }
+            int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, clientVersion, EGL14.EGL_NONE};
+            eglContext = EGL14.eglCreateContext(eglDisplay, config, sharedContext, contextAttributes, 0);
+            if (eglContext == null || eglContext == EGL14.EGL_NO_CONTEXT) {
+                Log.v(TAG, "GLES" + clientVersion + " context not available");
+                continue;
+            }
+            int[] surfaceAttributes = {EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE};
+            pbufferSurface = EGL14.eglCreatePbufferSurface(eglDisplay, config, surfaceAttributes, 0);
+            if (pbufferSurface == null || pbufferSurface == EGL14.EGL_NO_SURFACE) {
+                Log.e(TAG, "eglCreatePbufferSurface failed");
+                return false;
+            }
+            makePbufferCurrent();
+            glesVersion = clientVersion;
+            return true;
+        }
+        Log.e(TAG, "No GLES context");
+        return false;
+    }
+
+    private EGLConfig chooseConfig(int clientVersion) {
+        int renderableType = clientVersion == 3 ? EGLExt.EGL_OPENGL_ES3_BIT_KHR : EGL14.EGL_OPENGL_ES2_BIT;
+        int[] attributes = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, renderableType,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_WINDOW_BIT | EGL14.EGL_PBUFFER_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] count = new int[1];
+        if (!EGL14.eglChooseConfig(eglDisplay, attributes, 0, configs, 0, 1, count, 0) || count[0] == 0) {
+            return null;
+        }
+        return configs[0];
+    }
+
+    private void makePbufferCurrent() {
+        EGL14.eglMakeCurrent(eglDisplay, pbufferSurface, pbufferSurface, eglContext);
+    }
+
+    private final Runnable drawRunnable = new Runnable() {
+        @Override
+        public void run() {
+            renderPending.set(false);
+            if (eglContext == EGL14.EGL_NO_CONTEXT) {
+                return;
+            }
+            // Renderer makes its outputs current, start from the pbuffer in case none is left
+            makePbufferCurrent();
+            renderer.onDrawFrame(null);
+        }
+    };
+
+    // Any thread
+    public void requestRender() {
+        if (renderPending.compareAndSet(false, true)) {
+            handler.post(drawRunnable);
+        }
+    }
+
+    // Any thread, runnable runs on render thread with the context current
+    public void queueEvent(Runnable runnable) {
+        handler.post(runnable);
+    }
+
+    // Run on render thread and wait, e.g. to destroy the EGL surface of a window being destroyed
+    public void runAndWait(final Runnable runnable) {
+        if (Looper.myLooper() == handler.getLooper()) {
+            runnable.run();
+            return;
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                runnable.run();
+                done.countDown();
+            }
+        });
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Context of the render thread, for contexts sharing with it. Valid after start() ran.
+    public EGLContext getContext() {
+        return eglContext;
+    }
+
+    // 2 or 3, 0 until the context is created
+    public int getGlesVersion() {
+        return glesVersion;
+    }
+
+    // Destroy context and end render thread, pending draws are dropped
+    public void release() {
+        if (thread == null) {
+            return;
+        }
+        handler.removeCallbacks(drawRunnable);
+        runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                if (eglDisplay == EGL14.EGL_NO_DISPLAY) {
+                    return;
+                }
+                EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
+                        EGL14.EGL_NO_CONTEXT);
+                if (pbufferSurface != EGL14.EGL_NO_SURFACE) {
+                    EGL14.eglDestroySurface(eglDisplay, pbufferSurface);
+                }
+                if (eglContext != EGL14.EGL_NO_CONTEXT) {
+                    EGL14.eglDestroyContext(eglDisplay, eglContext);
+                }
+                // Display is not terminated, other contexts of the process may still use it
+                EGL14.eglReleaseThread();
+                pbufferSurface = EGL14.EGL_NO_SURFACE;
+                eglContext = EGL14.EGL_NO_CONTEXT;
+                eglDisplay = EGL14.EGL_NO_DISPLAY;
+            }
+        });
+        thread.quitSafely();
+        thread = null;
+    }
+}
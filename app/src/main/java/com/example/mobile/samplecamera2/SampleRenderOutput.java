@@ -0,0 +1,101 @@
+package com.example.mobile.samplecamera2;
+
+import android.opengl.EGLSurface;
+
+//
+// One output the renderer draws each camera frame to.
+// Created with a native window (e.g. MediaCodec input Surface), the EGL window surface is created
+// by the renderer on GL thread when the output is attached, and destroyed when it is removed.
+// Host surface is the GLSurfaceView window, it is owned and swapped by GLSurfaceView.
+// Display output is an on-screen window (e.g. SurfaceView) of a renderer without GLSurfaceView,
+// drawn like a host surface (newest frame only, last) but created and swapped by the renderer.
+//
+
+public class SampleRenderOutput implements SampleOutputSinkRegistry.Sink {
+    private final String name;
+    private final Object nativeWindow;
+    private final boolean hostSurface;
+    private final int frameRateDivisor;
+    private final SampleFrameTimer frameTimer;
+    private EGLSurface eglSurface = null;
+    private int width = 0;
+    private int height = 0;
+
+    // Output drawn to nativeWindow on every frameRateDivisor-th camera frame
+    public SampleRenderOutput(String name, Object nativeWindow, int frameRateDivisor) {
+        this.name = name;
+        this.nativeWindow = nativeWindow;
+        this.frameRateDivisor = Math.max(1, frameRateDivisor);
+        hostSurface = false;
+        frameTimer = new SampleFrameTimer(name);
+    }
+
+    // Display output: host-like output on a window the renderer creates the EGL surface of
+    public SampleRenderOutput(String name, Object nativeWindow, boolean display) {
+        this.name = name;
+        this.nativeWindow = nativeWindow;
+        frameRateDivisor = 1;
+        hostSurface = display;
+        frameTimer = new SampleFrameTimer(name);
+    }
+
+    // Host output for the window surface of GLSurfaceView
+    public SampleRenderOutput(String name, EGLSurface surface) {
+        this.name = name;
+        nativeWindow = null;
+        frameRateDivisor = 1;
+        hostSurface = true;
+        eglSurface = surface;
+        frameTimer = new SampleFrameTimer(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Object getNativeWindow() {
+        return nativeWindow;
+    }
+
+    public EGLSurface getEglSurface() {
+        return eglSurface;
+    }
+
+    public void setEglSurface(EGLSurface surface) {
+        eglSurface = surface;
+        width = 0;
+        height = 0;
+    }
+
+    @Override
+    public boolean isHostSurface() {
+        return hostSurface;
+    }
+
+    // EGL surface belongs to GLSurfaceView, not created, swapped or destroyed by the renderer
+    public boolean isViewSurface() {
+        return hostSurface && nativeWindow == null;
+    }
+
+    @Override
+    public int getFrameRateDivisor() {
+        return frameRateDivisor;
+    }
+
+    public SampleFrameTimer getFrameTimer() {
+        return frameTimer;
+    }
+
+    public void setSize(int w, int h) {
+        width = w;
+        height = h;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
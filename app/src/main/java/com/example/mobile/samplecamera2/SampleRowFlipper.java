@@ -0,0 +1,33 @@
+package com.example.mobile.samplecamera2;
+
+import java.nio.ByteBuffer;
+
+//
+// Vertical flip of readback pixels in place
+// glReadPixels() returns bottom row first, Bitmap wants top row first.
+// Row scratch arrays are kept between calls, not thread safe.
+//
+
+public class SampleRowFlipper {
+    private byte[] rowTop = new byte[0];
+    private byte[] rowBottom = new byte[0];
+
+    // stride: bytes per row. Position of pixels is left at 0.
+    public void flip(ByteBuffer pixels, int stride, int rows) {
+        if (rowTop.length != stride) {
+            rowTop = new byte[stride];
+            rowBottom = new byte[stride];
+        }
+        for (int top = 0, bottom = rows - 1; top < bottom; top++, bottom--) {
+            pixels.position(top * stride);
+            pixels.get(rowTop);
+            pixels.position(bottom * stride);
+            pixels.get(rowBottom);
+            pixels.position(top * stride);
+            pixels.put(rowBottom);
+            pixels.position(bottom * stride);
+            pixels.put(rowTop);
+        }
+        pixels.position(0);
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.mobile.samplecamera2;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+//
+// Screenshot pipeline that keeps the GL thread free
+//
+// How to use
+// 1. Any thread calls screenshot() or burst() to request captures. burst(N) takes N consecutive frames.
+// 2. GL thread calls onContextCreated() whenever a GL context is created, then onFrameDrawn() with the framebuffer to capture bound, once per camera frame.
+// 3. GLES3: glReadPixels() goes to one of two pixel buffer objects and returns at once, the PBO is
+//    mapped one frame later (when the GPU is done with it) and copied into a pooled direct buffer.
+//    GLES2: glReadPixels() reads synchronously into the pooled buffer.
+// 4. Pooled buffer is queued to SampleFrameWriter, JPEG compress and file write run on its thread.
+//    If the writer falls behind, pool runs dry and further captures are dropped, preview never waits.
+//
+
+public class SampleScreenshotPipeline {
+    private final String TAG = this.getClass().getName();
+    private static final int WRITER_QUEUE_DEPTH = 4;
+    private static final int PBO_COUNT = 2;
+    // One buffer per queued job, one being written, one being filled
+    private static final int BUFFERS_PER_SIZE = WRITER_QUEUE_DEPTH + 2;
+    private static final long LEAK_AGE_NS = 10000000000L; // 10s
+
+    private boolean usePixelBuffers = false;
+    private final ConcurrentLinkedQueue<String> requests = new ConcurrentLinkedQueue<String>();
+    private final SampleFrameWriter frameWriter = new SampleFrameWriter(WRITER_QUEUE_DEPTH);
+    private final SampleBufferPool bufferPool = new SampleBufferPool(BUFFERS_PER_SIZE);
+    private final int[] pixelBuffers = new int[PBO_COUNT];
+    private final String[] pixelBufferNames = new String[PBO_COUNT];
+    private int pixelBufferIndex = 0;
+    private int width = 0;
+    private int height = 0;
+    private long framesDropped = 0;
+
+    // GL thread. Objects of a previous context are gone with it, pending readbacks are lost.
+    public void onContextCreated(boolean gles3) {
+        usePixelBuffers = gles3;
+        if (usePixelBuffers) {
+            GLES30.glGenBuffers(PBO_COUNT, pixelBuffers, 0);
+        }
+        width = 0;
+        height = 0;
+    }
+
+    public void screenshot(String fileName) {
+        requests.add(fileName);
+    }
+
+    // Capture count consecutive frames to baseName_000.jpg, baseName_001.jpg, ...
+    public void burst(int count, String baseName) {
+        for (int i = 0; i < count; i++) {
+            requests.add(String.format("%s_%03d.jpg", baseName, i));
+        }
+    }
+
+    // GL thread. Framebuffer to capture is bound, w x h is its size.
+    public void onFrameDrawn(int w, int h) {
+        if (w != width || h != height) {
+            resize(w, h);
+        }
+        if (usePixelBuffers) {
+            // Previous frame readback is complete by now
+            int previous = (pixelBufferIndex + PBO_COUNT - 1) % PBO_COUNT;
+            if (pixelBufferNames[previous] != null) {
+                mapPixelBuffer(previous);
+            }
+        }
+
+        String fileName = requests.poll();
+        if (fileName == null) {
+            return;
+        }
+        if (usePixelBuffers) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffers[pixelBufferIndex]);
+            GLES30.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            pixelBufferNames[pixelBufferIndex] = fileName;
+            pixelBufferIndex = (pixelBufferIndex + 1) % PBO_COUNT;
+        } else {
+            ByteBuffer pixels = bufferPool.acquire(width * height * 4, TAG);
+            if (pixels == null) {
+                framesDropped++;
+                return;
+            }
+            GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixels);
+            frameWriter.offer(pixels, bufferPool, width, height, fileName);
+        }
+    }
+
+    private void mapPixelBuffer(int index) {
+        String fileName = pixelBufferNames[index];
+        pixelBufferNames[index] = null;
+        int size = width * height * 4;
+        // Copy straight from mapped PBO into pooled buffer
+        ByteBuffer pixels = bufferPool.acquire(size, TAG);
+        if (pixels == null) {
+            framesDropped++;
+            return;
+        }
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffers[index]);
+        ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, size,
+                GLES30.GL_MAP_READ_BIT);
+        if (mapped != null) {
+            pixels.put(mapped);
+            pixels.flip();
+            GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+        }
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        if (mapped == null) {
+            Log.e(TAG, "glMapBufferRange failed, " + fileName + " dropped");
+            bufferPool.release(pixels);
+            framesDropped++;
+            return;
+        }
+        frameWriter.offer(pixels, bufferPool, width, height, fileName);
+    }
+
+    private void resize(int w, int h) {
+        width = w;
+        height = h;
+        int size = w * h * 4;
+        // Buffers of old size still queued are kept until written
+        bufferPool.trim();
+        if (usePixelBuffers) {
+            for (int i = 0; i < PBO_COUNT; i++) {
+                GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffers[i]);
+                GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+                pixelBufferNames[i] = null;
+            }
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        }
+    }
+
+    public long getFramesDropped() {
+        return framesDropped + frameWriter.getFramesRejected();
+    }
+
+    public long getFramesWritten() {
+        return frameWriter.getFramesWritten();
+    }
+
+    public SampleBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public void logStats() {
+        Log.v(TAG, "screenshots written " + getFramesWritten() + ", dropped " + getFramesDropped()
+                + ", buffer " + bufferPool);
+        for (String leak : bufferPool.findLeaks(LEAK_AGE_NS)) {
+            Log.w(TAG, "Buffer leak: " + leak);
+        }
+    }
+
+    // GL thread
+    public void release() {
+        if (usePixelBuffers) {
+            GLES30.glDeleteBuffers(PBO_COUNT, pixelBuffers, 0);
+            usePixelBuffers = false;
+        }
+        frameWriter.quit();
+    }
+}
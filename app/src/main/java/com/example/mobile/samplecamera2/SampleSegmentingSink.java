@@ -0,0 +1,289 @@
+package com.example.mobile.samplecamera2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+//
+// Rolling segment recorder stage between SampleEncoderDrain and the file muxers
+//
+// How to use
+// 1. Create with output directory, file name prefix/suffix and a SegmentFactory creating one
+//    SampleMuxerSink per file. Set limits with setSegmentDuration()/setSegmentSize()/setDiskQuota().
+// 2. Pass it to SampleEncoderDrain as sink.
+// 3. A new segment is started at the first key frame after the current one reached its duration
+//    or size limit, so every segment starts with a key frame and no frame is dropped.
+//    SegmentListener.onSegmentFull() can hold the rotation off, e.g. to stop() the sink there
+//    and start() it again for an encoder with another format.
+// 4. Next segment is opened ahead of time on the background executor. Finished segments are
+//    stopped (MediaMuxer writes its index then) on the same executor, then the oldest finished
+//    segments are deleted while all of them together exceed the disk quota.
+//
+// Codec config samples are remembered and written again at the start of each segment.
+//
+
+public class SampleSegmentingSink<F> implements SampleMuxerSink<F> {
+    public interface SegmentFactory<F> {
+        // Called on background executor, must not start the sink
+        SampleMuxerSink<F> create(File file) throws IOException;
+
+        // Release a sink that was created but never started
+        void discard(SampleMuxerSink<F> sink);
+    }
+
+    public interface SegmentListener {
+        // Called on the writing thread before the first key frame of the segment is written
+        void onSegmentStarted(File file, long startUs);
+
+        // Called on the writing thread at a key frame once the segment is full. false keeps the
+        // key frame in the current segment, asked again at the next one.
+        boolean onSegmentFull(File file, long timeUs);
+
+        // Called on background executor once the segment file is complete
+        void onSegmentFinished(File file, long durationUs, long bytes);
+    }
+
+    private final File directory;
+    private final String prefix;
+    private final String suffix;
+    private final SegmentFactory<F> factory;
+    private final Executor background;
+    private SegmentListener listener = null;
+
+    private long maxDurationUs = 60 * 1000000L;
+    private long maxBytes = 0; // 0 = no size limit
+    private long quotaBytes = 0; // 0 = no quota
+
+    private F format = null;
+    private int sequence = 0;
+    private SampleMuxerSink<F> current = null;
+    private File currentFile = null;
+    private long segmentStartUs = -1;
+    private long segmentLastUs = 0;
+    private long segmentBytes = 0;
+    private FutureTask<SampleMuxerSink<F>> next = null;
+    private File nextFile = null;
+    private ByteBuffer codecConfig = null;
+    private final SampleBufferInfo codecConfigInfo = new SampleBufferInfo();
+
+    // Finished segments, oldest first. Guarded by itself.
+    private final ArrayDeque<File> finishedSegments = new ArrayDeque<File>();
+    private volatile int segmentCount = 0;
+    private volatile long deletedCount = 0;
+
+    public SampleSegmentingSink(File directory, String prefix, String suffix,
+                                SegmentFactory<F> factory, Executor background) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.factory = factory;
+        this.background = background;
+    }
+
+    public void setSegmentDuration(long durationUs) {
+        maxDurationUs = durationUs;
+    }
+
+    public void setSegmentSize(long bytes) {
+        maxBytes = bytes;
+    }
+
+    public void setDiskQuota(long bytes) {
+        quotaBytes = bytes;
+    }
+
+    public void setSegmentListener(SegmentListener segmentListener) {
+        listener = segmentListener;
+    }
+
+    @Override
+    public void start(F f) {
+        // Started again after stop() for a new encoder: numbering and quota go on, codec config
+        // of the old encoder is not valid anymore
+        format = f;
+        codecConfig = null;
+        prepareNext();
+        openNext();
+    }
+
+    @Override
+    public void writeSampleData(ByteBuffer data, SampleBufferInfo info) {
+        if (info.isCodecConfig()) {
+            rememberCodecConfig(data, info);
+        } else if (info.isKeyFrame()) {
+            if (current == null) {
+                // Previous open failed, try again
+                openNext();
+            } else if (segmentStartUs >= 0 && isSegmentFull(info.presentationTimeUs)
+                    && (listener == null || listener.onSegmentFull(currentFile, info.presentationTimeUs))) {
+                rotate();
+            }
+        }
+        if (current == null) {
+            return;
+        }
+        if (!info.isCodecConfig() && segmentStartUs < 0) {
+            segmentStartUs = info.presentationTimeUs;
+            if (listener != null) {
+                listener.onSegmentStarted(currentFile, segmentStartUs);
+            }
+        }
+        current.writeSampleData(data, info);
+        segmentBytes += info.size;
+        segmentLastUs = info.presentationTimeUs;
+    }
+
+    @Override
+    public void stop() {
+        finishCurrent();
+        if (next != null) {
+            // Segment opened ahead of time is not needed anymore
+            final FutureTask<SampleMuxerSink<F>> unused = next;
+            final File unusedFile = nextFile;
+            next = null;
+            background.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        factory.discard(unused.get());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        // Nothing was created
+                    }
+                    unusedFile.delete();
+                }
+            });
+        }
+    }
+
+    private boolean isSegmentFull(long timeUs) {
+        if (maxDurationUs > 0 && timeUs - segmentStartUs >= maxDurationUs) {
+            return true;
+        }
+        return maxBytes > 0 && segmentBytes >= maxBytes;
+    }
+
+    private void rotate() {
+        finishCurrent();
+        openNext();
+    }
+
+    // Take the segment prepared ahead of time and start preparing the one after it
+    private void openNext() {
+        try {
+            current = next.get();
+            currentFile = nextFile;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            current = null;
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            current = null;
+        }
+        next = null;
+        if (current == null) {
+            // Try again on next key frame
+            prepareNext();
+            return;
+        }
+        current.start(format);
+        segmentStartUs = -1;
+        segmentBytes = 0;
+        if (codecConfig != null) {
+            codecConfig.position(0);
+            current.writeSampleData(codecConfig, codecConfigInfo);
+        }
+        prepareNext();
+    }
+
+    private void prepareNext() {
+        final File file = new File(directory, String.format(Locale.US, "%s_%04d%s", prefix, sequence++, suffix));
+        nextFile = file;
+        next = new FutureTask<SampleMuxerSink<F>>(new Callable<SampleMuxerSink<F>>() {
+            @Override
+            public SampleMuxerSink<F> call() throws IOException {
+                return factory.create(file);
+            }
+        });
+        background.execute(next);
+    }
+
+    private void finishCurrent() {
+        if (current == null) {
+            return;
+        }
+        final SampleMuxerSink<F> finished = current;
+        final File finishedFile = currentFile;
+        final long durationUs = segmentStartUs >= 0 ? segmentLastUs - segmentStartUs : 0;
+        current = null;
+        currentFile = null;
+        segmentCount++;
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                finished.stop();
+                if (listener != null) {
+                    listener.onSegmentFinished(finishedFile, durationUs, finishedFile.length());
+                }
+                synchronized (finishedSegments) {
+                    finishedSegments.add(finishedFile);
+                }
+                enforceQuota();
+            }
+        });
+    }
+
+    private void enforceQuota() {
+        if (quotaBytes <= 0) {
+            return;
+        }
+        synchronized (finishedSegments) {
+            long total = 0;
+            for (File file : finishedSegments) {
+                total += file.length();
+            }
+            while (total > quotaBytes && !finishedSegments.isEmpty()) {
+                File oldest = finishedSegments.poll();
+                total -= oldest.length();
+                if (oldest.delete()) {
+                    deletedCount++;
+                }
+            }
+        }
+    }
+
+    private void rememberCodecConfig(ByteBuffer data, SampleBufferInfo info) {
+        if (codecConfig == null || codecConfig.capacity() < info.size) {
+            codecConfig = ByteBuffer.allocateDirect(info.size);
+        }
+        codecConfig.clear();
+        int position = data.position();
+        codecConfig.put(data);
+        data.position(position);
+        codecConfig.flip();
+        codecConfigInfo.set(0, info.size, info.presentationTimeUs, info.flags);
+    }
+
+    public List<File> getFinishedSegments() {
+        synchronized (finishedSegments) {
+            return new ArrayList<File>(finishedSegments);
+        }
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public long getDeletedCount() {
+        return deletedCount;
+    }
+}
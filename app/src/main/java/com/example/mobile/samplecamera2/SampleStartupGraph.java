@@ -0,0 +1,271 @@
+package com.example.mobile.samplecamera2;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+//
+// Startup work as a small dependency graph, every task runs on its executor as soon as all of its
+// dependencies are finished, so independent work (camera open, encoder configure, GL context) overlaps.
+//
+// Task nodes run a Runnable, finished when it returns. Event nodes have no code, they finish when
+// complete() is called from outside (camera opened, GL surface created) and their dependencies are
+// finished. A node whose task throws fails, its dependents fail without running.
+// Markers record milestones after startup (first preview frame, first recorded frame).
+// All times are nanoseconds since the graph was created.
+//
+// How to use
+// 1. add() / addEvent() nodes, dependencies before dependents.
+// 2. start(), then complete() events and mark() milestones from any thread.
+// 3. toString() for the timeline, await() in tests.
+//
+
+public class SampleStartupGraph {
+    public interface Listener {
+        // failure is null on success. Runs on the thread that finished the node.
+        void onNodeFinished(String name, long endNs, Throwable failure);
+
+        void onMarker(String name, long timeNs);
+    }
+
+    private static class Node {
+        final String name;
+        final Executor executor;
+        final Runnable task;
+        final List<Node> dependents = new ArrayList<Node>();
+        int pendingDependencies = 0;
+        boolean signaled = false;
+        boolean ready = false;
+        long startNs = -1;
+        long endNs = -1;
+        Throwable failure = null;
+
+        Node(String name, Executor executor, Runnable task) {
+            this.name = name;
+            this.executor = executor;
+            this.task = task;
+        }
+
+        boolean isEvent() {
+            return task == null;
+        }
+    }
+
+    private final long originNs = System.nanoTime();
+    private final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+    private final Map<String, Long> markers = new LinkedHashMap<String, Long>();
+    private Listener listener = null;
+    private boolean started = false;
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void add(String name, Executor executor, Runnable task, String... dependencies) {
+        if (executor == null || task == null) {
+            throw new IllegalArgumentException("Task " + name + " needs executor and task");
+        }
+        addNode(new Node(name, executor, task), dependencies);
+    }
+
+    public void addEvent(String name, String... dependencies) {
+        addNode(new Node(name, null, null), dependencies);
+    }
+
+    private synchronized void addNode(Node node, String[] dependencies) {
+        if (started) {
+            throw new IllegalStateException("Graph already started, cannot add " + node.name);
+        }
+        if (nodes.containsKey(node.name)) {
+            throw new IllegalArgumentException("Duplicate node " + node.name);
+        }
+        for (String dependency : dependencies) {
+            Node parent = nodes.get(dependency);
+            if (parent == null) {
+                throw new IllegalArgumentException("Unknown dependency " + dependency + " of " + node.name);
+            }
+            parent.dependents.add(node);
+            node.pendingDependencies++;
+        }
+        nodes.put(node.name, node);
+    }
+
+    public void start() {
+        List<Node> ready = new ArrayList<Node>();
+        synchronized (this) {
+            if (started) {
+                return;
+            }
+            started = true;
+            for (Node node : nodes.values()) {
+                if (node.pendingDependencies == 0) {
+                    ready.add(node);
+                }
+            }
+        }
+        dispatch(ready);
+    }
+
+    // Event happened, node finishes now or once its dependencies are finished. Repeated calls are ignored.
+    public void complete(String name) {
+        Node node;
+        synchronized (this) {
+            node = nodes.get(name);
+            if (node == null || !node.isEvent()) {
+                throw new IllegalArgumentException("No event " + name);
+            }
+            if (node.signaled) {
+                return;
+            }
+            node.signaled = true;
+            if (!node.ready) {
+                return;
+            }
+        }
+        finish(node, null);
+    }
+
+    // Record milestone, only the first call of a name counts
+    public void mark(String name) {
+        long timeNs;
+        Listener markerListener;
+        synchronized (this) {
+            if (markers.containsKey(name)) {
+                return;
+            }
+            timeNs = System.nanoTime() - originNs;
+            markers.put(name, timeNs);
+            markerListener = listener;
+            notifyAll();
+        }
+        if (markerListener != null) {
+            markerListener.onMarker(name, timeNs);
+        }
+    }
+
+    public synchronized boolean isFinished(String name) {
+        Node node = nodes.get(name);
+        return node != null && node.endNs >= 0;
+    }
+
+    public synchronized Throwable getFailure(String name) {
+        Node node = nodes.get(name);
+        return node == null ? null : node.failure;
+    }
+
+    // End time of node or time of marker, -1 if not reached (yet)
+    public synchronized long getTimeNs(String name) {
+        Node node = nodes.get(name);
+        if (node != null) {
+            return node.endNs;
+        }
+        Long timeNs = markers.get(name);
+        return timeNs == null ? -1 : timeNs;
+    }
+
+    // Wait until node is finished or marker is recorded, false on timeout
+    public synchronized boolean await(String name, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (getTimeNs(name) < 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    private void dispatch(List<Node> ready) {
+        for (final Node node : ready) {
+            if (node.isEvent()) {
+                boolean signaled;
+                synchronized (this) {
+                    node.ready = true;
+                    signaled = node.signaled;
+                }
+                if (signaled) {
+                    finish(node, null);
+                }
+                continue;
+            }
+            node.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (SampleStartupGraph.this) {
+                        node.startNs = System.nanoTime() - originNs;
+                    }
+                    RuntimeException failure = null;
+                    try {
+                        node.task.run();
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                    finish(node, failure);
+                }
+            });
+        }
+    }
+
+    private void finish(Node node, Throwable failure) {
+        List<Node> ready = new ArrayList<Node>();
+        List<Node> finished = new ArrayList<Node>();
+        Listener nodeListener;
+        synchronized (this) {
+            if (node.endNs >= 0) {
+                return;
+            }
+            finishLocked(node, failure, ready, finished);
+            nodeListener = listener;
+            notifyAll();
+        }
+        if (nodeListener != null) {
+            for (Node done : finished) {
+                nodeListener.onNodeFinished(done.name, done.endNs, done.failure);
+            }
+        }
+        dispatch(ready);
+    }
+
+    private void finishLocked(Node node, Throwable failure, List<Node> ready, List<Node> finished) {
+        node.endNs = System.nanoTime() - originNs;
+        node.failure = failure;
+        finished.add(node);
+        for (Node dependent : node.dependents) {
+            if (dependent.endNs >= 0) {
+                continue;
+            }
+            if (failure != null) {
+                finishLocked(dependent, new IllegalStateException("Dependency " + node.name + " failed", failure),
+                        ready, finished);
+            } else if (--dependent.pendingDependencies == 0) {
+                ready.add(dependent);
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("Startup ms:");
+        for (Node node : nodes.values()) {
+            builder.append(' ').append(node.name).append(' ');
+            if (node.startNs >= 0) {
+                builder.append(node.startNs / 1000000).append('-');
+            }
+            builder.append(node.endNs < 0 ? "pending" : Long.toString(node.endNs / 1000000));
+            if (node.failure != null) {
+                builder.append(" failed");
+            }
+            builder.append(',');
+        }
+        for (Map.Entry<String, Long> marker : markers.entrySet()) {
+            builder.append(' ').append(marker.getKey()).append(' ').append(marker.getValue() / 1000000).append(',');
+        }
+        if (builder.charAt(builder.length() - 1) == ',') {
+            builder.setLength(builder.length() - 1);
+        }
+        return builder.toString();
+    }
+}
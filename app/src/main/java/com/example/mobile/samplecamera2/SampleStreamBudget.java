@@ -0,0 +1,112 @@
+package com.example.mobile.samplecamera2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//
+// Pick stream sizes of concurrently running cameras within a shared pixel rate budget
+//
+// Each camera starts at the smallest size that covers its region of the output (bigger streams
+// only cost bandwidth), or its largest size if none does. While the total pixel rate is over the
+// budget, the camera with the most pixels per unit of output area is stepped down one size, so a
+// small inset gives way before the full-screen camera.
+//
+// How to use
+// 1. add() every output size of each camera (StreamConfigurationMap.getOutputSizes()) with its
+//    minimum frame duration. Sizes too slow for fps are ignored.
+// 2. select() with the output region size and area weight of each camera, see SampleCameraLayout.
+//    Returns width, height per camera, null if a camera has no size for fps.
+//
+
+public class SampleStreamBudget {
+    private final long pixelsPerSecond;
+    private final int fps;
+    private final List<List<int[]>> cameraSizes = new ArrayList<List<int[]>>();
+
+    public SampleStreamBudget(long pixelsPerSecond, int fps) {
+        this.pixelsPerSecond = pixelsPerSecond;
+        this.fps = fps;
+    }
+
+    public void add(int camera, int width, int height, long minFrameDurationNs) {
+        while (cameraSizes.size() <= camera) {
+            cameraSizes.add(new ArrayList<int[]>());
+        }
+        if (minFrameDurationNs > 1000000000L / fps) {
+            return;
+        }
+        // Ascending by area
+        List<int[]> sizes = cameraSizes.get(camera);
+        int i = 0;
+        while (i < sizes.size() && sizes.get(i)[0] * sizes.get(i)[1] < width * height) {
+            i++;
+        }
+        sizes.add(i, new int[] {width, height});
+    }
+
+    // regionSizes: width, height in output pixels per camera. weights: share of output area.
+    public int[] select(int[] regionSizes, float[] weights) {
+        int count = weights.length;
+        int[] choice = new int[count];
+        for (int i = 0; i < count; i++) {
+            List<int[]> sizes = i < cameraSizes.size() ? cameraSizes.get(i) : null;
+            if (sizes == null || sizes.isEmpty()) {
+                return null;
+            }
+            choice[i] = sizes.size() - 1;
+            for (int j = 0; j < sizes.size(); j++) {
+                if (sizes.get(j)[0] >= regionSizes[i * 2] && sizes.get(j)[1] >= regionSizes[i * 2 + 1]) {
+                    choice[i] = j;
+                    break;
+                }
+            }
+        }
+        while (getChoiceRate(choice) > pixelsPerSecond) {
+            int step = -1;
+            float worst = 0f;
+            for (int i = 0; i < count; i++) {
+                if (choice[i] == 0) {
+                    continue;
+                }
+                float perArea = area(i, choice[i]) / Math.max(weights[i], 1e-3f);
+                if (step < 0 || perArea > worst) {
+                    step = i;
+                    worst = perArea;
+                }
+            }
+            if (step < 0) {
+                break; // Smallest sizes, over budget still
+            }
+            choice[step]--;
+        }
+        int[] result = new int[count * 2];
+        for (int i = 0; i < count; i++) {
+            int[] size = cameraSizes.get(i).get(choice[i]);
+            result[i * 2] = size[0];
+            result[i * 2 + 1] = size[1];
+        }
+        return result;
+    }
+
+    private float area(int camera, int index) {
+        int[] size = cameraSizes.get(camera).get(index);
+        return (float) size[0] * size[1];
+    }
+
+    private long getChoiceRate(int[] choice) {
+        long rate = 0;
+        for (int i = 0; i < choice.length; i++) {
+            rate += (long) area(i, choice[i]) * fps;
+        }
+        return rate;
+    }
+
+    // Pixel rate of select() result
+    public long getPixelRate(int[] sizes) {
+        long rate = 0;
+        for (int i = 0; i < sizes.length / 2; i++) {
+            rate += (long) sizes[i * 2] * sizes[i * 2 + 1] * fps;
+        }
+        return rate;
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.mobile.samplecamera2;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+//
+// Fan out encoded samples to several sinks, in order. Sinks must not keep data past the call
+// and must leave its position where it was.
+//
+
+public class SampleTeeSink<F> implements SampleMuxerSink<F> {
+    private final List<SampleMuxerSink<F>> sinks;
+
+    public SampleTeeSink(List<SampleMuxerSink<F>> sinks) {
+        this.sinks = new ArrayList<SampleMuxerSink<F>>(sinks);
+    }
+
+    @Override
+    public void start(F format) {
+        for (int i = 0; i < sinks.size(); i++) {
+            sinks.get(i).start(format);
+        }
+    }
+
+    @Override
+    public void writeSampleData(ByteBuffer data, SampleBufferInfo info) {
+        int position = data.position();
+        int limit = data.limit();
+        // Indexed, no iterator per sample
+        for (int i = 0; i < sinks.size(); i++) {
+            data.limit(limit);
+            data.position(position);
+            sinks.get(i).writeSampleData(data, info);
+        }
+    }
+
+    @Override
+    public void stop() {
+        for (int i = 0; i < sinks.size(); i++) {
+            sinks.get(i).stop();
+        }
+    }
+}
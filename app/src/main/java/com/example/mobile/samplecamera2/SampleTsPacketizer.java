@@ -0,0 +1,194 @@
+package com.example.mobile.samplecamera2;
+
+import java.nio.ByteBuffer;
+
+//
+// H.264 access units to MPEG-2 transport stream packets, one program with one video stream
+//
+// Every access unit becomes one PES packet (PTS only, no B-frames) starting with an access
+// unit delimiter. Key frames are preceded by PAT and PMT and carry SPS/PPS in band, a receiver
+// can join the stream at any key frame. The first packet of each access unit has the PCR in its
+// adaptation field. PCR is the frame time, PTS is PTS_DELAY later (decoder buffering).
+//
+// How to use
+// 1. setCodecConfig() with the codec config sample (Annex B SPS and PPS).
+// 2. packetize() each access unit (Annex B) into a buffer of at least getMaxSize() bytes.
+//
+
+public class SampleTsPacketizer {
+    public static final int PACKET_SIZE = 188;
+    public static final int PID_PAT = 0;
+    public static final int PID_PMT = 0x1000;
+    public static final int PID_VIDEO = 0x100;
+    public static final int PTS_DELAY = 9000; // 100ms in 90kHz
+    private static final int PAYLOAD_SIZE = PACKET_SIZE - 4;
+    private static final int STREAM_TYPE_H264 = 0x1b;
+    private static final int PES_HEADER_SIZE = 14;
+    private static final byte[] ACCESS_UNIT_DELIMITER = {0, 0, 0, 1, 0x09, (byte) 0xf0};
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 24;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04c11db7 : crc << 1;
+            }
+            CRC_TABLE[i] = crc;
+        }
+    }
+
+    private final int[] continuityCounters = new int[0x2000];
+    private byte[] codecConfig = new byte[0];
+    private ByteBuffer pes = ByteBuffer.allocate(64 * 1024);
+
+    public void setCodecConfig(ByteBuffer data) {
+        codecConfig = new byte[data.remaining()];
+        data.duplicate().get(codecConfig);
+    }
+
+    // Bytes packetize() writes at most for an access unit of sampleSize bytes
+    public int getMaxSize(int sampleSize) {
+        int pesSize = PES_HEADER_SIZE + ACCESS_UNIT_DELIMITER.length + codecConfig.length + sampleSize;
+        // PAT, PMT and a packet more for the PCR
+        return (pesSize / PAYLOAD_SIZE + 4) * PACKET_SIZE;
+    }
+
+    // Appends the packets of the access unit at the position of out, returns the number of bytes.
+    // Position of sample is not changed.
+    public int packetize(ByteBuffer sample, long timeUs, boolean keyFrame, ByteBuffer out) {
+        int start = out.position();
+        if (keyFrame) {
+            writePat(out);
+            writePmt(out);
+        }
+        long pcrBase = timeUs * 9 / 100;
+        long pts = pcrBase + PTS_DELAY;
+
+        int pesSize = PES_HEADER_SIZE + ACCESS_UNIT_DELIMITER.length
+                + (keyFrame ? codecConfig.length : 0) + sample.remaining();
+        if (pes.capacity() < pesSize) {
+            pes = ByteBuffer.allocate(Math.max(pesSize, pes.capacity() * 2));
+        }
+        pes.clear();
+        pes.put((byte) 0).put((byte) 0).put((byte) 1).put((byte) 0xe0); // video stream 0
+        pes.putShort((short) 0); // Unbounded length, allowed for video
+        pes.put((byte) 0x80); // marker bits
+        pes.put((byte) 0x80); // PTS only
+        pes.put((byte) 5);
+        putTimestamp(pes, 0x20, pts);
+        pes.put(ACCESS_UNIT_DELIMITER);
+        if (keyFrame) {
+            pes.put(codecConfig);
+        }
+        int position = sample.position();
+        pes.put(sample);
+        sample.position(position);
+        pes.flip();
+
+        boolean first = true;
+        while (pes.hasRemaining()) {
+            // Adaptation field with PCR on the first packet, stuffing on the last one
+            int adaptation = first ? 8 : 0;
+            int payload = Math.min(pes.remaining(), PAYLOAD_SIZE - adaptation);
+            int stuffing = PAYLOAD_SIZE - adaptation - payload;
+            adaptation += stuffing;
+            putHeader(out, PID_VIDEO, first, adaptation > 0);
+            if (adaptation > 0) {
+                out.put((byte) (adaptation - 1));
+                if (adaptation > 1) {
+                    int flags = first ? 0x10 : 0; // PCR
+                    if (first && keyFrame) {
+                        flags |= 0x40; // random access
+                    }
+                    out.put((byte) flags);
+                    int fill = adaptation - 2;
+                    if (first) {
+                        putPcr(out, pcrBase);
+                        fill -= 6;
+                    }
+                    for (int i = 0; i < fill; i++) {
+                        out.put((byte) 0xff);
+                    }
+                }
+            }
+            int limit = pes.limit();
+            pes.limit(pes.position() + payload);
+            out.put(pes);
+            pes.limit(limit);
+            first = false;
+        }
+        return out.position() - start;
+    }
+
+    private void putHeader(ByteBuffer out, int pid, boolean unitStart, boolean adaptation) {
+        out.put((byte) 0x47);
+        out.put((byte) ((unitStart ? 0x40 : 0) | (pid >> 8)));
+        out.put((byte) pid);
+        out.put((byte) ((adaptation ? 0x30 : 0x10) | continuityCounters[pid]));
+        continuityCounters[pid] = (continuityCounters[pid] + 1) & 0x0f;
+    }
+
+    private void writePat(ByteBuffer out) {
+        int start = startSection(out, PID_PAT, 0x00);
+        out.putShort((short) 1); // transport stream id
+        out.put((byte) 0xc1).put((byte) 0).put((byte) 0);
+        out.putShort((short) 1); // program 1
+        out.putShort((short) (0xe000 | PID_PMT));
+        endSection(out, start);
+    }
+
+    private void writePmt(ByteBuffer out) {
+        int start = startSection(out, PID_PMT, 0x02);
+        out.putShort((short) 1); // program 1
+        out.put((byte) 0xc1).put((byte) 0).put((byte) 0);
+        out.putShort((short) (0xe000 | PID_VIDEO)); // PCR PID
+        out.putShort((short) 0xf000); // no program info
+        out.put((byte) STREAM_TYPE_H264);
+        out.putShort((short) (0xe000 | PID_VIDEO));
+        out.putShort((short) 0xf000);
+        endSection(out, start);
+    }
+
+    // Packet header, pointer field, table id and a section length placeholder
+    private int startSection(ByteBuffer out, int pid, int tableId) {
+        putHeader(out, pid, true, false);
+        out.put((byte) 0);
+        int start = out.position();
+        out.put((byte) tableId);
+        out.putShort((short) 0);
+        return start;
+    }
+
+    // Section length, CRC and stuffing to the packet end
+    private void endSection(ByteBuffer out, int start) {
+        int length = out.position() - start - 3 + 4;
+        out.putShort(start + 1, (short) (0xb000 | length));
+        out.putInt(crc32(out, start, out.position()));
+        int packetEnd = start - 5 + PACKET_SIZE;
+        while (out.position() < packetEnd) {
+            out.put((byte) 0xff);
+        }
+    }
+
+    private static void putTimestamp(ByteBuffer out, int prefix, long time) {
+        out.put((byte) (prefix | ((time >> 29) & 0x0e) | 1));
+        out.putShort((short) (((time >> 14) & 0xfffe) | 1));
+        out.putShort((short) (((time << 1) & 0xfffe) | 1));
+    }
+
+    private static void putPcr(ByteBuffer out, long base) {
+        base &= 0x1ffffffffL;
+        out.putInt((int) (base >> 1));
+        out.put((byte) (((base & 1) << 7) | 0x7e)); // reserved bits, extension 0
+        out.put((byte) 0);
+    }
+
+    // MPEG-2 CRC32 of a section, for receivers checking PAT and PMT
+    public static int crc32(ByteBuffer data, int start, int end) {
+        int crc = 0xffffffff;
+        for (int i = start; i < end; i++) {
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ data.get(i)) & 0xff];
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,290 @@
+package com.example.mobile.samplecamera2;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+//
+// SampleMuxerSink streaming the encoded video as MPEG-TS (SampleTsPacketizer) over TCP or UDP
+//
+// The channel is non-blocking, writeSampleData() queues the packets of the access unit and
+// writes as much of the queue as the socket takes, it never waits for the network. The queue
+// holds at most queueBytes. When it is full:
+// - a non-reference frame (nal_ref_idc 0) is dropped,
+// - a reference frame first drops the queued non-reference frames, a key frame all queued
+//   frames not being sent yet,
+// - a reference frame that still does not fit is dropped and the stream continues at the next
+//   key frame, KeyFrameRequestListener can ask the encoder for one right away.
+//
+// How to use
+// 1. openTcp() / openUdp() (non-blocking connect) or create with a non-blocking channel.
+// 2. Pass it to SampleEncoderDrain as sink, e.g. in a SampleTeeSink next to the file muxer.
+// 3. stop() sends what is queued for at most STOP_FLUSH_MS and closes the channel.
+//
+
+public class SampleTsStreamSink<F> implements SampleMuxerSink<F> {
+    // 7 TS packets per datagram fit an ethernet MTU
+    public static final int DATAGRAM_SIZE = 7 * SampleTsPacketizer.PACKET_SIZE;
+    public static final long STOP_FLUSH_MS = 200;
+    private static final int MIN_CHUNK_SIZE = 32 * 1024;
+
+    public interface KeyFrameRequestListener {
+        // Called on the drain thread when frames up to the next key frame are dropped
+        void onKeyFrameRequest();
+    }
+
+    private static class Chunk {
+        ByteBuffer data;
+        boolean reference;
+    }
+
+    private final WritableByteChannel channel;
+    private final int writeSize;
+    private final long queueBytes;
+    private final SampleTsPacketizer packetizer = new SampleTsPacketizer();
+    private final ArrayDeque<Chunk> queue = new ArrayDeque<Chunk>();
+    private final ArrayDeque<Chunk> freeChunks = new ArrayDeque<Chunk>();
+    private KeyFrameRequestListener keyFrameRequestListener = null;
+
+    private long queuedBytes = 0;
+    private boolean waitForKeyFrame = true;
+    private boolean failed = false;
+    private volatile long sentFrames = 0;
+    private volatile long droppedFrames = 0;
+    private volatile long sentBytes = 0;
+
+    // writeSize: bytes per write, DATAGRAM_SIZE for datagram channels, 0 for streams
+    public SampleTsStreamSink(WritableByteChannel channel, int writeSize, long queueBytes) {
+        this.channel = channel;
+        this.writeSize = writeSize;
+        this.queueBytes = queueBytes;
+    }
+
+    public static <F> SampleTsStreamSink<F> openTcp(InetSocketAddress address, long queueBytes)
+            throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            // Completed by the first writes, frames are queued until then
+            channel.connect(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new SampleTsStreamSink<F>(channel, 0, queueBytes);
+    }
+
+    public static <F> SampleTsStreamSink<F> openUdp(InetSocketAddress address, long queueBytes)
+            throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.connect(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new SampleTsStreamSink<F>(channel, DATAGRAM_SIZE, queueBytes);
+    }
+
+    public void setKeyFrameRequestListener(KeyFrameRequestListener listener) {
+        keyFrameRequestListener = listener;
+    }
+
+    @Override
+    public void start(F format) {
+    }
+
+    @Override
+    public void writeSampleData(ByteBuffer data, SampleBufferInfo info) {
+        if (failed) {
+            droppedFrames++;
+            return;
+        }
+        if (info.isCodecConfig()) {
+            packetizer.setCodecConfig(data);
+            return;
+        }
+        boolean keyFrame = info.isKeyFrame();
+        boolean reference = keyFrame || isReference(data);
+        int size = packetizer.getMaxSize(info.size);
+        if ((waitForKeyFrame && !keyFrame) || !makeRoom(size, keyFrame, reference)) {
+            droppedFrames++;
+            if (reference && !waitForKeyFrame) {
+                // Following frames refer to this one, nothing to send until the next key frame
+                waitForKeyFrame = true;
+                if (keyFrameRequestListener != null) {
+                    keyFrameRequestListener.onKeyFrameRequest();
+                }
+            }
+            flush();
+            return;
+        }
+        waitForKeyFrame = false;
+        Chunk chunk = obtainChunk(size);
+        chunk.reference = reference;
+        queuedBytes += packetizer.packetize(data, info.presentationTimeUs, keyFrame, chunk.data);
+        chunk.data.flip();
+        queue.add(chunk);
+        flush();
+    }
+
+    @Override
+    public void stop() {
+        long deadline = System.nanoTime() + STOP_FLUSH_MS * 1000000L;
+        flush();
+        while (!queue.isEmpty() && !failed && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            flush();
+        }
+        droppedFrames += queue.size();
+        queue.clear();
+        queuedBytes = 0;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public long getSentFrames() {
+        return sentFrames;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    // Drain thread only
+    public long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    private boolean makeRoom(int size, boolean keyFrame, boolean reference) {
+        if (queuedBytes + size <= queueBytes) {
+            return true;
+        }
+        if (!reference) {
+            return false;
+        }
+        dropQueued(false);
+        if (queuedBytes + size <= queueBytes) {
+            return true;
+        }
+        if (!keyFrame) {
+            return false;
+        }
+        // Frames before a key frame are stale, a key frame goes out even if bigger than the queue
+        dropQueued(true);
+        return true;
+    }
+
+    // Drop queued frames not being sent yet, non-reference ones only unless all
+    private void dropQueued(boolean all) {
+        Iterator<Chunk> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            Chunk chunk = iterator.next();
+            if (chunk.data.position() > 0 || (chunk.reference && !all)) {
+                continue;
+            }
+            iterator.remove();
+            queuedBytes -= chunk.data.remaining();
+            droppedFrames++;
+            freeChunks.add(chunk);
+        }
+    }
+
+    private Chunk obtainChunk(int size) {
+        Iterator<Chunk> iterator = freeChunks.iterator();
+        while (iterator.hasNext()) {
+            Chunk chunk = iterator.next();
+            if (chunk.data.capacity() >= size) {
+                iterator.remove();
+                chunk.data.clear();
+                return chunk;
+            }
+        }
+        Chunk chunk = new Chunk();
+        chunk.data = ByteBuffer.allocateDirect(Math.max(size, MIN_CHUNK_SIZE));
+        return chunk;
+    }
+
+    // Write queued packets until the socket takes no more
+    private void flush() {
+        try {
+            if (channel instanceof SocketChannel && ((SocketChannel) channel).isConnectionPending()
+                    && !((SocketChannel) channel).finishConnect()) {
+                return;
+            }
+            while (!queue.isEmpty()) {
+                Chunk head = queue.peek();
+                ByteBuffer data = head.data;
+                int limit = data.limit();
+                if (writeSize > 0) {
+                    data.limit(Math.min(limit, data.position() + writeSize));
+                }
+                int written;
+                try {
+                    written = channel.write(data);
+                } catch (PortUnreachableException e) {
+                    // Nobody listening (yet), the datagram is lost like any other
+                    written = data.remaining();
+                    data.position(data.limit());
+                }
+                data.limit(limit);
+                if (written == 0) {
+                    return;
+                }
+                sentBytes += written;
+                queuedBytes -= written;
+                if (!data.hasRemaining()) {
+                    queue.poll();
+                    freeChunks.add(head);
+                    sentFrames++;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            failed = true;
+            droppedFrames += queue.size();
+            queue.clear();
+            queuedBytes = 0;
+        }
+    }
+
+    // nal_ref_idc of the first slice, true if no slice is found
+    static boolean isReference(ByteBuffer data) {
+        int end = data.limit();
+        for (int i = data.position(); i + 3 < end; i++) {
+            if (data.get(i) == 0 && data.get(i + 1) == 0 && data.get(i + 2) == 1) {
+                int header = data.get(i + 3);
+                int type = header & 0x1f;
+                if (type >= 1 && type <= 5) {
+                    return (header & 0x60) != 0;
+                }
+                i += 3;
+            }
+        }
+        return true;
+    }
+}
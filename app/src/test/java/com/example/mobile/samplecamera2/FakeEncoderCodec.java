@@ -0,0 +1,153 @@
+package com.example.mobile.samplecamera2;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//
+// SampleEncoderCodec fake for JVM tests. Callbacks are delivered on one executor thread like
+// MediaCodec does on its looper. Frames queued after signalEndOfInputStream() are dropped,
+// like frames rendered to a closed input surface.
+//
+
+public class FakeEncoderCodec implements SampleEncoderCodec<String> {
+    public static final String FORMAT = "video/fake";
+
+    private final ExecutorService callbackThread = Executors.newSingleThreadExecutor();
+    private final ByteBuffer[] outputBuffers;
+    private final boolean[] outputBufferBusy;
+    private volatile Callback callback;
+    private boolean inputClosed = false;
+    private boolean formatSent = false;
+    private long nextTimeUs = 0;
+
+    public final AtomicInteger eosSignalCount = new AtomicInteger();
+    public final AtomicInteger outstandingBuffers = new AtomicInteger();
+    public volatile boolean started = false;
+    public volatile boolean stopped = false;
+    public volatile boolean released = false;
+
+    public FakeEncoderCodec(int bufferCount, int bufferSize) {
+        outputBuffers = new ByteBuffer[bufferCount];
+        outputBufferBusy = new boolean[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            outputBuffers[i] = ByteBuffer.allocateDirect(bufferSize);
+        }
+    }
+
+    // Queue one encoded frame. Returns false if the input surface is already closed.
+    public synchronized boolean queueFrame(final int size, final int flags) {
+        if (inputClosed || !started) {
+            return false;
+        }
+        final long timeUs = nextTimeUs;
+        nextTimeUs += 33333;
+        callbackThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(size, timeUs, flags);
+            }
+        });
+        return true;
+    }
+
+    public void failWith(final Exception e) {
+        callbackThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onError(e);
+            }
+        });
+    }
+
+    public void shutdown() {
+        callbackThread.shutdownNow();
+    }
+
+    private void deliver(int size, long timeUs, int flags) {
+        if (stopped) {
+            return;
+        }
+        if (!formatSent) {
+            formatSent = true;
+            callback.onOutputFormatChanged();
+        }
+        int index = acquireIndex();
+        ByteBuffer buffer = outputBuffers[index];
+        buffer.clear();
+        for (int i = 0; i < size; i++) {
+            buffer.put((byte) timeUs);
+        }
+        SampleBufferInfo info = new SampleBufferInfo();
+        info.set(0, size, timeUs, flags);
+        outstandingBuffers.incrementAndGet();
+        callback.onOutputBufferAvailable(index, info);
+    }
+
+    private synchronized int acquireIndex() {
+        for (int i = 0; i < outputBufferBusy.length; i++) {
+            if (!outputBufferBusy[i]) {
+                outputBufferBusy[i] = true;
+                return i;
+            }
+        }
+        throw new IllegalStateException("all output buffers held by the client");
+    }
+
+    @Override
+    public void setCallback(Callback cb) {
+        callback = cb;
+    }
+
+    @Override
+    public synchronized void start() {
+        started = true;
+    }
+
+    @Override
+    public synchronized void signalEndOfInputStream() {
+        if (!started) {
+            // Like MediaCodec in configured state
+            throw new IllegalStateException("not started");
+        }
+        eosSignalCount.incrementAndGet();
+        inputClosed = true;
+        final long timeUs = nextTimeUs;
+        callbackThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliver(0, timeUs, SampleBufferInfo.FLAG_END_OF_STREAM);
+            }
+        });
+    }
+
+    @Override
+    public String getOutputFormat() {
+        return FORMAT;
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return outputBuffers[index];
+    }
+
+    @Override
+    public synchronized void releaseOutputBuffer(int index) {
+        if (!outputBufferBusy[index]) {
+            throw new IllegalStateException("buffer " + index + " released twice");
+        }
+        outputBufferBusy[index] = false;
+        outstandingBuffers.decrementAndGet();
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+    }
+
+    @Override
+    public void release() {
+        released = true;
+    }
+}
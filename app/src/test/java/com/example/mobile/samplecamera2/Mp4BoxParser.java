@@ -0,0 +1,99 @@
+package com.example.mobile.samplecamera2;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//
+// ISO BMFF box reader for JVM tests. parse() fails with IllegalStateException when a box size
+// does not fit its parent, so a file parsing without exception has a consistent box structure.
+// Container boxes (moov, trak, moof, ...) are parsed into children, others keep their payload.
+//
+
+public class Mp4BoxParser {
+    private static final List<String> CONTAINERS = Arrays.asList(
+            "moov", "trak", "mdia", "minf", "dinf", "stbl", "mvex", "moof", "traf");
+
+    public static class Box {
+        public final String type;
+        public final long offset;
+        public final int size;
+        // Payload after the header, position 0 at the first payload byte
+        public final ByteBuffer payload;
+        public final List<Box> children = new ArrayList<Box>();
+
+        Box(String type, long offset, int size, ByteBuffer payload) {
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+            this.payload = payload;
+        }
+
+        public Box child(String path) {
+            Box box = this;
+            for (String type : path.split("/")) {
+                Box found = null;
+                for (Box child : box.children) {
+                    if (child.type.equals(type)) {
+                        found = child;
+                        break;
+                    }
+                }
+                if (found == null) {
+                    return null;
+                }
+                box = found;
+            }
+            return box;
+        }
+
+        // Full box version and flags
+        public int versionAndFlags() {
+            return payload.getInt(0);
+        }
+    }
+
+    public static List<Box> parse(ByteBuffer data) {
+        return parse(data, 0, data.limit());
+    }
+
+    public static List<Box> find(List<Box> boxes, String type) {
+        List<Box> found = new ArrayList<Box>();
+        for (Box box : boxes) {
+            if (box.type.equals(type)) {
+                found.add(box);
+            }
+        }
+        return found;
+    }
+
+    private static List<Box> parse(ByteBuffer data, int start, int end) {
+        List<Box> boxes = new ArrayList<Box>();
+        int position = start;
+        while (position < end) {
+            if (end - position < 8) {
+                throw new IllegalStateException("Truncated box header at " + position);
+            }
+            int size = data.getInt(position);
+            if (size < 8 || size > end - position) {
+                throw new IllegalStateException("Box size " + size + " at " + position
+                        + " does not fit " + (end - position));
+            }
+            byte[] type = new byte[4];
+            for (int i = 0; i < 4; i++) {
+                type[i] = data.get(position + 4 + i);
+            }
+            ByteBuffer payload = data.duplicate();
+            payload.limit(position + size);
+            payload.position(position + 8);
+            Box box = new Box(new String(type), position, size, payload.slice());
+            if (CONTAINERS.contains(box.type)) {
+                box.children.addAll(parse(data, position + 8, position + size));
+            }
+            boxes.add(box);
+            position += size;
+        }
+        return boxes;
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SampleAnalysisQueueTest {
+    private static class RecordingWorker implements SampleAnalysisQueue.Worker<Integer> {
+        final List<Integer> processed = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> discarded = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void process(Integer frame) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            processed.add(frame);
+        }
+
+        @Override
+        public void discard(Integer frame) {
+            discarded.add(frame);
+        }
+    }
+
+    @Test
+    public void dropsOldestWhenFull() throws InterruptedException {
+        RecordingWorker worker = new RecordingWorker();
+        SampleAnalysisQueue<Integer> queue = new SampleAnalysisQueue<Integer>("test", 2, 1, worker);
+        queue.start();
+        queue.offer(1);
+        assertTrue(worker.started.await(1, TimeUnit.SECONDS));
+        // Worker is busy with 1, queue holds two frames
+        queue.offer(2);
+        queue.offer(3);
+        queue.offer(4);
+        queue.offer(5);
+        assertEquals(Arrays.asList(2, 3), worker.discarded);
+        assertEquals(2, queue.getQueuedFrames());
+        assertEquals(2, queue.getDroppedFrames());
+        assertEquals(5, queue.getOfferedFrames());
+
+        worker.release.countDown();
+        long deadline = System.currentTimeMillis() + 1000;
+        while (queue.getProcessedFrames() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        queue.stop();
+        assertEquals(Arrays.asList(1, 4, 5), worker.processed);
+    }
+
+    @Test
+    public void stopDiscardsQueuedAndLateFrames() throws InterruptedException {
+        RecordingWorker worker = new RecordingWorker();
+        final SampleAnalysisQueue<Integer> queue = new SampleAnalysisQueue<Integer>("test", 4, 1, worker);
+        queue.start();
+        queue.offer(1);
+        assertTrue(worker.started.await(1, TimeUnit.SECONDS));
+        queue.offer(2);
+        queue.offer(3);
+
+        Thread stopper = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queue.stop();
+            }
+        });
+        stopper.start();
+        // Stop waits for the frame in progress
+        Thread.sleep(20);
+        assertTrue(stopper.isAlive());
+        worker.release.countDown();
+        stopper.join(1000);
+
+        queue.offer(4);
+        assertEquals(Arrays.asList(1), worker.processed);
+        assertEquals(Arrays.asList(2, 3, 4), worker.discarded);
+        assertEquals(0, queue.getQueuedFrames());
+    }
+}
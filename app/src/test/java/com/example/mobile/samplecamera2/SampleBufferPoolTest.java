@@ -0,0 +1,123 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SampleBufferPoolTest {
+    private static final int FRAME_1080P = 1920 * 1080 * 4;
+    private static final int FRAME_720P = 1280 * 720 * 4;
+
+    @Test
+    public void releasedBufferIsReused() {
+        SampleBufferPool pool = new SampleBufferPool(2);
+        ByteBuffer first = pool.acquire(FRAME_720P, "test");
+        assertTrue(first.isDirect());
+        assertEquals(ByteOrder.nativeOrder(), first.order());
+        assertEquals(FRAME_720P, first.remaining());
+        first.position(100);
+        pool.release(first);
+
+        ByteBuffer second = pool.acquire(FRAME_720P, "test");
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(1, pool.getAllocationCount());
+        assertEquals(1, pool.getHitCount());
+    }
+
+    @Test
+    public void buffersAreKeyedBySize() {
+        SampleBufferPool pool = new SampleBufferPool(2);
+        ByteBuffer large = pool.acquire(FRAME_1080P, "test");
+        pool.release(large);
+        ByteBuffer small = pool.acquire(FRAME_720P, "test");
+        assertNotSame(large, small);
+        assertEquals(FRAME_720P, small.capacity());
+        assertEquals(2, pool.getAllocationCount());
+    }
+
+    @Test
+    public void exhaustedPoolReturnsNullInsteadOfAllocating() {
+        SampleBufferPool pool = new SampleBufferPool(2);
+        ByteBuffer a = pool.acquire(1024, "test");
+        ByteBuffer b = pool.acquire(1024, "test");
+        assertNull(pool.acquire(1024, "test"));
+        assertEquals(1, pool.getExhaustedCount());
+        pool.release(a);
+        assertSame(a, pool.acquire(1024, "test"));
+        pool.release(b);
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate() {
+        SampleBufferPool pool = new SampleBufferPool(3);
+        for (int frame = 0; frame < 1000; frame++) {
+            ByteBuffer a = pool.acquire(4096, "reader");
+            ByteBuffer b = pool.acquire(4096, "writer");
+            pool.release(a);
+            pool.release(b);
+        }
+        assertEquals(2, pool.getAllocationCount());
+        assertEquals(1998, pool.getHitCount());
+        assertEquals(0, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void doubleReleaseThrows() {
+        SampleBufferPool pool = new SampleBufferPool(1);
+        ByteBuffer buffer = pool.acquire(16, "test");
+        pool.release(buffer);
+        try {
+            pool.release(buffer);
+            fail("double release accepted");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        try {
+            pool.release(ByteBuffer.allocateDirect(16));
+            fail("foreign buffer accepted");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void heldBuffersAreReportedAsLeaks() throws Exception {
+        SampleBufferPool pool = new SampleBufferPool(2);
+        ByteBuffer held = pool.acquire(16, "leaky-owner");
+        ByteBuffer returned = pool.acquire(16, "good-owner");
+        pool.release(returned);
+        Thread.sleep(5);
+
+        List<String> leaks = pool.findLeaks(1000000L);
+        assertEquals(1, leaks.size());
+        assertTrue(leaks.get(0).startsWith("leaky-owner"));
+        assertEquals(0, pool.findLeaks(60000000000L).size());
+        pool.release(held);
+        assertEquals(0, pool.findLeaks(0).size());
+    }
+
+    @Test
+    public void trimDropsFreeBuffersOnly() {
+        SampleBufferPool pool = new SampleBufferPool(1);
+        ByteBuffer held = pool.acquire(64, "test");
+        ByteBuffer free = pool.acquire(32, "test");
+        pool.release(free);
+        pool.trim();
+
+        // Free 32 byte buffer was dropped, a new one may be allocated
+        assertNotSame(free, pool.acquire(32, "test"));
+        // Held 64 byte buffer still counts against the limit
+        assertNull(pool.acquire(64, "test"));
+        pool.release(held);
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SampleCameraLayoutTest {
+    private static final float EPSILON = 1e-5f;
+
+    @Test
+    public void pipFillsOutputWithFirstCameraAndInsetsTheSecond() {
+        SampleCameraLayout layout = new SampleCameraLayout(SampleCameraLayout.LAYOUT_PIP)
+                .setInset(SampleCameraLayout.CORNER_TOP_RIGHT, 0.25f, 0.05f);
+        float[] regions = new float[8];
+        float[] transforms = new float[8];
+        layout.compute(1920, 1080, new int[] {1920, 1080, 640, 360}, regions, transforms);
+
+        assertEquals(0f, regions[0], EPSILON);
+        assertEquals(0f, regions[1], EPSILON);
+        assertEquals(1f, regions[2], EPSILON);
+        assertEquals(1f, regions[3], EPSILON);
+        // Inset in top-right corner, inside the output
+        assertEquals(0.25f, regions[6], EPSILON);
+        assertEquals(1f - 0.05f - 0.25f, regions[5], EPSILON);
+        assertEquals(1f, regions[4] + regions[6] + 0.05f * 1080 / 1920, EPSILON);
+    }
+
+    @Test
+    public void sameAspectIsNotCroppedAndIsFlippedVertically() {
+        SampleCameraLayout layout = new SampleCameraLayout(SampleCameraLayout.LAYOUT_PIP);
+        float[] regions = new float[4];
+        float[] transforms = new float[4];
+        layout.compute(1280, 720, new int[] {1920, 1080}, regions, transforms);
+
+        // Output bottom-left maps to texture (0, 1)
+        assertEquals(0f, transforms[0], EPSILON);
+        assertEquals(1f, transforms[1], EPSILON);
+        assertEquals(1f, transforms[2], EPSILON);
+        assertEquals(-1f, transforms[3], EPSILON);
+    }
+
+    @Test
+    public void narrowRegionCropsCameraAroundCenter() {
+        SampleCameraLayout layout = new SampleCameraLayout(SampleCameraLayout.LAYOUT_SIDE_BY_SIDE);
+        float[] regions = new float[8];
+        float[] transforms = new float[8];
+        layout.compute(1920, 1080, new int[] {1920, 1080, 1920, 1080}, regions, transforms);
+
+        assertEquals(0.5f, regions[4], EPSILON);
+        assertEquals(0.5f, regions[6], EPSILON);
+        // Column is 960x1080, 16:9 camera shows its middle half
+        assertEquals(0.5f, transforms[2], 1e-3f);
+        assertEquals(0.25f, transforms[0], 1e-3f);
+        assertEquals(-1f, transforms[3], EPSILON);
+    }
+
+    @Test
+    public void mirroredCameraFlipsHorizontally() {
+        SampleCameraLayout layout = new SampleCameraLayout(SampleCameraLayout.LAYOUT_PIP).setMirrored(0, true);
+        float[] regions = new float[4];
+        float[] transforms = new float[4];
+        layout.compute(1280, 720, new int[] {1280, 720}, regions, transforms);
+
+        assertEquals(1f, transforms[0], EPSILON);
+        assertEquals(-1f, transforms[2], EPSILON);
+    }
+
+    @Test
+    public void areaWeightsExcludeCoveredPart() {
+        SampleCameraLayout layout = new SampleCameraLayout(SampleCameraLayout.LAYOUT_PIP)
+                .setInset(SampleCameraLayout.CORNER_BOTTOM_LEFT, 0.25f, 0f);
+        float[] weights = layout.getAreaWeights(1920, 1080, new int[] {1920, 1080, 1280, 720});
+        assertEquals(1f / 16, weights[1], EPSILON);
+        assertEquals(1f - 1f / 16, weights[0], EPSILON);
+    }
+
+    @Test
+    public void compositeShaderSamplesEveryCamera() {
+        String shader = SampleCameraLayout.getCompositeShader(2);
+        assertTrue(shader.contains("uniform samplerExternalOES cameraTexture0;"));
+        assertTrue(shader.contains("uniform samplerExternalOES cameraTexture1;"));
+        assertTrue(shader.contains("uniform vec4 region[2];"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooManyCameras() {
+        new SampleCameraLayout(SampleCameraLayout.LAYOUT_PIP).compute(1280, 720,
+                new int[] {1, 1, 1, 1, 1, 1, 1, 1}, new float[16], new float[16]);
+    }
+}
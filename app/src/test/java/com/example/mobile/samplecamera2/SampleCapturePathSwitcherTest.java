@@ -0,0 +1,202 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SampleCapturePathSwitcherTest {
+    private final List<String> calls = new ArrayList<String>();
+    private SampleCapturePathSwitcher switcher;
+
+    @Before
+    public void setUp() {
+        switcher = new SampleCapturePathSwitcher(new SampleCapturePathSwitcher.Host() {
+            @Override
+            public void detachEncoderOutput() {
+                calls.add("detach");
+            }
+
+            @Override
+            public void attachEncoderOutput() {
+                calls.add("attach");
+            }
+
+            @Override
+            public void configureSession(boolean encoderTarget) {
+                calls.add(encoderTarget ? "session+encoder" : "session");
+            }
+        });
+    }
+
+    private void assertCalls(String... expected) {
+        assertEquals(expected.length, calls.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], calls.get(i));
+        }
+        calls.clear();
+    }
+
+    @Test
+    public void startsInPassthroughWithoutEffects() {
+        switcher.start();
+        assertCalls("session+encoder");
+        switcher.onSessionConfigured();
+        assertEquals(SampleCapturePathSwitcher.PATH_PASSTHROUGH, switcher.getPath());
+        assertFalse(switcher.isSwitching());
+    }
+
+    @Test
+    public void startsCompositedWithEffects() {
+        switcher.setEffectsActive(true);
+        assertCalls();
+        switcher.start();
+        assertCalls("attach", "session");
+        switcher.onSessionConfigured();
+        assertCalls();
+        assertEquals(SampleCapturePathSwitcher.PATH_COMPOSITED, switcher.getPath());
+    }
+
+    @Test
+    public void effectOnReconfiguresSessionBeforeAttach() {
+        switcher.start();
+        switcher.onSessionConfigured();
+        calls.clear();
+
+        switcher.setEffectsActive(true);
+        assertCalls("session");
+        assertTrue(switcher.isSwitching());
+        switcher.onSessionConfigured();
+        assertCalls("attach");
+        assertEquals(SampleCapturePathSwitcher.PATH_COMPOSITED, switcher.getPath());
+        assertEquals(1, switcher.getSwitchCount());
+    }
+
+    @Test
+    public void effectOffDetachesBeforeSession() {
+        switcher.setEffectsActive(true);
+        switcher.start();
+        switcher.onSessionConfigured();
+        calls.clear();
+
+        switcher.setEffectsActive(false);
+        assertCalls("detach");
+        // Session must wait for the renderer to release the surface
+        switcher.onSessionConfigured();
+        assertCalls();
+        switcher.onEncoderDetached();
+        assertCalls("session+encoder");
+        switcher.onSessionConfigured();
+        assertCalls();
+        assertFalse(switcher.isSwitching());
+        assertEquals(SampleCapturePathSwitcher.PATH_PASSTHROUGH, switcher.getPath());
+    }
+
+    @Test
+    public void togglesDuringSwitchAreCoalesced() {
+        switcher.start();
+        switcher.onSessionConfigured();
+        calls.clear();
+
+        switcher.setEffectsActive(true);
+        switcher.setEffectsActive(false);
+        switcher.setEffectsActive(true);
+        assertCalls("session");
+        switcher.onSessionConfigured();
+        // Still wanted composited at the end, nothing more to do
+        assertCalls("attach");
+
+        switcher.setEffectsActive(false);
+        switcher.setEffectsActive(true);
+        switcher.setEffectsActive(false);
+        assertCalls("detach");
+        switcher.setEffectsActive(true);
+        switcher.onEncoderDetached();
+        switcher.onSessionConfigured();
+        // Ended up wanting composited again: one more switch back
+        assertCalls("session+encoder", "session");
+        switcher.onSessionConfigured();
+        assertCalls("attach");
+        assertEquals(SampleCapturePathSwitcher.PATH_COMPOSITED, switcher.getPath());
+    }
+
+    @Test
+    public void newEncoderSurfaceRecreatesPassthroughSession() {
+        switcher.start();
+        switcher.onSessionConfigured();
+        calls.clear();
+        switcher.onEncoderSurfaceChanged();
+        assertCalls("session+encoder");
+        switcher.onSessionConfigured();
+
+        switcher.setPassthroughAllowed(false);
+        switcher.onSessionConfigured();
+        calls.clear();
+        // Composited: renderer output is moved by its owner, session stays
+        switcher.onEncoderSurfaceChanged();
+        assertCalls();
+    }
+
+    @Test
+    public void unsupportedEncoderSizeIsComposited() {
+        switcher.setEncoderSizeSupported(false);
+        switcher.start();
+        assertCalls("attach", "session");
+        switcher.onSessionConfigured();
+        assertEquals(SampleCapturePathSwitcher.PATH_COMPOSITED, switcher.getPath());
+
+        // Rate control stepped to a size the camera outputs
+        switcher.setEncoderSizeSupported(true);
+        assertCalls("detach");
+        switcher.onEncoderDetached();
+        switcher.onSessionConfigured();
+        assertCalls("session+encoder");
+
+        // And to one it does not
+        switcher.setEncoderSizeSupported(false);
+        switcher.onEncoderSurfaceChanged();
+        assertCalls("session");
+        switcher.onSessionConfigured();
+        assertCalls("attach");
+        assertEquals(SampleCapturePathSwitcher.PATH_COMPOSITED, switcher.getPath());
+    }
+
+    @Test
+    public void failedPassthroughSessionFallsBackToComposited() {
+        switcher.start();
+        assertCalls("session+encoder");
+        switcher.onSessionConfigureFailed();
+        assertCalls("session");
+        assertTrue(switcher.isSwitching());
+        switcher.onSessionConfigured();
+        assertCalls("attach");
+        assertFalse(switcher.isSwitching());
+        assertEquals(SampleCapturePathSwitcher.PATH_COMPOSITED, switcher.getPath());
+
+        // Not tried again for the same encoder surface
+        switcher.setEffectsActive(true);
+        switcher.setEffectsActive(false);
+        assertCalls();
+        // New surface: tried again
+        switcher.onEncoderSurfaceChanged();
+        assertCalls("detach");
+    }
+
+    @Test
+    public void failedCompositedSessionStopsSwitching() {
+        switcher.start();
+        switcher.onSessionConfigured();
+        calls.clear();
+        switcher.setEffectsActive(true);
+        assertCalls("session");
+        switcher.onSessionConfigureFailed();
+        assertCalls("attach");
+        assertFalse(switcher.isSwitching());
+        assertEquals(SampleCapturePathSwitcher.PATH_COMPOSITED, switcher.getPath());
+    }
+}
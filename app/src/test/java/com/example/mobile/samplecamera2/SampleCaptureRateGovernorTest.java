@@ -0,0 +1,151 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SampleCaptureRateGovernorTest {
+    private static final int[] STAGE_RATES = {30, 24, 15};
+    private static final int STATIC_RATE = 5;
+
+    private SampleCaptureRateGovernor governor;
+    private final List<Integer> rates = new ArrayList<Integer>();
+    private long nowMs = 0;
+
+    @Before
+    public void setUp() {
+        governor = new SampleCaptureRateGovernor(STAGE_RATES, STATIC_RATE);
+    }
+
+    // Replay a temperature trace sampled once a second, battery full and not charging
+    private void replay(float[] celsius) {
+        for (float temperature : celsius) {
+            nowMs += 1000;
+            if (governor.update(nowMs, temperature, 80, false)) {
+                rates.add(governor.getFrameRate());
+            }
+        }
+    }
+
+    // seconds of temperature going linearly from one value to another
+    private static float[] ramp(float from, float to, int seconds) {
+        float[] trace = new float[seconds];
+        for (int i = 0; i < seconds; i++) {
+            trace[i] = seconds > 1 ? from + (to - from) * i / (seconds - 1) : from;
+        }
+        return trace;
+    }
+
+    private static float[] constant(float celsius, int seconds) {
+        return ramp(celsius, celsius, seconds);
+    }
+
+    @Test
+    public void heatingStepsDownAtOnce() {
+        // Sustained recording: 35C to 46C in two minutes
+        replay(ramp(35, 46, 120));
+        assertEquals(2, governor.getStage());
+        assertEquals(2, rates.size());
+        assertEquals(24, (int) rates.get(0));
+        assertEquals(15, (int) rates.get(1));
+    }
+
+    @Test
+    public void coolingStepsUpAfterCooldownOneStageAtATime() {
+        replay(constant(45, 10));
+        assertEquals(15, governor.getFrameRate());
+        // Cooled well below both thresholds
+        replay(constant(36, 29));
+        assertEquals(15, governor.getFrameRate());
+        replay(constant(36, 2));
+        assertEquals(24, governor.getFrameRate());
+        replay(constant(36, 30));
+        assertEquals(30, governor.getFrameRate());
+        assertEquals(3, rates.size());
+    }
+
+    @Test
+    public void noiseAroundThresholdDoesNotOscillate() {
+        // +-1C noise around the first threshold for five minutes
+        float[] trace = new float[300];
+        for (int i = 0; i < trace.length; i++) {
+            trace[i] = 41.0f + ((i * 7) % 3 - 1);
+        }
+        replay(trace);
+        assertEquals(1, rates.size());
+        assertEquals(24, governor.getFrameRate());
+    }
+
+    @Test
+    public void spikeResetsCooldown() {
+        replay(constant(42, 5));
+        replay(constant(37, 20));
+        // Hot again before the cooldown ended, then cool
+        replay(constant(42, 1));
+        replay(constant(37, 20));
+        assertEquals(24, governor.getFrameRate());
+        replay(constant(37, 11));
+        assertEquals(30, governor.getFrameRate());
+    }
+
+    @Test
+    public void lowBatteryLowersRateUnlessCharging() {
+        nowMs += 1000;
+        assertTrue(governor.update(nowMs, 30, 14, false));
+        assertEquals(24, governor.getFrameRate());
+        nowMs += 1000;
+        governor.update(nowMs, 30, 4, false);
+        assertEquals(15, governor.getFrameRate());
+        // Plugged in: back up after the cooldown, one stage at a time
+        for (int i = 0; i < 61; i++) {
+            nowMs += 1000;
+            governor.update(nowMs, 30, 4, true);
+        }
+        assertEquals(30, governor.getFrameRate());
+    }
+
+    @Test
+    public void staticSceneDropsToTimelapseRate() {
+        for (int i = 0; i < 4; i++) {
+            nowMs += 1000;
+            assertFalse(governor.onMotion(nowMs, 0.2f));
+        }
+        nowMs += 2000;
+        assertTrue(governor.onMotion(nowMs, 0.2f));
+        assertTrue(governor.isStaticScene());
+        assertEquals(STATIC_RATE, governor.getFrameRate());
+        // Motion returns full rate at once
+        nowMs += 100;
+        assertTrue(governor.onMotion(nowMs, 6.0f));
+        assertEquals(30, governor.getFrameRate());
+    }
+
+    @Test
+    public void staticSceneKeepsThermalStageAfterMotion() {
+        replay(constant(42, 1));
+        for (int i = 0; i < 7; i++) {
+            nowMs += 1000;
+            governor.onMotion(nowMs, 0);
+        }
+        assertEquals(STATIC_RATE, governor.getFrameRate());
+        governor.onMotion(nowMs, 5);
+        assertEquals(24, governor.getFrameRate());
+    }
+
+    @Test
+    public void choosesFixedRangeAtOrBelowTarget() {
+        int[][] ranges = {{15, 15}, {7, 30}, {30, 30}, {24, 24}, {15, 24}};
+        assertEquals(2, SampleCaptureRateGovernor.chooseFpsRange(ranges, 30));
+        assertEquals(3, SampleCaptureRateGovernor.chooseFpsRange(ranges, 24));
+        assertEquals(0, SampleCaptureRateGovernor.chooseFpsRange(ranges, 20));
+        // Below every range: the lowest one
+        assertEquals(0, SampleCaptureRateGovernor.chooseFpsRange(ranges, 5));
+        assertEquals(-1, SampleCaptureRateGovernor.chooseFpsRange(new int[0][], 30));
+    }
+}
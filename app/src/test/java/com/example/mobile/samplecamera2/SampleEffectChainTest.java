@@ -0,0 +1,79 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SampleEffectChainTest {
+    @Test
+    public void noEffectNoPass() {
+        assertTrue(SampleEffectChain.plan(SampleEffectChain.NONE).isEmpty());
+    }
+
+    @Test
+    public void pointwiseEffectsFuseIntoOnePass() {
+        List<SampleEffectChain.Pass> passes = SampleEffectChain.plan(
+                SampleEffectChain.GRAYSCALE | SampleEffectChain.LUT | SampleEffectChain.OVERLAY);
+        assertEquals(1, passes.size());
+        SampleEffectChain.Pass pass = passes.get(0);
+        assertTrue(pass.isExternalSource());
+        assertFalse(pass.usesTexelSize());
+        String shader = pass.getFragmentShader();
+        assertTrue(shader.startsWith("#extension GL_OES_EGL_image_external"));
+        assertTrue(shader.contains("samplerExternalOES texture"));
+        // Effects applied in chain order
+        int grayscale = shader.indexOf("color = grayscale(color)");
+        int lut = shader.indexOf("color = lut(color)");
+        int overlay = shader.indexOf("color = overlay(color)");
+        assertTrue(grayscale > 0 && lut > grayscale && overlay > lut);
+    }
+
+    @Test
+    public void cheapEffectsFuseWithSharpen() {
+        List<SampleEffectChain.Pass> passes = SampleEffectChain.plan(
+                SampleEffectChain.GRAYSCALE | SampleEffectChain.SHARPEN | SampleEffectChain.OVERLAY);
+        assertEquals(1, passes.size());
+        String shader = passes.get(0).getFragmentShader();
+        assertTrue(passes.get(0).usesTexelSize());
+        // Grayscale on every tap, overlay once on the result
+        assertTrue(shader.indexOf("color = grayscale(color)") < shader.indexOf("vec4 sharpen("));
+        assertTrue(shader.indexOf("color = overlay(color)") > shader.indexOf("void main()"));
+    }
+
+    @Test
+    public void lutBeforeSharpenSplits() {
+        List<SampleEffectChain.Pass> passes = SampleEffectChain.plan(SampleEffectChain.ALL);
+        assertEquals(2, passes.size());
+        assertEquals(SampleEffectChain.GRAYSCALE | SampleEffectChain.LUT, passes.get(0).getEffects());
+        assertEquals(SampleEffectChain.SHARPEN | SampleEffectChain.OVERLAY, passes.get(1).getEffects());
+        assertFalse(passes.get(1).isExternalSource());
+        String second = passes.get(1).getFragmentShader();
+        assertTrue(second.contains("uniform sampler2D texture"));
+        assertFalse(second.contains("samplerExternalOES"));
+        assertFalse(second.contains("lut("));
+    }
+
+    @Test
+    public void sameEffectsSameSource() {
+        String a = SampleEffectChain.plan(SampleEffectChain.LUT).get(0).getFragmentShader();
+        String b = SampleEffectChain.plan(SampleEffectChain.LUT).get(0).getFragmentShader();
+        assertEquals(a, b);
+        assertFalse(a.equals(SampleEffectChain.plan(SampleEffectChain.GRAYSCALE).get(0).getFragmentShader()));
+    }
+
+    @Test
+    public void lutStripLayout() {
+        int size = SampleEffectChain.LUT_SIZE;
+        byte[] lut = SampleEffectChain.createWarmLut();
+        assertEquals(size * size * size * 4, lut.length);
+        // Black stays black, white is clamped, blue of white is lowered by the grade
+        assertEquals(0, lut[0]);
+        int white = ((size - 1) * size * size + (size - 1) * size + (size - 1)) * 4;
+        assertEquals((byte) 255, lut[white]);
+        assertTrue((lut[white + 2] & 0xFF) < 255);
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SampleEncodedRingBufferTest {
+    private static final long FRAME_US = 33333;
+
+    private final SampleBufferInfo info = new SampleBufferInfo();
+
+    // Sample n is size bytes of value n, key frame every gop samples
+    private boolean add(SampleEncodedRingBuffer buffer, int n, int size, int gop) {
+        ByteBuffer data = ByteBuffer.allocate(size);
+        for (int i = 0; i < size; i++) {
+            data.put((byte) n);
+        }
+        data.flip();
+        info.set(0, size, n * FRAME_US, n % gop == 0 ? SampleBufferInfo.FLAG_KEY_FRAME : 0);
+        boolean added = buffer.add(data, info);
+        assertEquals(0, data.position());
+        return added;
+    }
+
+    private int sampleNumber(SampleEncodedRingBuffer buffer, int i) {
+        SampleBufferInfo out = new SampleBufferInfo();
+        ByteBuffer view = buffer.get(i, out);
+        assertEquals(out.offset, view.position());
+        assertEquals(out.size, view.remaining());
+        int n = (int) (out.presentationTimeUs / FRAME_US);
+        while (view.hasRemaining()) {
+            assertEquals((byte) n, view.get());
+        }
+        return n;
+    }
+
+    @Test
+    public void wrapsAroundWithoutCorruptingSamples() {
+        SampleEncodedRingBuffer buffer = new SampleEncodedRingBuffer(1000, 64, 0);
+        for (int n = 0; n < 500; n++) {
+            // Odd sizes so samples do not line up with the end of the buffer
+            assertTrue(add(buffer, n, 37 + (n % 5) * 11, 1));
+            int last = buffer.size() - 1;
+            assertEquals(n, sampleNumber(buffer, last));
+            for (int i = 1; i <= last; i++) {
+                assertEquals(sampleNumber(buffer, i - 1) + 1, sampleNumber(buffer, i));
+            }
+        }
+        assertTrue(buffer.getEvictedCount() > 0);
+    }
+
+    @Test
+    public void neverExceedsMemoryCeiling() {
+        SampleEncodedRingBuffer buffer = new SampleEncodedRingBuffer(4096, 1000, 0);
+        for (int n = 0; n < 2000; n++) {
+            add(buffer, n, 100 + (n * 37) % 900, 10);
+            assertTrue(buffer.getBytesUsed() <= buffer.getCapacity());
+            assertTrue(buffer.size() == 0 || buffer.isKeyFrame(0));
+        }
+        long rejected = buffer.getRejectedCount();
+        assertFalse(add(buffer, 2000, 4097, 1));
+        assertEquals(rejected + 1, buffer.getRejectedCount());
+        assertTrue(add(buffer, 2001, 4096, 1));
+        assertEquals(1, buffer.size());
+        assertEquals(4096, buffer.getBytesUsed());
+    }
+
+    @Test
+    public void boundedBySampleCountAndDuration() {
+        SampleEncodedRingBuffer counted = new SampleEncodedRingBuffer(100000, 16, 0);
+        SampleEncodedRingBuffer timed = new SampleEncodedRingBuffer(100000, 1000, 30 * FRAME_US);
+        for (int n = 0; n < 100; n++) {
+            add(counted, n, 10, 1);
+            add(timed, n, 10, 1);
+            assertTrue(counted.size() <= 16);
+            assertTrue(timed.getDurationUs() <= 30 * FRAME_US);
+        }
+        assertEquals(16, counted.size());
+        assertEquals(31, timed.size());
+    }
+
+    @Test
+    public void alwaysStartsWithKeyFrame() {
+        SampleEncodedRingBuffer buffer = new SampleEncodedRingBuffer(2000, 1000, 0);
+        // Non key frame can not start the buffer
+        assertFalse(add(buffer, 1, 10, 30));
+        for (int n = 30; n < 400; n++) {
+            add(buffer, n, 50, 30);
+            assertTrue(buffer.isKeyFrame(0));
+        }
+        // Whole GOPs dropped at once: 2000 bytes hold 40 samples, buffer starts at n = 360
+        assertEquals(360, sampleNumber(buffer, 0));
+    }
+
+    @Test
+    public void nonKeyFrameIsRejectedWhenRoomEmptiesBuffer() {
+        SampleEncodedRingBuffer buffer = new SampleEncodedRingBuffer(100, 1000, 0);
+        assertTrue(add(buffer, 0, 40, 10));
+        assertTrue(add(buffer, 1, 40, 10));
+        // Room for it only by evicting the whole group of pictures it depends on
+        assertFalse(add(buffer, 2, 40, 10));
+        assertEquals(0, buffer.size());
+        assertEquals(1, buffer.getRejectedCount());
+        assertFalse(add(buffer, 3, 10, 10));
+        assertTrue(add(buffer, 10, 40, 10));
+        assertTrue(buffer.isKeyFrame(0));
+        assertEquals(0, buffer.findKeyFrame(10 * FRAME_US));
+    }
+
+    @Test
+    public void durationLimitKeepsNewestSample() {
+        // Longer key frame interval than the duration limit
+        SampleEncodedRingBuffer buffer = new SampleEncodedRingBuffer(100000, 1000, 5 * FRAME_US);
+        for (int n = 0; n < 45; n++) {
+            assertTrue(add(buffer, n, 10, 20));
+            assertTrue(buffer.isKeyFrame(0));
+            assertEquals(n, sampleNumber(buffer, buffer.size() - 1));
+        }
+        // Current group of pictures only, earlier ones evicted
+        assertEquals(40, sampleNumber(buffer, 0));
+        assertEquals(5, buffer.size());
+    }
+
+    @Test
+    public void findsKeyFrameAtOrBeforeTime() {
+        SampleEncodedRingBuffer buffer = new SampleEncodedRingBuffer(100000, 1000, 0);
+        for (int n = 0; n < 100; n++) {
+            add(buffer, n, 10, 30);
+        }
+        assertEquals(60, buffer.findKeyFrame(75 * FRAME_US));
+        assertEquals(90, buffer.findKeyFrame(90 * FRAME_US));
+        assertEquals(0, buffer.findKeyFrame(-1));
+        buffer.clear();
+        assertEquals(-1, buffer.findKeyFrame(0));
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SampleEncoderDrainTest {
+    private FakeEncoderCodec codec;
+    private RecordingSink sink;
+    private SampleEncoderDrain<String> drain;
+
+    static class RecordingSink implements SampleMuxerSink<String> {
+        final List<Long> timestamps = new ArrayList<Long>();
+        String format = null;
+        int configSamples = 0;
+        int startCount = 0;
+        int stopCount = 0;
+        boolean writeAfterStop = false;
+
+        @Override
+        public void start(String f) {
+            format = f;
+            startCount++;
+        }
+
+        @Override
+        public void writeSampleData(ByteBuffer data, SampleBufferInfo info) {
+            if (stopCount > 0) {
+                writeAfterStop = true;
+            }
+            assertEquals(info.size, data.remaining());
+            if (info.isCodecConfig()) {
+                configSamples++;
+            } else {
+                timestamps.add(info.presentationTimeUs);
+            }
+        }
+
+        @Override
+        public void stop() {
+            stopCount++;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        codec = new FakeEncoderCodec(4, 64 * 1024);
+        sink = new RecordingSink();
+        drain = new SampleEncoderDrain<String>(codec, sink);
+    }
+
+    @After
+    public void tearDown() {
+        codec.shutdown();
+    }
+
+    @Test
+    public void drainsAllFramesInOrderAndShutsDown() throws Exception {
+        drain.start(0);
+        int frames = 5000;
+        for (int i = 0; i < frames; i++) {
+            assertTrue(codec.queueFrame(32 * 1024, i % 30 == 0 ? SampleBufferInfo.FLAG_KEY_FRAME : 0));
+        }
+        drain.requestStop();
+        assertTrue(drain.awaitTermination(10000));
+
+        assertEquals(frames, drain.getFramesWritten());
+        assertEquals(frames * 32L * 1024L, drain.getBytesWritten());
+        assertEquals(frames, sink.timestamps.size());
+        for (int i = 1; i < frames; i++) {
+            assertTrue(sink.timestamps.get(i) > sink.timestamps.get(i - 1));
+        }
+        assertEquals(FakeEncoderCodec.FORMAT, sink.format);
+        assertEquals(1, sink.startCount);
+        assertEquals(1, sink.stopCount);
+        assertFalse(sink.writeAfterStop);
+        assertEquals(0, codec.outstandingBuffers.get());
+        assertTrue(codec.stopped);
+        assertTrue(codec.released);
+        assertTrue(drain.isFinished());
+    }
+
+    @Test
+    public void frameLimitSignalsEndOfStream() throws Exception {
+        drain.start(300);
+        int queued = 0;
+        while (codec.queueFrame(1024, 0)) {
+            queued++;
+            Thread.yield();
+        }
+        assertTrue(drain.awaitTermination(10000));
+
+        assertEquals(1, codec.eosSignalCount.get());
+        assertTrue(drain.getFramesWritten() >= 300);
+        assertEquals(queued, drain.getFramesWritten());
+        assertEquals(1, sink.stopCount);
+        assertEquals(0, codec.outstandingBuffers.get());
+    }
+
+    @Test
+    public void requestStopSignalsOnce() throws Exception {
+        drain.start(0);
+        codec.queueFrame(1024, SampleBufferInfo.FLAG_KEY_FRAME);
+        drain.requestStop();
+        drain.requestStop();
+        assertTrue(drain.awaitTermination(10000));
+        drain.requestStop();
+
+        assertEquals(1, codec.eosSignalCount.get());
+        assertFalse(codec.queueFrame(1024, 0));
+    }
+
+    @Test
+    public void stopBeforeStartReleasesCodec() throws Exception {
+        drain.requestStop();
+        assertTrue(drain.awaitTermination(1000));
+        assertTrue(drain.isFinished());
+        assertEquals(0, codec.eosSignalCount.get());
+        assertFalse(codec.stopped);
+        assertTrue(codec.released);
+        assertEquals(0, sink.startCount);
+        // start() after stop does not start the released codec
+        drain.start(0);
+        assertFalse(codec.started);
+    }
+
+    @Test
+    public void codecConfigIsPassedButNotCounted() throws Exception {
+        drain.start(0);
+        codec.queueFrame(32, SampleBufferInfo.FLAG_CODEC_CONFIG);
+        codec.queueFrame(1024, SampleBufferInfo.FLAG_KEY_FRAME);
+        drain.requestStop();
+        assertTrue(drain.awaitTermination(10000));
+
+        assertEquals(1, sink.configSamples);
+        assertEquals(1, drain.getFramesWritten());
+        assertEquals(1024, drain.getBytesWritten());
+    }
+
+    @Test
+    public void codecErrorTerminatesDrain() throws Exception {
+        final int[] listenerCalls = {0};
+        drain.setTerminatedListener(new Runnable() {
+            @Override
+            public void run() {
+                listenerCalls[0]++;
+            }
+        });
+        drain.start(0);
+        codec.queueFrame(1024, SampleBufferInfo.FLAG_KEY_FRAME);
+        codec.failWith(new IllegalStateException("codec died"));
+        assertTrue(drain.awaitTermination(10000));
+
+        assertNotNull(drain.getError());
+        assertEquals(1, sink.stopCount);
+        assertTrue(codec.released);
+        assertEquals(1, listenerCalls[0]);
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SampleEncoderRankingTest {
+    private static final String AVC = "video/avc";
+    private static final String HEVC = "video/hevc";
+    private static final String[] BOTH = {HEVC, AVC};
+    private static final int VBR = SampleEncoderRanking.BITRATE_MODE_VBR;
+    private static final int CBR = SampleEncoderRanking.BITRATE_MODE_CBR;
+    // MediaCodecInfo.CodecProfileLevel
+    private static final int AVC_BASELINE = 1;
+    private static final int AVC_HIGH = 8;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("ranking", ".txt");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static SampleEncoderRanking.Candidate candidate(String mime, int profile, int mode, float fps) {
+        return new SampleEncoderRanking.Candidate("OMX.vendor." + mime, mime, profile, 0, mode, fps);
+    }
+
+    @Test
+    public void prefersEarlierMimeThenProfileThenMode() {
+        SampleEncoderRanking ranking = new SampleEncoderRanking();
+        SampleEncoderRanking.Candidate baseline = candidate(AVC, AVC_BASELINE, VBR, 200);
+        SampleEncoderRanking.Candidate highCbr = candidate(AVC, AVC_HIGH, CBR, 120);
+        SampleEncoderRanking.Candidate highVbr = candidate(AVC, AVC_HIGH, VBR, 90);
+        SampleEncoderRanking.Candidate hevc = candidate(HEVC, 1, CBR, 60);
+        ranking.add(baseline);
+        ranking.add(highCbr);
+        ranking.add(highVbr);
+        ranking.add(hevc);
+
+        assertEquals(hevc, ranking.select(30, BOTH, VBR));
+        assertEquals(highVbr, ranking.select(30, new String[] {AVC}, VBR));
+        assertEquals(highCbr, ranking.select(30, new String[] {AVC}, CBR));
+        // 90fps is not enough for 80 with headroom
+        assertEquals(highCbr, ranking.select(80, new String[] {AVC}, VBR));
+        // HEVC too slow for 60 with headroom
+        assertEquals(highVbr, ranking.select(60, BOTH, VBR));
+    }
+
+    @Test
+    public void fastestWhenNoneHoldsTheRate() {
+        SampleEncoderRanking ranking = new SampleEncoderRanking();
+        SampleEncoderRanking.Candidate slow = candidate(AVC, AVC_HIGH, VBR, 50);
+        SampleEncoderRanking.Candidate fast = candidate(AVC, AVC_BASELINE, VBR, 100);
+        ranking.add(slow);
+        ranking.add(fast);
+        assertEquals(fast, ranking.select(120, BOTH, VBR));
+    }
+
+    @Test
+    public void nullWithoutUsableMime() {
+        SampleEncoderRanking ranking = new SampleEncoderRanking();
+        ranking.add(candidate(HEVC, 1, VBR, 300));
+        assertNull(ranking.select(30, new String[] {AVC}, VBR));
+        assertNull(new SampleEncoderRanking().select(30, BOTH, VBR));
+    }
+
+    @Test
+    public void storeAndLoadRoundTrip() {
+        SampleEncoderRanking ranking = new SampleEncoderRanking();
+        ranking.add(candidate(AVC, AVC_HIGH, CBR, 123.5f));
+        ranking.add(candidate(HEVC, 1, VBR, 61));
+        assertTrue(ranking.store(file, "build/1"));
+
+        SampleEncoderRanking loaded = SampleEncoderRanking.load(file, "build/1");
+        assertEquals(ranking.toString(), loaded.toString());
+        assertEquals(2, loaded.getCandidates().size());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void otherFingerprintIsNotLoaded() {
+        SampleEncoderRanking ranking = new SampleEncoderRanking();
+        ranking.add(candidate(AVC, AVC_HIGH, VBR, 100));
+        ranking.store(file, "build/1");
+        assertNull(SampleEncoderRanking.load(file, "build/2"));
+        assertNull(SampleEncoderRanking.load(new File(file.getPath() + ".missing"), "build/1"));
+    }
+
+    @Test
+    public void damagedFileIsDeleted() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("SampleEncoderRanking 2\nbuild/1\nOMX.vendor\tvideo/avc\tx\n".getBytes("UTF-8"));
+        out.close();
+        assertNull(SampleEncoderRanking.load(file, "build/1"));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void rankingOfOlderVersionIsNotLoaded() throws IOException {
+        // Version 1 rankings may hold encoders emitting B-frames
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("SampleEncoderRanking 1\nbuild/1\nOMX.vendor\tvideo/avc\t8\t2048\t1\t120.0\n".getBytes("UTF-8"));
+        out.close();
+        assertNull(SampleEncoderRanking.load(file, "build/1"));
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SampleEncoderRateControllerTest {
+    private static final int FRAME_RATE = 30;
+    private static final long FRAME_US = 1000000 / FRAME_RATE;
+    private static final int[] LEVEL_BIT_RATES = {1250000, 700000, 310000};
+    // Clock offset between presentation time and now, must not matter
+    private static final long CLOCK_OFFSET_US = 123456789;
+
+    private SampleEncoderRateController controller;
+    private final List<Integer> bitRates = new ArrayList<Integer>();
+    private final List<Integer> levels = new ArrayList<Integer>();
+    private long ptsUs = 0;
+    private long dropped = 0;
+
+    @Before
+    public void setUp() {
+        controller = new SampleEncoderRateController(FRAME_RATE, LEVEL_BIT_RATES);
+        controller.setListener(new SampleEncoderRateController.Listener() {
+            @Override
+            public void onBitrateChanged(int bitRate) {
+                bitRates.add(bitRate);
+            }
+
+            @Override
+            public void onResolutionLevelChanged(int level, int bitRate) {
+                levels.add(level);
+                bitRates.add(bitRate);
+            }
+        });
+    }
+
+    // Replay seconds of trace: frames per second output, each latencyUs after capture,
+    // droppedPerSecond frames lost before the encoder
+    private void replay(int seconds, int outputFrameRate, long latencyUs, int droppedPerSecond) {
+        long intervalUs = 1000000 / outputFrameRate;
+        for (int s = 0; s < seconds; s++) {
+            dropped += droppedPerSecond;
+            controller.reportDroppedFrames(dropped);
+            for (int i = 0; i < outputFrameRate; i++) {
+                ptsUs += intervalUs;
+                controller.onOutputSample(ptsUs + latencyUs + CLOCK_OFFSET_US, ptsUs);
+            }
+        }
+    }
+
+    @Test
+    public void holdsSteadyWhenHealthy() {
+        replay(30, FRAME_RATE, 20000, 0);
+        assertTrue(bitRates.isEmpty());
+        assertEquals(0, controller.getLevel());
+        assertEquals(LEVEL_BIT_RATES[0], controller.getBitRate());
+    }
+
+    @Test
+    public void lowerCaptureRateIsNotCongestion() {
+        replay(5, FRAME_RATE, 20000, 0);
+        // Governor lowers the capture rate to 15fps
+        controller.setFrameRate(15);
+        replay(20, 15, 20000, 0);
+        assertTrue(bitRates.isEmpty());
+        assertEquals(LEVEL_BIT_RATES[0], controller.getBitRate());
+    }
+
+    @Test
+    public void lowersBitrateWhenLatencyGrows() {
+        replay(5, FRAME_RATE, 20000, 0);
+        replay(3, FRAME_RATE, 400000, 0);
+        assertTrue(bitRates.size() >= 2);
+        for (int i = 1; i < bitRates.size(); i++) {
+            assertTrue(bitRates.get(i) < bitRates.get(i - 1));
+        }
+        assertEquals(0, controller.getLevel());
+    }
+
+    @Test
+    public void stepsResolutionDownOnlyAtMinimumBitrate() {
+        // Thermal throttling: encoder keeps up with 20fps only
+        replay(8, 20, 20000, 0);
+        assertEquals(LEVEL_BIT_RATES[0] / 4, controller.getBitRate());
+        assertTrue(levels.isEmpty());
+        replay(3, 20, 20000, 0);
+        assertEquals(1, levels.size());
+        assertEquals(1, (int) levels.get(0));
+        assertTrue(controller.getBitRate() >= LEVEL_BIT_RATES[1] / 4);
+        assertTrue(controller.getBitRate() <= LEVEL_BIT_RATES[1]);
+    }
+
+    @Test
+    public void droppedFramesCountAsCongestion() {
+        replay(3, FRAME_RATE, 20000, 10);
+        assertEquals(2, bitRates.size());
+    }
+
+    @Test
+    public void recoversBitrateThenResolution() {
+        replay(12, 20, 20000, 0);
+        assertEquals(1, controller.getLevel());
+        // Recovered: bitrate climbs to level maximum, then resolution steps back up
+        replay(60, FRAME_RATE, 20000, 0);
+        assertEquals(0, controller.getLevel());
+        assertEquals(2, levels.size());
+        assertTrue(controller.getBitRate() <= LEVEL_BIT_RATES[0]);
+    }
+}
@@ -0,0 +1,254 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SampleFragmentedMp4WriterTest {
+    private static final long FRAME_US = 33333;
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0x80, 0x1f, 0x11, 0x22};
+    private static final byte[] PPS = {0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+
+    private File file;
+    private RandomAccessFile randomAccessFile;
+    private SampleFragmentedMp4Writer<String> writer;
+    private final SampleBufferInfo info = new SampleBufferInfo();
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("fragmented", ".mp4");
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        writer = new SampleFragmentedMp4Writer<String>(randomAccessFile.getChannel(), 1280, 720);
+        writer.setSyncFragments(false);
+        writer.start("video/avc");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        randomAccessFile.close();
+        assertTrue(file.delete());
+    }
+
+    private static ByteBuffer annexB(byte[]... units) {
+        int size = 0;
+        for (byte[] unit : units) {
+            size += 4 + unit.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (byte[] unit : units) {
+            buffer.putInt(1).put(unit);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void writeConfig() {
+        ByteBuffer config = annexB(SPS, PPS);
+        info.set(0, config.remaining(), 0, SampleBufferInfo.FLAG_CODEC_CONFIG);
+        writer.writeSampleData(config, info);
+    }
+
+    // Frame n of GOP length gop, payload of size bytes filled with n
+    private void writeFrame(int n, int gop, int size) {
+        byte[] slice = new byte[size];
+        slice[0] = (byte) (n % gop == 0 ? 0x65 : 0x41);
+        for (int i = 1; i < size; i++) {
+            slice[i] = (byte) n;
+        }
+        ByteBuffer frame = annexB(slice);
+        info.set(0, frame.remaining(), 1000000 + n * FRAME_US,
+                n % gop == 0 ? SampleBufferInfo.FLAG_KEY_FRAME : 0);
+        writer.writeSampleData(frame, info);
+    }
+
+    private List<Mp4BoxParser.Box> readFile() throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        ByteBuffer data = ByteBuffer.allocate((int) channel.size());
+        while (data.hasRemaining() && channel.read(data) >= 0) {
+            // Read all
+        }
+        channel.close();
+        data.flip();
+        return Mp4BoxParser.parse(data);
+    }
+
+    private static String types(List<Mp4BoxParser.Box> boxes) {
+        StringBuilder builder = new StringBuilder();
+        for (Mp4BoxParser.Box box : boxes) {
+            builder.append(builder.length() > 0 ? " " : "").append(box.type);
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void writesInitSegmentAndOneFragmentPerGop() throws IOException {
+        writeConfig();
+        for (int n = 0; n < 15; n++) {
+            writeFrame(n, 5, 100);
+        }
+        writer.stop();
+
+        List<Mp4BoxParser.Box> boxes = readFile();
+        assertEquals("ftyp moov moof mdat moof mdat moof mdat", types(boxes));
+        assertEquals(3, writer.getFragmentCount());
+        assertEquals(file.length(), writer.getBytesWritten());
+
+        Mp4BoxParser.Box moov = boxes.get(1);
+        assertNotNull(moov.child("mvex/trex"));
+        Mp4BoxParser.Box tkhd = moov.child("trak/tkhd");
+        assertEquals(1280 << 16, tkhd.payload.getInt(tkhd.payload.limit() - 8));
+        assertEquals(720 << 16, tkhd.payload.getInt(tkhd.payload.limit() - 4));
+
+        List<Mp4BoxParser.Box> moofs = Mp4BoxParser.find(boxes, "moof");
+        for (int i = 0; i < moofs.size(); i++) {
+            Mp4BoxParser.Box moof = moofs.get(i);
+            assertEquals(i + 1, moof.child("mfhd").payload.getInt(4));
+            ByteBuffer tfdt = moof.child("traf/tfdt").payload;
+            assertEquals(1 << 24, tfdt.getInt(0));
+            assertEquals(Math.round(i * 5 * FRAME_US * 0.09), tfdt.getLong(4));
+            ByteBuffer trun = moof.child("traf/trun").payload;
+            assertEquals(5, trun.getInt(4));
+            // Data offset from moof start points at the first sample in mdat
+            assertEquals(moof.size + 8, trun.getInt(8));
+            assertEquals(0x02000000, trun.getInt(12 + 8));
+            assertEquals(0x01010000, trun.getInt(12 + 12 + 8));
+            // Every sample is its NAL unit with a 4 byte length instead of the start code
+            assertEquals(104, trun.getInt(12 + 4));
+        }
+    }
+
+    @Test
+    public void avcConfigurationFromCodecConfigSample() throws IOException {
+        writeConfig();
+        writeFrame(0, 5, 10);
+        writer.stop();
+
+        Mp4BoxParser.Box avc1 = readFile().get(1).child("trak/mdia/minf/stbl/stsd");
+        // stsd: version/flags, entry count, then avc1 with 78 bytes of fields before avcC
+        ByteBuffer stsd = avc1.payload;
+        assertEquals(1, stsd.getInt(4));
+        int avcC = 8 + 8 + 78;
+        assertEquals("avcC", new String(new byte[] {stsd.get(avcC + 4), stsd.get(avcC + 5),
+                stsd.get(avcC + 6), stsd.get(avcC + 7)}));
+        int config = avcC + 8;
+        assertEquals(1, stsd.get(config));
+        assertEquals(SPS[1], stsd.get(config + 1));
+        assertEquals(SPS[3], stsd.get(config + 3));
+        assertEquals((byte) 0xff, stsd.get(config + 4));
+        assertEquals((byte) 0xe1, stsd.get(config + 5));
+        assertEquals(SPS.length, stsd.getShort(config + 6));
+        assertEquals(SPS[0], stsd.get(config + 8));
+        assertEquals(1, stsd.get(config + 8 + SPS.length));
+        assertEquals(PPS.length, stsd.getShort(config + 9 + SPS.length));
+        assertEquals(PPS[0], stsd.get(config + 11 + SPS.length));
+    }
+
+    @Test
+    public void fileWithoutStopEndsAtLastFragmentAndFreeBox() throws IOException {
+        writer.setPreallocation(64 * 1024);
+        writeConfig();
+        // Third GOP is not complete when the process dies
+        for (int n = 0; n < 12; n++) {
+            writeFrame(n, 5, 1000);
+        }
+
+        List<Mp4BoxParser.Box> boxes = readFile();
+        assertEquals("ftyp moov moof mdat moof mdat free", types(boxes));
+        assertEquals(64 * 1024, file.length());
+        assertEquals(2, writer.getFragmentCount());
+        writer.stop();
+        assertEquals("ftyp moov moof mdat moof mdat moof mdat", types(readFile()));
+    }
+
+    @Test
+    public void growsFileInPreallocationSteps() throws IOException {
+        writer.setPreallocation(10000);
+        writeConfig();
+        for (int n = 0; n < 41; n++) {
+            writeFrame(n, 10, 300);
+        }
+        // 4 fragments of about 3 KB fit in 2 steps
+        assertEquals(4, writer.getFragmentCount());
+        assertEquals(20000, file.length());
+        assertTrue(types(readFile()).endsWith("mdat free"));
+    }
+
+    @Test
+    public void dropsSamplesBeforeConfigAndKeyFrame() throws IOException {
+        writeFrame(0, 5, 10); // Key frame without codec config
+        writeConfig();
+        writeFrame(1, 5, 10);
+        writeFrame(2, 5, 10);
+        writeFrame(5, 5, 10);
+        writer.stop();
+
+        assertEquals(3, writer.getDroppedSamples());
+        List<Mp4BoxParser.Box> moofs = Mp4BoxParser.find(readFile(), "moof");
+        assertEquals(1, moofs.size());
+        assertEquals(1, moofs.get(0).child("traf/trun").payload.getInt(4));
+        assertEquals(0L, moofs.get(0).child("traf/tfdt").payload.getLong(4));
+    }
+
+    @Test
+    public void convertsEveryStartCodeToLength() throws IOException {
+        writeConfig();
+        // SEI with a 3 byte start code, slice with a 4 byte one
+        ByteBuffer frame = ByteBuffer.wrap(new byte[] {0, 0, 1, 0x06, 5, 5, 0, 0, 0, 1, 0x65, 9, 9, 9});
+        info.set(0, frame.remaining(), 0, SampleBufferInfo.FLAG_KEY_FRAME);
+        writer.writeSampleData(frame, info);
+        assertEquals(0, frame.position());
+        writer.stop();
+
+        Mp4BoxParser.Box mdat = Mp4BoxParser.find(readFile(), "mdat").get(0);
+        ByteBuffer expected = ByteBuffer.wrap(new byte[] {0, 0, 0, 3, 0x06, 5, 5, 0, 0, 0, 4, 0x65, 9, 9, 9});
+        assertEquals(expected, mdat.payload);
+    }
+
+    @Test
+    public void maxFragmentDurationSplitsGop() throws IOException {
+        writer.setMaxFragmentDuration(4 * FRAME_US);
+        writeConfig();
+        for (int n = 0; n < 10; n++) {
+            writeFrame(n, 30, 10);
+        }
+        writer.stop();
+
+        List<Mp4BoxParser.Box> moofs = Mp4BoxParser.find(readFile(), "moof");
+        assertEquals(3, moofs.size());
+        ByteBuffer second = moofs.get(1).child("traf/trun").payload;
+        assertEquals(4, second.getInt(4));
+        assertEquals(0x01010000, second.getInt(12 + 8));
+    }
+
+    @Test
+    public void durationsAddUpToPresentationTimes() throws IOException {
+        writeConfig();
+        for (int n = 0; n < 30; n++) {
+            writeFrame(n, 30, 10);
+        }
+        writer.stop();
+
+        ByteBuffer trun = Mp4BoxParser.find(readFile(), "moof").get(0).child("traf/trun").payload;
+        long total = 0;
+        for (int i = 0; i < 29; i++) {
+            int duration = trun.getInt(12 + i * 12);
+            assertTrue(duration == 2999 || duration == 3000);
+            total += duration;
+        }
+        assertEquals(Math.round(29 * FRAME_US * 0.09), total);
+        // Last sample gets the duration of the one before
+        assertFalse(trun.getInt(12 + 29 * 12) == 0);
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SampleFrameAnalyzerTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 40;
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    // Y plane with row padding and pixel stride, like YUV_420_888 of a semi-planar camera buffer
+    private ByteBuffer plane(int rowStride, int pixelStride, Random random, int value) {
+        ByteBuffer plane = ByteBuffer.allocateDirect((HEIGHT - 1) * rowStride + (WIDTH - 1) * pixelStride + 1);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                plane.put(y * rowStride + x * pixelStride, (byte) (random == null ? value : random.nextInt(256)));
+            }
+        }
+        return plane;
+    }
+
+    @Test
+    public void uniformFrames() {
+        SampleFrameAnalyzer analyzer = new SampleFrameAnalyzer(WIDTH, HEIGHT, 1, null);
+        SampleFrameStats stats = new SampleFrameStats();
+        analyzer.analyze(plane(WIDTH, 1, null, 100), WIDTH, 1, 5, stats);
+        assertEquals(5, stats.timestampNs);
+        assertEquals(WIDTH * HEIGHT, stats.histogram[100]);
+        assertEquals(100f, stats.meanLuma, 0);
+        assertEquals(0f, stats.sharpness, 0);
+        assertEquals(0f, stats.motion, 0);
+
+        analyzer.analyze(plane(WIDTH, 1, null, 110), WIDTH, 1, 6, stats);
+        assertEquals(0, stats.histogram[100]);
+        assertEquals(10f, stats.motion, 0);
+
+        analyzer.reset();
+        analyzer.analyze(plane(WIDTH, 1, null, 200), WIDTH, 1, 7, stats);
+        assertEquals(0f, stats.motion, 0);
+    }
+
+    @Test
+    public void gradientIsSharpness() {
+        // Columns alternate 0 and 255: every horizontal step is 255, vertical steps are 0
+        ByteBuffer plane = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            plane.put(i, (byte) (i % 2 == 0 ? 0 : 255));
+        }
+        SampleFrameAnalyzer analyzer = new SampleFrameAnalyzer(WIDTH, HEIGHT, 1, null);
+        SampleFrameStats stats = new SampleFrameStats();
+        analyzer.analyze(plane, WIDTH, 1, 0, stats);
+        int horizontal = HEIGHT * (WIDTH - 1);
+        int vertical = (HEIGHT - 1) * WIDTH;
+        assertEquals(255f * horizontal / (horizontal + vertical), stats.sharpness, 0.01);
+    }
+
+    @Test
+    public void stripesMatchSingleThread() {
+        int rowStride = WIDTH * 2 + 16;
+        Random random = new Random(1);
+        ByteBuffer first = plane(rowStride, 2, random, 0);
+        ByteBuffer second = plane(rowStride, 2, random, 0);
+        SampleFrameAnalyzer single = new SampleFrameAnalyzer(WIDTH, HEIGHT, 1, null);
+        SampleFrameAnalyzer striped = new SampleFrameAnalyzer(WIDTH, HEIGHT, 4, executor);
+        assertEquals(4, striped.getStripeCount());
+        SampleFrameStats expected = new SampleFrameStats();
+        SampleFrameStats actual = new SampleFrameStats();
+        for (ByteBuffer plane : new ByteBuffer[] {first, second}) {
+            single.analyze(plane, rowStride, 2, 0, expected);
+            striped.analyze(plane, rowStride, 2, 0, actual);
+            assertArrayEquals(expected.histogram, actual.histogram);
+            assertEquals(expected.meanLuma, actual.meanLuma, 0);
+            assertEquals(expected.sharpness, actual.sharpness, 0);
+            assertEquals(expected.motion, actual.motion, 0);
+        }
+        assertEquals(0, first.position());
+        assertEquals(first.capacity(), first.limit());
+    }
+
+    @Test
+    public void stripesAreLimitedByThumbnailRows() {
+        SampleFrameAnalyzer analyzer = new SampleFrameAnalyzer(WIDTH, 16, 8, executor);
+        assertEquals(2, analyzer.getStripeCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSmallPlane() {
+        SampleFrameAnalyzer analyzer = new SampleFrameAnalyzer(WIDTH, HEIGHT, 1, null);
+        analyzer.analyze(ByteBuffer.allocateDirect(WIDTH * HEIGHT - 1), WIDTH, 1, 0, new SampleFrameStats());
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SampleFrameHandoffTest {
+    @Test
+    public void onlyFirstPendingFrameRequestsRender() {
+        SampleFrameHandoff handoff = new SampleFrameHandoff();
+        assertTrue(handoff.frameAvailable());
+        assertFalse(handoff.frameAvailable());
+        assertFalse(handoff.frameAvailable());
+        assertEquals(3, handoff.beginDraw());
+        assertTrue(handoff.frameAvailable());
+    }
+
+    @Test
+    public void countersTrackCoalescedAndDroppedFrames() {
+        SampleFrameHandoff handoff = new SampleFrameHandoff();
+        for (int i = 0; i < 6; i++) {
+            handoff.frameAvailable();
+        }
+        int latched = handoff.beginDraw();
+        handoff.endDraw(latched, 4);
+        handoff.frameAvailable();
+        handoff.endDraw(handoff.beginDraw(), 1);
+        handoff.endDraw(handoff.beginDraw(), 0);
+
+        assertEquals(7, handoff.getAvailableFrames());
+        assertEquals(7, handoff.getLatchedFrames());
+        assertEquals(3, handoff.getCoalescedFrames());
+        assertEquals(2, handoff.getDroppedFrames());
+    }
+
+    @Test
+    public void decimationWakesOncePerNFrames() {
+        SampleFrameHandoff handoff = new SampleFrameHandoff();
+        handoff.setDecimation(4);
+        int requests = 0;
+        for (int i = 0; i < 4; i++) {
+            if (handoff.frameAvailable()) {
+                requests++;
+            }
+        }
+        assertEquals(1, requests);
+        assertEquals(4, handoff.beginDraw());
+        handoff.endDraw(4, 1);
+        assertEquals(3, handoff.getDecimatedFrames());
+        assertEquals(0, handoff.getDroppedFrames());
+
+        // GL thread behind: two decimated frames latched at once, only one drawn
+        for (int i = 0; i < 8; i++) {
+            handoff.frameAvailable();
+        }
+        handoff.endDraw(handoff.beginDraw(), 1);
+        assertEquals(9, handoff.getDecimatedFrames());
+        assertEquals(1, handoff.getDroppedFrames());
+    }
+
+    @Test
+    public void noFrameIsLostUnderConcurrentProducers() throws Exception {
+        final SampleFrameHandoff handoff = new SampleFrameHandoff();
+        final int producers = 4;
+        final int framesPerProducer = 50000;
+        final AtomicInteger renderRequests = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < framesPerProducer; i++) {
+                        if (handoff.frameAvailable()) {
+                            renderRequests.incrementAndGet();
+                        }
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        long drained = 0;
+        int draws = 0;
+        while (done.getCount() > 0 || handoff.getPendingFrames() > 0) {
+            int latched = handoff.beginDraw();
+            if (latched > 0) {
+                draws++;
+                handoff.endDraw(latched, latched);
+            }
+            drained += latched;
+        }
+
+        assertEquals(producers * framesPerProducer, drained);
+        assertEquals(drained, handoff.getLatchedFrames());
+        assertEquals(0, handoff.getDroppedFrames());
+        // Every draw which took frames was preceded by a render request
+        assertTrue(renderRequests.get() >= draws);
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SampleFrameMetadataLogTest {
+    private static final long FRAME_US = 33333;
+
+    private File first;
+    private File second;
+    private final SampleFrameMetadataLog log = new SampleFrameMetadataLog();
+    private final SampleFrameMetadataReader.Record record = new SampleFrameMetadataReader.Record();
+
+    @Before
+    public void setUp() throws IOException {
+        first = File.createTempFile("record_0000", SampleFrameMetadataLog.SUFFIX);
+        second = File.createTempFile("record_0001", SampleFrameMetadataLog.SUFFIX);
+    }
+
+    @After
+    public void tearDown() {
+        log.close();
+        first.delete();
+        second.delete();
+    }
+
+    // Capture result of frame n: sensor time n frames after 1s, exposure and ISO derived from n
+    private void capture(int n) {
+        long sensorNs = ptsOf(n) * 1000;
+        log.onCaptureResult(100 + n, sensorNs, sensorNs / 1000, 10000000L + n, 100 + n, 0.5f * n);
+    }
+
+    private void write(int n) {
+        log.onFrameWritten(ptsOf(n));
+    }
+
+    private void append(int n) {
+        capture(n);
+        write(n);
+    }
+
+    private static long ptsOf(int n) {
+        return 1000000 + n * FRAME_US;
+    }
+
+    @Test
+    public void recordsReadBackByIndex() throws IOException {
+        log.open(first);
+        for (int n = 0; n < 100; n++) {
+            append(n);
+        }
+        log.close();
+        assertEquals(SampleFrameMetadataLog.HEADER_SIZE + 100 * SampleFrameMetadataLog.RECORD_SIZE, first.length());
+
+        SampleFrameMetadataReader reader = new SampleFrameMetadataReader(first);
+        assertEquals(100, reader.getCount());
+        assertTrue(reader.read(42, record));
+        assertEquals(142, record.frameNumber);
+        assertEquals(ptsOf(42) * 1000, record.sensorTimestampNs);
+        assertEquals(ptsOf(42), record.presentationTimeUs);
+        assertEquals(10000042L, record.exposureTimeNs);
+        assertEquals(142, record.sensitivity);
+        assertEquals(21f, record.focusDistance, 0);
+        assertFalse(reader.read(100, record));
+        reader.close();
+    }
+
+    @Test
+    public void findsFramesByPresentationTimeAndNumber() throws IOException {
+        log.open(first);
+        for (int n = 0; n < 100; n++) {
+            append(n);
+        }
+        log.close();
+
+        SampleFrameMetadataReader reader = new SampleFrameMetadataReader(first);
+        assertEquals(10, reader.findByPresentationTime(ptsOf(10)));
+        // Between frames: the one shown at that time
+        assertEquals(10, reader.findByPresentationTime(ptsOf(10) + FRAME_US / 2));
+        assertEquals(-1, reader.findByPresentationTime(ptsOf(0) - 1));
+        assertEquals(99, reader.findByPresentationTime(Long.MAX_VALUE));
+        assertEquals(57, reader.findByFrameNumber(157));
+        assertEquals(-1, reader.findByFrameNumber(99));
+        assertEquals(-1, reader.findByFrameNumber(200));
+        reader.close();
+    }
+
+    @Test
+    public void mappingGrowsBeyondOneChunk() throws IOException {
+        log.open(first);
+        int frames = SampleFrameMetadataLog.CHUNK_RECORDS * 2 + 10;
+        for (int n = 0; n < frames; n++) {
+            append(n);
+        }
+        assertEquals(0, log.getDroppedRecords());
+        log.close();
+
+        SampleFrameMetadataReader reader = new SampleFrameMetadataReader(first);
+        assertEquals(frames, reader.getCount());
+        assertTrue(reader.read(frames - 1, record));
+        assertEquals(100 + frames - 1, record.frameNumber);
+        reader.close();
+    }
+
+    @Test
+    public void rollKeepsWaitingResultsForNextFile() throws IOException {
+        log.open(first);
+        // Capture results run five frames ahead of the written frames, next file starts with 90
+        for (int n = 0; n < 5; n++) {
+            capture(n);
+        }
+        for (int n = 0; n < 100; n++) {
+            if (n == 90) {
+                log.open(second);
+                assertEquals(second, log.getFile());
+                assertEquals(0, log.getCount());
+            }
+            if (n + 5 < 100) {
+                capture(n + 5);
+            }
+            write(n);
+        }
+        log.close();
+
+        SampleFrameMetadataReader reader = new SampleFrameMetadataReader(first);
+        assertEquals(90, reader.getCount());
+        reader.read(89, record);
+        assertEquals(189, record.frameNumber);
+        reader.close();
+        reader = new SampleFrameMetadataReader(second);
+        assertEquals(10, reader.getCount());
+        reader.read(0, record);
+        assertEquals(190, record.frameNumber);
+        reader.read(9, record);
+        assertEquals(199, record.frameNumber);
+        reader.close();
+    }
+
+    @Test
+    public void unclosedLogIsReadableUpToLastRecord() throws IOException {
+        log.open(first);
+        for (int n = 0; n < 30; n++) {
+            append(n);
+        }
+        // Process killed: the file keeps its mapped size, the header its record count
+        assertTrue(first.length() > SampleFrameMetadataLog.HEADER_SIZE + 30 * SampleFrameMetadataLog.RECORD_SIZE);
+        SampleFrameMetadataReader reader = new SampleFrameMetadataReader(first);
+        assertEquals(30, reader.getCount());
+        reader.read(29, record);
+        assertEquals(129, record.frameNumber);
+        reader.close();
+    }
+
+    @Test
+    public void framesNotWrittenHaveNoRecord() throws IOException {
+        // Captured before the encoder started
+        for (int n = 0; n < 5; n++) {
+            capture(n);
+        }
+        log.open(first);
+        for (int n = 5; n < 40; n++) {
+            capture(n);
+            // Every third frame dropped before the encoder
+            if (n % 3 != 0) {
+                write(n);
+            }
+        }
+        log.close();
+
+        SampleFrameMetadataReader reader = new SampleFrameMetadataReader(first);
+        assertEquals(23, reader.getCount());
+        for (int i = 0; i < reader.getCount(); i++) {
+            reader.read(i, record);
+            int n = (int) (record.frameNumber - 100);
+            assertTrue(n >= 5 && n % 3 != 0);
+            assertEquals(ptsOf(n), record.presentationTimeUs);
+        }
+        reader.close();
+        assertEquals(0, log.getDroppedRecords());
+    }
+
+    @Test
+    public void lateCaptureResultIsMatched() throws IOException {
+        log.open(first);
+        write(0);
+        write(1);
+        capture(0);
+        // Result of frame 1 lost, frame 2 in order again
+        append(2);
+        log.close();
+
+        SampleFrameMetadataReader reader = new SampleFrameMetadataReader(first);
+        assertEquals(2, reader.getCount());
+        reader.read(0, record);
+        assertEquals(100, record.frameNumber);
+        reader.read(1, record);
+        assertEquals(102, record.frameNumber);
+        reader.close();
+        assertEquals(1, log.getUnmatchedFrames());
+    }
+
+    @Test
+    public void writeWhileClosedIsDropped() {
+        append(0);
+        assertEquals(1, log.getDroppedRecords());
+    }
+
+    @Test
+    public void sidecarReplacesVideoExtension() {
+        assertEquals(new File("/sdcard/Movies/record_0003.meta"),
+                SampleFrameMetadataLog.sidecarFile(new File("/sdcard/Movies/record_0003.mp4")));
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFileIsRejected() throws IOException {
+        new SampleFrameMetadataReader(new File("/dev/null"));
+    }
+}
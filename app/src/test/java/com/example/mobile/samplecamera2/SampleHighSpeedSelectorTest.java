@@ -0,0 +1,60 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SampleHighSpeedSelectorTest {
+    private SampleHighSpeedSelector selector;
+
+    @Before
+    public void setUp() {
+        // Typical device: 720p up to 240, 1080p up to 120, variable preview ranges
+        selector = new SampleHighSpeedSelector();
+        selector.add(1280, 720, 30, 120);
+        selector.add(1280, 720, 120, 120);
+        selector.add(1280, 720, 30, 240);
+        selector.add(1280, 720, 240, 240);
+        selector.add(1920, 1080, 30, 120);
+        selector.add(1920, 1080, 120, 120);
+    }
+
+    @Test
+    public void picksLargestSizeWithFixedRange() {
+        SampleHighSpeedSelector.Mode mode = selector.select(120, 1920, 1080);
+        assertEquals(1920, mode.width);
+        assertEquals(1080, mode.height);
+        assertEquals(120, mode.fps);
+        assertEquals(4, mode.getPreviewDecimation(30));
+    }
+
+    @Test
+    public void respectsMaximumSize() {
+        SampleHighSpeedSelector.Mode mode = selector.select(120, 1280, 720);
+        assertEquals(1280, mode.width);
+        assertEquals(120, mode.fps);
+    }
+
+    @Test
+    public void prefersRateOverSize() {
+        SampleHighSpeedSelector.Mode mode = selector.select(240, 1920, 1080);
+        assertEquals(1280, mode.width);
+        assertEquals(240, mode.fps);
+        assertEquals(8, mode.getPreviewDecimation(30));
+    }
+
+    @Test
+    public void fallsBackToLowerRate() {
+        SampleHighSpeedSelector.Mode mode = selector.select(200, 1920, 1080);
+        assertEquals(120, mode.fps);
+        assertEquals(1920, mode.width);
+    }
+
+    @Test
+    public void nothingBelowRequestedRate() {
+        assertNull(selector.select(60, 1920, 1080));
+        assertNull(new SampleHighSpeedSelector().select(120, 1920, 1080));
+    }
+}
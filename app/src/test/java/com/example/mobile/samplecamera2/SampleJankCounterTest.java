@@ -0,0 +1,38 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SampleJankCounterTest {
+    private static final long INTERVAL = 16666667;
+
+    @Test
+    public void countsOverrunsAndSkippedFrames() {
+        SampleJankCounter counter = new SampleJankCounter(INTERVAL);
+        long t = 1000;
+        counter.onFrame(t);
+        // On time, a bit late, one missed vsync, three missed vsyncs
+        long[] gaps = {INTERVAL, INTERVAL * 14 / 10, INTERVAL * 2, INTERVAL * 4};
+        for (long gap : gaps) {
+            t += gap;
+            counter.onFrame(t);
+        }
+        assertEquals(4, counter.getFrames());
+        assertEquals(2, counter.getOverruns());
+        assertEquals(4, counter.getSkippedFrames());
+        assertEquals(INTERVAL * 4, counter.getMaxFrameNs());
+    }
+
+    @Test
+    public void resetIgnoresGapToLastFrame() {
+        SampleJankCounter counter = new SampleJankCounter(INTERVAL);
+        counter.onFrame(0);
+        counter.onFrame(INTERVAL * 3);
+        counter.reset();
+        counter.onFrame(INTERVAL * 100);
+        counter.onFrame(INTERVAL * 101);
+        assertEquals(1, counter.getFrames());
+        assertEquals(0, counter.getOverruns());
+    }
+}
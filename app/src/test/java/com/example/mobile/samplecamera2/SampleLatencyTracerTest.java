@@ -0,0 +1,125 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SampleLatencyTracerTest {
+    private static final long MS = 1000000;
+
+    @Test
+    public void bucketsCoverValuesWithinEighth() {
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            long value = random.nextInt(Integer.MAX_VALUE) >> random.nextInt(31);
+            int bucket = SampleLatencyHistogram.bucketOf(value);
+            long limit = SampleLatencyHistogram.bucketLimit(bucket);
+            assertTrue(value <= limit);
+            assertTrue(limit - value <= value / 8);
+            if (bucket > 0) {
+                assertTrue(value > SampleLatencyHistogram.bucketLimit(bucket - 1));
+            }
+        }
+    }
+
+    @Test
+    public void percentilesOfUniformValues() {
+        SampleLatencyHistogram histogram = new SampleLatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 100);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        long p50 = histogram.getPercentile(50);
+        long p99 = histogram.getPercentile(99);
+        assertTrue(p50 >= 50000 && p50 <= 50000 * 9 / 8);
+        assertTrue(p99 >= 99000 && p99 <= 100000);
+        assertEquals(100000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void concurrentRecordsAreNotLost() throws InterruptedException {
+        final SampleLatencyHistogram histogram = new SampleLatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record((i * 31 + seed) % 50000);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, histogram.getCount());
+        long sum = 0;
+        long[] buckets = histogram.getBuckets();
+        for (int i = 1; i < buckets.length; i += 2) {
+            sum += buckets[i];
+        }
+        assertEquals(400000, sum);
+        assertEquals(49999, histogram.getMax());
+    }
+
+    @Test
+    public void stagesMeasureFromSensorTimestamp() {
+        SampleLatencyTracer tracer = new SampleLatencyTracer();
+        for (int frame = 0; frame < 100; frame++) {
+            long sensorNs = 1000 * MS + frame * 33 * MS;
+            tracer.mark(SampleLatencyTracer.STAGE_SENSOR, sensorNs, sensorNs + 2 * MS);
+            tracer.frameAvailable(sensorNs + 10 * MS);
+            tracer.frameLatched(sensorNs, sensorNs + 12 * MS);
+            tracer.mark(SampleLatencyTracer.STAGE_DRAWN, sensorNs, sensorNs + 15 * MS);
+            tracer.mark(SampleLatencyTracer.STAGE_ENCODED, sensorNs, sensorNs + 40 * MS);
+            tracer.mark(SampleLatencyTracer.STAGE_MUXED, sensorNs, sensorNs + 41 * MS);
+        }
+        long[] expectedMs = {2, 10, 12, 15, 40, 41};
+        for (int stage = 0; stage < SampleLatencyTracer.STAGE_COUNT; stage++) {
+            SampleLatencyHistogram histogram = tracer.getHistogram(stage);
+            assertEquals(100, histogram.getCount());
+            assertEquals(expectedMs[stage] * 1000, histogram.getMax());
+            assertEquals(expectedMs[stage], histogram.getPercentile(50) / 1000);
+        }
+    }
+
+    @Test
+    public void availableMatchedInOrderWhenLatchedTogether() {
+        SampleLatencyTracer tracer = new SampleLatencyTracer();
+        // Three frames arrive, GL thread latches them in one draw
+        tracer.frameAvailable(110 * MS);
+        tracer.frameAvailable(143 * MS);
+        tracer.frameAvailable(176 * MS);
+        tracer.frameLatched(100 * MS, 180 * MS);
+        tracer.frameLatched(133 * MS, 180 * MS);
+        tracer.frameLatched(166 * MS, 180 * MS);
+        SampleLatencyHistogram available = tracer.getHistogram(SampleLatencyTracer.STAGE_AVAILABLE);
+        assertEquals(3, available.getCount());
+        assertEquals(10000, available.getMax());
+        assertEquals(80000, tracer.getHistogram(SampleLatencyTracer.STAGE_LATCHED).getMax());
+        // Latch without arrival does not reuse old ones
+        tracer.frameLatched(200 * MS, 205 * MS);
+        assertEquals(3, available.getCount());
+    }
+
+    @Test
+    public void dumpListsEveryStage() throws Exception {
+        SampleLatencyTracer tracer = new SampleLatencyTracer();
+        tracer.mark(SampleLatencyTracer.STAGE_MUXED, MS, 51 * MS);
+        StringWriter writer = new StringWriter();
+        tracer.dump(writer);
+        String[] lines = writer.toString().split("\n");
+        assertEquals(SampleLatencyTracer.STAGE_COUNT + 1, lines.length);
+        assertTrue(lines[6].startsWith("muxed 1 "));
+        assertTrue(lines[6].endsWith(":1"));
+        assertTrue(tracer.toString().contains("muxed 50/50/50"));
+    }
+}
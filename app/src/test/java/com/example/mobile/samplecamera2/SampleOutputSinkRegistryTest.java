@@ -0,0 +1,159 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SampleOutputSinkRegistryTest {
+    static class FakeSink implements SampleOutputSinkRegistry.Sink {
+        final int divisor;
+        final boolean host;
+        boolean attached = false;
+        int drawCount = 0;
+
+        FakeSink(int divisor, boolean host) {
+            this.divisor = divisor;
+            this.host = host;
+        }
+
+        @Override
+        public int getFrameRateDivisor() {
+            return divisor;
+        }
+
+        @Override
+        public boolean isHostSurface() {
+            return host;
+        }
+    }
+
+    static class FakeAttacher implements SampleOutputSinkRegistry.Attacher<FakeSink> {
+        int attachCount = 0;
+        int detachCount = 0;
+        boolean fail = false;
+
+        @Override
+        public boolean attach(FakeSink sink) {
+            if (fail) {
+                return false;
+            }
+            attachCount++;
+            sink.attached = true;
+            return true;
+        }
+
+        @Override
+        public void detach(FakeSink sink) {
+            detachCount++;
+            sink.attached = false;
+        }
+    }
+
+    private final SampleOutputSinkRegistry<FakeSink> registry = new SampleOutputSinkRegistry<FakeSink>();
+    private final FakeAttacher attacher = new FakeAttacher();
+
+    @Test
+    public void changesAreAppliedOnUpdateOnly() {
+        FakeSink sink = new FakeSink(1, false);
+        registry.register(sink);
+        assertTrue(registry.hasPendingChanges());
+        assertEquals(0, registry.size());
+        assertFalse(sink.attached);
+
+        registry.update(attacher);
+        assertFalse(registry.hasPendingChanges());
+        assertEquals(1, registry.size());
+        assertTrue(sink.attached);
+
+        registry.unregister(sink);
+        assertEquals(1, registry.size());
+        registry.update(attacher);
+        assertEquals(0, registry.size());
+        assertFalse(sink.attached);
+        assertEquals(1, attacher.detachCount);
+    }
+
+    @Test
+    public void addThenRemoveBeforeUpdateLeavesNothingAttached() {
+        FakeSink sink = new FakeSink(1, false);
+        registry.register(sink);
+        registry.unregister(sink);
+        registry.update(attacher);
+        assertEquals(0, registry.size());
+        assertFalse(sink.attached);
+    }
+
+    @Test
+    public void duplicateAndFailedAttachAreIgnored() {
+        FakeSink sink = new FakeSink(1, false);
+        registry.register(sink);
+        registry.register(sink);
+        registry.update(attacher);
+        assertEquals(1, registry.size());
+        assertEquals(1, attacher.attachCount);
+
+        attacher.fail = true;
+        registry.register(new FakeSink(1, false));
+        registry.update(attacher);
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void divisorLimitsDrawRateAndHostComesLast() {
+        FakeSink host = new FakeSink(1, true);
+        FakeSink encoder = new FakeSink(1, false);
+        FakeSink analysis = new FakeSink(6, false);
+        registry.register(host);
+        registry.register(encoder);
+        registry.register(analysis);
+        registry.update(attacher);
+
+        List<FakeSink> due = new ArrayList<FakeSink>();
+        for (long frame = 0; frame < 300; frame++) {
+            registry.selectDue(frame, due);
+            assertSame(host, due.get(due.size() - 1));
+            for (FakeSink sink : due) {
+                sink.drawCount++;
+            }
+        }
+        assertEquals(300, host.drawCount);
+        assertEquals(300, encoder.drawCount);
+        assertEquals(50, analysis.drawCount);
+    }
+
+    @Test
+    public void hostAndOtherSinksCanBeLeftOut() {
+        FakeSink host = new FakeSink(1, true);
+        FakeSink encoder = new FakeSink(1, false);
+        registry.register(host);
+        registry.register(encoder);
+        registry.update(attacher);
+
+        List<FakeSink> due = new ArrayList<FakeSink>();
+        registry.selectDue(0, false, true, due);
+        assertEquals(1, due.size());
+        assertSame(encoder, due.get(0));
+        registry.selectDue(0, true, false, due);
+        assertEquals(1, due.size());
+        assertSame(host, due.get(0));
+    }
+
+    @Test
+    public void clearDetachesEverything() {
+        FakeSink a = new FakeSink(1, false);
+        FakeSink b = new FakeSink(2, false);
+        registry.register(a);
+        registry.update(attacher);
+        registry.register(b);
+        registry.clear(attacher);
+        assertEquals(0, registry.size());
+        assertFalse(a.attached);
+        assertFalse(b.attached);
+    }
+}
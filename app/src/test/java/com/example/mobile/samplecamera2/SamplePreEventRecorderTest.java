@@ -0,0 +1,118 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SamplePreEventRecorderTest {
+    private static final long FRAME_US = 33333;
+
+    class RecordingSink implements SampleMuxerSink<String> {
+        String format = null;
+        boolean stopped = false;
+        int configSamples = 0;
+        final List<Long> times = new ArrayList<Long>();
+        final List<Boolean> keyFrames = new ArrayList<Boolean>();
+
+        @Override
+        public void start(String f) {
+            format = f;
+        }
+
+        @Override
+        public void writeSampleData(ByteBuffer data, SampleBufferInfo info) {
+            assertEquals(info.size, data.remaining());
+            if (info.isCodecConfig()) {
+                configSamples++;
+                return;
+            }
+            times.add(info.presentationTimeUs);
+            keyFrames.add(info.isKeyFrame());
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+    }
+
+    private final SampleBufferInfo info = new SampleBufferInfo();
+
+    private void write(SamplePreEventRecorder<String> recorder, int n, int gop) {
+        info.set(0, 20, n * FRAME_US, n % gop == 0 ? SampleBufferInfo.FLAG_KEY_FRAME : 0);
+        recorder.writeSampleData(ByteBuffer.allocate(20), info);
+    }
+
+    private SamplePreEventRecorder<String> startedRecorder() {
+        SamplePreEventRecorder<String> recorder = new SamplePreEventRecorder<String>(
+                new SampleEncodedRingBuffer(100000, 1000, 0));
+        recorder.start("avc");
+        info.set(0, 8, 0, SampleBufferInfo.FLAG_CODEC_CONFIG);
+        recorder.writeSampleData(ByteBuffer.allocate(8), info);
+        return recorder;
+    }
+
+    @Test
+    public void flushesFromKeyFrameThenContinuesLive() {
+        SamplePreEventRecorder<String> recorder = startedRecorder();
+        for (int n = 0; n < 100; n++) {
+            write(recorder, n, 30);
+        }
+        RecordingSink target = new RecordingSink();
+        recorder.trigger(target, 20 * FRAME_US);
+        assertTrue(recorder.isRecording());
+        for (int n = 100; n < 110; n++) {
+            write(recorder, n, 30);
+        }
+
+        // Trigger at n = 100, pre-roll point n = 80, key frame at or before is n = 60
+        assertEquals("avc", target.format);
+        assertEquals(1, target.configSamples);
+        assertTrue(target.keyFrames.get(0));
+        assertEquals(60 * FRAME_US, (long) target.times.get(0));
+        assertEquals(41, recorder.getFlushedSamples());
+        assertEquals(50, target.times.size());
+        for (int i = 1; i < target.times.size(); i++) {
+            assertEquals(target.times.get(i - 1) + FRAME_US, (long) target.times.get(i));
+        }
+
+        recorder.stopRecording();
+        write(recorder, 110, 30);
+        assertTrue(target.stopped);
+        assertFalse(recorder.isRecording());
+        assertEquals(50, target.times.size());
+    }
+
+    @Test
+    public void waitsForFirstKeyFrame() {
+        SamplePreEventRecorder<String> recorder = startedRecorder();
+        RecordingSink target = new RecordingSink();
+        recorder.trigger(target, 0);
+        // Non key frames are neither buffered nor flushed
+        write(recorder, 1, 30);
+        write(recorder, 2, 30);
+        assertEquals(null, target.format);
+        write(recorder, 30, 30);
+        assertEquals("avc", target.format);
+        assertEquals(1, target.times.size());
+        assertTrue(target.keyFrames.get(0));
+    }
+
+    @Test
+    public void stopFinishesTarget() {
+        SamplePreEventRecorder<String> recorder = startedRecorder();
+        write(recorder, 0, 30);
+        RecordingSink target = new RecordingSink();
+        recorder.trigger(target, 0);
+        write(recorder, 1, 30);
+        recorder.stop();
+        assertTrue(target.stopped);
+        assertEquals(2, target.times.size());
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SampleProgramBinaryCacheTest {
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("programs", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    private void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private ByteBuffer binary(int length) {
+        ByteBuffer binary = ByteBuffer.allocateDirect(length);
+        for (int i = 0; i < length; i++) {
+            binary.put(i, (byte) i);
+        }
+        return binary;
+    }
+
+    @Test
+    public void storeAndLoad() throws IOException {
+        File dir = new File(directory, "programs");
+        SampleProgramBinaryCache cache = new SampleProgramBinaryCache(dir, "vendor|renderer|3.2");
+        String key = SampleProgramBinaryCache.hash("vertex", "fragment");
+        assertNull(cache.load(key));
+        ByteBuffer binary = binary(100);
+        assertTrue(cache.store(key, 0x8741, binary));
+        assertEquals(0, binary.position());
+
+        SampleProgramBinaryCache.Entry entry = new SampleProgramBinaryCache(dir, "vendor|renderer|3.2").load(key);
+        assertEquals(0x8741, entry.format);
+        assertEquals(binary, entry.binary);
+        assertEquals(1, dir.listFiles().length);
+    }
+
+    @Test
+    public void driverChangeMissesAndRetainDeletes() {
+        File dir = directory;
+        SampleProgramBinaryCache old = new SampleProgramBinaryCache(dir, "driver 1");
+        String key = SampleProgramBinaryCache.hash("vertex", "fragment");
+        old.store(key, 1, binary(10));
+        SampleProgramBinaryCache updated = new SampleProgramBinaryCache(dir, "driver 2");
+        assertFalse(old.getDriverHash().equals(updated.getDriverHash()));
+        assertNull(updated.load(key));
+        updated.store(key, 1, binary(10));
+        assertEquals(1, updated.retainDriver());
+        assertNull(old.load(key));
+        assertEquals(1, dir.listFiles().length);
+    }
+
+    @Test
+    public void damagedFileIsDeleted() throws IOException {
+        File dir = directory;
+        SampleProgramBinaryCache cache = new SampleProgramBinaryCache(dir, "driver");
+        String key = SampleProgramBinaryCache.hash("a");
+        cache.store(key, 1, binary(10));
+        File file = dir.listFiles()[0];
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(1);
+        out.close();
+        assertNull(cache.load(key));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void hashSeparatesParts() {
+        assertFalse(SampleProgramBinaryCache.hash("ab", "c").equals(SampleProgramBinaryCache.hash("a", "bc")));
+        assertEquals(40, SampleProgramBinaryCache.hash("a").length());
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class SampleRowFlipperTest {
+    private ByteBuffer rows(int stride, int count) {
+        ByteBuffer pixels = ByteBuffer.allocateDirect(stride * count);
+        for (int row = 0; row < count; row++) {
+            for (int i = 0; i < stride; i++) {
+                pixels.put((byte) (row * 16 + i));
+            }
+        }
+        pixels.position(0);
+        return pixels;
+    }
+
+    @Test
+    public void flipsEvenAndOddRowCounts() {
+        SampleRowFlipper flipper = new SampleRowFlipper();
+        for (int count = 1; count <= 5; count++) {
+            ByteBuffer pixels = rows(8, count);
+            flipper.flip(pixels, 8, count);
+            assertEquals(0, pixels.position());
+            for (int row = 0; row < count; row++) {
+                for (int i = 0; i < 8; i++) {
+                    assertEquals((byte) ((count - 1 - row) * 16 + i), pixels.get(row * 8 + i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void flipTwiceRestores() {
+        SampleRowFlipper flipper = new SampleRowFlipper();
+        ByteBuffer pixels = rows(12, 7);
+        flipper.flip(pixels, 12, 7);
+        flipper.flip(pixels, 12, 7);
+        assertEquals(rows(12, 7), pixels);
+    }
+}
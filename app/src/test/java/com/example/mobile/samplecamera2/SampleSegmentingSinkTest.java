@@ -0,0 +1,305 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SampleSegmentingSinkTest {
+    private static final long FRAME_US = 33333;
+
+    private File directory;
+    private final List<FileSink> created = new ArrayList<FileSink>();
+    private final List<Runnable> backgroundTasks = new ArrayList<Runnable>();
+    private int discarded = 0;
+
+    // Writes sample bytes to the file on stop(), so quota sees real sizes
+    class FileSink implements SampleMuxerSink<String> {
+        final File file;
+        boolean started = false;
+        boolean stopped = false;
+        int samples = 0;
+        int configSamples = 0;
+        long bytes = 0;
+        boolean firstIsKeyFrame = false;
+
+        FileSink(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void start(String format) {
+            started = true;
+        }
+
+        @Override
+        public void writeSampleData(ByteBuffer data, SampleBufferInfo info) {
+            assertTrue(started);
+            if (info.isCodecConfig()) {
+                configSamples++;
+                return;
+            }
+            if (samples == 0) {
+                firstIsKeyFrame = info.isKeyFrame();
+            }
+            samples++;
+            bytes += info.size;
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+            try {
+                FileOutputStream out = new FileOutputStream(file);
+                out.write(new byte[(int) bytes]);
+                out.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private final SampleSegmentingSink.SegmentFactory<String> factory =
+            new SampleSegmentingSink.SegmentFactory<String>() {
+                @Override
+                public SampleMuxerSink<String> create(File file) throws IOException {
+                    assertTrue(file.createNewFile());
+                    FileSink sink = new FileSink(file);
+                    created.add(sink);
+                    return sink;
+                }
+
+                @Override
+                public void discard(SampleMuxerSink<String> sink) {
+                    discarded++;
+                }
+            };
+
+    private final Executor directExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("segments", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private SampleSegmentingSink<String> newSink(Executor executor) {
+        return new SampleSegmentingSink<String>(directory, "record", ".mp4", factory, executor);
+    }
+
+    private static void write(SampleMuxerSink<String> sink, int frame, int size, int flags) {
+        ByteBuffer data = ByteBuffer.allocate(size);
+        SampleBufferInfo info = new SampleBufferInfo();
+        info.set(0, size, frame * FRAME_US, flags);
+        sink.writeSampleData(data, info);
+    }
+
+    // 300 frames at 30fps, key frame every 30 frames
+    private static void writeFrames(SampleMuxerSink<String> sink, int frames, int size) {
+        write(sink, 0, 16, SampleBufferInfo.FLAG_CODEC_CONFIG);
+        for (int i = 0; i < frames; i++) {
+            write(sink, i, size, i % 30 == 0 ? SampleBufferInfo.FLAG_KEY_FRAME : 0);
+        }
+    }
+
+    @Test
+    public void rotatesAtKeyFrameAfterDurationWithoutDroppingFrames() {
+        SampleSegmentingSink<String> sink = newSink(directExecutor);
+        sink.setSegmentDuration(2500000L); // 2.5s, rotation waits for key frame at 3s
+        sink.start("format");
+        writeFrames(sink, 300, 100);
+        sink.stop();
+
+        // 10s of video in 3s segments: 3 + 3 + 3 + 1
+        assertEquals(4, sink.getSegmentCount());
+        int total = 0;
+        for (int i = 0; i < 4; i++) {
+            FileSink segment = created.get(i);
+            assertTrue(segment.stopped);
+            assertTrue(segment.firstIsKeyFrame);
+            assertEquals(1, segment.configSamples);
+            total += segment.samples;
+        }
+        assertEquals(90, created.get(0).samples);
+        assertEquals(30, created.get(3).samples);
+        assertEquals(300, total);
+
+        // Segment opened ahead of time is released and removed
+        assertEquals(5, created.size());
+        assertFalse(created.get(4).started);
+        assertEquals(1, discarded);
+        assertFalse(created.get(4).file.exists());
+    }
+
+    @Test
+    public void listenerSeesStartAndFinishOfEverySegment() {
+        SampleSegmentingSink<String> sink = newSink(directExecutor);
+        sink.setSegmentDuration(2500000L);
+        final List<Long> starts = new ArrayList<Long>();
+        final List<File> finished = new ArrayList<File>();
+        sink.setSegmentListener(new SampleSegmentingSink.SegmentListener() {
+            @Override
+            public void onSegmentStarted(File file, long startUs) {
+                assertEquals(created.get(starts.size()).file, file);
+                starts.add(startUs);
+            }
+
+            @Override
+            public boolean onSegmentFull(File file, long timeUs) {
+                return true;
+            }
+
+            @Override
+            public void onSegmentFinished(File file, long durationUs, long bytes) {
+                finished.add(file);
+            }
+        });
+        sink.start("format");
+        writeFrames(sink, 300, 100);
+        sink.stop();
+
+        assertEquals(4, starts.size());
+        assertEquals(0L, (long) starts.get(0));
+        assertEquals(90 * FRAME_US, (long) starts.get(1));
+        assertEquals(4, finished.size());
+        assertEquals(created.get(3).file, finished.get(3));
+    }
+
+    @Test
+    public void listenerCanHoldRotation() {
+        SampleSegmentingSink<String> sink = newSink(directExecutor);
+        sink.setSegmentDuration(2500000L);
+        final List<Long> full = new ArrayList<Long>();
+        sink.setSegmentListener(new SampleSegmentingSink.SegmentListener() {
+            @Override
+            public void onSegmentStarted(File file, long startUs) {
+            }
+
+            @Override
+            public boolean onSegmentFull(File file, long timeUs) {
+                full.add(timeUs);
+                // First segment held off for one more GOP, e.g. while its encoder drains
+                return full.size() > 1;
+            }
+
+            @Override
+            public void onSegmentFinished(File file, long durationUs, long bytes) {
+            }
+        });
+        sink.start("format");
+        writeFrames(sink, 300, 100);
+        sink.stop();
+
+        assertEquals(90 * FRAME_US, (long) full.get(0));
+        assertEquals(120 * FRAME_US, (long) full.get(1));
+        assertEquals(120, created.get(0).samples);
+        assertTrue(created.get(1).firstIsKeyFrame);
+        assertEquals(3, sink.getSegmentCount());
+    }
+
+    @Test
+    public void rotatesOnSize() {
+        SampleSegmentingSink<String> sink = newSink(directExecutor);
+        sink.setSegmentDuration(0);
+        sink.setSegmentSize(3000); // reached after 30 frames of 100 bytes
+        sink.start("format");
+        writeFrames(sink, 300, 100);
+        sink.stop();
+
+        assertEquals(10, sink.getSegmentCount());
+        assertEquals(30, created.get(0).samples);
+    }
+
+    @Test
+    public void nextSegmentIsOpenedAhead() {
+        SampleSegmentingSink<String> sink = newSink(directExecutor);
+        sink.start("format");
+        // Current segment and the next one exist before any rotation
+        assertEquals(2, created.size());
+        assertTrue(created.get(0).started);
+        assertFalse(created.get(1).started);
+        sink.stop();
+    }
+
+    @Test
+    public void rotationDoesNotWaitForSlowStop() {
+        // Opening runs at once, stopping old segments is held back
+        Executor openOnly = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (command instanceof FutureTask) {
+                    command.run();
+                } else {
+                    backgroundTasks.add(command);
+                }
+            }
+        };
+        SampleSegmentingSink<String> sink = newSink(openOnly);
+        sink.setSegmentDuration(900000L);
+        sink.start("format");
+        writeFrames(sink, 61, 100);
+
+        // Rotated twice while stop of both old segments is still pending
+        assertEquals(2, sink.getSegmentCount());
+        assertTrue(created.get(2).started);
+        assertFalse(created.get(0).stopped);
+        assertFalse(created.get(1).stopped);
+        runQueued();
+        assertTrue(created.get(0).stopped);
+        assertTrue(created.get(1).stopped);
+        sink.stop();
+    }
+
+    private void runQueued() {
+        while (!backgroundTasks.isEmpty()) {
+            backgroundTasks.remove(0).run();
+        }
+    }
+
+    @Test
+    public void quotaDeletesOldestSegments() {
+        SampleSegmentingSink<String> sink = newSink(directExecutor);
+        sink.setSegmentDuration(900000L); // one key frame interval per segment
+        sink.setDiskQuota(3 * 3000L);     // 3 segments of 30 x 100 bytes
+        sink.start("format");
+        writeFrames(sink, 300, 100);
+        sink.stop();
+
+        assertEquals(10, sink.getSegmentCount());
+        assertEquals(7, sink.getDeletedCount());
+        List<File> kept = sink.getFinishedSegments();
+        assertEquals(3, kept.size());
+        assertEquals(created.get(7).file, kept.get(0));
+        assertFalse(created.get(0).file.exists());
+        assertTrue(created.get(9).file.exists());
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SampleStartupGraphTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+    // Runs tasks on the calling thread
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    private Runnable record(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void independentTasksOverlap() throws InterruptedException {
+        // Both tasks wait for each other, graph deadlocks if they run one after another
+        final CountDownLatch both = new CountDownLatch(2);
+        Runnable meet = new Runnable() {
+            @Override
+            public void run() {
+                both.countDown();
+                try {
+                    assertTrue(both.await(1, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        SampleStartupGraph graph = new SampleStartupGraph();
+        graph.add("camera", executor, meet);
+        graph.add("encoder", executor, meet);
+        graph.add("session", executor, record("session"), "camera", "encoder");
+        graph.start();
+        assertTrue(graph.await("session", 2000));
+        assertNull(graph.getFailure("session"));
+        assertTrue(graph.getTimeNs("session") >= graph.getTimeNs("camera"));
+        assertTrue(graph.getTimeNs("session") >= graph.getTimeNs("encoder"));
+    }
+
+    @Test
+    public void eventWaitsForDependenciesAndSignal() throws InterruptedException {
+        SampleStartupGraph graph = new SampleStartupGraph();
+        graph.add("open", DIRECT, record("open"));
+        graph.addEvent("opened", "open");
+        graph.addEvent("gl");
+        graph.add("session", DIRECT, record("session"), "opened", "gl");
+        // Signal before start is kept
+        graph.complete("gl");
+        graph.start();
+        assertTrue(graph.isFinished("gl"));
+        assertTrue(graph.isFinished("open"));
+        assertFalse(graph.isFinished("opened"));
+        graph.complete("opened");
+        graph.complete("opened");
+        assertTrue(graph.isFinished("session"));
+        assertEquals(2, order.size());
+        assertEquals("session", order.get(1));
+    }
+
+    @Test
+    public void failurePropagatesToDependents() {
+        final List<String> failed = new ArrayList<String>();
+        SampleStartupGraph graph = new SampleStartupGraph();
+        graph.setListener(new SampleStartupGraph.Listener() {
+            @Override
+            public void onNodeFinished(String name, long endNs, Throwable failure) {
+                if (failure != null) {
+                    failed.add(name);
+                }
+            }
+
+            @Override
+            public void onMarker(String name, long timeNs) {
+            }
+        });
+        graph.add("encoder", DIRECT, new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("no codec");
+            }
+        });
+        graph.add("analysis", DIRECT, record("analysis"));
+        graph.add("session", DIRECT, record("session"), "encoder", "analysis");
+        graph.add("recording", DIRECT, record("recording"), "session");
+        graph.start();
+        assertEquals("[encoder, session, recording]", failed.toString());
+        assertEquals("[analysis]", order.toString());
+        assertEquals("no codec", graph.getFailure("session").getCause().getMessage());
+    }
+
+    @Test
+    public void markersCountOnce() throws InterruptedException {
+        SampleStartupGraph graph = new SampleStartupGraph();
+        assertFalse(graph.await("firstFrame", 1));
+        graph.mark("firstFrame");
+        long first = graph.getTimeNs("firstFrame");
+        Thread.sleep(2);
+        graph.mark("firstFrame");
+        assertEquals(first, graph.getTimeNs("firstFrame"));
+        assertTrue(graph.await("firstFrame", 1));
+        assertTrue(graph.toString().contains("firstFrame"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownDependency() {
+        new SampleStartupGraph().add("session", DIRECT, record("session"), "camera");
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SampleStreamBudgetTest {
+    private static final long FRAME_30FPS_NS = 33333333L;
+    private static final long FRAME_15FPS_NS = 66666666L;
+    private static final int[] REGIONS = {1920, 1080, 480, 270};
+    private static final float[] WEIGHTS = {0.94f, 0.06f};
+
+    private SampleStreamBudget budget;
+
+    private void addSizes(SampleStreamBudget budget) {
+        // Back camera, 4K only at 15 fps
+        budget.add(0, 3840, 2160, FRAME_15FPS_NS);
+        budget.add(0, 1920, 1080, FRAME_30FPS_NS);
+        budget.add(0, 1280, 720, FRAME_30FPS_NS);
+        budget.add(0, 640, 480, FRAME_30FPS_NS);
+        // Front camera
+        budget.add(1, 1280, 720, FRAME_30FPS_NS);
+        budget.add(1, 640, 360, FRAME_30FPS_NS);
+        budget.add(1, 320, 240, FRAME_30FPS_NS);
+    }
+
+    @Before
+    public void setUp() {
+        budget = new SampleStreamBudget(1920L * 1080 * 30 * 2, 30);
+        addSizes(budget);
+    }
+
+    @Test
+    public void picksSmallestSizesCoveringRegions() {
+        int[] sizes = budget.select(REGIONS, WEIGHTS);
+        assertArrayEquals(new int[] {1920, 1080, 640, 360}, sizes);
+    }
+
+    @Test
+    public void tightBudgetStepsDownTheOverservedCameraFirst() {
+        SampleStreamBudget tight = new SampleStreamBudget(1920L * 1080 * 30, 30);
+        addSizes(tight);
+        // 1080p + 640x360 is over, the inset has more pixels per output area and goes down first,
+        // then the main camera
+        int[] sizes = tight.select(REGIONS, WEIGHTS);
+        assertArrayEquals(new int[] {1280, 720, 320, 240}, sizes);
+        assertTrue(tight.getPixelRate(sizes) <= 1920L * 1080 * 30);
+    }
+
+    @Test
+    public void stopsAtSmallestSizes() {
+        SampleStreamBudget tiny = new SampleStreamBudget(1000, 30);
+        addSizes(tiny);
+        assertArrayEquals(new int[] {640, 480, 320, 240}, tiny.select(REGIONS, WEIGHTS));
+    }
+
+    @Test
+    public void cameraWithoutSizeForFrameRateFails() {
+        SampleStreamBudget slow = new SampleStreamBudget(Long.MAX_VALUE, 30);
+        slow.add(0, 1920, 1080, FRAME_30FPS_NS);
+        slow.add(1, 3840, 2160, FRAME_15FPS_NS);
+        assertNull(slow.select(REGIONS, WEIGHTS));
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SampleTsPacketizerTest {
+    private static final byte[] CONFIG = {0, 0, 0, 1, 0x67, 0x42, 0, 0x1f, 0, 0, 0, 1, 0x68, (byte) 0xce};
+
+    private SampleTsPacketizer packetizer;
+    private ByteBuffer out;
+
+    @Before
+    public void setUp() {
+        packetizer = new SampleTsPacketizer();
+        packetizer.setCodecConfig(ByteBuffer.wrap(CONFIG));
+        out = ByteBuffer.allocate(packetizer.getMaxSize(10000));
+    }
+
+    private static ByteBuffer frame(int size, int nalHeader) {
+        ByteBuffer frame = ByteBuffer.allocate(size);
+        frame.putInt(1).put((byte) nalHeader);
+        frame.clear();
+        return frame;
+    }
+
+    private static int pid(ByteBuffer packets, int packet) {
+        int start = packet * SampleTsPacketizer.PACKET_SIZE;
+        return ((packets.get(start + 1) & 0x1f) << 8) | (packets.get(start + 2) & 0xff);
+    }
+
+    @Test
+    public void keyFrameStartsWithTablesAndPcr() {
+        ByteBuffer sample = frame(1000, 0x65);
+        int size = packetizer.packetize(sample, 1000000, true, out);
+        assertEquals(0, size % SampleTsPacketizer.PACKET_SIZE);
+        assertTrue(size <= packetizer.getMaxSize(1000));
+        assertEquals(0, sample.position());
+
+        assertEquals(SampleTsPacketizer.PID_PAT, pid(out, 0));
+        assertEquals(SampleTsPacketizer.PID_PMT, pid(out, 1));
+        assertEquals(SampleTsPacketizer.PID_VIDEO, pid(out, 2));
+        int first = 2 * SampleTsPacketizer.PACKET_SIZE;
+        // Unit start, adaptation field with random access and PCR
+        assertEquals(0x40, out.get(first + 1) & 0x40);
+        assertEquals(0x30, out.get(first + 3) & 0x30);
+        assertEquals(0x50, out.get(first + 5) & 0xff);
+        long pcrBase = ((out.getInt(first + 6) & 0xffffffffL) << 1) | ((out.get(first + 10) & 0x80) >> 7);
+        assertEquals(90000, pcrBase);
+        // PES header right after the adaptation field
+        int pes = first + 4 + 1 + (out.get(first + 4) & 0xff);
+        assertEquals(0x000001e0, out.getInt(pes));
+        long pts = ((long) (out.get(pes + 9) & 0x0e) << 29)
+                | ((long) (out.getShort(pes + 10) & 0xfffe) << 14)
+                | ((out.getShort(pes + 12) & 0xfffe) >> 1);
+        assertEquals(90000 + SampleTsPacketizer.PTS_DELAY, pts);
+        // Access unit delimiter, then SPS and PPS
+        assertEquals(0x09, out.get(pes + 18));
+        assertEquals(0x67, out.get(pes + 24));
+    }
+
+    @Test
+    public void tablesHaveValidCrc() {
+        packetizer.packetize(frame(100, 0x65), 0, true, out);
+        for (int packet = 0; packet < 2; packet++) {
+            int section = packet * SampleTsPacketizer.PACKET_SIZE + 5;
+            int end = section + 3 + (out.getShort(section + 1) & 0x0fff);
+            assertEquals(out.getInt(end - 4), SampleTsPacketizer.crc32(out, section, end - 4));
+        }
+    }
+
+    @Test
+    public void nonKeyFrameHasNoTablesAndCountersContinue() {
+        packetizer.packetize(frame(5000, 0x65), 0, true, out);
+        int keyPackets = out.position() / SampleTsPacketizer.PACKET_SIZE;
+        packetizer.packetize(frame(500, 0x41), 33333, false, out);
+        out.flip();
+        int packets = out.limit() / SampleTsPacketizer.PACKET_SIZE;
+        assertEquals(SampleTsPacketizer.PID_VIDEO, pid(out, keyPackets));
+        int expected = 0;
+        for (int packet = 2; packet < packets; packet++) {
+            int start = packet * SampleTsPacketizer.PACKET_SIZE;
+            assertEquals(0x47, out.get(start));
+            assertEquals(expected, out.get(start + 3) & 0x0f);
+            expected = (expected + 1) & 0x0f;
+        }
+    }
+
+    @Test
+    public void lastPacketIsStuffedToFullSize() {
+        // Every payload size must end in whole packets, one stuffing byte included
+        for (int size = 150; size < 560; size++) {
+            out.clear();
+            int written = packetizer.packetize(frame(size, 0x41), 0, false, out);
+            assertEquals(0, written % SampleTsPacketizer.PACKET_SIZE);
+            int last = written - SampleTsPacketizer.PACKET_SIZE;
+            assertEquals(0x47, out.get(last));
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.mobile.samplecamera2;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SampleTsStreamSinkTest {
+    private static final int GOP = 10;
+
+    private final SampleBufferInfo info = new SampleBufferInfo();
+    private TsLoopbackReceiver receiver = null;
+
+    // Channel of a congested network: takes budget bytes, then nothing until more budget is given
+    class CongestedChannel implements WritableByteChannel {
+        int budget = 0;
+        boolean open = true;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = Math.min(budget, src.remaining());
+            src.position(src.position() + n);
+            budget -= n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        if (receiver != null) {
+            receiver.close();
+        }
+    }
+
+    private void writeConfig(SampleTsStreamSink<String> sink) {
+        ByteBuffer config = ByteBuffer.wrap(new byte[] {0, 0, 0, 1, 0x67, 0x42, 0, 0x1f, 0, 0, 0, 1, 0x68, 1});
+        info.set(0, config.remaining(), 0, SampleBufferInfo.FLAG_CODEC_CONFIG);
+        sink.writeSampleData(config, info);
+    }
+
+    // Frame n: key frame every GOP, odd frames are non-reference
+    private void writeFrame(SampleTsStreamSink<String> sink, int n, int size, long timeUs) {
+        boolean keyFrame = n % GOP == 0;
+        ByteBuffer frame = ByteBuffer.allocate(size);
+        frame.putInt(1).put((byte) (keyFrame ? 0x65 : (n % 2 == 1 ? 0x01 : 0x41)));
+        frame.clear();
+        info.set(0, size, timeUs, keyFrame ? SampleBufferInfo.FLAG_KEY_FRAME : 0);
+        sink.writeSampleData(frame, info);
+    }
+
+    private void streamToReceiver(boolean udp) throws Exception {
+        receiver = new TsLoopbackReceiver(udp);
+        SampleTsStreamSink<String> sink = udp
+                ? SampleTsStreamSink.<String>openUdp(receiver.getAddress(), 1024 * 1024)
+                : SampleTsStreamSink.<String>openTcp(receiver.getAddress(), 1024 * 1024);
+        sink.start("video/avc");
+        writeConfig(sink);
+        for (int n = 0; n < 30; n++) {
+            writeFrame(sink, n, 3000, System.nanoTime() / 1000);
+            Thread.sleep(2);
+        }
+        sink.stop();
+
+        assertTrue(receiver.awaitFrames(30, 2000));
+        assertEquals(30, sink.getSentFrames());
+        assertEquals(0, sink.getDroppedFrames());
+        assertEquals(0, receiver.getSyncErrors());
+        assertEquals(0, receiver.getContinuityErrors());
+        assertEquals(0, receiver.getCrcErrors());
+        assertEquals(6, receiver.getTables());
+        assertEquals(3, receiver.getRandomAccessPoints());
+        List<Long> latencies = receiver.getLatenciesUs();
+        for (long latency : latencies) {
+            // Loopback, nothing queued: well below a frame interval
+            assertTrue("latency " + latency, latency < 33333);
+        }
+    }
+
+    @Test
+    public void streamsOverTcpWithoutErrors() throws Exception {
+        streamToReceiver(false);
+    }
+
+    @Test
+    public void streamsOverUdpWithoutErrors() throws Exception {
+        streamToReceiver(true);
+    }
+
+    @Test
+    public void congestionDropsNonReferenceFramesFirst() {
+        CongestedChannel channel = new CongestedChannel();
+        SampleTsStreamSink<String> sink = new SampleTsStreamSink<String>(channel, 0, 20000);
+        writeConfig(sink);
+        // Nothing goes out, 5 frames of about 3.5KB fill the queue
+        for (int n = 0; n < 9; n++) {
+            writeFrame(sink, n, 3000, n * 33333);
+        }
+        // Non-reference frame 5 is dropped when arriving, 1 and 3 for reference frame 6, 7 for 8
+        assertEquals(4, sink.getDroppedFrames());
+        assertTrue(sink.getQueuedBytes() <= 20000);
+
+        channel.budget = Integer.MAX_VALUE;
+        sink.stop();
+        assertEquals(5, sink.getSentFrames());
+        assertEquals(4, sink.getDroppedFrames());
+    }
+
+    @Test
+    public void droppedReferenceFrameWaitsForKeyFrame() {
+        CongestedChannel channel = new CongestedChannel();
+        SampleTsStreamSink<String> sink = new SampleTsStreamSink<String>(channel, 0, 10000);
+        final int[] requests = new int[1];
+        sink.setKeyFrameRequestListener(new SampleTsStreamSink.KeyFrameRequestListener() {
+            @Override
+            public void onKeyFrameRequest() {
+                requests[0]++;
+            }
+        });
+        writeConfig(sink);
+        for (int n = 0; n < 10; n++) {
+            writeFrame(sink, n, 3000, n * 33333);
+        }
+        assertEquals(1, requests[0]);
+        long dropped = sink.getDroppedFrames();
+
+        // Network is back, frames still wait for the key frame
+        channel.budget = Integer.MAX_VALUE;
+        writeFrame(sink, 11, 3000, 11 * 33333);
+        assertEquals(dropped + 1, sink.getDroppedFrames());
+        writeFrame(sink, 20, 3000, 20 * 33333);
+        writeFrame(sink, 21, 3000, 21 * 33333);
+        assertEquals(dropped + 1, sink.getDroppedFrames());
+        assertEquals(0, sink.getQueuedBytes());
+    }
+
+    @Test
+    public void keyFrameReplacesStaleQueue() {
+        CongestedChannel channel = new CongestedChannel();
+        SampleTsStreamSink<String> sink = new SampleTsStreamSink<String>(channel, 0, 10000);
+        writeConfig(sink);
+        writeFrame(sink, 0, 3000, 0);
+        writeFrame(sink, 2, 3000, 2 * 33333);
+        // Dropped, part of the first frame is sent then
+        channel.budget = 1000;
+        writeFrame(sink, 3, 3000, 3 * 33333);
+        assertEquals(1, sink.getDroppedFrames());
+        // Frame 2 goes, the first frame stays in the queue until sent completely
+        writeFrame(sink, 10, 8000, 10 * 33333);
+        assertEquals(2, sink.getDroppedFrames());
+
+        channel.budget = Integer.MAX_VALUE;
+        sink.stop();
+        assertEquals(2, sink.getSentFrames());
+        assertEquals(2, sink.getDroppedFrames());
+    }
+
+    @Test
+    public void nonBlockingWritesNeverStall() {
+        CongestedChannel channel = new CongestedChannel();
+        SampleTsStreamSink<String> sink = new SampleTsStreamSink<String>(channel, 0, 100000);
+        writeConfig(sink);
+        long start = System.nanoTime();
+        for (int n = 0; n < 1000; n++) {
+            writeFrame(sink, n, 3000, n * 33333);
+        }
+        assertTrue(System.nanoTime() - start < 2000 * 1000000L);
+        assertTrue(sink.getQueuedBytes() <= 100000);
+        sink.stop();
+        assertFalse(channel.isOpen());
+    }
+}
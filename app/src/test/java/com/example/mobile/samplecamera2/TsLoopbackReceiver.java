@@ -0,0 +1,222 @@
+package com.example.mobile.samplecamera2;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+//
+// MPEG-TS receiver on the loopback interface for JVM tests, TCP (one connection) or UDP.
+// Checks sync bytes, continuity counters and PAT/PMT CRCs, and measures the latency of every
+// access unit: receive time minus frame time, taken from PES PTS minus PTS_DELAY. Frame times
+// must be System.nanoTime() / 1000 for that.
+//
+
+public class TsLoopbackReceiver {
+    private static final int PACKET_SIZE = SampleTsPacketizer.PACKET_SIZE;
+    private static final long PTS_MASK = 0x1ffffffffL;
+
+    private final ServerSocketChannel server;
+    private final DatagramChannel datagram;
+    private final Thread thread;
+    private final int[] continuityCounters = new int[0x2000];
+    private volatile ByteChannel connection = null;
+
+    private int packets = 0;
+    private int syncErrors = 0;
+    private int continuityErrors = 0;
+    private int crcErrors = 0;
+    private int tables = 0;
+    private int randomAccessPoints = 0;
+    private final List<Long> latenciesUs = new ArrayList<Long>();
+    private final List<Long> frameTimes90kHz = new ArrayList<Long>();
+
+    public TsLoopbackReceiver(boolean udp) throws IOException {
+        Arrays.fill(continuityCounters, -1);
+        InetSocketAddress any = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        if (udp) {
+            server = null;
+            datagram = DatagramChannel.open();
+            datagram.bind(any);
+        } else {
+            server = ServerSocketChannel.open();
+            server.bind(any);
+            datagram = null;
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receive();
+            }
+        }, "TsLoopbackReceiver");
+        thread.start();
+    }
+
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) (server != null ? server.getLocalAddress() : datagram.getLocalAddress());
+    }
+
+    private void receive() {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * PACKET_SIZE);
+        try {
+            if (server != null) {
+                connection = server.accept();
+            }
+            while (read(buffer)) {
+                buffer.flip();
+                // Resync on the next sync byte after garbage
+                while (buffer.remaining() > 0 && buffer.get(buffer.position()) != 0x47) {
+                    buffer.get();
+                    countSyncError();
+                }
+                while (buffer.remaining() >= PACKET_SIZE) {
+                    int start = buffer.position();
+                    if (buffer.get(start) != 0x47) {
+                        buffer.get();
+                        countSyncError();
+                        continue;
+                    }
+                    onPacket(buffer, start);
+                    buffer.position(start + PACKET_SIZE);
+                }
+                buffer.compact();
+            }
+        } catch (ClosedChannelException e) {
+            // close()
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Stream bytes or one datagram, false at end of stream
+    private boolean read(ByteBuffer buffer) throws IOException {
+        if (datagram != null) {
+            datagram.receive(buffer);
+            return true;
+        }
+        return connection.read(buffer) >= 0;
+    }
+
+    private synchronized void countSyncError() {
+        syncErrors++;
+    }
+
+    private synchronized void onPacket(ByteBuffer packet, int start) {
+        packets++;
+        int pid = ((packet.get(start + 1) & 0x1f) << 8) | (packet.get(start + 2) & 0xff);
+        boolean unitStart = (packet.get(start + 1) & 0x40) != 0;
+        int control = (packet.get(start + 3) >> 4) & 3;
+        int counter = packet.get(start + 3) & 0x0f;
+        int payload = start + 4;
+        if ((control & 2) != 0) {
+            int length = packet.get(payload) & 0xff;
+            if (length > 0 && (packet.get(payload + 1) & 0x40) != 0) {
+                randomAccessPoints++;
+            }
+            payload += 1 + length;
+        }
+        if ((control & 1) == 0) {
+            return;
+        }
+        int last = continuityCounters[pid];
+        if (last >= 0 && counter != ((last + 1) & 0x0f)) {
+            continuityErrors++;
+        }
+        continuityCounters[pid] = counter;
+        if (!unitStart) {
+            return;
+        }
+        if (pid == SampleTsPacketizer.PID_PAT || pid == SampleTsPacketizer.PID_PMT) {
+            int section = payload + 1 + (packet.get(payload) & 0xff);
+            int length = packet.getShort(section + 1) & 0x0fff;
+            int end = section + 3 + length;
+            if (SampleTsPacketizer.crc32(packet, section, end - 4) != packet.getInt(end - 4)) {
+                crcErrors++;
+            }
+            tables++;
+        } else if (pid == SampleTsPacketizer.PID_VIDEO) {
+            onPesStart(packet, payload);
+        }
+    }
+
+    private void onPesStart(ByteBuffer packet, int pes) {
+        long nowUs = System.nanoTime() / 1000;
+        int p = pes + 9;
+        long pts = ((long) (packet.get(p) & 0x0e) << 29)
+                | ((long) (packet.getShort(p + 1) & 0xfffe) << 14)
+                | ((packet.getShort(p + 3) & 0xfffe) >> 1);
+        long frameTime = (pts - SampleTsPacketizer.PTS_DELAY) & PTS_MASK;
+        frameTimes90kHz.add(frameTime);
+        long latency = ((nowUs * 9 / 100) - frameTime) & PTS_MASK;
+        latenciesUs.add(latency * 100 / 9);
+    }
+
+    public synchronized int getPackets() {
+        return packets;
+    }
+
+    public synchronized int getSyncErrors() {
+        return syncErrors;
+    }
+
+    public synchronized int getContinuityErrors() {
+        return continuityErrors;
+    }
+
+    public synchronized int getCrcErrors() {
+        return crcErrors;
+    }
+
+    // PAT and PMT sections received
+    public synchronized int getTables() {
+        return tables;
+    }
+
+    public synchronized int getRandomAccessPoints() {
+        return randomAccessPoints;
+    }
+
+    public synchronized List<Long> getLatenciesUs() {
+        return new ArrayList<Long>(latenciesUs);
+    }
+
+    // Frame time of every access unit, in 90kHz
+    public synchronized List<Long> getFrameTimes() {
+        return new ArrayList<Long>(frameTimes90kHz);
+    }
+
+    // Wait until count access units arrived, false on timeout
+    public boolean awaitFrames(int count, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (this) {
+                if (frameTimes90kHz.size() >= count) {
+                    return true;
+                }
+            }
+            Thread.sleep(5);
+        }
+        return false;
+    }
+
+    public void close() throws IOException, InterruptedException {
+        if (server != null) {
+            server.close();
+        }
+        ByteChannel channel = connection;
+        if (channel != null) {
+            channel.close();
+        }
+        if (datagram != null) {
+            datagram.close();
+        }
+        thread.join(1000);
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.mobile.samplecamera2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+//
+// Pooled readback buffer against a fresh direct allocation per frame
+// size: one encoded sample, one 1280x720 RGBA readback
+//
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SampleBufferPoolBenchmark {
+    @Param({"4096", "3686400"})
+    int size;
+
+    private SampleBufferPool pool;
+
+    @Setup
+    public void setUp() {
+        pool = new SampleBufferPool(2);
+    }
+
+    @Benchmark
+    public ByteBuffer pooled() {
+        ByteBuffer buffer = pool.acquire(size, "benchmark");
+        pool.release(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer allocateDirect() {
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    }
+}
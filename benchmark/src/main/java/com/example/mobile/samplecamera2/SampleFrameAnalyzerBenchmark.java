@@ -0,0 +1,81 @@
+package com.example.mobile.samplecamera2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+//
+// Frame analysis kernels on a synthetic Y plane, by stripe count
+// pixelStride 2 is the Y plane layout of some semi-planar camera buffers.
+//
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SampleFrameAnalyzerBenchmark {
+    @Param({"640x480", "1280x720"})
+    String resolution;
+
+    @Param({"1", "2", "4"})
+    int stripes;
+
+    @Param({"1", "2"})
+    int pixelStride;
+
+    private ExecutorService executor;
+    private SampleFrameAnalyzer analyzer;
+    private final SampleFrameStats stats = new SampleFrameStats();
+    private final ByteBuffer[] planes = new ByteBuffer[2];
+    private int rowStride;
+    private int frame = 0;
+
+    @Setup
+    public void setUp() {
+        String[] size = resolution.split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        // Row padding as camera HALs align rows
+        rowStride = (width * pixelStride + 63) & ~63;
+        Random random = new Random(0);
+        for (int i = 0; i < planes.length; i++) {
+            planes[i] = ByteBuffer.allocateDirect((height - 1) * rowStride + (width - 1) * pixelStride + 1);
+            for (int j = 0; j < planes[i].capacity(); j++) {
+                planes[i].put(j, (byte) random.nextInt(256));
+            }
+        }
+        executor = stripes > 1 ? Executors.newFixedThreadPool(stripes - 1) : null;
+        analyzer = new SampleFrameAnalyzer(width, height, stripes, executor);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    // Alternating planes so motion compares different frames
+    @Benchmark
+    public SampleFrameStats analyze() {
+        analyzer.analyze(planes[frame++ & 1], rowStride, pixelStride, frame, stats);
+        return stats;
+    }
+}
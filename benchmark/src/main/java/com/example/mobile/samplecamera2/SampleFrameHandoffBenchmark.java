@@ -0,0 +1,57 @@
+package com.example.mobile.samplecamera2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+//
+// Frame hand-off between onFrameAvailable() thread and GL thread
+// handoff: both sides contending on the same SampleFrameHandoff
+// uncontended: one thread, cost of the atomics alone
+//
+
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SampleFrameHandoffBenchmark {
+    private final SampleFrameHandoff handoff = new SampleFrameHandoff();
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public boolean frameAvailable() {
+        return handoff.frameAvailable();
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public int draw() {
+        int latched = handoff.beginDraw();
+        handoff.endDraw(latched, latched > 0 ? 1 : 0);
+        return latched;
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    @GroupThreads(1)
+    public int availableThenDraw() {
+        handoff.frameAvailable();
+        int latched = handoff.beginDraw();
+        handoff.endDraw(latched, latched);
+        return latched;
+    }
+}
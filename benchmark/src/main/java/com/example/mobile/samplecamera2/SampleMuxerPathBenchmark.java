@@ -0,0 +1,120 @@
+package com.example.mobile.samplecamera2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+//
+// One encoded sample from codec callback to muxer: SampleEncoderDrain with a fake codec and a
+// sink counting bytes instead of MediaMuxer
+// sinks: muxer only, muxer plus pre-event ring buffer (the tee used by SampleMediaEncoder)
+//
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SampleMuxerPathBenchmark {
+    private static final int FRAME_RATE = 30;
+    private static final int SAMPLE_SIZE = 5200; // 1.25Mbps at 30fps
+
+    @Param({"muxer", "preEvent"})
+    String sinks;
+
+    private final SampleBufferInfo info = new SampleBufferInfo();
+    private SampleEncoderDrain<String> drain;
+    private long frame = 0;
+
+    static class FakeCodec implements SampleEncoderCodec<String> {
+        final ByteBuffer output = ByteBuffer.allocateDirect(SAMPLE_SIZE * 4);
+
+        @Override
+        public void setCallback(Callback callback) {
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void signalEndOfInputStream() {
+        }
+
+        @Override
+        public String getOutputFormat() {
+            return "video/avc";
+        }
+
+        @Override
+        public ByteBuffer getOutputBuffer(int index) {
+            output.clear();
+            return output;
+        }
+
+        @Override
+        public void releaseOutputBuffer(int index) {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    static class CountingSink implements SampleMuxerSink<String> {
+        long bytes = 0;
+
+        @Override
+        public void start(String format) {
+        }
+
+        @Override
+        public void writeSampleData(ByteBuffer data, SampleBufferInfo info) {
+            bytes += data.remaining();
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        SampleMuxerSink<String> sink = new CountingSink();
+        if ("preEvent".equals(sinks)) {
+            SampleEncodedRingBuffer ringBuffer = new SampleEncodedRingBuffer(
+                    SAMPLE_SIZE * FRAME_RATE * 15, FRAME_RATE * 30, 15 * 1000000L);
+            sink = new SampleTeeSink<String>(Arrays.<SampleMuxerSink<String>>asList(
+                    sink, new SamplePreEventRecorder<String>(ringBuffer)));
+        }
+        drain = new SampleEncoderDrain<String>(new FakeCodec(), sink);
+        drain.start(0);
+        drain.onOutputFormatChanged();
+    }
+
+    @Benchmark
+    public long writeSample() {
+        int flags = frame % FRAME_RATE == 0 ? SampleBufferInfo.FLAG_KEY_FRAME : 0;
+        info.set(0, SAMPLE_SIZE, frame * 1000000L / FRAME_RATE, flags);
+        frame++;
+        drain.onOutputBufferAvailable(0, info);
+        return drain.getBytesWritten();
+    }
+}
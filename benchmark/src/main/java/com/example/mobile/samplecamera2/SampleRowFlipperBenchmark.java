@@ -0,0 +1,51 @@
+package com.example.mobile.samplecamera2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+//
+// Readback conversion: vertical flip of a glReadPixels() RGBA frame before Bitmap copy
+//
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SampleRowFlipperBenchmark {
+    @Param({"1280x720", "1920x1080"})
+    String resolution;
+
+    private final SampleRowFlipper flipper = new SampleRowFlipper();
+    private ByteBuffer pixels;
+    private int stride;
+    private int rows;
+
+    @Setup
+    public void setUp() {
+        String[] size = resolution.split("x");
+        stride = Integer.parseInt(size[0]) * 4;
+        rows = Integer.parseInt(size[1]);
+        pixels = ByteBuffer.allocateDirect(stride * rows).order(ByteOrder.nativeOrder());
+    }
+
+    @Benchmark
+    public ByteBuffer flip() {
+        flipper.flip(pixels, stride, rows);
+        return pixels;
+    }
+}